@@ -0,0 +1,92 @@
+package de.jungblut.jrpt.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.jungblut.jrpt.distance.EuclidianDistance;
+import de.jungblut.jrpt.distance.SparseEntries;
+import de.jungblut.math.DoubleVector;
+
+/**
+ * Measures the euclidian distance between two vectors on the different paths:
+ * plain arrays, dense and sparse vectors and the sorted entries of sparse
+ * vectors that the trees store.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EuclidianDistanceBenchmark {
+
+  @Param({ "2", "3", "16", "128" })
+  public int dimension;
+
+  private final EuclidianDistance distance = EuclidianDistance.get();
+
+  private double[] array1;
+  private double[] array2;
+  private DoubleVector dense1;
+  private DoubleVector dense2;
+  private DoubleVector sparse1;
+  private DoubleVector sparse2;
+  private SparseEntries entries1;
+  private SparseEntries entries2;
+  // half of the squared distance, so the bounded distance stops early
+  private double bound;
+
+  @Setup(Level.Trial)
+  public void generate() {
+    Random rand = new Random(SyntheticData.DATA_SEED);
+    dense1 = SyntheticData.vector(rand, dimension, "dense");
+    dense2 = SyntheticData.vector(rand, dimension, "dense");
+    array1 = dense1.toArray();
+    array2 = dense2.toArray();
+    sparse1 = SyntheticData.vector(rand, dimension, "sparse");
+    sparse2 = SyntheticData.vector(rand, dimension, "sparse");
+    entries1 = SparseEntries.of(sparse1);
+    entries2 = SparseEntries.of(sparse2);
+    bound = distance.measureRankDistance(array1, array2) / 2d;
+  }
+
+  @Benchmark
+  public double arrays() {
+    return distance.measureDistance(array1, array2);
+  }
+
+  @Benchmark
+  public double boundedArrays() {
+    return distance.measureBoundedRankDistance(array1, array2, bound);
+  }
+
+  @Benchmark
+  public double denseVectors() {
+    return distance.measureDistance(dense1, dense2);
+  }
+
+  @Benchmark
+  public double sparseVectors() {
+    return distance.measureDistance(sparse1, sparse2);
+  }
+
+  @Benchmark
+  public double sparseEntries() {
+    return distance.measureBoundedRankDistance(entries1, entries2,
+        Double.MAX_VALUE);
+  }
+
+}
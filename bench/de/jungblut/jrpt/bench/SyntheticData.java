@@ -0,0 +1,89 @@
+package de.jungblut.jrpt.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.base.Preconditions;
+
+import de.jungblut.jrpt.ANNTree;
+import de.jungblut.jrpt.rules.KDTreeSplitPolicy;
+import de.jungblut.jrpt.rules.RPTreeMaxSplitPolicy;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.dense.DenseDoubleVector;
+import de.jungblut.math.sparse.SparseDoubleVector;
+
+/**
+ * Seeded generators of synthetic vectors and trees for the benchmarks, so
+ * every run measures the same data.
+ */
+public final class SyntheticData {
+
+  /** the seed of the vectors that are added to the trees. */
+  public static final long DATA_SEED = 42L;
+  /** the seed of the query vectors. */
+  public static final long QUERY_SEED = 1337L;
+
+  private SyntheticData() {
+    throw new IllegalAccessError();
+  }
+
+  /**
+   * @param seed the seed of the generator.
+   * @param size the number of vectors.
+   * @param dimension the dimension of the vectors.
+   * @param type "dense" or "sparse".
+   * @return the generated vectors.
+   */
+  public static List<DoubleVector> vectors(long seed, int size, int dimension,
+      String type) {
+    Random rand = new Random(seed);
+    List<DoubleVector> list = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      list.add(vector(rand, dimension, type));
+    }
+    return list;
+  }
+
+  /**
+   * @return a dense vector uniformly distributed in [0, 1) or a sparse vector
+   *         with a quarter of its entries (at least one) in [0, 1).
+   */
+  public static DoubleVector vector(Random rand, int dimension, String type) {
+    switch (type) {
+      case "dense":
+        DoubleVector dense = new DenseDoubleVector(dimension);
+        for (int d = 0; d < dimension; d++) {
+          dense.set(d, rand.nextDouble());
+        }
+        return dense;
+      case "sparse":
+        DoubleVector sparse = new SparseDoubleVector(dimension);
+        final int nonZeros = Math.max(1, dimension / 4);
+        for (int i = 0; i < nonZeros; i++) {
+          sparse.set(rand.nextInt(dimension), rand.nextDouble());
+        }
+        return sparse;
+      default:
+        throw new IllegalArgumentException("unknown vector type: " + type);
+    }
+  }
+
+  /**
+   * @param splitPolicy "kd" or "rp".
+   * @return a new empty tree with the given split policy.
+   */
+  public static ANNTree<Integer> tree(String splitPolicy) {
+    Preconditions.checkNotNull(splitPolicy, "splitPolicy");
+    switch (splitPolicy) {
+      case "kd":
+        return new ANNTree<>(new KDTreeSplitPolicy<>());
+      case "rp":
+        return new ANNTree<>(new RPTreeMaxSplitPolicy<>(new Random(DATA_SEED)));
+      default:
+        throw new IllegalArgumentException("unknown split policy: "
+            + splitPolicy);
+    }
+  }
+
+}
@@ -0,0 +1,97 @@
+package de.jungblut.jrpt.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.jungblut.jrpt.ANNTree;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.tuple.Tuple;
+
+/**
+ * Measures the construction of a whole tree: adding the vectors one by one,
+ * adding them as a stream and balancing a tree that was built by adding.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TreeBuildBenchmark {
+
+  @Param({ "2", "3", "16", "128" })
+  public int dimension;
+
+  // larger sizes up to 10^7 with -p size=100000,1000000,10000000 and -Xmx
+  @Param({ "10000" })
+  public int size;
+
+  @Param({ "dense", "sparse" })
+  public String vectors;
+
+  @Param({ "kd", "rp" })
+  public String splitPolicy;
+
+  private List<DoubleVector> data;
+
+  /**
+   * A tree that contains all vectors before every invocation.
+   */
+  @State(Scope.Benchmark)
+  public static class FilledTree {
+
+    private ANNTree<Integer> tree;
+
+    @Setup(Level.Invocation)
+    public void fill(TreeBuildBenchmark benchmark) {
+      tree = SyntheticData.tree(benchmark.splitPolicy);
+      for (int i = 0; i < benchmark.size; i++) {
+        tree.add(benchmark.data.get(i), i);
+      }
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void generate() {
+    data = SyntheticData.vectors(SyntheticData.DATA_SEED, size, dimension,
+        vectors);
+  }
+
+  @Benchmark
+  public ANNTree<Integer> add() {
+    ANNTree<Integer> tree = SyntheticData.tree(splitPolicy);
+    for (int i = 0; i < size; i++) {
+      tree.add(data.get(i), i);
+    }
+    return tree;
+  }
+
+  @Benchmark
+  public ANNTree<Integer> addStream() {
+    ANNTree<Integer> tree = SyntheticData.tree(splitPolicy);
+    tree.addStream(IntStream.range(0, size).mapToObj(
+        (i) -> new Tuple<>(data.get(i), i)));
+    return tree;
+  }
+
+  @Benchmark
+  public ANNTree<Integer> balance(FilledTree filled) {
+    filled.tree.balance();
+    return filled.tree;
+  }
+
+}
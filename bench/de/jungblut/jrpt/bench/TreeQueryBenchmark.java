@@ -0,0 +1,111 @@
+package de.jungblut.jrpt.bench;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.jungblut.jrpt.ANNTree;
+import de.jungblut.jrpt.VectorDistanceTuple;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.tuple.Tuple;
+
+/**
+ * Measures the searches on a balanced tree. The queries cycle through a fixed
+ * set of seeded vectors, the radius and the range of every query are chosen
+ * to contain about k vectors.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TreeQueryBenchmark {
+
+  private static final int NUM_QUERIES = 1024;
+  private static final int K = 10;
+
+  @Param({ "2", "3", "16", "128" })
+  public int dimension;
+
+  // larger sizes up to 10^7 with -p size=100000,1000000,10000000 and -Xmx
+  @Param({ "10000" })
+  public int size;
+
+  @Param({ "dense", "sparse" })
+  public String vectors;
+
+  @Param({ "kd", "rp" })
+  public String splitPolicy;
+
+  private ANNTree<Integer> tree;
+  private DoubleVector[] queries;
+  private double[] radii;
+  private DoubleVector[] lower;
+  private DoubleVector[] upper;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void build() {
+    final List<DoubleVector> data = SyntheticData.vectors(
+        SyntheticData.DATA_SEED, size, dimension, vectors);
+    tree = SyntheticData.tree(splitPolicy);
+    tree.bulkLoad(IntStream.range(0, size).mapToObj(
+        (i) -> new Tuple<>(data.get(i), i)));
+
+    Random rand = new Random(SyntheticData.QUERY_SEED);
+    queries = new DoubleVector[NUM_QUERIES];
+    radii = new double[NUM_QUERIES];
+    lower = new DoubleVector[NUM_QUERIES];
+    upper = new DoubleVector[NUM_QUERIES];
+    // the side of a cube that contains k of the uniformly distributed vectors
+    final double side = Math.pow((double) K / size, 1d / dimension);
+    for (int i = 0; i < NUM_QUERIES; i++) {
+      DoubleVector query = SyntheticData.vector(rand, dimension, vectors);
+      queries[i] = query;
+      List<VectorDistanceTuple<Integer>> neighbours = tree
+          .getNearestNeighbours(query, K);
+      radii[i] = neighbours.get(neighbours.size() - 1).getDistance();
+      lower[i] = query.subtract(side / 2d);
+      upper[i] = query.add(side / 2d);
+    }
+  }
+
+  @Benchmark
+  public List<VectorDistanceTuple<Integer>> nearestNeighbours() {
+    return tree.getNearestNeighbours(queries[nextQuery()], K);
+  }
+
+  @Benchmark
+  public List<VectorDistanceTuple<Integer>> radiusSearch() {
+    final int query = nextQuery();
+    return tree.getNearestNeighbours(queries[query], radii[query]);
+  }
+
+  @Benchmark
+  public List<VectorDistanceTuple<Integer>> rangeQuery() {
+    final int query = nextQuery();
+    return tree.rangeQuery(lower[query], upper[query]);
+  }
+
+  private int nextQuery() {
+    final int query = next;
+    next = (query + 1) % NUM_QUERIES;
+    return query;
+  }
+
+}
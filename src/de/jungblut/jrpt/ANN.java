@@ -17,6 +17,7 @@ import de.jungblut.math.DoubleVector;
  * matching the search criterion</li>
  * <li>Vectors added must have the same dimension across all inserts and lookups
  * </li>
+ * <li>Removed vectors are never returned by lookups</li>
  * </ul>
  * 
  * @param <T> the payload type for the data structure.
@@ -25,13 +26,20 @@ public interface ANN<T> extends ANNConstruction<T>, ANNSearch<T>,
     Iterable<DoubleVector> {
 
   /**
-   * @return the size of the tree.
+   * @return the size of the tree, without the removed vectors.
    */
   public int size();
 
   /**
-   * Balances this tree by sorting along the split dimensions and rebuilding the
-   * entire tree.
+   * @return the number of removed vectors that are still kept in the tree and
+   *         skipped by the searches until the next compaction, by default 0.
+   */
+  public default int tombstones() {
+    return 0;
+  }
+
+  /**
+   * Balances this tree by rebuilding the entire tree with median splits.
    */
   public void balance();
 
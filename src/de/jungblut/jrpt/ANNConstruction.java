@@ -31,4 +31,39 @@ public interface ANNConstruction<VALUE> {
    */
   public void addStream(Stream<Tuple<DoubleVector, VALUE>> pairs);
 
+  /**
+   * Removes a vector that was added with the given payload. If it was added
+   * multiple times with the same payload, only one of them is removed. By
+   * default removals are not supported.
+   * 
+   * @param v the non-null vector.
+   * @param payload the maybe null payload of the vector.
+   * @return true if the vector was found and removed.
+   * @throws UnsupportedOperationException if removals are not supported.
+   */
+  public default boolean remove(DoubleVector v, VALUE payload) {
+    throw new UnsupportedOperationException(getClass().getSimpleName()
+        + " doesn't support removals");
+  }
+
+  /**
+   * Moves a vector that was added with the given payload to a new vector and
+   * payload, this is a removal followed by an add.
+   * 
+   * @param v the non-null vector to move.
+   * @param payload the maybe null payload of the vector to move.
+   * @param newVector the non-null new vector.
+   * @param newPayload the maybe null new payload.
+   * @return true if the vector was found and moved, false if nothing changed.
+   * @throws UnsupportedOperationException if removals are not supported.
+   */
+  public default boolean update(DoubleVector v, VALUE payload,
+      DoubleVector newVector, VALUE newPayload) {
+    if (!remove(v, payload)) {
+      return false;
+    }
+    add(newVector, newPayload);
+    return true;
+  }
+
 }
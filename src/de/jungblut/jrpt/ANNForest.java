@@ -0,0 +1,340 @@
+package de.jungblut.jrpt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterators;
+
+import de.jungblut.jrpt.ANNTree.TreeNode;
+import de.jungblut.jrpt.distance.DistanceMeasurer;
+import de.jungblut.jrpt.distance.EuclidianDistance;
+import de.jungblut.jrpt.distance.SparseEntries;
+import de.jungblut.jrpt.rules.RPTreeMaxSplitPolicy;
+import de.jungblut.jrpt.rules.SplitPolicy;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.tuple.Tuple;
+
+/**
+ * A forest of independent randomized trees over a shared store of vectors. A
+ * single tree that only checks a few nodes per search misses many of the true
+ * neighbours in high dimensional spaces, but the misses of independent trees
+ * are mostly different. Every tree is searched with a budget of node checks,
+ * the union of their candidates is deduplicated and ranked by the exact
+ * distance to the query. The trees are searched best bin first, so the budget
+ * is spent on the most promising branches.
+ *
+ * The number of trees and the per-tree budget trade recall for latency. All
+ * trees contain the same vectors under the same ids. The forest normalizes
+ * every vector once with its distance measurer and keeps it with its sparse
+ * entries and payload, the nodes of all trees share them. Removals and
+ * compactions are applied to all trees at once, so the ids stay the same.
+ *
+ * @param <VALUE> the payload type.
+ */
+public final class ANNForest<VALUE> implements ANN<VALUE> {
+
+  private final List<ANNTree<VALUE>> trees;
+  private final SearchOptions options;
+  private final DistanceMeasurer distance;
+
+  // the normalized vectors, their sparse entries and the payloads by their
+  // id, which is the same in every tree. Removed vectors are null until the
+  // next compaction.
+  private DoubleVector[] vectors = new DoubleVector[16];
+  private SparseEntries[] entries = new SparseEntries[16];
+  private Object[] values = new Object[16];
+  private int size;
+  private int removed;
+  private int vectorDimension;
+  private double compactionThreshold = ANNTree.DEFAULT_COMPACTION_THRESHOLD;
+
+  /**
+   * Creates a forest of random projection trees.
+   *
+   * @param numTrees the number of trees.
+   * @param maxChecksPerTree the maximum number of nodes checked in every tree
+   *          per search.
+   */
+  public ANNForest(int numTrees, int maxChecksPerTree) {
+    this(numTrees, maxChecksPerTree, RPTreeMaxSplitPolicy::new);
+  }
+
+  /**
+   * Creates a forest of trees with the given split policies.
+   *
+   * @param numTrees the number of trees.
+   * @param maxChecksPerTree the maximum number of nodes checked in every tree
+   *          per search.
+   * @param splitRules creates a new split policy for every tree, they should
+   *          be randomized to get independent trees.
+   */
+  public ANNForest(int numTrees, int maxChecksPerTree,
+      Supplier<SplitPolicy<VALUE>> splitRules) {
+    this(numTrees, maxChecksPerTree, splitRules, EuclidianDistance.get());
+  }
+
+  /**
+   * Creates a forest of trees with the given split policies and distance
+   * measurer.
+   *
+   * @param numTrees the number of trees.
+   * @param maxChecksPerTree the maximum number of nodes checked in every tree
+   *          per search.
+   * @param splitRules creates a new split policy for every tree, they should
+   *          be randomized to get independent trees.
+   * @param distance the distance measurer of the searches.
+   */
+  public ANNForest(int numTrees, int maxChecksPerTree,
+      Supplier<SplitPolicy<VALUE>> splitRules, DistanceMeasurer distance) {
+    Preconditions.checkArgument(numTrees > 0,
+        "numTrees must be positive, but was " + numTrees);
+    Preconditions.checkNotNull(splitRules, "splitRules");
+    this.distance = Preconditions.checkNotNull(distance, "distance");
+    this.options = new SearchOptions(maxChecksPerTree, 0d);
+    List<ANNTree<VALUE>> list = new ArrayList<>(numTrees);
+    for (int i = 0; i < numTrees; i++) {
+      ANNTree<VALUE> tree = new ANNTree<>(splitRules.get(), distance);
+      // the forest compacts all trees together
+      tree.setCompactionThreshold(1d);
+      list.add(tree);
+    }
+    this.trees = Collections.unmodifiableList(list);
+  }
+
+  @Override
+  public void addVectorStream(Stream<DoubleVector> vectors) {
+    vectors.forEach((v) -> add(v, null));
+  }
+
+  @Override
+  public void addStream(Stream<Tuple<DoubleVector, VALUE>> pairs) {
+    pairs.forEach((v) -> add(v.getFirst(), v.getSecond()));
+  }
+
+  @Override
+  public void add(DoubleVector vec, VALUE value) {
+    Preconditions.checkNotNull(vec, "vector");
+    validateVector(vec);
+    final int id = store(vec, value);
+    for (ANNTree<VALUE> tree : trees) {
+      tree.add(vectors[id], entries[id], value);
+    }
+  }
+
+  /**
+   * Adds all vector/payload pairs of the given stream and bulk builds all trees
+   * in parallel afterwards.
+   *
+   * @see ANNTree#bulkLoad(Stream)
+   */
+  public void bulkLoad(Stream<Tuple<DoubleVector, VALUE>> pairs) {
+    final int from = size;
+    pairs.forEach((v) -> {
+      DoubleVector vec = Preconditions.checkNotNull(v.getFirst(), "vector");
+      validateVector(vec);
+      store(vec, v.getSecond());
+    });
+    final int to = size;
+    trees.parallelStream().forEach((tree) -> {
+      for (int id = from; id < to; id++) {
+        tree.append(vectors[id], entries[id], value(id));
+      }
+      tree.balance();
+    });
+    // the trees drop the removed vectors while balancing
+    compactVectors();
+  }
+
+  /**
+   * Balances all trees in parallel, removed vectors are dropped like in
+   * {@link #compact()}.
+   */
+  @Override
+  public void balance() {
+    trees.parallelStream().forEach(ANNTree::balance);
+    compactVectors();
+  }
+
+  /**
+   * Removes the vector from all trees, once the ratio of removed vectors
+   * exceeds the compaction threshold the forest is compacted.
+   *
+   * @see ANNTree#remove(DoubleVector, Object)
+   */
+  @Override
+  public boolean remove(DoubleVector vec, VALUE payload) {
+    // the trees may find different duplicates, so remove by id
+    int id = trees.get(0).find(vec, payload);
+    if (id < 0) {
+      return false;
+    }
+    for (ANNTree<VALUE> tree : trees) {
+      tree.remove(id);
+    }
+    vectors[id] = null;
+    entries[id] = null;
+    values[id] = null;
+    removed++;
+    if (removed > compactionThreshold * size) {
+      compact();
+    }
+    return true;
+  }
+
+  /**
+   * Compacts all trees in parallel, all of them renumber the remaining
+   * vectors in the same order.
+   *
+   * @see ANNTree#compact()
+   */
+  public void compact() {
+    if (removed > 0) {
+      trees.parallelStream().forEach(ANNTree::compact);
+      compactVectors();
+    }
+  }
+
+  private void compactVectors() {
+    int live = 0;
+    for (int id = 0; id < size; id++) {
+      if (vectors[id] != null) {
+        vectors[live] = vectors[id];
+        entries[live] = entries[id];
+        values[live] = values[id];
+        live++;
+      }
+    }
+    Arrays.fill(vectors, live, size, null);
+    Arrays.fill(entries, live, size, null);
+    Arrays.fill(values, live, size, null);
+    size = live;
+    removed = 0;
+  }
+
+  /**
+   * @see ANNTree#setCompactionThreshold(double)
+   */
+  public void setCompactionThreshold(double threshold) {
+    this.compactionThreshold = IndexPreconditions
+        .checkCompactionThreshold(threshold);
+  }
+
+  /**
+   * @return the id of the normalized vector.
+   */
+  private int store(DoubleVector vec, VALUE value) {
+    if (size == vectors.length) {
+      vectors = Arrays.copyOf(vectors, size * 2);
+      entries = Arrays.copyOf(entries, size * 2);
+      values = Arrays.copyOf(values, size * 2);
+    }
+    vectors[size] = distance.normalize(vec);
+    entries[size] = TreeNode.entries(vectors[size]);
+    values[size] = value;
+    return size++;
+  }
+
+  private void validateVector(DoubleVector vec) {
+    vectorDimension = IndexPreconditions.checkAddedVector(vectorDimension,
+        vec, "tree");
+  }
+
+  @Override
+  public List<VectorDistanceTuple<VALUE>> getNearestNeighbours(
+      DoubleVector vec, int k, double radius) {
+    return getNearestNeighbours(vec, k, radius, options);
+  }
+
+  /**
+   * Searches every tree with the given options instead of the per-tree budget
+   * of this forest, so the maximum checks apply to every tree.
+   */
+  @Override
+  public List<VectorDistanceTuple<VALUE>> getNearestNeighbours(
+      DoubleVector vec, int k, double radius, SearchOptions options) {
+    Preconditions.checkNotNull(options, "options");
+    final DoubleVector target = distance.normalize(vec);
+    final SparseEntries targetEntries = TreeNode.entries(target);
+    final double rankRadius = distance.toRankDistance(radius);
+    SearchContext context = SearchContext.get();
+    context.resetResults(k, size);
+    for (ANNTree<VALUE> tree : trees) {
+      tree.searchCandidates(target, targetEntries, k, rankRadius, options,
+          context);
+      context.mergeCandidates();
+    }
+
+    BoundedMaxHeap results = context.results;
+    results.sort();
+    List<VectorDistanceTuple<VALUE>> list = new ArrayList<>(results.size());
+    for (int i = 0; i < results.size(); i++) {
+      int id = results.getId(i);
+      list.add(new VectorDistanceTuple<>(vectors[id], value(id), distance
+          .toDistance(results.getDistance(i))));
+    }
+    return list;
+  }
+
+  /**
+   * Range queries are exact, so they only need a single tree.
+   */
+  @Override
+  public List<VectorDistanceTuple<VALUE>> rangeQuery(DoubleVector lower,
+      DoubleVector upper) {
+    return trees.get(0).rangeQuery(lower, upper);
+  }
+
+  @Override
+  public Iterator<VectorDistanceTuple<VALUE>> rangeIterator(
+      DoubleVector lower, DoubleVector upper) {
+    return trees.get(0).rangeIterator(lower, upper);
+  }
+
+  /**
+   * @return the number of trees in this forest.
+   */
+  public int getNumTrees() {
+    return trees.size();
+  }
+
+  /**
+   * @return the distance measurer of the searches.
+   */
+  public DistanceMeasurer getDistanceMeasurer() {
+    return distance;
+  }
+
+  /**
+   * @return the number of vectors in the forest.
+   */
+  @Override
+  public int size() {
+    return size - removed;
+  }
+
+  @Override
+  public int tombstones() {
+    return removed;
+  }
+
+  /**
+   * Iterates over the vectors in the order they were added.
+   */
+  @Override
+  public Iterator<DoubleVector> iterator() {
+    return Iterators.filter(Arrays.asList(vectors).subList(0, size)
+        .iterator(), (v) -> v != null);
+  }
+
+  @SuppressWarnings("unchecked")
+  private VALUE value(int id) {
+    return (VALUE) values[id];
+  }
+
+}
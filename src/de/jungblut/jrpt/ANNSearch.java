@@ -1,6 +1,13 @@
 package de.jungblut.jrpt;
 
+import java.util.Iterator;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import de.jungblut.math.DoubleVector;
 
@@ -15,14 +22,18 @@ public interface ANNSearch<VALUE> {
   /**
    * @return the k nearest neighbors to the given vector.
    */
-  public List<VectorDistanceTuple<VALUE>> getNearestNeighbours(
-      DoubleVector vec, int k);
+  public default List<VectorDistanceTuple<VALUE>> getNearestNeighbours(
+      DoubleVector vec, int k) {
+    return getNearestNeighbours(vec, k, Double.MAX_VALUE);
+  }
 
   /**
    * @return nearest neighbors to the given vector within the given radius.
    */
-  public List<VectorDistanceTuple<VALUE>> getNearestNeighbours(
-      DoubleVector vec, double radius);
+  public default List<VectorDistanceTuple<VALUE>> getNearestNeighbours(
+      DoubleVector vec, double radius) {
+    return getNearestNeighbours(vec, Integer.MAX_VALUE, radius);
+  }
 
   /**
    * @return the k nearest neighbors to the given vector within the given
@@ -31,6 +42,19 @@ public interface ANNSearch<VALUE> {
   public List<VectorDistanceTuple<VALUE>> getNearestNeighbours(
       DoubleVector vec, int k, double radius);
 
+  /**
+   * Searches the k nearest neighbors within the given radius, the work of the
+   * search is bounded by the given options. Implementations that can't bound
+   * their work search exactly.
+   *
+   * @return the k nearest neighbors to the given vector within the given
+   *         radius.
+   */
+  public default List<VectorDistanceTuple<VALUE>> getNearestNeighbours(
+      DoubleVector vec, int k, double radius, SearchOptions options) {
+    return getNearestNeighbours(vec, k, radius);
+  }
+
   /**
    * @return the vectors and payload within the range of the lower and upper
    *         bounded vectors.
@@ -38,4 +62,76 @@ public interface ANNSearch<VALUE> {
   public List<VectorDistanceTuple<VALUE>> rangeQuery(DoubleVector lower,
       DoubleVector upper);
 
+  /**
+   * Lazily searches the vectors within the range of the lower and upper
+   * bounded vectors, so callers can stop early. Zeros in the bounds don't
+   * restrict the range in that dimension. The datastructure must not be
+   * changed while iterating, unless it is thread-safe.
+   *
+   * @return an iterator over the vectors and payload within the range.
+   */
+  public default Iterator<VectorDistanceTuple<VALUE>> rangeIterator(
+      DoubleVector lower, DoubleVector upper) {
+    return rangeQuery(lower, upper).iterator();
+  }
+
+  /**
+   * Lazily searches the vectors within the range of the lower and upper
+   * bounded vectors, like {@link #rangeIterator(DoubleVector, DoubleVector)}.
+   *
+   * @return a sequential stream of the vectors and payload within the range.
+   */
+  public default Stream<VectorDistanceTuple<VALUE>> rangeStream(
+      DoubleVector lower, DoubleVector upper) {
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+        rangeIterator(lower, upper), Spliterator.ORDERED | Spliterator.NONNULL),
+        false);
+  }
+
+  /**
+   * Searches the k nearest neighbors for all given queries in parallel on the
+   * common fork-join pool. The datastructure must not be changed during the
+   * search, unless it is thread-safe.
+   *
+   * @return the k nearest neighbors for each query in the order of the queries.
+   */
+  public default List<List<VectorDistanceTuple<VALUE>>> getNearestNeighbours(
+      List<DoubleVector> queries, int k) {
+    return getNearestNeighbours(queries, k, Double.MAX_VALUE);
+  }
+
+  /**
+   * Searches the nearest neighbors within the given radius for all given
+   * queries in parallel on the common fork-join pool.
+   *
+   * @return the nearest neighbors for each query in the order of the queries.
+   */
+  public default List<List<VectorDistanceTuple<VALUE>>> getNearestNeighbours(
+      List<DoubleVector> queries, double radius) {
+    return getNearestNeighbours(queries, Integer.MAX_VALUE, radius);
+  }
+
+  /**
+   * Searches the k nearest neighbors within the given radius for all given
+   * queries in parallel on the common fork-join pool.
+   *
+   * @return the nearest neighbors for each query in the order of the queries.
+   */
+  public default List<List<VectorDistanceTuple<VALUE>>> getNearestNeighbours(
+      List<DoubleVector> queries, int k, double radius) {
+    return getNearestNeighbours(queries, k, radius, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Searches the k nearest neighbors within the given radius for all given
+   * queries in parallel on the given executor.
+   *
+   * @return the nearest neighbors for each query in the order of the queries.
+   */
+  public default List<List<VectorDistanceTuple<VALUE>>> getNearestNeighbours(
+      List<DoubleVector> queries, int k, double radius, Executor executor) {
+    return BatchSearch.search(queries, executor,
+        (v) -> getNearestNeighbours(v, k, radius));
+  }
+
 }
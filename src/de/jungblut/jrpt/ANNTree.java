@@ -2,19 +2,23 @@ package de.jungblut.jrpt;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
 import java.util.stream.Stream;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Lists;
-import com.google.common.primitives.Doubles;
 
+import de.jungblut.jrpt.distance.DistanceMeasurer;
 import de.jungblut.jrpt.distance.EuclidianDistance;
+import de.jungblut.jrpt.distance.SparseEntries;
+import de.jungblut.jrpt.rules.Hyperplane;
 import de.jungblut.jrpt.rules.SplitPolicy;
 import de.jungblut.math.DoubleVector;
 import de.jungblut.math.DoubleVector.DoubleVectorElement;
@@ -24,45 +28,237 @@ import de.jungblut.math.tuple.Tuple;
  * Generalized ANN tree structure that splits along a given split policy. This
  * is the base class for implementing KD and RP trees.
  *
+ * The distance measurer defaults to the euclidian distance. Other measurers
+ * prune the search with their own lower bounds of the distance to the cells,
+ * measurers that normalize the vectors (e.g.
+ * {@link de.jungblut.jrpt.distance.CosineDistance#normalized()}) store and
+ * return the normalized vectors.
+ *
  * @param <VALUE> the payload type.
  */
 public class ANNTree<VALUE> implements ANN<VALUE> {
 
   public static final class TreeNode<VALUE> {
+    // the insertion order of this node, which is stable across balancing
+    final int id;
+    // the split axis or -1 if the node splits on a hyperplane
     final int splitDimension;
+    final Hyperplane hyperplane;
+    final double splitValue;
     // keyvector by the value in the split dimension
     final DoubleVector keyVector;
+    // the non-zero entries of a sparse keyvector, null if it is dense
+    final SparseEntries sparse;
     final VALUE value;
 
     TreeNode<VALUE> left;
     TreeNode<VALUE> right;
+    // tombstone of a removed node, it still routes searches but is never
+    // returned until the next compaction drops it
+    boolean removed;
+
+    public TreeNode(int id, int splitDimension, DoubleVector keyVector,
+        VALUE val) {
+      this(id, splitDimension, keyVector, entries(keyVector), val);
+    }
+
+    public TreeNode(int id, Hyperplane hyperplane, DoubleVector keyVector,
+        VALUE val) {
+      this(id, hyperplane, keyVector, entries(keyVector), val);
+    }
+
+    // splits the vector of the given node on an axis under a new id
+    TreeNode(int id, int splitDimension, TreeNode<VALUE> node) {
+      this(id, splitDimension, node.keyVector, node.sparse, node.value);
+    }
+
+    // splits the vector of the given node on a hyperplane
+    TreeNode(TreeNode<VALUE> node, Hyperplane hyperplane) {
+      this(node.id, hyperplane, node.keyVector, node.sparse, node.value);
+    }
 
-    public TreeNode(int splitDimension, DoubleVector keyVector, VALUE val) {
+    TreeNode(int id, int splitDimension, DoubleVector keyVector,
+        SparseEntries sparse, VALUE val) {
+      this.id = id;
       this.splitDimension = splitDimension;
+      this.hyperplane = null;
+      this.splitValue = keyVector.get(splitDimension);
       this.keyVector = keyVector;
+      this.sparse = sparse;
       this.value = val;
     }
 
+    TreeNode(int id, Hyperplane hyperplane, DoubleVector keyVector,
+        SparseEntries sparse, VALUE val) {
+      this.id = id;
+      this.splitDimension = -1;
+      this.hyperplane = Preconditions.checkNotNull(hyperplane, "hyperplane");
+      this.splitValue = hyperplane.getThreshold();
+      this.keyVector = keyVector;
+      this.sparse = sparse;
+      this.value = val;
+    }
+
+    // copies the node including its children
+    TreeNode(TreeNode<VALUE> node) {
+      this.id = node.id;
+      this.splitDimension = node.splitDimension;
+      this.hyperplane = node.hyperplane;
+      this.splitValue = node.splitValue;
+      this.keyVector = node.keyVector;
+      this.sparse = node.sparse;
+      this.value = node.value;
+      this.left = node.left;
+      this.right = node.right;
+      this.removed = node.removed;
+    }
+
+    /**
+     * @return the value of the given vector that is compared to the split
+     *         value, either the value in the split dimension or the projection
+     *         onto the hyperplane normal.
+     */
+    public double project(DoubleVector v) {
+      return hyperplane == null ? v.get(splitDimension) : hyperplane
+          .project(v);
+    }
+
+    /**
+     * Projects like {@link #project(DoubleVector)}, sparse vectors are
+     * projected by their non-zero entries.
+     *
+     * @param entries the non-zero entries of the vector or null if it is
+     *          dense.
+     */
+    double project(DoubleVector v, SparseEntries entries) {
+      if (hyperplane == null) {
+        return v.get(splitDimension);
+      }
+      return entries == null ? hyperplane.project(v) : hyperplane
+          .project(entries);
+    }
+
+    /**
+     * @return the projection of the key vector onto the given hyperplane.
+     */
+    double projectOnto(Hyperplane h) {
+      return sparse == null ? h.project(keyVector) : h.project(sparse);
+    }
+
+    /**
+     * @return the sorted non-zero entries of sparse vectors, null for dense
+     *         vectors.
+     */
+    static SparseEntries entries(DoubleVector v) {
+      return v.isSparse() ? SparseEntries.of(v) : null;
+    }
+
     public double splitValue() {
-      return keyVector.get(splitDimension);
+      return splitValue;
+    }
+
+    /**
+     * @return the split dimension or -1 if this node splits on a hyperplane.
+     */
+    public int getSplitDimension() {
+      return splitDimension;
+    }
+
+    /**
+     * @return the hyperplane or null if this node splits on an axis.
+     */
+    public Hyperplane getHyperplane() {
+      return hyperplane;
+    }
+
+    public DoubleVector getVector() {
+      return keyVector;
+    }
+
+    public VALUE getValue() {
+      return value;
     }
 
     @Override
     public String toString() {
-      return "Node [splitDimension=" + splitDimension + ", value=" + keyVector
-          + "]";
+      return "Node [splitDimension=" + splitDimension + ", splitValue="
+          + splitValue + ", value=" + keyVector + "]";
     }
   }
 
+  // the default ratio of removed nodes that triggers a compaction
+  public static final double DEFAULT_COMPACTION_THRESHOLD = 0.25d;
+
   private final SplitPolicy<VALUE> splitRule;
-  private final List<TreeNode<VALUE>> treeNodes = new ArrayList<>();
+  private final DistanceMeasurer distance;
+  // the weight balance of the self-balancing inserts or 0 if disabled
+  private final double alpha;
+  // the ancestors of the last inserted node, only used if self-balancing
+  private TreeNode<VALUE>[] path;
+  // no subtrees of the suspended size or larger are rebuilt until the tree is
+  // bigger than the floor
+  private int rebuildFloor;
+  private int suspendedSize;
+  // all nodes including the root, indexed by their id. This array is only
+  // appended to or replaced by a bigger or compacted copy, so older views stay
+  // valid.
+  private TreeNode<VALUE>[] nodes = newNodeArray(16);
 
   private int vectorDimension;
   private TreeNode<VALUE> root;
+  // the number of nodes including the removed ones
   private int size;
+  private int removed;
+  private double compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
 
   public ANNTree(SplitPolicy<VALUE> splitRule) {
+    this(splitRule, EuclidianDistance.get());
+  }
+
+  /**
+   * @param splitRule the split rule.
+   * @param distance the distance measurer of the searches.
+   */
+  public ANNTree(SplitPolicy<VALUE> splitRule, DistanceMeasurer distance) {
+    this.splitRule = Preconditions.checkNotNull(splitRule, "splitRule");
+    this.distance = Preconditions.checkNotNull(distance, "distance");
+    this.alpha = 0d;
+  }
+
+  /**
+   * Creates a tree that keeps its depth logarithmic while vectors are added
+   * one by one. Whenever an insert ends up deeper than log(size) to the base of
+   * 1/alpha, the smallest ancestor whose subtree is deeper than that bound for
+   * its size is rebuilt by median partitioning (scapegoat tree). This makes an
+   * insert amortized O(log^2 n).
+   *
+   * Rebuilt subtrees are only as balanced as the split policy allows, policies
+   * that don't split at the exact median (like the RP-tree max rule) need an
+   * alpha well above 0.5. Subtrees that the policy can't divide (e.g. if all
+   * vectors are on one side of every hyperplane) still form a chain, if a
+   * rebuild doesn't reduce the depth, rebuilds of subtrees that large are
+   * suspended for as many inserts as the subtree has nodes.
+   *
+   * @param splitRule the split rule.
+   * @param alpha the weight balance in (0.5, 1), lower values rebuild more
+   *          often and yield shallower trees, 0.7 is a good default.
+   */
+  public ANNTree(SplitPolicy<VALUE> splitRule, double alpha) {
+    this(splitRule, alpha, EuclidianDistance.get());
+  }
+
+  /**
+   * Creates a self-balancing tree with the given distance measurer, see
+   * {@link #ANNTree(SplitPolicy, double)}.
+   */
+  public ANNTree(SplitPolicy<VALUE> splitRule, double alpha,
+      DistanceMeasurer distance) {
+    Preconditions.checkArgument(alpha > 0.5 && alpha < 1d,
+        "alpha must be in (0.5, 1), but was " + alpha);
     this.splitRule = Preconditions.checkNotNull(splitRule, "splitRule");
+    this.distance = Preconditions.checkNotNull(distance, "distance");
+    this.alpha = alpha;
+    this.path = newNodeArray(16);
   }
 
   @Override
@@ -79,15 +275,32 @@ public class ANNTree<VALUE> implements ANN<VALUE> {
   public void add(DoubleVector vec, VALUE value) {
     Preconditions.checkNotNull(vec, "vector");
     validateVector(vec);
+    vec = distance.normalize(vec);
+    // sparse vectors are routed by their sorted entries, which the new node
+    // keeps for the distance computations
+    insert(vec, TreeNode.entries(vec), value);
+  }
 
+  /**
+   * Adds a vector that is normalized by the distance measurer already, so a
+   * forest can share the vector and its sparse entries between its trees.
+   *
+   * @param entries the sparse entries of the vector or null if it is dense.
+   */
+  void add(DoubleVector vec, SparseEntries entries, VALUE value) {
+    validateVector(vec);
+    insert(vec, entries, value);
+  }
+
+  private void insert(DoubleVector vec, SparseEntries entries, VALUE value) {
     // we always increment size at the beginning, given the guarantee that every
     // add creates a new node in the tree.
-    size++;
+    final int id = size++;
 
     // shortcut for empty tree
     if (root == null) {
-      root = new TreeNode<VALUE>(splitRule.splitDimension(vec, 0, treeNodes),
-          vec, value);
+      root = newNode(id, vec, entries, value, 0);
+      addNode(root);
       return;
     }
 
@@ -96,7 +309,13 @@ public class ANNTree<VALUE> implements ANN<VALUE> {
     boolean right = false;
     // traverse the tree to the free spot that matches the dimension
     while (true) {
-      right = current.splitValue() <= vec.get(current.splitDimension);
+      if (path != null) {
+        if (level == path.length) {
+          path = Arrays.copyOf(path, level * 2);
+        }
+        path[level] = current;
+      }
+      right = current.splitValue() <= current.project(vec, entries);
       TreeNode<VALUE> next = right ? current.right : current.left;
       if (next == null) {
         break;
@@ -106,217 +325,642 @@ public class ANNTree<VALUE> implements ANN<VALUE> {
       level++;
     }
 
-    int splitDimension = splitRule.splitDimension(vec, level, treeNodes);
-    Preconditions.checkElementIndex(splitDimension, vec.getDimension(),
-        "split returned invalid index!");
-
     // do the "real" insert
     // note that current in this case is the parent
-    TreeNode<VALUE> n = new TreeNode<VALUE>(splitDimension, vec, value);
-    treeNodes.add(n);
+    TreeNode<VALUE> n = newNode(id, vec, entries, value, level);
+    addNode(n);
     if (right) {
       current.right = n;
     } else {
       current.left = n;
     }
+
+    if (path != null && level + 1 > Math.log(size) / -Math.log(alpha)) {
+      rebuildScapegoat(n, level);
+    }
   }
 
-  private void validateVector(DoubleVector vec) {
-    Preconditions.checkArgument(vec.getDimension() != 0,
-        "vector dimension can't be zero");
-    if (vectorDimension == 0) {
-      vectorDimension = vec.getDimension();
-    } else {
-      Preconditions.checkArgument(vectorDimension == vec.getDimension(),
-          "Dimensional mismatch between vector and tree. Expected "
-              + vectorDimension + " but given " + vec.getDimension() + "!");
+  /**
+   * Walks up from the given node to the first ancestor that is not alpha
+   * height balanced, whose subtree is deeper than log(size of the subtree) to
+   * the base of 1/alpha, and rebuilds its subtree. There always is one, since
+   * the root is not height balanced either. Unlike the first ancestor that is
+   * not alpha weight balanced, the rebuild of this one shortens the path even
+   * if the split policy doesn't split at the exact median.
+   *
+   * @param node the inserted node.
+   * @param level the level of its parent, the last entry in the path.
+   */
+  private void rebuildScapegoat(TreeNode<VALUE> node, int level) {
+    TreeNode<VALUE> child = node;
+    int childSize = 1;
+    for (int i = level; i >= 0; i--) {
+      TreeNode<VALUE> parent = path[i];
+      int parentSize = childSize + 1
+          + subtreeSize(parent.left == child ? parent.right : parent.left);
+      if (level + 1 - i > Math.log(parentSize) / -Math.log(alpha)) {
+        if (size > rebuildFloor || parentSize < suspendedSize) {
+          rebuild(i, parentSize, node.id);
+        }
+        break;
+      }
+      child = parent;
+      childSize = parentSize;
     }
+    Arrays.fill(path, 0, level + 1, null);
   }
 
-  @Override
-  public void balance() {
+  /**
+   * Rebuilds the subtree at the given level of the path. Like
+   * {@link #balance()}, the subtree and all its ancestors are replaced by
+   * copies, so searches on the old tree are unaffected until the new root is
+   * published. If the rebuilt subtree is neither shallower than before nor
+   * height balanced, the split policy can't divide it and further rebuilds of
+   * subtrees that large are suspended for as many inserts as the subtree has
+   * nodes, which amortizes the wasted rebuild. Smaller subtrees are still
+   * rebuilt meanwhile.
+   *
+   * @param id the id of the inserted node, which identifies the rebuilt
+   *          subtree for the split policy.
+   */
+  private void rebuild(int level, int subtreeSize, int id) {
+    TreeNode<VALUE>[] subtree = newNodeArray(subtreeSize);
+    collect(path[level], subtree);
+    final int height = height(path[level]);
+    TreeNode<VALUE> child = MedianTreeBuilder.build(splitRule, subtree,
+        subtreeSize, nodes, level, (id + 1L) << 32);
+    final int rebuiltHeight = height(child);
+    if (rebuiltHeight >= height
+        && rebuiltHeight > Math.log(subtreeSize) / -Math.log(alpha) + 1) {
+      suspendedSize = size > rebuildFloor ? subtreeSize : Math.min(
+          suspendedSize, subtreeSize);
+      rebuildFloor = Math.max(rebuildFloor, size + subtreeSize);
+    }
+    for (int i = level - 1; i >= 0; i--) {
+      TreeNode<VALUE> copy = new TreeNode<>(path[i]);
+      if (copy.left == path[i + 1]) {
+        copy.left = child;
+      } else {
+        copy.right = child;
+      }
+      nodes[copy.id] = copy;
+      child = copy;
+    }
+    root = child;
+  }
+
+  // the subtree helpers don't recurse, since unbalanced subtrees can be chains
+
+  private static int subtreeSize(TreeNode<?> node) {
+    int size = 0;
+    final Deque<TreeNode<?>> toVisit = new ArrayDeque<>();
+    if (node != null) {
+      toVisit.push(node);
+    }
+    while (!toVisit.isEmpty()) {
+      TreeNode<?> current = toVisit.pop();
+      size++;
+      if (current.left != null) {
+        toVisit.push(current.left);
+      }
+      if (current.right != null) {
+        toVisit.push(current.right);
+      }
+    }
+    return size;
+  }
+
+  /**
+   * @return the number of nodes on the longest path down from the node.
+   */
+  private static int height(TreeNode<?> node) {
+    int height = 0;
+    final Deque<TreeNode<?>> level = new ArrayDeque<>();
+    if (node != null) {
+      level.add(node);
+    }
+    while (!level.isEmpty()) {
+      height++;
+      for (int i = level.size(); i > 0; i--) {
+        TreeNode<?> current = level.poll();
+        if (current.left != null) {
+          level.add(current.left);
+        }
+        if (current.right != null) {
+          level.add(current.right);
+        }
+      }
+    }
+    return height;
+  }
 
-    Collections.sort(treeNodes, (o1, o2) -> Doubles.compare(
-        o1.keyVector.get(o1.splitDimension),
-        o2.keyVector.get(o2.splitDimension)));
+  private static <VALUE> void collect(TreeNode<VALUE> node,
+      TreeNode<VALUE>[] target) {
+    int offset = 0;
+    final Deque<TreeNode<VALUE>> toVisit = new ArrayDeque<>();
+    toVisit.push(node);
+    while (!toVisit.isEmpty()) {
+      TreeNode<VALUE> current = toVisit.pop();
+      target[offset++] = current;
+      if (current.right != null) {
+        toVisit.push(current.right);
+      }
+      if (current.left != null) {
+        toVisit.push(current.left);
+      }
+    }
+  }
 
-    // do an inverse binary search to build up the tree from the root
-    root = fix(treeNodes, 0, treeNodes.size() - 1);
+  private TreeNode<VALUE> newNode(int id, DoubleVector vec,
+      SparseEntries entries, VALUE value, int level) {
+    Hyperplane hyperplane = splitRule.splitHyperplane(vec, level,
+        treeNodes(id));
+    if (hyperplane != null) {
+      return new TreeNode<VALUE>(id, hyperplane, vec, entries, value);
+    }
+    int splitDimension = splitRule.splitDimension(vec, level, treeNodes(id));
+    Preconditions.checkElementIndex(splitDimension, vec.getDimension(),
+        "split returned invalid index!");
+    return new TreeNode<VALUE>(id, splitDimension, vec, entries, value);
   }
 
   /**
-   * Fixup the tree recursively by divide and conquering the sorted array.
+   * @return a read-only view on the first nodes that were added.
    */
-  private TreeNode<VALUE> fix(List<TreeNode<VALUE>> nodes, int start, int end) {
-    if (start > end) {
-      return null;
+  private List<TreeNode<VALUE>> treeNodes(int numNodes) {
+    return Collections.unmodifiableList(Arrays.asList(nodes).subList(0,
+        numNodes));
+  }
+
+  private void addNode(TreeNode<VALUE> node) {
+    if (node.id == nodes.length) {
+      nodes = Arrays.copyOf(nodes, nodes.length * 2);
+    }
+    nodes[node.id] = node;
+  }
+
+  private void validateVector(DoubleVector vec) {
+    vectorDimension = IndexPreconditions.checkAddedVector(vectorDimension,
+        vec, "tree");
+  }
+
+  /**
+   * Rebuilds the whole tree by recursive median partitioning, the split
+   * dimension is chosen per subtree by the split policy. This yields a tree of
+   * logarithmic depth. Larger trees are built in parallel. Removed nodes are
+   * dropped like in {@link #compact()}.
+   * 
+   * The new tree is built from copies of the nodes, so searches on the old tree
+   * are unaffected until the new root is published.
+   */
+  @Override
+  public void balance() {
+    if (removed > 0) {
+      compact();
     } else {
-      int mid = (start + end) >>> 1;
-      TreeNode<VALUE> midNode = nodes.get(mid);
-      midNode.left = fix(nodes, start, mid - 1);
-      midNode.right = fix(nodes, mid + 1, end);
-      return midNode;
+      root = MedianTreeBuilder.build(splitRule, nodes, size, nodes);
     }
   }
 
+  /**
+   * Removes a node with the given vector and payload. The node becomes a
+   * tombstone that is skipped by all searches, once the ratio of tombstones
+   * exceeds the compaction threshold the tree is compacted. If the vector was
+   * added multiple times with the same payload, only one of them is removed.
+   *
+   * @return true if a node was removed.
+   */
   @Override
-  public List<VectorDistanceTuple<VALUE>> rangeQuery(DoubleVector lower,
-      DoubleVector upper) {
-    List<VectorDistanceTuple<VALUE>> list = Lists.newArrayList();
-    List<TreeNode<VALUE>> rangeInternal = rangeInternal(lower, upper);
-    for (TreeNode<VALUE> node : rangeInternal) {
-      list.add(new VectorDistanceTuple<VALUE>(node.keyVector, node.value, 0));
+  public boolean remove(DoubleVector vec, VALUE payload) {
+    int id = find(vec, payload);
+    if (id < 0) {
+      return false;
     }
-    return list;
+    remove(id);
+    if (removed > compactionThreshold * size) {
+      compactAfterRemoval();
+    }
+    return true;
   }
 
-  private List<TreeNode<VALUE>> rangeInternal(DoubleVector lower,
-      DoubleVector upper) {
-    List<TreeNode<VALUE>> list = Lists.newArrayList();
-    Deque<TreeNode<VALUE>> toVisit = new ArrayDeque<>();
-    toVisit.add(root);
+  /**
+   * Follows the path of the given vector, every node with an equal vector was
+   * placed on it by the insert or by balancing. Balancing divides vectors that
+   * are equal to a split value between both sides, so both are searched then.
+   *
+   * @return the id of a node with the given vector and payload that isn't
+   *         removed or -1 if there is none.
+   */
+  int find(DoubleVector vec, VALUE payload) {
+    vec = distance.normalize(Preconditions.checkNotNull(vec, "vector"));
+    final SparseEntries entries = TreeNode.entries(vec);
+    final Deque<TreeNode<VALUE>> toVisit = new ArrayDeque<>();
+    if (root != null) {
+      toVisit.push(root);
+    }
     while (!toVisit.isEmpty()) {
-      TreeNode<VALUE> next = toVisit.pop();
-      if (strictLower(upper, next.keyVector)
-          && strictHigher(lower, next.keyVector)) {
-        list.add(next);
+      TreeNode<VALUE> current = toVisit.pop();
+      if (!current.removed && Objects.equals(current.value, payload)
+          && equal(current.keyVector, vec)) {
+        return current.id;
       }
-
-      if (next.left != null && checkSubtree(lower, upper, next.left)) {
-        toVisit.add(next.left);
+      final double diff = current.project(vec, entries) - current.splitValue();
+      if (diff <= 0 && current.left != null) {
+        toVisit.push(current.left);
       }
-      if (next.right != null && checkSubtree(lower, upper, next.right)) {
-        toVisit.add(next.right);
+      // the insert puts equal vectors to the right, so look there first
+      if (diff >= 0 && current.right != null) {
+        toVisit.push(current.right);
       }
     }
-    return list;
+    return -1;
+  }
+
+  /**
+   * Marks the node with the given id as removed.
+   */
+  void remove(int id) {
+    nodes[id].removed = true;
+    removed++;
+  }
+
+  /**
+   * Called by {@link #remove(DoubleVector, Object)} once the compaction
+   * threshold is exceeded, compacts the tree right away.
+   */
+  void compactAfterRemoval() {
+    compact();
+  }
+
+  /**
+   * Rebuilds the tree without the removed nodes, like {@link #balance()}. The
+   * remaining nodes are renumbered in the order they were added, so their ids
+   * stay dense. The tree is built from copies into a new array, searches on
+   * the old tree are unaffected until the new root is published.
+   */
+  public void compact() {
+    if (removed == 0) {
+      return;
+    }
+    TreeNode<VALUE>[] index = newNodeArray(Math.max(16, size - removed));
+    root = compacted(nodes, size, index);
+    nodes = index;
+    size -= removed;
+    removed = 0;
   }
 
   /**
-   * checks if the given node is inside the range based on the split.
+   * Builds a balanced tree from copies of the nodes below the limit that are
+   * not removed, they are renumbered in the order of their ids.
+   *
+   * @param index the array to store the new nodes by their new id.
+   * @return the root of the new tree.
    */
-  private boolean checkSubtree(DoubleVector lower, DoubleVector upper,
-      TreeNode<VALUE> next) {
-    if (next != null) {
-      boolean greater = lower.get(next.splitDimension) >= next.keyVector
-          .get(next.splitDimension);
-      boolean lower2 = upper.get(next.splitDimension) >= next.keyVector
-          .get(next.splitDimension);
-      return greater || lower2;
+  private TreeNode<VALUE> compacted(TreeNode<VALUE>[] nodes, int limit,
+      TreeNode<VALUE>[] index) {
+    int count = 0;
+    for (int id = 0; id < limit; id++) {
+      TreeNode<VALUE> node = nodes[id];
+      if (!node.removed) {
+        // the split dimension is chosen while balancing
+        index[count] = new TreeNode<VALUE>(count, 0, node);
+        count++;
+      }
     }
-    return false;
+    return MedianTreeBuilder.build(splitRule, index, count, index);
+  }
+
+  /**
+   * Sets the ratio of removed nodes to all nodes above which a removal
+   * triggers a compaction, 1 disables automatic compactions.
+   *
+   * @param threshold the ratio in (0, 1], by default
+   *          {@link #DEFAULT_COMPACTION_THRESHOLD}.
+   */
+  public void setCompactionThreshold(double threshold) {
+    this.compactionThreshold = IndexPreconditions
+        .checkCompactionThreshold(threshold);
+  }
+
+  /**
+   * Adds all vector/payload pairs of the given stream and rebuilds the tree
+   * afterwards with {@link #balance()}. This is much faster than adding the
+   * pairs one by one, especially for sorted inputs.
+   */
+  public void bulkLoad(Stream<Tuple<DoubleVector, VALUE>> pairs) {
+    pairs.forEach((v) -> {
+      DoubleVector vec = Preconditions.checkNotNull(v.getFirst(), "vector");
+      validateVector(vec);
+      vec = distance.normalize(vec);
+      append(vec, TreeNode.entries(vec), v.getSecond());
+    });
+    balance();
+  }
+
+  /**
+   * Adds a normalized vector like {@link #add(DoubleVector, SparseEntries,
+   * Object)}, but only places it in the tree on the next {@link #balance()}.
+   */
+  void append(DoubleVector vec, SparseEntries entries, VALUE value) {
+    validateVector(vec);
+    // the split dimension is chosen while balancing
+    addNode(new TreeNode<VALUE>(size++, 0, vec, entries, value));
   }
 
   @Override
-  public List<VectorDistanceTuple<VALUE>> getNearestNeighbours(
-      DoubleVector vec, int k) {
-    return getNearestNeighbours(vec, k, Double.MAX_VALUE);
+  public List<VectorDistanceTuple<VALUE>> rangeQuery(DoubleVector lower,
+      DoubleVector upper) {
+    return rangeQuery(root, size, lower, upper);
   }
 
   @Override
-  public List<VectorDistanceTuple<VALUE>> getNearestNeighbours(
-      DoubleVector vec, double radius) {
-    return getNearestNeighbours(vec, Integer.MAX_VALUE, radius);
+  public Iterator<VectorDistanceTuple<VALUE>> rangeIterator(
+      DoubleVector lower, DoubleVector upper) {
+    return rangeIterator(root, size, lower, upper);
+  }
+
+  /**
+   * Range query on the tree below the given root, only nodes with an id lower
+   * than the given limit are considered.
+   */
+  List<VectorDistanceTuple<VALUE>> rangeQuery(TreeNode<VALUE> root, int limit,
+      DoubleVector lower, DoubleVector upper) {
+    return Lists.newArrayList(rangeIterator(root, limit, lower, upper));
+  }
+
+  Iterator<VectorDistanceTuple<VALUE>> rangeIterator(TreeNode<VALUE> root,
+      int limit, DoubleVector lower, DoubleVector upper) {
+    return new RangeIterator(root, limit, new RangeBounds(lower, upper));
   }
 
   @Override
   public List<VectorDistanceTuple<VALUE>> getNearestNeighbours(
       DoubleVector vec, int k, double radius) {
-    LimitedPriorityQueue<VectorDistanceTuple<VALUE>> queue = new LimitedPriorityQueue<>(
-        k);
-    HyperRectangle hr = HyperRectangle.infiniteHyperRectangle(vec
-        .getDimension());
-    getNearestNeighbourInternal(root, vec, hr, radius, k, radius, queue);
-    return queue.toList();
+    return getNearestNeighbours(root, nodes, size, vec, k, radius);
+  }
+
+  @Override
+  public List<VectorDistanceTuple<VALUE>> getNearestNeighbours(
+      DoubleVector vec, int k, double radius, SearchOptions options) {
+    return getNearestNeighbours(root, nodes, size, vec, k, radius, options);
   }
 
   /**
-   * Euclidian distance based recursive algorithm for nearest neighbour queries
-   * based on Andrew W. Moore.
+   * Nearest neighbour search on the tree below the given root, only nodes with
+   * an id lower than the given limit are considered.
+   *
+   * @param nodes the nodes indexed by their id.
    */
-  private void getNearestNeighbourInternal(TreeNode<VALUE> current,
-      DoubleVector target, HyperRectangle hyperRectangle,
-      double maxDistSquared, int k, final double radius,
-      LimitedPriorityQueue<VectorDistanceTuple<VALUE>> queue) {
-    if (current == null) {
-      return;
+  List<VectorDistanceTuple<VALUE>> getNearestNeighbours(TreeNode<VALUE> root,
+      TreeNode<VALUE>[] nodes, int limit, DoubleVector vec, int k,
+      double radius) {
+    SearchContext context = SearchContext.get();
+    context.reset(vec.getDimension(), k);
+    final DoubleVector target = distance.normalize(vec);
+    context.sparseQuery = TreeNode.entries(target);
+    TreeView<VALUE> view = new TreeView<>(root, limit, distance,
+        vec.getDimension());
+    view.search(view.root(context), target, distance.toRankDistance(radius),
+        context);
+    return results(nodes, distance, context);
+  }
+
+  /**
+   * Best bin first search on the tree below the given root with the given
+   * options, only nodes with an id lower than the given limit are considered.
+   *
+   * @param nodes the nodes indexed by their id.
+   */
+  List<VectorDistanceTuple<VALUE>> getNearestNeighbours(TreeNode<VALUE> root,
+      TreeNode<VALUE>[] nodes, int limit, DoubleVector vec, int k,
+      double radius, SearchOptions options) {
+    Preconditions.checkNotNull(options, "options");
+    SearchContext context = SearchContext.get();
+    final DoubleVector target = distance.normalize(vec);
+    searchCandidates(root, limit, target, TreeNode.entries(target), k,
+        distance.toRankDistance(radius), options, context);
+    return results(nodes, distance, context);
+  }
+
+  private List<VectorDistanceTuple<VALUE>> results(TreeNode<VALUE>[] nodes,
+      DistanceMeasurer distance, SearchContext context) {
+    BoundedMaxHeap candidates = context.candidates;
+    candidates.sort();
+    List<VectorDistanceTuple<VALUE>> list = new ArrayList<>(
+        candidates.size());
+    for (int i = 0; i < candidates.size(); i++) {
+      TreeNode<VALUE> node = nodes[candidates.getId(i)];
+      list.add(new VectorDistanceTuple<>(node.keyVector, node.value, distance
+          .toDistance(candidates.getDistance(i))));
     }
-    int s = current.splitDimension;
-    DoubleVector pivot = current.keyVector;
-    double distancePivotToTarget = EuclidianDistance.get().measureDistance(
-        pivot, target);
-
-    HyperRectangle leftHyperRectangle = hyperRectangle;
-    HyperRectangle rightHyperRectangle = new HyperRectangle(
-        hyperRectangle.min.deepCopy(), hyperRectangle.max.deepCopy());
-    leftHyperRectangle.max.set(s, pivot.get(s));
-    rightHyperRectangle.min.set(s, pivot.get(s));
-    boolean left = target.get(s) > pivot.get(s);
-    TreeNode<VALUE> nearestNode;
-    HyperRectangle nearestHyperRectangle;
-    TreeNode<VALUE> furtherstNode;
-    HyperRectangle furtherstHyperRectangle;
-    if (left) {
-      nearestNode = current.left;
-      nearestHyperRectangle = leftHyperRectangle;
-      furtherstNode = current.right;
-      furtherstHyperRectangle = rightHyperRectangle;
-    } else {
-      nearestNode = current.right;
-      nearestHyperRectangle = rightHyperRectangle;
-      furtherstNode = current.left;
-      furtherstHyperRectangle = leftHyperRectangle;
-    }
-    getNearestNeighbourInternal(nearestNode, target, nearestHyperRectangle,
-        maxDistSquared, k, radius, queue);
-
-    double distanceSquared = queue.isFull() ? queue.getMaximumPriority()
-        : Double.MAX_VALUE;
-    maxDistSquared = Math.min(maxDistSquared, distanceSquared);
-    DoubleVector closest = furtherstHyperRectangle.closestPoint(target);
-    double closestDistance = EuclidianDistance.get().measureDistance(closest,
-        target);
-    // check subtrees even if they aren't in your maxDist but within our radius
-    if (closestDistance < maxDistSquared || closestDistance < radius) {
-      if (distancePivotToTarget < distanceSquared) {
-        distanceSquared = distancePivotToTarget > 0d ? distancePivotToTarget
-            : distanceSquared;
-        // check if we are within our defined radius
-        if (distancePivotToTarget <= radius) {
-          queue.add(new VectorDistanceTuple<>(current.keyVector, current.value,
-              distancePivotToTarget), distancePivotToTarget);
+    return list;
+  }
+
+  /**
+   * Best bin first search with the given options, the ids of the nearest nodes
+   * found are kept in the candidates of the context.
+   *
+   * @param target the query that is normalized by the distance measurer.
+   * @param entries the sparse entries of the target or null if it is dense.
+   * @param rankRadius the rank equivalent radius.
+   */
+  void searchCandidates(DoubleVector target, SparseEntries entries, int k,
+      double rankRadius, SearchOptions options, SearchContext context) {
+    searchCandidates(root, size, target, entries, k, rankRadius, options,
+        context);
+  }
+
+  private void searchCandidates(TreeNode<VALUE> root, int limit,
+      DoubleVector target, SparseEntries entries, int k, double rankRadius,
+      SearchOptions options, SearchContext context) {
+    context.reset(target.getDimension(), k, options.getMaxChecks());
+    context.sparseQuery = entries;
+    TreeView<VALUE> view = new TreeView<>(root, limit, distance,
+        target.getDimension());
+    view.bestBinFirst(view.root(context), target, rankRadius,
+        options.rankFactor(distance), context);
+  }
+
+  /**
+   * The tree below a root as seen by a search, only nodes with an id lower
+   * than the limit are visible. The nodes are followed by reference, since
+   * balancing replaces the nodes by their id while older searches still run.
+   */
+  private static final class TreeView<VALUE> extends TreeSearch<DoubleVector> {
+
+    private final TreeNode<VALUE> root;
+    private final int limit;
+
+    TreeView(TreeNode<VALUE> root, int limit, DistanceMeasurer distance,
+        int dimension) {
+      super(distance, dimension);
+      this.root = root;
+      this.limit = limit;
+    }
+
+    int root(SearchContext context) {
+      return handle(root, context);
+    }
+
+    private int handle(TreeNode<VALUE> node, SearchContext context) {
+      return visible(node, limit) ? context.handle(node) : NONE;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <VALUE> TreeNode<VALUE> node(int handle,
+        SearchContext context) {
+      return (TreeNode<VALUE>) context.node(handle);
+    }
+
+    @Override
+    int left(int node, SearchContext context) {
+      return handle(TreeView.<VALUE> node(node, context).left, context);
+    }
+
+    @Override
+    int right(int node, SearchContext context) {
+      return handle(TreeView.<VALUE> node(node, context).right, context);
+    }
+
+    @Override
+    double diff(int node, DoubleVector target, SearchContext context) {
+      TreeNode<VALUE> current = node(node, context);
+      return current.project(target, context.sparseQuery)
+          - current.splitValue;
+    }
+
+    @Override
+    int splitDimension(int node, SearchContext context) {
+      return node(node, context).splitDimension;
+    }
+
+    @Override
+    int check(int node, DoubleVector target, double rankRadius,
+        SearchContext context) {
+      TreeNode<VALUE> current = node(node, context);
+      if (!current.removed) {
+        double bound = context.candidates.bound(rankRadius);
+        double rankDistance = rankDistance(current, target,
+            context.sparseQuery, bound, distance);
+        if (rankDistance <= bound) {
+          context.candidates.offer(current.id, rankDistance);
         }
-        maxDistSquared = queue.isFull() ? queue.getMaximumPriority()
-            : Double.MAX_VALUE;
-        maxDistSquared = Math.min(maxDistSquared, distanceSquared);
       }
-      // now inspect the furthest away node as well
-      getNearestNeighbourInternal(furtherstNode, target,
-          furtherstHyperRectangle, maxDistSquared, k, radius, queue);
+      return 1;
     }
   }
 
+  /**
+   * Measures the bounded rank distance from the target to the vector of the
+   * node, by merging their entries if both are sparse.
+   *
+   * @param query the entries of the target or null if it is dense.
+   */
+  private static double rankDistance(TreeNode<?> node, DoubleVector target,
+      SparseEntries query, double bound, DistanceMeasurer distance) {
+    if (query != null && node.sparse != null) {
+      return distance.measureBoundedRankDistance(node.sparse, query, bound);
+    }
+    return distance.measureBoundedRankDistance(node.keyVector, target, bound);
+  }
+
+  /**
+   * Compiles the current state of this tree into an immutable and read
+   * optimized flat array layout. Further changes to this tree are not reflected
+   * in the compiled tree.
+   *
+   * @return a new compiled tree that yields the same search results.
+   */
+  public CompiledANNTree<VALUE> compile() {
+    return compile(root, nodes, size, size - removed, vectorDimension);
+  }
+
+  /**
+   * Compiles the tree below the given root, only nodes with an id lower than
+   * the given limit are considered. Trees with removed nodes are compiled from
+   * a compacted copy.
+   *
+   * @param live the number of nodes below the limit that are not removed.
+   */
+  CompiledANNTree<VALUE> compile(TreeNode<VALUE> root, TreeNode<VALUE>[] nodes,
+      int limit, int live, int dimension) {
+    if (live < limit) {
+      TreeNode<VALUE>[] index = newNodeArray(limit);
+      return CompiledANNTree.compile(compacted(nodes, limit, index), limit,
+          dimension, distance);
+    }
+    return CompiledANNTree.compile(root, limit, dimension, distance);
+  }
+
   @Override
   public Iterator<DoubleVector> iterator() {
-    return new VectorBFSIterator();
+    return iterator(root, size);
+  }
+
+  Iterator<DoubleVector> iterator(TreeNode<VALUE> root, int limit) {
+    return new VectorBFSIterator(root, limit);
   }
 
   // iterator for the implementation detail of tree nodes for test cases and
   // additional asserts
   Iterator<TreeNode<VALUE>> iterateNodes() {
-    return new BreadthFirstIterator();
+    return new BreadthFirstIterator(root, size);
+  }
+
+  /**
+   * Nodes are only visible to a search if they were added before the limit was
+   * taken. Since children are always added after their parents (or rebuilt
+   * with lower ids), a node that is not visible can't have visible children.
+   */
+  static boolean visible(TreeNode<?> node, int limit) {
+    return node != null && node.id < limit;
+  }
+
+  TreeNode<VALUE> getRoot() {
+    return root;
+  }
+
+  TreeNode<VALUE>[] getNodes() {
+    return nodes;
+  }
+
+  /**
+   * @return the distance measurer of the searches.
+   */
+  public DistanceMeasurer getDistanceMeasurer() {
+    return distance;
+  }
+
+  int getVectorDimension() {
+    return vectorDimension;
   }
 
   /**
-   * @return the size of the kd-tree.
+   * @return the number of nodes including the removed ones, all ids are lower.
+   */
+  int getNodeCount() {
+    return size;
+  }
+
+  /**
+   * @return the number of vectors in the tree, without the removed ones.
    */
   @Override
   public int size() {
-    return size;
+    return size - removed;
+  }
+
+  @Override
+  public int tombstones() {
+    return removed;
   }
 
   @Override
   public String toString() {
+    return toString(root);
+  }
+
+  String toString(TreeNode<VALUE> root) {
     StringBuilder sb = new StringBuilder();
     prettyPrintIternal(root, sb, 0);
     return sb.toString();
@@ -333,44 +977,94 @@ public class ANNTree<VALUE> implements ANN<VALUE> {
     return sb;
   }
 
-  static boolean strictHigher(DoubleVector lower, DoubleVector current) {
-    Iterator<DoubleVectorElement> iterateNonZero = lower.iterateNonZero();
-    while (iterateNonZero.hasNext()) {
-      DoubleVectorElement next = iterateNonZero.next();
-      if (current.get(next.getIndex()) < next.getValue())
-        return false;
+  /**
+   * @return true if both vectors have the same dimension and values,
+   *         regardless of whether they are dense or sparse.
+   */
+  static boolean equal(DoubleVector a, DoubleVector b) {
+    if (a == b) {
+      return true;
     }
-    return true;
+    if (a.getDimension() != b.getDimension()) {
+      return false;
+    }
+    return contains(a, b) && contains(b, a);
   }
 
-  static boolean strictLower(DoubleVector upper, DoubleVector current) {
-    Iterator<DoubleVectorElement> iterateNonZero = upper.iterateNonZero();
+  // true if all non-zero values of a are equal in b
+  private static boolean contains(DoubleVector a, DoubleVector b) {
+    Iterator<DoubleVectorElement> iterateNonZero = a.iterateNonZero();
     while (iterateNonZero.hasNext()) {
       DoubleVectorElement next = iterateNonZero.next();
-      if (current.get(next.getIndex()) > next.getValue())
+      if (b.get(next.getIndex()) != next.getValue()) {
         return false;
+      }
     }
     return true;
   }
 
+  /**
+   * Depth first range search that only descends into the sides of a split
+   * that intersect the range, the stack is bounded by the height of the tree.
+   */
+  private final class RangeIterator extends
+      AbstractIterator<VectorDistanceTuple<VALUE>> {
+
+    private final Deque<TreeNode<VALUE>> toVisit = new ArrayDeque<>();
+    private final int limit;
+    private final RangeBounds bounds;
+
+    RangeIterator(TreeNode<VALUE> root, int limit, RangeBounds bounds) {
+      this.limit = limit;
+      this.bounds = bounds;
+      if (visible(root, limit)) {
+        toVisit.push(root);
+      }
+    }
+
+    @Override
+    protected VectorDistanceTuple<VALUE> computeNext() {
+      while (!toVisit.isEmpty()) {
+        TreeNode<VALUE> next = toVisit.pop();
+        int sides = next.hyperplane == null ? bounds.sides(
+            next.splitDimension, next.splitValue()) : bounds.sides(
+            next.hyperplane, next.splitValue());
+        if ((sides & RangeBounds.RIGHT) != 0 && visible(next.right, limit)) {
+          toVisit.push(next.right);
+        }
+        if ((sides & RangeBounds.LEFT) != 0 && visible(next.left, limit)) {
+          toVisit.push(next.left);
+        }
+        if (!next.removed && bounds.contains(next.keyVector)) {
+          return new VectorDistanceTuple<>(next.keyVector, next.value, 0);
+        }
+      }
+      return endOfData();
+    }
+  }
+
   private final class BreadthFirstIterator extends
       AbstractIterator<TreeNode<VALUE>> {
 
     private final Deque<TreeNode<VALUE>> toVisit = new ArrayDeque<>();
+    private final int limit;
     TreeNode<VALUE> current;
 
-    public BreadthFirstIterator() {
-      toVisit.add(root);
+    public BreadthFirstIterator(TreeNode<VALUE> root, int limit) {
+      this.limit = limit;
+      if (visible(root, limit)) {
+        toVisit.add(root);
+      }
     }
 
     @Override
     protected TreeNode<VALUE> computeNext() {
       current = toVisit.poll();
       if (current != null) {
-        if (current.left != null) {
+        if (visible(current.left, limit)) {
           toVisit.add(current.left);
         }
-        if (current.right != null) {
+        if (visible(current.right, limit)) {
           toVisit.add(current.right);
         }
         return current;
@@ -383,16 +1077,24 @@ public class ANNTree<VALUE> implements ANN<VALUE> {
 
     private BreadthFirstIterator inOrderIterator;
 
-    public VectorBFSIterator() {
-      inOrderIterator = new BreadthFirstIterator();
+    public VectorBFSIterator(TreeNode<VALUE> root, int limit) {
+      inOrderIterator = new BreadthFirstIterator(root, limit);
     }
 
     @Override
     protected DoubleVector computeNext() {
       TreeNode<VALUE> next = inOrderIterator.computeNext();
+      while (next != null && next.removed) {
+        next = inOrderIterator.computeNext();
+      }
       return next != null ? next.keyVector : endOfData();
     }
 
   }
 
+  @SuppressWarnings("unchecked")
+  private static <VALUE> TreeNode<VALUE>[] newNodeArray(int length) {
+    return (TreeNode<VALUE>[]) new TreeNode<?>[length];
+  }
+
 }
@@ -0,0 +1,79 @@
+package de.jungblut.jrpt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+import com.google.common.base.Preconditions;
+
+import de.jungblut.math.DoubleVector;
+
+/**
+ * Runs a batch of searches in parallel on an executor. The queries are split
+ * into contiguous chunks, each chunk is searched by a single task so it can
+ * reuse the search state of its thread. The results keep the order of the
+ * queries.
+ */
+final class BatchSearch {
+
+  // number of chunks per worker thread to balance uneven query costs
+  private static final int CHUNKS_PER_WORKER = 4;
+
+  private BatchSearch() {
+    throw new IllegalAccessError();
+  }
+
+  static <VALUE> List<List<VectorDistanceTuple<VALUE>>> search(
+      List<DoubleVector> queries, Executor executor,
+      Function<DoubleVector, List<VectorDistanceTuple<VALUE>>> search) {
+    Preconditions.checkNotNull(queries, "queries");
+    Preconditions.checkNotNull(executor, "executor");
+
+    final DoubleVector[] queryArray = queries
+        .toArray(new DoubleVector[queries.size()]);
+    @SuppressWarnings("unchecked")
+    final List<VectorDistanceTuple<VALUE>>[] results =
+        (List<VectorDistanceTuple<VALUE>>[]) new List<?>[queryArray.length];
+    if (queryArray.length == 0) {
+      return Arrays.asList(results);
+    }
+
+    int chunks = Math.min(queryArray.length, parallelism(executor)
+        * CHUNKS_PER_WORKER);
+    int chunkSize = (queryArray.length + chunks - 1) / chunks;
+    List<CompletableFuture<Void>> futures = new ArrayList<>(chunks);
+    for (int start = 0; start < queryArray.length; start += chunkSize) {
+      final int from = start;
+      final int to = Math.min(queryArray.length, start + chunkSize);
+      futures.add(CompletableFuture.runAsync(() -> {
+        for (int i = from; i < to; i++) {
+          results[i] = search.apply(queryArray[i]);
+        }
+      }, executor));
+    }
+
+    try {
+      CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures
+          .size()])).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+    return Arrays.asList(results);
+  }
+
+  private static int parallelism(Executor executor) {
+    if (executor instanceof ForkJoinPool) {
+      return ((ForkJoinPool) executor).getParallelism();
+    }
+    return Runtime.getRuntime().availableProcessors();
+  }
+
+}
@@ -0,0 +1,188 @@
+package de.jungblut.jrpt;
+
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A max-heap of primitive (id, distance) pairs that keeps at most a fixed
+ * number of entries with the lowest distances, ties are broken by the lower
+ * id. A candidate is rejected by a single comparison against the root,
+ * otherwise it replaces the root with a single sift down. The backing arrays
+ * only grow on demand up to the capacity, so it can be used with an unbounded
+ * capacity (e.g. for radius searches) as well.
+ *
+ * After {@link #sort()} the entries are in ascending distance order and the
+ * heap needs to be {@link #reset(int)} before it can be used again.
+ */
+public final class BoundedMaxHeap {
+
+  private static final int INITIAL_LENGTH = 16;
+
+  private double[] distances;
+  private int[] ids;
+  private int size;
+  private int capacity;
+  private boolean sorted;
+
+  public BoundedMaxHeap(int capacity) {
+    int length = Math.max(1, Math.min(capacity, INITIAL_LENGTH));
+    this.distances = new double[length];
+    this.ids = new int[length];
+    reset(capacity);
+  }
+
+  /**
+   * Clears the heap and sets a new capacity.
+   */
+  public void reset(int capacity) {
+    Preconditions.checkArgument(capacity >= 0,
+        "capacity must be non-negative, but was " + capacity);
+    this.capacity = capacity;
+    this.size = 0;
+    this.sorted = false;
+  }
+
+  /**
+   * Offers a new candidate to the heap.
+   *
+   * @param id the id of the candidate.
+   * @param distance the distance of the candidate.
+   * @return true if the candidate was added, false if it was rejected.
+   */
+  public boolean offer(int id, double distance) {
+    Preconditions.checkState(!sorted, "heap is sorted and needs a reset");
+    if (size < capacity) {
+      if (size == ids.length) {
+        int newLength = (int) Math.min(capacity, 2L * ids.length);
+        ids = Arrays.copyOf(ids, newLength);
+        distances = Arrays.copyOf(distances, newLength);
+      }
+      siftUp(size++, id, distance);
+      return true;
+    } else if (size > 0 && lower(id, distance, ids[0], distances[0])) {
+      siftDown(0, size, id, distance);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return the highest distance in the heap or positive infinity if the heap
+   *         is empty.
+   */
+  public double getMaximumDistance() {
+    return size == 0 ? Double.POSITIVE_INFINITY : distances[0];
+  }
+
+  /**
+   * @return the distance a candidate must not exceed to be accepted, given an
+   *         additional upper bound.
+   */
+  public double bound(double upperBound) {
+    return isFull() ? Math.min(distances[0], upperBound) : upperBound;
+  }
+
+  public boolean isFull() {
+    return size >= capacity;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return the id at the given position, in heap order or in ascending
+   *         distance order after {@link #sort()}.
+   */
+  public int getId(int index) {
+    Preconditions.checkElementIndex(index, size);
+    return ids[index];
+  }
+
+  /**
+   * @return the distance at the given position, in heap order or in ascending
+   *         distance order after {@link #sort()}.
+   */
+  public double getDistance(int index) {
+    Preconditions.checkElementIndex(index, size);
+    return distances[index];
+  }
+
+  /**
+   * Sorts the entries in place by their ascending distance using a heap sort.
+   * This destroys the heap property, so no more candidates can be offered until
+   * the heap is reset.
+   */
+  public void sort() {
+    for (int end = size - 1; end > 0; end--) {
+      int id = ids[end];
+      double distance = distances[end];
+      ids[end] = ids[0];
+      distances[end] = distances[0];
+      siftDown(0, end, id, distance);
+    }
+    sorted = true;
+  }
+
+  private void siftUp(int index, int id, double distance) {
+    while (index > 0) {
+      int parent = (index - 1) >>> 1;
+      if (lower(id, distance, ids[parent], distances[parent])) {
+        break;
+      }
+      ids[index] = ids[parent];
+      distances[index] = distances[parent];
+      index = parent;
+    }
+    ids[index] = id;
+    distances[index] = distance;
+  }
+
+  private void siftDown(int index, int length, int id, double distance) {
+    int half = length >>> 1;
+    while (index < half) {
+      int child = (index << 1) + 1;
+      int right = child + 1;
+      if (right < length
+          && lower(ids[child], distances[child], ids[right],
+              distances[right])) {
+        child = right;
+      }
+      if (!lower(id, distance, ids[child], distances[child])) {
+        break;
+      }
+      ids[index] = ids[child];
+      distances[index] = distances[child];
+      index = child;
+    }
+    ids[index] = id;
+    distances[index] = distance;
+  }
+
+  /**
+   * Orders by distance and breaks ties by the id, so the results are
+   * deterministic.
+   */
+  private static boolean lower(int id1, double distance1, int id2,
+      double distance2) {
+    return distance1 < distance2 || (distance1 == distance2 && id1 < id2);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("[");
+    for (int i = 0; i < size; i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append(ids[i]).append(" -> ").append(distances[i]);
+    }
+    return sb.append("]").toString();
+  }
+
+}
@@ -0,0 +1,187 @@
+package de.jungblut.jrpt;
+
+import java.util.Arrays;
+
+/**
+ * Priority queue of unexplored branches for best bin first searches, ordered
+ * by the lower bound of their distance to the query. The branches are kept in
+ * primitive arrays that are reused across queries.
+ *
+ * To continue the incremental cell distance computation at a branch, the
+ * branch keeps its path: the offsets that changed from the root to the branch,
+ * stored as a linked list towards the root. Paths share their common prefix,
+ * so every branch only adds a single entry.
+ */
+final class BranchQueue {
+
+  static final int NO_PATH = -1;
+
+  private static final int INITIAL_LENGTH = 16;
+
+  // min heap of branch indices by their lower bound
+  private int[] heap = new int[INITIAL_LENGTH];
+  private int heapSize;
+
+  // the branches of the current query
+  private int[] ids = new int[INITIAL_LENGTH];
+  private double[] cellDistances = new double[INITIAL_LENGTH];
+  private double[] lowerBounds = new double[INITIAL_LENGTH];
+  private int[] paths = new int[INITIAL_LENGTH];
+  private int numBranches;
+
+  // the changed offsets of the current query
+  private int[] pathSlots = new int[INITIAL_LENGTH];
+  private double[] pathOffsets = new double[INITIAL_LENGTH];
+  private int[] pathParents = new int[INITIAL_LENGTH];
+  private int numPaths;
+
+  // the path that was restored into the offsets last
+  private int restoredPath = NO_PATH;
+  private int[] restoredStamps = new int[0];
+  private int stamp;
+
+  /**
+   * Clears the queue for a new query.
+   */
+  void reset() {
+    heapSize = 0;
+    numBranches = 0;
+    numPaths = 0;
+    restoredPath = NO_PATH;
+  }
+
+  boolean isEmpty() {
+    return heapSize == 0;
+  }
+
+  /**
+   * Adds a new branch to the queue.
+   *
+   * @param id the id of the node the branch starts at.
+   * @param cellDistance the axis aligned cell distance of the branch.
+   * @param lowerBound the lower bound of the distance to the branch.
+   * @param path the path to the branch.
+   */
+  void push(int id, double cellDistance, double lowerBound, int path) {
+    if (numBranches == ids.length) {
+      int length = ids.length * 2;
+      ids = Arrays.copyOf(ids, length);
+      cellDistances = Arrays.copyOf(cellDistances, length);
+      lowerBounds = Arrays.copyOf(lowerBounds, length);
+      paths = Arrays.copyOf(paths, length);
+      heap = Arrays.copyOf(heap, length);
+    }
+    int branch = numBranches++;
+    ids[branch] = id;
+    cellDistances[branch] = cellDistance;
+    lowerBounds[branch] = lowerBound;
+    paths[branch] = path;
+
+    // sift up
+    int index = heapSize++;
+    while (index > 0) {
+      int parent = (index - 1) >>> 1;
+      if (lowerBounds[heap[parent]] <= lowerBound) {
+        break;
+      }
+      heap[index] = heap[parent];
+      index = parent;
+    }
+    heap[index] = branch;
+  }
+
+  /**
+   * Removes the branch with the lowest lower bound from the queue.
+   *
+   * @return the branch index to access its properties.
+   */
+  int poll() {
+    int branch = heap[0];
+    int last = heap[--heapSize];
+    double lowerBound = lowerBounds[last];
+    // sift down
+    int index = 0;
+    int half = heapSize >>> 1;
+    while (index < half) {
+      int child = (index << 1) + 1;
+      int right = child + 1;
+      if (right < heapSize
+          && lowerBounds[heap[right]] < lowerBounds[heap[child]]) {
+        child = right;
+      }
+      if (lowerBound <= lowerBounds[heap[child]]) {
+        break;
+      }
+      heap[index] = heap[child];
+      index = child;
+    }
+    if (heapSize > 0) {
+      heap[index] = last;
+    }
+    return branch;
+  }
+
+  /**
+   * @return a new path that extends the given path by the changed offset.
+   */
+  int extendPath(int parent, int slot, double offset) {
+    if (numPaths == pathSlots.length) {
+      int length = pathSlots.length * 2;
+      pathSlots = Arrays.copyOf(pathSlots, length);
+      pathOffsets = Arrays.copyOf(pathOffsets, length);
+      pathParents = Arrays.copyOf(pathParents, length);
+    }
+    int path = numPaths++;
+    pathSlots[path] = slot;
+    pathOffsets[path] = offset;
+    pathParents[path] = parent;
+    return path;
+  }
+
+  /**
+   * Sets the offsets to the state of the given path. The offsets must only be
+   * changed by this method during a query.
+   */
+  void restoreOffsets(int path, double[] offsets) {
+    if (path == restoredPath) {
+      return;
+    }
+    for (int p = restoredPath; p != NO_PATH; p = pathParents[p]) {
+      offsets[pathSlots[p]] = 0d;
+    }
+    if (restoredStamps.length < offsets.length) {
+      restoredStamps = new int[offsets.length];
+      stamp = 0;
+    }
+    if (++stamp == 0) {
+      Arrays.fill(restoredStamps, 0);
+      stamp = 1;
+    }
+    // the newest change of a slot is the closest to the branch
+    for (int p = path; p != NO_PATH; p = pathParents[p]) {
+      int slot = pathSlots[p];
+      if (restoredStamps[slot] != stamp) {
+        restoredStamps[slot] = stamp;
+        offsets[slot] = pathOffsets[p];
+      }
+    }
+    restoredPath = path;
+  }
+
+  int id(int branch) {
+    return ids[branch];
+  }
+
+  double cellDistance(int branch) {
+    return cellDistances[branch];
+  }
+
+  double lowerBound(int branch) {
+    return lowerBounds[branch];
+  }
+
+  int path(int branch) {
+    return paths[branch];
+  }
+
+}
@@ -0,0 +1,833 @@
+package de.jungblut.jrpt;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Stream;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Lists;
+
+import de.jungblut.jrpt.distance.EuclidianDistance;
+import de.jungblut.jrpt.rules.Hyperplane;
+import de.jungblut.jrpt.rules.SplitPolicy;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.dense.DenseDoubleVector;
+import de.jungblut.math.tuple.Tuple;
+
+/**
+ * ANN tree that keeps its vectors in leaf buckets. Inner nodes only hold the
+ * split, leaves store up to a fixed number of vectors contiguously in a
+ * primitive block that is scanned linearly. Compared to the {@link ANNTree},
+ * that stores a vector in every node, there are far fewer nodes to branch on
+ * and the distance computations run over consecutive memory.
+ *
+ * A leaf is split by the {@link SplitPolicy} when it overflows on an add, at
+ * the median of the chosen dimension or at the chosen hyperplane. Leaves that
+ * can't be split, because all of their vectors are equal in the split, may grow
+ * beyond the bucket size. They are only tried again once they doubled, so
+ * adding many equal vectors costs amortized constant time per add.
+ *
+ * Removed vectors are taken out of their leaf right away, their ids are
+ * reused once the tree is compacted.
+ *
+ * Sparse vectors are stored densely in the leaf blocks. The format of the
+ * blocks is set by the {@link VectorStorage}, compact formats like float32 or
+ * int8 fit many more vectors into the same memory. The vectors of the results
+ * are restored from the blocks, unless the storage keeps the added vectors to
+ * re-rank the candidates.
+ *
+ * @param <VALUE> the payload type.
+ */
+public class BucketANNTree<VALUE> implements ANN<VALUE> {
+
+  public static final int DEFAULT_BUCKET_SIZE = 32;
+
+  // subtrees larger than this are built in parallel
+  private static final int PARALLEL_THRESHOLD = 4096;
+
+  static final class Node {
+    // the split of inner nodes, see ANNTree.TreeNode
+    int splitDimension = -1;
+    Hyperplane hyperplane;
+    double splitValue;
+    Node left;
+    Node right;
+
+    // the vectors of leaves in the format of the storage, vector i is in [i *
+    // dimension, (i + 1) * dimension) of the block
+    Object block;
+    int[] ids;
+    int count;
+    // the leaf is split once it holds more vectors, twice the count of the
+    // last split that failed
+    int limit;
+
+    boolean isLeaf() {
+      return ids != null;
+    }
+
+    double project(double[] v) {
+      return hyperplane == null ? v[splitDimension] : hyperplane.project(v);
+    }
+  }
+
+  private final SplitPolicy<VALUE> splitRule;
+  private final int bucketSize;
+  private final VectorStorage storage;
+
+  // the payloads and leaves by their id, the insertion order. The leaf of a
+  // removed id is null until the next compaction.
+  private Object[] values = new Object[16];
+  private Node[] leaves = new Node[16];
+  // the added vectors by their id, null if the storage doesn't keep them
+  private DoubleVector[] vectors;
+  // the number of ids including the removed ones
+  private int size;
+  private int removed;
+  private double compactionThreshold = ANNTree.DEFAULT_COMPACTION_THRESHOLD;
+  private int vectorDimension;
+  private Node root;
+
+  public BucketANNTree(SplitPolicy<VALUE> splitRule) {
+    this(splitRule, DEFAULT_BUCKET_SIZE);
+  }
+
+  /**
+   * @param splitRule the split rule.
+   * @param bucketSize the maximum number of vectors in a leaf.
+   */
+  public BucketANNTree(SplitPolicy<VALUE> splitRule, int bucketSize) {
+    this(splitRule, bucketSize, VectorStorage.doubles());
+  }
+
+  /**
+   * @param splitRule the split rule.
+   * @param bucketSize the maximum number of vectors in a leaf.
+   * @param storage the format of the vectors in the leaves.
+   */
+  public BucketANNTree(SplitPolicy<VALUE> splitRule, int bucketSize,
+      VectorStorage storage) {
+    this.splitRule = Preconditions.checkNotNull(splitRule, "splitRule");
+    Preconditions.checkArgument(bucketSize > 0,
+        "bucketSize must be positive, but was " + bucketSize);
+    this.bucketSize = bucketSize;
+    this.storage = Preconditions.checkNotNull(storage, "storage");
+    if (storage.keepsVectors()) {
+      vectors = new DoubleVector[16];
+    }
+  }
+
+  @Override
+  public void addVectorStream(Stream<DoubleVector> vectors) {
+    vectors.forEach((v) -> add(v, null));
+  }
+
+  @Override
+  public void addStream(Stream<Tuple<DoubleVector, VALUE>> pairs) {
+    pairs.forEach((v) -> add(v.getFirst(), v.getSecond()));
+  }
+
+  @Override
+  public void add(DoubleVector vec, VALUE value) {
+    Preconditions.checkNotNull(vec, "vector");
+    validateVector(vec);
+    final int id = store(vec, value);
+    final double[] point = vec.toArray();
+
+    if (root == null) {
+      root = newLeaf(bucketSize);
+    }
+    Node current = root;
+    int level = 0;
+    while (!current.isLeaf()) {
+      current = current.splitValue <= current.project(point) ? current.right
+          : current.left;
+      level++;
+    }
+    append(current, id, point);
+
+    if (current.count > current.limit) {
+      // rebuild the overflowing leaf as a subtree in place, the id of the
+      // added vector identifies the subtree for the split policy, see
+      // SplitPolicy#splitHyperplane(List, int, long)
+      DoubleVector[] points = new DoubleVector[current.count];
+      for (int i = 0; i < current.count; i++) {
+        points[i] = vector(current, i);
+      }
+      Node subtree = new Builder(Arrays.copyOf(current.ids, current.count),
+          points, (id + 1L) << 32).build(0, current.count, level);
+      copy(subtree, current);
+      if (current.isLeaf()) {
+        // the leaf couldn't be split, so the ids still belong to it
+        for (int i = 0; i < current.count; i++) {
+          leaves[current.ids[i]] = current;
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds all vector/payload pairs of the given stream and rebuilds the tree
+   * afterwards with {@link #balance()}.
+   */
+  public void bulkLoad(Stream<Tuple<DoubleVector, VALUE>> pairs) {
+    final int from = size;
+    List<DoubleVector> added = new ArrayList<>();
+    pairs.forEach((v) -> {
+      DoubleVector vec = Preconditions.checkNotNull(v.getFirst(), "vector");
+      validateVector(vec);
+      store(vec, v.getSecond());
+      added.add(vec);
+    });
+    DoubleVector[] points = new DoubleVector[size];
+    for (int id = 0; id < from; id++) {
+      points[id] = isRemoved(id) ? null : vector(id);
+    }
+    for (int id = from; id < size; id++) {
+      points[id] = added.get(id - from);
+    }
+    rebuild(points);
+  }
+
+  /**
+   * Rebuilds the whole tree by recursive median partitioning down to the
+   * bucket size, larger trees are built in parallel. The ids of removed
+   * vectors are dropped like in {@link #compact()}.
+   */
+  @Override
+  public void balance() {
+    DoubleVector[] points = new DoubleVector[size];
+    for (int id = 0; id < size; id++) {
+      points[id] = isRemoved(id) ? null : vector(id);
+    }
+    rebuild(points);
+  }
+
+  /**
+   * Rebuilds the whole tree without the ids of the removed vectors, the
+   * remaining ones are renumbered in the order they were added.
+   */
+  public void compact() {
+    if (removed > 0) {
+      balance();
+    }
+  }
+
+  /**
+   * Removes a vector with the given payload from its leaf. Once the ratio of
+   * removed ids exceeds the compaction threshold, the tree is compacted. If
+   * the vector was added multiple times with the same payload, only one of
+   * them is removed.
+   *
+   * Vectors are compared in the format of the storage, so with a lossy format
+   * any vector that is encoded the same way in the same leaf matches.
+   *
+   * @return true if a vector was removed.
+   */
+  @Override
+  public boolean remove(DoubleVector vec, VALUE payload) {
+    Preconditions.checkNotNull(vec, "vector");
+    if (root == null) {
+      return false;
+    }
+    checkDimension(vec);
+    final double[] point = vec.toArray();
+    final double[] encoded = new double[vectorDimension];
+    Object block = storage.newBlock(1, vectorDimension);
+    storage.encode(point, block, 0);
+    storage.decode(block, 0, encoded);
+
+    final double[] stored = new double[vectorDimension];
+    Deque<Node> toVisit = new ArrayDeque<>();
+    toVisit.push(root);
+    while (!toVisit.isEmpty()) {
+      Node node = toVisit.pop();
+      if (!node.isLeaf()) {
+        // vectors are added by their own values, but overflowing leaves are
+        // split by the values restored from the storage
+        boolean right = node.splitValue <= node.project(point);
+        toVisit.push(right ? node.right : node.left);
+        if (right != node.splitValue <= node.project(encoded)) {
+          toVisit.push(right ? node.left : node.right);
+        }
+        continue;
+      }
+      for (int i = 0; i < node.count; i++) {
+        if (!Objects.equals(values[node.ids[i]], payload)) {
+          continue;
+        }
+        storage.decode(node.block, i, stored);
+        if (Arrays.equals(stored, encoded)) {
+          removeAt(node, i);
+          if (removed > compactionThreshold * size) {
+            compact();
+          }
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Removes the vector at the given index of the leaf, the last vector of the
+   * leaf takes its place.
+   */
+  private void removeAt(Node leaf, int index) {
+    final int id = leaf.ids[index];
+    final int last = leaf.count - 1;
+    if (index != last) {
+      storage.move(leaf.block, last, index, vectorDimension);
+      leaf.ids[index] = leaf.ids[last];
+    }
+    leaf.count--;
+    leaves[id] = null;
+    values[id] = null;
+    if (vectors != null) {
+      vectors[id] = null;
+    }
+    removed++;
+  }
+
+  private boolean isRemoved(int id) {
+    return leaves[id] == null;
+  }
+
+  /**
+   * @see ANNTree#setCompactionThreshold(double)
+   */
+  public void setCompactionThreshold(double threshold) {
+    this.compactionThreshold = IndexPreconditions
+        .checkCompactionThreshold(threshold);
+  }
+
+  /**
+   * Rebuilds the whole tree from the given vectors by their id, the ids
+   * without a vector are dropped.
+   */
+  private void rebuild(DoubleVector[] points) {
+    int live = 0;
+    for (int id = 0; id < size; id++) {
+      if (points[id] != null) {
+        points[live] = points[id];
+        values[live] = values[id];
+        if (vectors != null) {
+          vectors[live] = vectors[id];
+        }
+        live++;
+      }
+    }
+    Arrays.fill(values, live, size, null);
+    Arrays.fill(leaves, live, size, null);
+    if (vectors != null) {
+      Arrays.fill(vectors, live, size, null);
+    }
+    size = live;
+    removed = 0;
+    if (size == 0) {
+      root = null;
+      return;
+    }
+    int[] ids = new int[size];
+    for (int i = 0; i < size; i++) {
+      ids[i] = i;
+    }
+    Builder builder = new Builder(ids, points, 0);
+    if (size > PARALLEL_THRESHOLD) {
+      root = ForkJoinPool.commonPool().invoke(
+          builder.new BuildTask(0, size, 0));
+    } else {
+      root = builder.build(0, size, 0);
+    }
+  }
+
+  private int store(DoubleVector vec, VALUE value) {
+    if (size == values.length) {
+      values = Arrays.copyOf(values, size * 2);
+      leaves = Arrays.copyOf(leaves, size * 2);
+      if (vectors != null) {
+        vectors = Arrays.copyOf(vectors, size * 2);
+      }
+    }
+    if (vectors != null) {
+      vectors[size] = vec;
+    }
+    values[size] = value;
+    return size++;
+  }
+
+  private void validateVector(DoubleVector vec) {
+    vectorDimension = IndexPreconditions.checkAddedVector(vectorDimension,
+        vec, "tree");
+  }
+
+  private Node newLeaf(int capacity) {
+    Node leaf = new Node();
+    leaf.block = storage.newBlock(capacity, vectorDimension);
+    leaf.ids = new int[capacity];
+    leaf.limit = bucketSize;
+    return leaf;
+  }
+
+  private void append(Node leaf, int id, double[] point) {
+    if (leaf.count == leaf.ids.length) {
+      leaf.ids = Arrays.copyOf(leaf.ids, leaf.count * 2);
+      leaf.block = storage.copyOf(leaf.block, leaf.ids.length,
+          vectorDimension);
+    }
+    storage.encode(point, leaf.block, leaf.count);
+    leaf.ids[leaf.count++] = id;
+    leaves[id] = leaf;
+  }
+
+  private static void copy(Node from, Node to) {
+    to.splitDimension = from.splitDimension;
+    to.hyperplane = from.hyperplane;
+    to.splitValue = from.splitValue;
+    to.left = from.left;
+    to.right = from.right;
+    to.block = from.block;
+    to.ids = from.ids;
+    to.count = from.count;
+    to.limit = from.limit;
+  }
+
+  @Override
+  public List<VectorDistanceTuple<VALUE>> getNearestNeighbours(
+      DoubleVector vec, int k, double radius) {
+    if (root == null) {
+      return Lists.newArrayList();
+    }
+    checkDimension(vec);
+    EuclidianDistance distance = EuclidianDistance.get();
+    SearchContext context = SearchContext.get();
+    final double rankRadius = distance.toRankDistance(radius);
+    context.reset(vectorDimension, numCandidates(k));
+    final double[] target = vec.toArray();
+    Search search = new Search(storage.prepare(target, context));
+    search.search(search.root(context), target, rankRadius, context);
+    return results(vec, k, rankRadius, distance, context);
+  }
+
+  @Override
+  public List<VectorDistanceTuple<VALUE>> getNearestNeighbours(
+      DoubleVector vec, int k, double radius, SearchOptions options) {
+    Preconditions.checkNotNull(options, "options");
+    if (root == null) {
+      return Lists.newArrayList();
+    }
+    checkDimension(vec);
+    EuclidianDistance distance = EuclidianDistance.get();
+    SearchContext context = SearchContext.get();
+    final double rankRadius = distance.toRankDistance(radius);
+    context.reset(vectorDimension, numCandidates(k), options.getMaxChecks());
+    final double[] target = vec.toArray();
+    Search search = new Search(storage.prepare(target, context));
+    search.bestBinFirst(search.root(context), target, rankRadius,
+        options.rankFactor(), context);
+    return results(vec, k, rankRadius, distance, context);
+  }
+
+  /**
+   * @return the number of candidates to find on the stored vectors.
+   */
+  private int numCandidates(int k) {
+    final int factor = storage.getRerankFactor();
+    if (factor == 0) {
+      return k;
+    }
+    return k > Integer.MAX_VALUE / factor ? Integer.MAX_VALUE : k * factor;
+  }
+
+  private List<VectorDistanceTuple<VALUE>> results(DoubleVector vec, int k,
+      double rankRadius, EuclidianDistance distance, SearchContext context) {
+    BoundedMaxHeap candidates = context.candidates;
+    if (storage.getRerankFactor() > 0) {
+      // re-rank the candidates by their exact distance
+      context.resetResults(k, 0);
+      for (int i = 0; i < candidates.size(); i++) {
+        int id = candidates.getId(i);
+        double rankDistance = distance.measureRankDistance(vectors[id], vec);
+        if (rankDistance <= rankRadius) {
+          context.results.offer(id, rankDistance);
+        }
+      }
+      candidates = context.results;
+    }
+    candidates.sort();
+    List<VectorDistanceTuple<VALUE>> list = new ArrayList<>(
+        candidates.size());
+    for (int i = 0; i < candidates.size(); i++) {
+      int id = candidates.getId(i);
+      list.add(new VectorDistanceTuple<>(vector(id), value(id), distance
+          .toDistance(candidates.getDistance(i))));
+    }
+    return list;
+  }
+
+  /**
+   * Scans all vectors of the leaf at once. The bound at the start of the scan
+   * only gets tighter while the candidates are offered, so the storage may stop
+   * measuring every vector that exceeds it.
+   */
+  private void scan(Node leaf, double[] query, final double rankRadius,
+      SearchContext context) {
+    final int[] ids = leaf.ids;
+    final int count = leaf.count;
+    final BoundedMaxHeap candidates = context.candidates;
+    final double[] distances = context.distances(count);
+    storage.measure(query, leaf.block, count, candidates.bound(rankRadius),
+        distances);
+    for (int i = 0; i < count; i++) {
+      if (distances[i] <= candidates.bound(rankRadius)) {
+        candidates.offer(ids[i], distances[i]);
+      }
+    }
+  }
+
+  /**
+   * The tree for a search, only leaves contain vectors and every vector in a
+   * scanned leaf counts as a check. The tree is traversed with the target, the
+   * leaves are scanned with the query that was prepared by the storage.
+   */
+  private final class Search extends TreeSearch<double[]> {
+
+    private final double[] query;
+
+    Search(double[] query) {
+      super(EuclidianDistance.get(), vectorDimension);
+      this.query = query;
+    }
+
+    int root(SearchContext context) {
+      return context.handle(root);
+    }
+
+    private Node node(int handle, SearchContext context) {
+      return (Node) context.node(handle);
+    }
+
+    @Override
+    int left(int node, SearchContext context) {
+      Node current = node(node, context);
+      return current.isLeaf() ? NONE : context.handle(current.left);
+    }
+
+    @Override
+    int right(int node, SearchContext context) {
+      Node current = node(node, context);
+      return current.isLeaf() ? NONE : context.handle(current.right);
+    }
+
+    @Override
+    double diff(int node, double[] target, SearchContext context) {
+      Node current = node(node, context);
+      return current.project(target) - current.splitValue;
+    }
+
+    @Override
+    int splitDimension(int node, SearchContext context) {
+      return node(node, context).splitDimension;
+    }
+
+    @Override
+    int check(int node, double[] target, double rankRadius,
+        SearchContext context) {
+      Node current = node(node, context);
+      if (!current.isLeaf()) {
+        return 0;
+      }
+      scan(current, query, rankRadius, context);
+      return current.count;
+    }
+  }
+
+  @Override
+  public List<VectorDistanceTuple<VALUE>> rangeQuery(DoubleVector lower,
+      DoubleVector upper) {
+    return Lists.newArrayList(rangeIterator(lower, upper));
+  }
+
+  /**
+   * Depth first range search like in the {@link ANNTree}, the vectors of a leaf
+   * are checked in the compact form of the storage.
+   */
+  @Override
+  public Iterator<VectorDistanceTuple<VALUE>> rangeIterator(
+      DoubleVector lower, DoubleVector upper) {
+    if (root == null) {
+      return Collections.emptyIterator();
+    }
+    checkDimension(lower);
+    checkDimension(upper);
+    final RangeBounds bounds = new RangeBounds(lower, upper);
+    return new AbstractIterator<VectorDistanceTuple<VALUE>>() {
+      final Deque<Node> toVisit = new ArrayDeque<>(Arrays.asList(root));
+      final double[] vector = new double[vectorDimension];
+      Node leaf;
+      int index;
+
+      @Override
+      protected VectorDistanceTuple<VALUE> computeNext() {
+        while (true) {
+          while (leaf != null && index < leaf.count) {
+            int i = index++;
+            storage.decode(leaf.block, i, vector);
+            if (bounds.contains(vector, 0)) {
+              return new VectorDistanceTuple<>(vector(leaf, i),
+                  value(leaf.ids[i]), 0);
+            }
+          }
+          if (toVisit.isEmpty()) {
+            return endOfData();
+          }
+          Node next = toVisit.pop();
+          if (next.isLeaf()) {
+            leaf = next;
+            index = 0;
+            continue;
+          }
+          int sides = next.hyperplane == null ? bounds.sides(
+              next.splitDimension, next.splitValue) : bounds.sides(
+              next.hyperplane, next.splitValue);
+          if ((sides & RangeBounds.RIGHT) != 0) {
+            toVisit.push(next.right);
+          }
+          if ((sides & RangeBounds.LEFT) != 0) {
+            toVisit.push(next.left);
+          }
+        }
+      }
+    };
+  }
+
+  private void checkDimension(DoubleVector vec) {
+    IndexPreconditions.checkDimension(vectorDimension, vec, "tree");
+  }
+
+  /**
+   * @return the maximum number of vectors in a leaf.
+   */
+  public int getBucketSize() {
+    return bucketSize;
+  }
+
+  @Override
+  public int size() {
+    return size - removed;
+  }
+
+  @Override
+  public int tombstones() {
+    return removed;
+  }
+
+  /**
+   * Iterates over the vectors in the order they were added.
+   */
+  @Override
+  public Iterator<DoubleVector> iterator() {
+    return new AbstractIterator<DoubleVector>() {
+      private int id;
+
+      @Override
+      protected DoubleVector computeNext() {
+        while (id < size && isRemoved(id)) {
+          id++;
+        }
+        return id < size ? vector(id++) : endOfData();
+      }
+    };
+  }
+
+  /**
+   * @return the vector with the given id, restored from its leaf if the
+   *         storage doesn't keep the vectors.
+   */
+  private DoubleVector vector(int id) {
+    if (vectors != null) {
+      return vectors[id];
+    }
+    Node leaf = leaves[id];
+    int index = 0;
+    while (leaf.ids[index] != id) {
+      index++;
+    }
+    return vector(leaf, index);
+  }
+
+  /**
+   * @return the vector at the given index of the leaf.
+   */
+  private DoubleVector vector(Node leaf, int index) {
+    if (vectors != null) {
+      return vectors[leaf.ids[index]];
+    }
+    double[] vector = new double[vectorDimension];
+    storage.decode(leaf.block, index, vector);
+    return new DenseDoubleVector(vector);
+  }
+
+  Node getRoot() {
+    return root;
+  }
+
+  public VectorStorage getStorage() {
+    return storage;
+  }
+
+  @SuppressWarnings("unchecked")
+  private VALUE value(int id) {
+    return (VALUE) values[id];
+  }
+
+  /**
+   * Builds subtrees by recursive partitioning of a range of ids.
+   */
+  private final class Builder extends KeyedPartition {
+
+    private final int[] ids;
+    // the vectors of the ids
+    private final DoubleVector[] points;
+    // added to the offsets of the ranges, which identify the subtrees
+    private final long offset;
+
+    Builder(int[] ids, DoubleVector[] points, long offset) {
+      super(ids.length);
+      this.ids = ids;
+      this.points = points;
+      this.offset = offset;
+    }
+
+    @Override
+    void swapItems(int i, int j) {
+      int id = ids[i];
+      ids[i] = ids[j];
+      ids[j] = id;
+      DoubleVector point = points[i];
+      points[i] = points[j];
+      points[j] = point;
+    }
+
+    Node build(int from, int to, int level) {
+      Node node = new Node();
+      int pivot = to - from > bucketSize ? split(from, to, level, node) : -1;
+      if (pivot < 0) {
+        return leaf(from, to);
+      }
+      node.left = build(from, pivot, level + 1);
+      node.right = build(pivot, to, level + 1);
+      return node;
+    }
+
+    private final class BuildTask extends RecursiveTask<Node> {
+      private static final long serialVersionUID = 1L;
+
+      private final int from;
+      private final int to;
+      private final int level;
+
+      BuildTask(int from, int to, int level) {
+        this.from = from;
+        this.to = to;
+        this.level = level;
+      }
+
+      @Override
+      protected Node compute() {
+        if (to - from <= PARALLEL_THRESHOLD) {
+          return build(from, to, level);
+        }
+        Node node = new Node();
+        int pivot = split(from, to, level, node);
+        if (pivot < 0) {
+          return leaf(from, to);
+        }
+        BuildTask left = new BuildTask(from, pivot, level + 1);
+        left.fork();
+        node.right = new BuildTask(pivot, to, level + 1).compute();
+        node.left = left.join();
+        return node;
+      }
+    }
+
+    /**
+     * Chooses the split for the given range and partitions it, everything
+     * lower than the split value goes to the left.
+     *
+     * @param node the node to set the split on.
+     * @return the index of the first id on the right side or -1 if the range
+     *         can't be split.
+     */
+    private int split(int from, int to, int level, Node node) {
+      List<DoubleVector> subtree = Arrays.asList(points).subList(from, to);
+      Hyperplane h = splitRule.splitHyperplane(subtree, level,
+          offset + from);
+      double threshold;
+      int dimension = -1;
+      if (h != null) {
+        for (int i = from; i < to; i++) {
+          keys[i] = h.project(points[i]);
+        }
+        threshold = h.getThreshold();
+      } else {
+        dimension = splitRule.splitDimension(subtree, level);
+        Preconditions.checkElementIndex(dimension, vectorDimension,
+            "split returned invalid index!");
+        for (int i = from; i < to; i++) {
+          keys[i] = points[i].get(dimension);
+        }
+        threshold = medianThreshold(from, to);
+      }
+
+      int lo = partition(from, to, threshold);
+      if (lo == from || lo == to) {
+        return -1;
+      }
+      node.hyperplane = h;
+      node.splitDimension = dimension;
+      node.splitValue = threshold;
+      return lo;
+    }
+
+    /**
+     * @return the median of the keys in the range or the next higher key if
+     *         the median is the minimum, so both sides can be non-empty.
+     */
+    private double medianThreshold(int from, int to) {
+      int k = (from + to) >>> 1;
+      double median = keys[select(from, to - 1, k)];
+      double min = Double.POSITIVE_INFINITY;
+      double higher = Double.POSITIVE_INFINITY;
+      for (int i = from; i < to; i++) {
+        min = Math.min(min, keys[i]);
+        if (keys[i] > median) {
+          higher = Math.min(higher, keys[i]);
+        }
+      }
+      return median > min ? median : higher;
+    }
+
+    private Node leaf(int from, int to) {
+      Node leaf = newLeaf(Math.max(bucketSize, to - from));
+      for (int i = from; i < to; i++) {
+        append(leaf, ids[i], points[i].toArray());
+      }
+      if (to - from > bucketSize) {
+        // the range couldn't be split
+        leaf.limit = 2 * (to - from);
+      }
+      return leaf;
+    }
+  }
+
+}
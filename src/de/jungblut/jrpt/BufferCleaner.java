@@ -0,0 +1,74 @@
+package de.jungblut.jrpt;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * Frees the memory of direct and mapped buffers eagerly instead of waiting for
+ * the garbage collector. There is no public API for this before the foreign
+ * memory API, so it is done reflectively with sun.misc.Unsafe#invokeCleaner
+ * (Java 9+) or the cleaner of the buffer (Java 8). If neither is accessible,
+ * the memory is freed once the buffers are garbage collected.
+ *
+ * A buffer must not be accessed anymore once it was freed, that would crash the
+ * JVM.
+ */
+final class BufferCleaner {
+
+  private static final Cleaner CLEANER = select();
+
+  private interface Cleaner {
+    void free(ByteBuffer buffer) throws ReflectiveOperationException;
+  }
+
+  private BufferCleaner() {
+    throw new IllegalAccessError();
+  }
+
+  /**
+   * Frees the given direct buffers, heap buffers are ignored.
+   */
+  static void free(ByteBuffer[] buffers) {
+    for (ByteBuffer buffer : buffers) {
+      if (CLEANER == null || !buffer.isDirect()) {
+        continue;
+      }
+      try {
+        CLEANER.free(buffer);
+      } catch (ReflectiveOperationException | RuntimeException e) {
+        // the garbage collector will free it
+      }
+    }
+  }
+
+  private static Cleaner select() {
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Method invokeCleaner = unsafeClass.getMethod("invokeCleaner",
+          ByteBuffer.class);
+      Field field = unsafeClass.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      Object unsafe = field.get(null);
+      return (buffer) -> invokeCleaner.invoke(unsafe, buffer);
+    } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+      // not on Java 9+
+    }
+    try {
+      Method cleanerMethod = ByteBuffer.allocateDirect(1).getClass()
+          .getMethod("cleaner");
+      cleanerMethod.setAccessible(true);
+      Method clean = cleanerMethod.getReturnType().getMethod("clean");
+      clean.setAccessible(true);
+      return (buffer) -> {
+        Object cleaner = cleanerMethod.invoke(buffer);
+        if (cleaner != null) {
+          clean.invoke(cleaner);
+        }
+      };
+    } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+      return null;
+    }
+  }
+
+}
@@ -0,0 +1,376 @@
+package de.jungblut.jrpt;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Lists;
+
+import de.jungblut.jrpt.ANNTree.TreeNode;
+import de.jungblut.jrpt.distance.DistanceMeasurer;
+import de.jungblut.jrpt.distance.EuclidianDistance;
+import de.jungblut.jrpt.rules.Hyperplane;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.DoubleVector.DoubleVectorElement;
+
+/**
+ * Immutable, read-optimized representation of an {@link ANNTree}. The tree is
+ * laid out in pre-order, so a left child always directly follows its parent.
+ * All coordinates are kept in one contiguous array in layout order, the split
+ * information and child offsets are kept in parallel primitive arrays and the
+ * payloads are indexed by the node id (the position in the layout).
+ *
+ * Sparse vectors are stored densely in the coordinate array, the original
+ * vectors are only kept to hand them out in the search results.
+ *
+ * Instances are created by {@link ANNTree#compile()} and are safe to be queried
+ * by multiple threads concurrently.
+ *
+ * @param <VALUE> the payload type.
+ */
+public final class CompiledANNTree<VALUE> implements ANNSearch<VALUE>,
+    Iterable<DoubleVector> {
+
+  static final int NO_CHILD = TreeSearch.NONE;
+  // the largest array length that every common JVM can allocate
+  static final int MAX_COORDINATES = Integer.MAX_VALUE - 8;
+
+  private final int size;
+  private final int dimension;
+  private final DistanceMeasurer distance;
+
+  // coordinates of node i are in [i * dimension, (i + 1) * dimension)
+  final double[] coordinates;
+  final int[] splitDimensions;
+  // hyperplanes of the nodes that don't split on an axis, otherwise null
+  final Hyperplane[] hyperplanes;
+  final double[] splitValues;
+  final int[] leftChildren;
+  final int[] rightChildren;
+
+  private final DoubleVector[] vectors;
+  final Object[] values;
+
+  private final Search search;
+
+  private CompiledANNTree(int size, int dimension, DistanceMeasurer distance) {
+    this.size = size;
+    this.dimension = dimension;
+    this.distance = distance;
+    final long length = (long) size * dimension;
+    Preconditions.checkArgument(length <= MAX_COORDINATES,
+        "%s vectors of dimension %s exceed the maximum array length of the"
+            + " coordinates", size, dimension);
+    this.coordinates = new double[(int) length];
+    this.splitDimensions = new int[size];
+    this.hyperplanes = new Hyperplane[size];
+    this.splitValues = new double[size];
+    this.leftChildren = new int[size];
+    this.rightChildren = new int[size];
+    this.vectors = new DoubleVector[size];
+    this.values = new Object[size];
+    this.search = new Search();
+  }
+
+  /**
+   * Compiles the tree starting at the given root into the flat layout.
+   *
+   * @param root the root of the tree, may be null for an empty tree.
+   * @param limit only nodes with a lower id are compiled.
+   * @param dimension the dimension of the vectors in the tree.
+   * @param distance the distance measurer of the tree.
+   */
+  static <VALUE> CompiledANNTree<VALUE> compile(TreeNode<VALUE> root,
+      int limit, int dimension, DistanceMeasurer distance) {
+    List<TreeNode<VALUE>> nodes = Lists.newArrayList();
+    List<int[]> parents = Lists.newArrayList();
+    // we need the exact number of reachable nodes upfront, so collect them in
+    // pre-order together with their parent link first
+    Deque<TreeNode<VALUE>> toVisit = new ArrayDeque<>();
+    Deque<int[]> parentLinks = new ArrayDeque<>();
+    if (ANNTree.visible(root, limit)) {
+      toVisit.push(root);
+      parentLinks.push(new int[] { NO_CHILD, 0 });
+    }
+    while (!toVisit.isEmpty()) {
+      TreeNode<VALUE> node = toVisit.pop();
+      int[] parentLink = parentLinks.pop();
+      int id = nodes.size();
+      nodes.add(node);
+      parents.add(parentLink);
+      if (ANNTree.visible(node.right, limit)) {
+        toVisit.push(node.right);
+        parentLinks.push(new int[] { id, 1 });
+      }
+      if (ANNTree.visible(node.left, limit)) {
+        toVisit.push(node.left);
+        parentLinks.push(new int[] { id, 0 });
+      }
+    }
+
+    CompiledANNTree<VALUE> tree = new CompiledANNTree<>(nodes.size(),
+        dimension, distance);
+    for (int id = 0; id < nodes.size(); id++) {
+      TreeNode<VALUE> node = nodes.get(id);
+      DoubleVector v = node.keyVector;
+      int offset = id * dimension;
+      if (v.isSparse()) {
+        Iterator<DoubleVectorElement> iterateNonZero = v.iterateNonZero();
+        while (iterateNonZero.hasNext()) {
+          DoubleVectorElement next = iterateNonZero.next();
+          tree.coordinates[offset + next.getIndex()] = next.getValue();
+        }
+      } else {
+        for (int d = 0; d < dimension; d++) {
+          tree.coordinates[offset + d] = v.get(d);
+        }
+      }
+      tree.splitDimensions[id] = node.splitDimension;
+      tree.hyperplanes[id] = node.hyperplane;
+      tree.splitValues[id] = node.splitValue();
+      tree.leftChildren[id] = NO_CHILD;
+      tree.rightChildren[id] = NO_CHILD;
+      tree.vectors[id] = v;
+      tree.values[id] = node.value;
+
+      int[] parentLink = parents.get(id);
+      if (parentLink[0] != NO_CHILD) {
+        if (parentLink[1] == 0) {
+          tree.leftChildren[parentLink[0]] = id;
+        } else {
+          tree.rightChildren[parentLink[0]] = id;
+        }
+      }
+    }
+    return tree;
+  }
+
+  @Override
+  public List<VectorDistanceTuple<VALUE>> getNearestNeighbours(
+      DoubleVector vec, int k, double radius) {
+    if (size == 0) {
+      return Lists.newArrayList();
+    }
+    checkDimension(vec);
+    SearchContext context = SearchContext.get();
+    context.reset(dimension, k);
+    search.search(0, target(vec), distance.toRankDistance(radius), context);
+    return results(distance, context);
+  }
+
+  @Override
+  public List<VectorDistanceTuple<VALUE>> getNearestNeighbours(
+      DoubleVector vec, int k, double radius, SearchOptions options) {
+    Preconditions.checkNotNull(options, "options");
+    if (size == 0) {
+      return Lists.newArrayList();
+    }
+    checkDimension(vec);
+    SearchContext context = SearchContext.get();
+    context.reset(dimension, k, options.getMaxChecks());
+    search.bestBinFirst(0, target(vec), distance.toRankDistance(radius),
+        options.rankFactor(distance), context);
+    return results(distance, context);
+  }
+
+  private List<VectorDistanceTuple<VALUE>> results(DistanceMeasurer distance,
+      SearchContext context) {
+    BoundedMaxHeap candidates = context.candidates;
+    candidates.sort();
+    List<VectorDistanceTuple<VALUE>> list = new ArrayList<>(
+        candidates.size());
+    for (int i = 0; i < candidates.size(); i++) {
+      int id = candidates.getId(i);
+      list.add(new VectorDistanceTuple<>(vectors[id], value(id), distance
+          .toDistance(candidates.getDistance(i))));
+    }
+    return list;
+  }
+
+  /**
+   * @return the normalized query as dense array.
+   */
+  private double[] target(DoubleVector vec) {
+    return distance.normalize(vec).toArray();
+  }
+
+  /**
+   * The nodes of the flat layout for the searches, addressed by their index.
+   */
+  private final class Search extends TreeSearch<double[]> {
+
+    Search() {
+      super(CompiledANNTree.this.distance, CompiledANNTree.this.dimension);
+    }
+
+    @Override
+    int left(int node, SearchContext context) {
+      return leftChildren[node];
+    }
+
+    @Override
+    int right(int node, SearchContext context) {
+      return rightChildren[node];
+    }
+
+    @Override
+    double diff(int node, double[] target, SearchContext context) {
+      final Hyperplane hyperplane = hyperplanes[node];
+      return (hyperplane == null ? target[splitDimensions[node]] : hyperplane
+          .project(target)) - splitValues[node];
+    }
+
+    @Override
+    int splitDimension(int node, SearchContext context) {
+      return splitDimensions[node];
+    }
+
+    @Override
+    int check(int node, double[] target, double rankRadius,
+        SearchContext context) {
+      double bound = context.candidates.bound(rankRadius);
+      double rankDistance = distance.measureBoundedRankDistance(target,
+          coordinates, node * dimension, bound);
+      if (rankDistance <= bound) {
+        context.candidates.offer(node, rankDistance);
+      }
+      return 1;
+    }
+  }
+
+  @Override
+  public List<VectorDistanceTuple<VALUE>> rangeQuery(DoubleVector lower,
+      DoubleVector upper) {
+    return Lists.newArrayList(rangeIterator(lower, upper));
+  }
+
+  /**
+   * Same depth first search as in the {@link ANNTree}, with an array as stack.
+   */
+  @Override
+  public Iterator<VectorDistanceTuple<VALUE>> rangeIterator(
+      DoubleVector lower, DoubleVector upper) {
+    if (size == 0) {
+      return Collections.emptyIterator();
+    }
+    checkDimension(lower);
+    checkDimension(upper);
+    final RangeBounds bounds = new RangeBounds(lower, upper);
+    return new AbstractIterator<VectorDistanceTuple<VALUE>>() {
+      // at most one pending sibling per level, starting with the root at 0
+      int[] toVisit = new int[16];
+      int length = 1;
+
+      @Override
+      protected VectorDistanceTuple<VALUE> computeNext() {
+        while (length > 0) {
+          final int next = toVisit[--length];
+          final Hyperplane hyperplane = hyperplanes[next];
+          final int sides = hyperplane == null ? bounds.sides(
+              splitDimensions[next], splitValues[next]) : bounds.sides(
+              hyperplane, splitValues[next]);
+          if ((sides & RangeBounds.RIGHT) != 0
+              && rightChildren[next] != NO_CHILD) {
+            push(rightChildren[next]);
+          }
+          if ((sides & RangeBounds.LEFT) != 0
+              && leftChildren[next] != NO_CHILD) {
+            push(leftChildren[next]);
+          }
+          if (bounds.contains(coordinates, next * dimension)) {
+            return new VectorDistanceTuple<>(vectors[next], value(next), 0);
+          }
+        }
+        return endOfData();
+      }
+
+      private void push(int node) {
+        if (length == toVisit.length) {
+          toVisit = Arrays.copyOf(toVisit, length * 2);
+        }
+        toVisit[length++] = node;
+      }
+    };
+  }
+
+  private void checkDimension(DoubleVector vec) {
+    IndexPreconditions.checkDimension(dimension, vec, "tree");
+  }
+
+  @SuppressWarnings("unchecked")
+  private VALUE value(int node) {
+    return (VALUE) values[node];
+  }
+
+  /**
+   * Writes this tree as an index file, that can be opened with
+   * {@link OffHeapANNTree#open(Path, PayloadCodec)}. Existing files are
+   * overwritten. Only trees with the euclidian distance can be written.
+   *
+   * @param path the path of the index file.
+   * @param codec the codec of the payloads.
+   * @throws IOException if the file can't be written.
+   */
+  public void write(Path path, PayloadCodec<? super VALUE> codec)
+      throws IOException {
+    Preconditions.checkNotNull(path, "path");
+    Preconditions.checkNotNull(codec, "codec");
+    checkEuclidian();
+    IndexFormat.write(this, codec, path);
+  }
+
+  /**
+   * Checks that this tree uses the euclidian distance, the off-heap trees don't
+   * support any other.
+   */
+  void checkEuclidian() {
+    Preconditions.checkState(distance instanceof EuclidianDistance,
+        "Only trees with the euclidian distance can be stored off-heap, but "
+            + "this tree uses " + distance.getClass().getSimpleName());
+  }
+
+  /**
+   * @return the distance measurer of the searches.
+   */
+  public DistanceMeasurer getDistanceMeasurer() {
+    return distance;
+  }
+
+  /**
+   * @return the number of nodes in this tree.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return the dimension of the vectors in this tree.
+   */
+  public int getDimension() {
+    return dimension;
+  }
+
+  /**
+   * Iterates over the vectors in layout (pre-order) order.
+   */
+  @Override
+  public Iterator<DoubleVector> iterator() {
+    return new AbstractIterator<DoubleVector>() {
+      int next = 0;
+
+      @Override
+      protected DoubleVector computeNext() {
+        return next < size ? vectors[next++] : endOfData();
+      }
+    };
+  }
+
+}
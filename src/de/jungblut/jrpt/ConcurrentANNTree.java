@@ -0,0 +1,263 @@
+package de.jungblut.jrpt;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+import de.jungblut.jrpt.distance.DistanceMeasurer;
+import de.jungblut.jrpt.rules.SplitPolicy;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.tuple.Tuple;
+
+/**
+ * Thread-safe variant of the {@link ANNTree} that allows concurrent searches
+ * while vectors are added or the tree is balanced.
+ *
+ * Writers are serialized by a lock, readers never lock. After every change a
+ * new immutable snapshot of the root, the nodes and the size is published.
+ * Searches run on the snapshot they read at the beginning and ignore every node
+ * that was added afterwards, so they always see a consistent state of the
+ * tree. Balancing builds the new tree from copies of the nodes and publishes
+ * its root atomically, so searches on the old tree are not affected.
+ *
+ * Removals are visible to all searches that read the snapshot afterwards.
+ * Compactions are built the same way as a balanced tree, with an executor they
+ * run in the background so removals don't wait for them. Readers are never
+ * blocked, writers wait until a running compaction is published.
+ *
+ * @param <VALUE> the payload type.
+ */
+public class ConcurrentANNTree<VALUE> extends ANNTree<VALUE> {
+
+  private static final class Snapshot<VALUE> {
+    final TreeNode<VALUE> root;
+    final TreeNode<VALUE>[] nodes;
+    // the number of nodes and the number of them that are not removed
+    final int size;
+    final int live;
+    final int dimension;
+
+    Snapshot(TreeNode<VALUE> root, TreeNode<VALUE>[] nodes, int size,
+        int live, int dimension) {
+      this.root = root;
+      this.nodes = nodes;
+      this.size = size;
+      this.live = live;
+      this.dimension = dimension;
+    }
+  }
+
+  private final ReentrantLock writeLock = new ReentrantLock();
+  private volatile Snapshot<VALUE> snapshot;
+  // runs the compactions triggered by removals, null to run them in place
+  private volatile Executor compactionExecutor;
+  // true while a compaction is waiting for the executor, guarded by the lock
+  private boolean compactionScheduled;
+
+  public ConcurrentANNTree(SplitPolicy<VALUE> splitRule) {
+    super(splitRule);
+    publish();
+  }
+
+  /**
+   * Creates a tree that searches with the given distance measurer.
+   */
+  public ConcurrentANNTree(SplitPolicy<VALUE> splitRule,
+      DistanceMeasurer distance) {
+    super(splitRule, distance);
+    publish();
+  }
+
+  /**
+   * Creates a tree that keeps its depth logarithmic while vectors are added,
+   * see {@link ANNTree#ANNTree(SplitPolicy, double)}.
+   */
+  public ConcurrentANNTree(SplitPolicy<VALUE> splitRule, double alpha) {
+    super(splitRule, alpha);
+    publish();
+  }
+
+  /**
+   * Creates a self-balancing tree with the given distance measurer, see
+   * {@link ANNTree#ANNTree(SplitPolicy, double)}.
+   */
+  public ConcurrentANNTree(SplitPolicy<VALUE> splitRule, double alpha,
+      DistanceMeasurer distance) {
+    super(splitRule, alpha, distance);
+    publish();
+  }
+
+  @Override
+  public void add(DoubleVector vec, VALUE value) {
+    writeLock.lock();
+    try {
+      super.add(vec, value);
+      publish();
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  @Override
+  public void balance() {
+    writeLock.lock();
+    try {
+      super.balance();
+      publish();
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  @Override
+  public boolean remove(DoubleVector vec, VALUE payload) {
+    writeLock.lock();
+    try {
+      boolean removed = super.remove(vec, payload);
+      publish();
+      return removed;
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Moves a vector atomically, searches either see the old or the new vector.
+   */
+  @Override
+  public boolean update(DoubleVector vec, VALUE payload,
+      DoubleVector newVector, VALUE newPayload) {
+    writeLock.lock();
+    try {
+      if (find(vec, payload) < 0) {
+        return false;
+      }
+      super.add(newVector, newPayload);
+      super.remove(vec, payload);
+      publish();
+      return true;
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  @Override
+  public void compact() {
+    writeLock.lock();
+    try {
+      super.compact();
+      publish();
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Runs the compactions that are triggered by removals on the given executor
+   * instead of the removing thread.
+   *
+   * @param executor the executor or null to compact in place.
+   */
+  public void setCompactionExecutor(Executor executor) {
+    this.compactionExecutor = executor;
+  }
+
+  @Override
+  void compactAfterRemoval() {
+    Executor executor = compactionExecutor;
+    if (executor == null) {
+      super.compactAfterRemoval();
+    } else if (!compactionScheduled) {
+      compactionScheduled = true;
+      executor.execute(() -> {
+        writeLock.lock();
+        try {
+          compactionScheduled = false;
+          compact();
+        } finally {
+          writeLock.unlock();
+        }
+      });
+    }
+  }
+
+  @Override
+  public void bulkLoad(Stream<Tuple<DoubleVector, VALUE>> pairs) {
+    writeLock.lock();
+    try {
+      super.bulkLoad(pairs);
+      publish();
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Publishes the current state of the tree to the readers, must be called
+   * while holding the write lock.
+   */
+  private void publish() {
+    snapshot = new Snapshot<>(getRoot(), getNodes(), getNodeCount(),
+        super.size(), getVectorDimension());
+  }
+
+  @Override
+  public List<VectorDistanceTuple<VALUE>> getNearestNeighbours(
+      DoubleVector vec, int k, double radius) {
+    Snapshot<VALUE> s = snapshot;
+    return getNearestNeighbours(s.root, s.nodes, s.size, vec, k, radius);
+  }
+
+  @Override
+  public List<VectorDistanceTuple<VALUE>> getNearestNeighbours(
+      DoubleVector vec, int k, double radius, SearchOptions options) {
+    Snapshot<VALUE> s = snapshot;
+    return getNearestNeighbours(s.root, s.nodes, s.size, vec, k, radius,
+        options);
+  }
+
+  @Override
+  public List<VectorDistanceTuple<VALUE>> rangeQuery(DoubleVector lower,
+      DoubleVector upper) {
+    Snapshot<VALUE> s = snapshot;
+    return rangeQuery(s.root, s.size, lower, upper);
+  }
+
+  @Override
+  public Iterator<VectorDistanceTuple<VALUE>> rangeIterator(
+      DoubleVector lower, DoubleVector upper) {
+    Snapshot<VALUE> s = snapshot;
+    return rangeIterator(s.root, s.size, lower, upper);
+  }
+
+  @Override
+  public CompiledANNTree<VALUE> compile() {
+    Snapshot<VALUE> s = snapshot;
+    return compile(s.root, s.nodes, s.size, s.live, s.dimension);
+  }
+
+  @Override
+  public Iterator<DoubleVector> iterator() {
+    Snapshot<VALUE> s = snapshot;
+    return iterator(s.root, s.size);
+  }
+
+  @Override
+  public int size() {
+    return snapshot.live;
+  }
+
+  @Override
+  public int tombstones() {
+    Snapshot<VALUE> s = snapshot;
+    return s.size - s.live;
+  }
+
+  @Override
+  public String toString() {
+    return toString(snapshot.root);
+  }
+
+}
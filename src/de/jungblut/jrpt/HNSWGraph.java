@@ -0,0 +1,711 @@
+package de.jungblut.jrpt;
+
+import gnu.trove.map.hash.TLongIntHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+
+import de.jungblut.jrpt.distance.DistanceMeasurer;
+import de.jungblut.jrpt.distance.EuclidianDistance;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.DoubleVector.DoubleVectorElement;
+import de.jungblut.math.tuple.Tuple;
+
+/**
+ * Hierarchical navigable small world graph (Malkov and Yashunin). Every vector
+ * is a node on a random number of levels, that decreases exponentially. On
+ * every level a node is connected to up to M close neighbours, on the bottom
+ * level to up to 2 * M. The neighbours are selected with the heuristic of the
+ * paper, that prefers neighbours in different directions.
+ *
+ * A search descends greedily from the entry point through the upper levels and
+ * searches the bottom level best first, keeping the efSearch closest nodes. A
+ * higher efSearch increases the recall at the cost of latency, efConstruction
+ * is the same for the searches that connect a new node.
+ *
+ * Inserts are thread-safe and run concurrently, every node has its own lock
+ * for its neighbour lists. Searches can run while vectors are inserted or
+ * removed, they ignore the nodes that were added after they started. Removed
+ * vectors are kept in the graph to navigate and are skipped in the results
+ * until the next compaction, which rebuilds the whole graph and blocks all
+ * writers for the time of the rebuild, while the searches continue on the old
+ * graph. Removals find their vector by an exact lookup of its hash, not by a
+ * search.
+ *
+ * @param <VALUE> the payload type.
+ */
+public final class HNSWGraph<VALUE> implements ANN<VALUE> {
+
+  public static final int DEFAULT_M = 16;
+  public static final int DEFAULT_EF_CONSTRUCTION = 200;
+  public static final int DEFAULT_EF_SEARCH = 50;
+
+  private static final int INITIAL_CAPACITY = 16;
+  private static final int NO_ID = -1;
+
+  private static final class Node {
+    final DoubleVector vector;
+    final Object value;
+    // the neighbour ids on every level, preceded by their number. Guarded by
+    // the monitor of the node.
+    final int[][] links;
+    volatile boolean removed;
+    // the id of the previous node with the same vector hash, guarded by the
+    // lock of the graph
+    int sameHash = NO_ID;
+
+    Node(DoubleVector vector, Object value, int level, int m) {
+      this.vector = vector;
+      this.value = value;
+      this.links = new int[level + 1][];
+      links[0] = new int[1 + 2 * m];
+      for (int l = 1; l <= level; l++) {
+        links[l] = new int[1 + m];
+      }
+    }
+
+    int level() {
+      return links.length - 1;
+    }
+  }
+
+  // the nodes of the graph, replaced as a whole by a compaction
+  private static final class Graph {
+    // guards the growth of the nodes and the entry point
+    final ReentrantLock lock = new ReentrantLock();
+    volatile Node[] nodes = new Node[INITIAL_CAPACITY];
+    // written after the node was stored, so every id below is readable
+    volatile int size;
+    volatile int entryPoint = NO_ID;
+    final AtomicInteger removed = new AtomicInteger();
+    // the vector hash to the id of the last node with it, the nodes with the
+    // same hash are chained from there. Guarded by the lock.
+    final TLongIntHashMap lookup = new TLongIntHashMap(INITIAL_CAPACITY,
+        0.5f, 0L, NO_ID);
+  }
+
+  private final int m;
+  private final int efConstruction;
+  private volatile int efSearch;
+  private final DistanceMeasurer distance;
+  private final Random rand;
+  // normalizes the levels, so every level has 1/m of the nodes of the level
+  // below
+  private final double levelMultiplier;
+
+  // inserts and removals share the graph, compactions replace it exclusively
+  private final ReentrantReadWriteLock structureLock =
+      new ReentrantReadWriteLock();
+  private volatile Graph graph = new Graph();
+  private volatile int vectorDimension;
+  private volatile double compactionThreshold =
+      ANNTree.DEFAULT_COMPACTION_THRESHOLD;
+
+  /**
+   * Creates a graph with the default parameters that searches with the
+   * euclidian distance.
+   */
+  public HNSWGraph() {
+    this(DEFAULT_M, DEFAULT_EF_CONSTRUCTION, DEFAULT_EF_SEARCH);
+  }
+
+  /**
+   * Creates a graph that searches with the given distance measurer.
+   */
+  public HNSWGraph(DistanceMeasurer distance) {
+    this(DEFAULT_M, DEFAULT_EF_CONSTRUCTION, DEFAULT_EF_SEARCH, distance);
+  }
+
+  /**
+   * Creates a graph that searches with the euclidian distance.
+   *
+   * @param m the number of neighbours per node on the upper levels, twice as
+   *          many on the bottom level.
+   * @param efConstruction the number of candidates to connect a new node.
+   * @param efSearch the number of candidates of a search.
+   */
+  public HNSWGraph(int m, int efConstruction, int efSearch) {
+    this(m, efConstruction, efSearch, EuclidianDistance.get());
+  }
+
+  /**
+   * Creates a graph that searches with the given distance measurer.
+   *
+   * @param m the number of neighbours per node on the upper levels, twice as
+   *          many on the bottom level.
+   * @param efConstruction the number of candidates to connect a new node.
+   * @param efSearch the number of candidates of a search.
+   * @param distance the distance measurer.
+   */
+  public HNSWGraph(int m, int efConstruction, int efSearch,
+      DistanceMeasurer distance) {
+    this(m, efConstruction, efSearch, distance, new Random());
+  }
+
+  /**
+   * Creates a graph that draws the levels of the nodes from the given random.
+   *
+   * @param m the number of neighbours per node on the upper levels, twice as
+   *          many on the bottom level.
+   * @param efConstruction the number of candidates to connect a new node.
+   * @param efSearch the number of candidates of a search.
+   * @param distance the distance measurer.
+   * @param rand the random to draw the levels from.
+   */
+  public HNSWGraph(int m, int efConstruction, int efSearch,
+      DistanceMeasurer distance, Random rand) {
+    Preconditions.checkArgument(m > 1, "m must be greater than one, but was "
+        + m);
+    Preconditions.checkArgument(efConstruction > 0,
+        "efConstruction must be positive, but was " + efConstruction);
+    setEfSearch(efSearch);
+    this.m = m;
+    this.efConstruction = efConstruction;
+    this.distance = Preconditions.checkNotNull(distance, "distance");
+    this.rand = Preconditions.checkNotNull(rand, "rand");
+    this.levelMultiplier = 1d / Math.log(m);
+  }
+
+  /**
+   * Adds the vector, this can be called concurrently.
+   */
+  @Override
+  public void add(DoubleVector vec, VALUE value) {
+    Preconditions.checkNotNull(vec, "vector");
+    DoubleVector normalized = distance.normalize(vec);
+    structureLock.readLock().lock();
+    try {
+      insert(graph, normalized, value);
+    } finally {
+      structureLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Adds the given vector stream, a parallel stream is inserted concurrently.
+   */
+  @Override
+  public void addVectorStream(Stream<DoubleVector> vectors) {
+    vectors.forEach((v) -> add(v, null));
+  }
+
+  /**
+   * Adds the given stream of vector/payload pairs, a parallel stream is
+   * inserted concurrently.
+   */
+  @Override
+  public void addStream(Stream<Tuple<DoubleVector, VALUE>> pairs) {
+    pairs.forEach((v) -> add(v.getFirst(), v.getSecond()));
+  }
+
+  /**
+   * Removes the vector, once the ratio of removed vectors exceeds the
+   * compaction threshold the graph is compacted.
+   */
+  @Override
+  public boolean remove(DoubleVector vec, VALUE payload) {
+    Preconditions.checkNotNull(vec, "vector");
+    final boolean compact;
+    structureLock.readLock().lock();
+    try {
+      Graph g = graph;
+      if (g.entryPoint == NO_ID || vec.getDimension() != vectorDimension) {
+        return false;
+      }
+      if (!tryRemove(g, distance.normalize(vec), payload)) {
+        return false;
+      }
+      compact = g.removed.incrementAndGet() > compactionThreshold * g.size;
+    } finally {
+      structureLock.readLock().unlock();
+    }
+    if (compact) {
+      compact();
+    }
+    return true;
+  }
+
+  /**
+   * Rebuilds the graph without the removed vectors, the remaining vectors are
+   * inserted again in the order they were added. This is a full rebuild, all
+   * inserts and removals wait until it is done, searches continue on the old
+   * graph until the new one is published.
+   */
+  public void compact() {
+    structureLock.writeLock().lock();
+    try {
+      final Graph old = graph;
+      if (old.removed.get() == 0) {
+        return;
+      }
+      final Node[] nodes = old.nodes;
+      final Graph rebuilt = new Graph();
+      for (int id = 0; id < old.size; id++) {
+        if (!nodes[id].removed) {
+          insert(rebuilt, nodes[id].vector, nodes[id].value);
+        }
+      }
+      graph = rebuilt;
+    } finally {
+      structureLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * The graph doesn't need to be balanced, this only compacts it.
+   */
+  @Override
+  public void balance() {
+    compact();
+  }
+
+  /**
+   * @see ANNTree#setCompactionThreshold(double)
+   */
+  public void setCompactionThreshold(double threshold) {
+    this.compactionThreshold = IndexPreconditions
+        .checkCompactionThreshold(threshold);
+  }
+
+  /**
+   * Sets the number of candidates of the following searches.
+   */
+  public void setEfSearch(int efSearch) {
+    Preconditions.checkArgument(efSearch > 0,
+        "efSearch must be positive, but was " + efSearch);
+    this.efSearch = efSearch;
+  }
+
+  public int getM() {
+    return m;
+  }
+
+  public int getEfConstruction() {
+    return efConstruction;
+  }
+
+  public int getEfSearch() {
+    return efSearch;
+  }
+
+  public DistanceMeasurer getDistanceMeasurer() {
+    return distance;
+  }
+
+  @Override
+  public List<VectorDistanceTuple<VALUE>> getNearestNeighbours(
+      DoubleVector vec, int k, double radius) {
+    return getNearestNeighbours(vec, k, radius, SearchOptions.EXACT);
+  }
+
+  /**
+   * Searches the bottom level with max(efSearch, k) candidates, the maximum
+   * checks of the options limit the number of measured distances. The epsilon
+   * of the options is ignored.
+   */
+  @Override
+  public List<VectorDistanceTuple<VALUE>> getNearestNeighbours(
+      DoubleVector vec, int k, double radius, SearchOptions options) {
+    Preconditions.checkNotNull(vec, "vector");
+    Preconditions.checkNotNull(options, "options");
+    final Graph g = graph;
+    // the entry point is published after its node, so it is below the limit
+    final int entry = g.entryPoint;
+    final int limit = g.size;
+    final Node[] nodes = g.nodes;
+    if (entry == NO_ID) {
+      return new ArrayList<>();
+    }
+    IndexPreconditions.checkDimension(vectorDimension, vec, "graph");
+    final DoubleVector query = distance.normalize(vec);
+    final double rankRadius = distance.toRankDistance(radius);
+    SearchContext context = SearchContext.get();
+    context.reset(0, 1, options.getMaxChecks());
+    final int ef = Math.max(efSearch, k);
+    search(nodes, limit, entry, query, ef, rankRadius, context);
+
+    BoundedMaxHeap candidates = context.candidates;
+    BoundedMaxHeap results = context.results;
+    results.reset(k);
+    for (int i = 0; i < candidates.size(); i++) {
+      if (candidates.getDistance(i) <= rankRadius) {
+        results.offer(candidates.getId(i), candidates.getDistance(i));
+      }
+    }
+    results.sort();
+    List<VectorDistanceTuple<VALUE>> list = new ArrayList<>(results.size());
+    for (int i = 0; i < results.size(); i++) {
+      Node node = nodes[results.getId(i)];
+      list.add(new VectorDistanceTuple<>(node.vector, value(node), distance
+          .toDistance(results.getDistance(i))));
+    }
+    return list;
+  }
+
+  /**
+   * Range queries can't use the graph, they scan all vectors.
+   */
+  @Override
+  public List<VectorDistanceTuple<VALUE>> rangeQuery(DoubleVector lower,
+      DoubleVector upper) {
+    return Lists.newArrayList(rangeIterator(lower, upper));
+  }
+
+  @Override
+  public Iterator<VectorDistanceTuple<VALUE>> rangeIterator(
+      DoubleVector lower, DoubleVector upper) {
+    final RangeBounds bounds = new RangeBounds(lower, upper);
+    return Iterators.transform(Iterators.filter(liveNodes(),
+        (node) -> bounds.contains(node.vector)),
+        (node) -> new VectorDistanceTuple<>(node.vector, value(node), 0));
+  }
+
+  @Override
+  public int size() {
+    Graph g = graph;
+    return g.size - g.removed.get();
+  }
+
+  @Override
+  public int tombstones() {
+    return graph.removed.get();
+  }
+
+  /**
+   * Iterates over the vectors in the order they were added.
+   */
+  @Override
+  public Iterator<DoubleVector> iterator() {
+    return Iterators.transform(liveNodes(), (node) -> node.vector);
+  }
+
+  private Iterator<Node> liveNodes() {
+    Graph g = graph;
+    final int limit = g.size;
+    return Iterators.filter(Arrays.asList(g.nodes).subList(0, limit)
+        .iterator(), (node) -> !node.removed);
+  }
+
+  private void insert(Graph g, DoubleVector vec, Object value) {
+    final Node node = new Node(vec, value, randomLevel(), m);
+    final long hash = hash(vec);
+    final int id;
+    final int entry;
+    g.lock.lock();
+    try {
+      validateVector(vec);
+      id = g.size;
+      if (id == g.nodes.length) {
+        g.nodes = Arrays.copyOf(g.nodes, id * 2);
+      }
+      g.nodes[id] = node;
+      node.sameHash = g.lookup.put(hash, id);
+      g.size = id + 1;
+      entry = g.entryPoint;
+      if (entry == NO_ID) {
+        g.entryPoint = id;
+        return;
+      }
+      if (node.level() > g.nodes[entry].level()) {
+        // keeps the lock, so no other node raises the top level meanwhile
+        connect(g, id, node, entry);
+        g.entryPoint = id;
+        return;
+      }
+    } finally {
+      g.lock.unlock();
+    }
+    connect(g, id, node, entry);
+  }
+
+  /**
+   * Connects the new node to its neighbours on all of its levels.
+   */
+  private void connect(Graph g, int id, Node node, int entry) {
+    final int limit = g.size;
+    final Node[] nodes = g.nodes;
+    SearchContext context = SearchContext.get();
+    context.reset(0, 1);
+    int current = entry;
+    double currentDistance = distance.measureRankDistance(node.vector,
+        nodes[entry].vector);
+    final int top = nodes[entry].level();
+    for (int level = top; level > node.level(); level--) {
+      searchLevel(nodes, limit, current, currentDistance, node.vector, level,
+          1, Double.MAX_VALUE, false, context);
+      current = context.candidates.getId(0);
+      currentDistance = context.candidates.getDistance(0);
+    }
+
+    for (int level = Math.min(top, node.level()); level >= 0; level--) {
+      searchLevel(nodes, limit, current, currentDistance, node.vector, level,
+          efConstruction, Double.MAX_VALUE, false, context);
+      BoundedMaxHeap candidates = context.candidates;
+      candidates.sort();
+      int[] ids = new int[candidates.size()];
+      double[] distances = new double[candidates.size()];
+      int count = 0;
+      for (int i = 0; i < candidates.size(); i++) {
+        if (candidates.getId(i) != id) {
+          ids[count] = candidates.getId(i);
+          distances[count++] = candidates.getDistance(i);
+        }
+      }
+      if (count == 0) {
+        continue;
+      }
+      int[] neighbours = selectNeighbours(nodes, ids, distances, count, m);
+      synchronized (node) {
+        int[] links = node.links[level];
+        System.arraycopy(neighbours, 0, links, 1, neighbours.length);
+        links[0] = neighbours.length;
+      }
+      for (int neighbour : neighbours) {
+        link(g, nodes[neighbour], id, node, level);
+      }
+      current = ids[0];
+      currentDistance = distances[0];
+    }
+  }
+
+  /**
+   * Adds the new node to the neighbours of the given node, if they are full
+   * the neighbours are selected again.
+   */
+  private void link(Graph g, Node node, int id, Node added, int level) {
+    synchronized (node) {
+      final int[] links = node.links[level];
+      final int count = links[0];
+      if (count < links.length - 1) {
+        links[count + 1] = id;
+        links[0] = count + 1;
+        return;
+      }
+      // the node can link to nodes that were added after the search started
+      final Node[] nodes = g.nodes;
+      int[] ids = new int[count + 1];
+      double[] distances = new double[count + 1];
+      for (int i = 0; i < count; i++) {
+        ids[i] = links[i + 1];
+        distances[i] = distance.measureRankDistance(node.vector,
+            nodes[ids[i]].vector);
+      }
+      ids[count] = id;
+      distances[count] = distance.measureRankDistance(node.vector,
+          added.vector);
+      sortByDistance(ids, distances);
+      int[] neighbours = selectNeighbours(nodes, ids, distances, count + 1,
+          links.length - 1);
+      System.arraycopy(neighbours, 0, links, 1, neighbours.length);
+      links[0] = neighbours.length;
+    }
+  }
+
+  /**
+   * Selects up to the given number of neighbours from the candidates sorted by
+   * their distance to the base node. A candidate is skipped if it is closer to
+   * a selected neighbour than to the base node, so the neighbours spread out.
+   */
+  private int[] selectNeighbours(Node[] nodes, int[] ids, double[] distances,
+      int count, int max) {
+    int[] selected = new int[Math.min(count, max)];
+    int length = 0;
+    for (int i = 0; i < count && length < selected.length; i++) {
+      final DoubleVector candidate = nodes[ids[i]].vector;
+      boolean diverse = true;
+      for (int j = 0; j < length; j++) {
+        if (distance.measureBoundedRankDistance(candidate,
+            nodes[selected[j]].vector, distances[i]) < distances[i]) {
+          diverse = false;
+          break;
+        }
+      }
+      if (diverse) {
+        selected[length++] = ids[i];
+      }
+    }
+    return Arrays.copyOf(selected, length);
+  }
+
+  /**
+   * Descends from the entry point to the bottom level, the ef closest nodes
+   * that are not removed are left in the candidates of the context.
+   */
+  private void search(Node[] nodes, int limit, int entry, DoubleVector query,
+      int ef, double rankRadius, SearchContext context) {
+    int current = entry;
+    double currentDistance = distance.measureRankDistance(query,
+        nodes[entry].vector);
+    context.remainingChecks--;
+    for (int level = nodes[entry].level(); level > 0; level--) {
+      searchLevel(nodes, limit, current, currentDistance, query, level, 1,
+          Double.MAX_VALUE, false, context);
+      current = context.candidates.getId(0);
+      currentDistance = context.candidates.getDistance(0);
+    }
+    searchLevel(nodes, limit, current, currentDistance, query, 0, ef,
+        rankRadius, true, context);
+  }
+
+  /**
+   * Searches the given level best first from the entry node and keeps the ef
+   * closest nodes in the candidates of the context. The search stops when the
+   * closest unexpanded node is further away than all candidates, or than the
+   * radius once efSearch candidates were found.
+   *
+   * @param skipRemoved true to keep removed nodes out of the candidates, they
+   *          are still expanded.
+   */
+  private void searchLevel(Node[] nodes, int limit, int entry,
+      double entryDistance, DoubleVector query, int level, int ef,
+      double rankRadius, boolean skipRemoved, SearchContext context) {
+    final BoundedMaxHeap candidates = context.candidates;
+    final BranchQueue queue = context.branches;
+    final int minCandidates = Math.min(ef, efSearch);
+    candidates.reset(ef);
+    queue.reset();
+    context.resetMarks(limit);
+    context.mark(entry);
+    if (!skipRemoved || !nodes[entry].removed) {
+      candidates.offer(entry, entryDistance);
+    }
+    queue.push(entry, 0d, entryDistance, BranchQueue.NO_PATH);
+    while (!queue.isEmpty() && context.remainingChecks > 0) {
+      final int branch = queue.poll();
+      final double nodeDistance = queue.lowerBound(branch);
+      if (candidates.isFull()
+          && nodeDistance > candidates.getMaximumDistance()) {
+        break;
+      }
+      if (nodeDistance > rankRadius && candidates.size() >= minCandidates) {
+        break;
+      }
+      final Node node = nodes[queue.id(branch)];
+      final int[] neighbours;
+      final int count;
+      synchronized (node) {
+        final int[] links = node.links[level];
+        count = links[0];
+        neighbours = context.neighbours(count);
+        System.arraycopy(links, 1, neighbours, 0, count);
+      }
+      for (int i = 0; i < count && context.remainingChecks > 0; i++) {
+        final int id = neighbours[i];
+        // nodes that were added after the search started are ignored
+        if (id >= limit || !context.mark(id)) {
+          continue;
+        }
+        final double bound = candidates.isFull() ? candidates
+            .getMaximumDistance() : Double.MAX_VALUE;
+        final double rankDistance = distance.measureBoundedRankDistance(query,
+            nodes[id].vector, bound);
+        context.remainingChecks--;
+        if (rankDistance < bound || !candidates.isFull()) {
+          queue.push(id, 0d, rankDistance, BranchQueue.NO_PATH);
+          if (!skipRemoved || !nodes[id].removed) {
+            candidates.offer(id, rankDistance);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Marks a node with the vector and payload as removed.
+   *
+   * @return true if one was found, false otherwise.
+   */
+  private boolean tryRemove(Graph g, DoubleVector vec, VALUE payload) {
+    final long hash = hash(vec);
+    g.lock.lock();
+    try {
+      final Node[] nodes = g.nodes;
+      int id = g.lookup.get(hash);
+      while (id != NO_ID) {
+        if (tryRemove(nodes[id], vec, payload)) {
+          return true;
+        }
+        id = nodes[id].sameHash;
+      }
+      return false;
+    } finally {
+      g.lock.unlock();
+    }
+  }
+
+  private boolean tryRemove(Node node, DoubleVector vec, VALUE payload) {
+    if (node.removed || !ANNTree.equal(node.vector, vec)
+        || !Objects.equals(node.value, payload)) {
+      return false;
+    }
+    synchronized (node) {
+      if (node.removed) {
+        return false;
+      }
+      node.removed = true;
+      return true;
+    }
+  }
+
+  /**
+   * @return a hash of the non-zero entries, equal for equal dense and sparse
+   *         vectors.
+   */
+  private static long hash(DoubleVector vec) {
+    long hash = 0L;
+    Iterator<DoubleVectorElement> iterateNonZero = vec.iterateNonZero();
+    while (iterateNonZero.hasNext()) {
+      DoubleVectorElement next = iterateNonZero.next();
+      // summed up, so the order of the sparse entries doesn't matter
+      long h = (next.getIndex() * 0x9E3779B97F4A7C15L)
+          ^ Double.doubleToLongBits(next.getValue());
+      h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+      hash += h ^ (h >>> 33);
+    }
+    return hash;
+  }
+
+  private int randomLevel() {
+    return (int) (-Math.log(1d - rand.nextDouble()) * levelMultiplier);
+  }
+
+  // sorts both arrays by the distances, they only hold up to 2 * m + 1 entries
+  private static void sortByDistance(int[] ids, double[] distances) {
+    for (int i = 1; i < ids.length; i++) {
+      final int id = ids[i];
+      final double d = distances[i];
+      int j = i;
+      while (j > 0 && distances[j - 1] > d) {
+        ids[j] = ids[j - 1];
+        distances[j] = distances[j - 1];
+        j--;
+      }
+      ids[j] = id;
+      distances[j] = d;
+    }
+  }
+
+  // called while holding the lock of the graph
+  private void validateVector(DoubleVector vec) {
+    vectorDimension = IndexPreconditions.checkAddedVector(vectorDimension,
+        vec, "graph");
+  }
+
+  @SuppressWarnings("unchecked")
+  private VALUE value(Node node) {
+    return (VALUE) node.value;
+  }
+
+}
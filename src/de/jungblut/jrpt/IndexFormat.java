@@ -0,0 +1,527 @@
+package de.jungblut.jrpt;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+
+import de.jungblut.jrpt.rules.Hyperplane;
+
+/**
+ * The binary index format of a {@link CompiledANNTree}. Everything is little
+ * endian and laid out exactly as it is searched, so an index can be memory
+ * mapped and queried without deserializing it.
+ *
+ * <pre>
+ * header      128 bytes: magic, version, size, dimension, number of normals,
+ *             the offsets of the sections and the file length
+ * normals     the distinct hyperplane normals, dimension doubles each
+ * coordinates the vectors in layout order, dimension doubles each
+ * nodes       a 36 byte record per node: split value, payload offset, split
+ *             dimension, left and right child, normal index and payload
+ *             length
+ * payloads    the encoded payloads
+ * </pre>
+ *
+ * Sections start at 64 byte boundaries and are mapped in chunks of 1 GiB, no
+ * record or payload crosses the boundary of a chunk.
+ */
+final class IndexFormat {
+
+  static final int MAGIC = 0x5450524A; // "JRPT"
+  static final int VERSION = 2;
+
+  static final int HEADER_LENGTH = 128;
+  static final int NODE_LENGTH = 36;
+
+  // the fields of a node record
+  static final int SPLIT_VALUE = 0;
+  static final int PAYLOAD_OFFSET = 8;
+  static final int SPLIT_DIMENSION = 16;
+  static final int LEFT = 20;
+  static final int RIGHT = 24;
+  static final int NORMAL = 28;
+  static final int PAYLOAD_LENGTH = 32;
+
+  static final int NO_NORMAL = -1;
+  static final int NULL_PAYLOAD = -1;
+
+  // the sections in file order
+  static final int NORMALS = 0;
+  static final int COORDINATES = 1;
+  static final int NODES = 2;
+  static final int PAYLOADS = 3;
+  static final int SECTIONS = 4;
+
+  static final int CHUNK_SHIFT = 30;
+  static final long CHUNK_LENGTH = 1L << CHUNK_SHIFT;
+
+  private static final int ALIGNMENT = 64;
+  private static final int WRITE_BUFFER_LENGTH = 1 << 16;
+
+  /**
+   * The header of an index with the positions of all sections.
+   */
+  static final class Header {
+
+    final int size;
+    final int dimension;
+    final int numNormals;
+    final long normalsOffset;
+    final long coordinatesOffset;
+    final long nodesOffset;
+    final long payloadsOffset;
+    final long fileLength;
+
+    Header(int size, int dimension, int numNormals, long payloadsLength) {
+      this(size, dimension, numNormals, HEADER_LENGTH, align(HEADER_LENGTH
+          + sectionLength(numNormals, dimension * 8)), payloadsLength);
+    }
+
+    private Header(int size, int dimension, int numNormals,
+        long normalsOffset, long coordinatesOffset, long payloadsLength) {
+      this(size, dimension, numNormals, normalsOffset, coordinatesOffset,
+          align(coordinatesOffset + sectionLength(size, dimension * 8)),
+          payloadsLength);
+    }
+
+    private Header(int size, int dimension, int numNormals,
+        long normalsOffset, long coordinatesOffset, long nodesOffset,
+        long payloadsLength) {
+      this.size = size;
+      this.dimension = dimension;
+      this.numNormals = numNormals;
+      this.normalsOffset = normalsOffset;
+      this.coordinatesOffset = coordinatesOffset;
+      this.nodesOffset = nodesOffset;
+      this.payloadsOffset = align(nodesOffset
+          + sectionLength(size, NODE_LENGTH));
+      this.fileLength = payloadsOffset + payloadsLength;
+    }
+
+    /**
+     * @return the offsets of the sections followed by the file length.
+     */
+    long[] sectionOffsets() {
+      return new long[] { normalsOffset, coordinatesOffset, nodesOffset,
+          payloadsOffset, fileLength };
+    }
+
+    void write(ByteBuffer buffer) {
+      buffer.putInt(MAGIC);
+      buffer.putInt(VERSION);
+      buffer.putInt(size);
+      buffer.putInt(dimension);
+      buffer.putInt(numNormals);
+      buffer.putInt(0);
+      buffer.putLong(normalsOffset);
+      buffer.putLong(coordinatesOffset);
+      buffer.putLong(nodesOffset);
+      buffer.putLong(payloadsOffset);
+      buffer.putLong(fileLength);
+    }
+
+    static Header read(ByteBuffer buffer) throws IOException {
+      if (buffer.remaining() < HEADER_LENGTH || buffer.getInt() != MAGIC) {
+        throw new IOException("not a JRPT index");
+      }
+      int version = buffer.getInt();
+      if (version != VERSION) {
+        throw new IOException("unsupported index version " + version
+            + ", expected " + VERSION);
+      }
+      int size = buffer.getInt();
+      int dimension = buffer.getInt();
+      int numNormals = buffer.getInt();
+      buffer.getInt();
+      long normalsOffset = buffer.getLong();
+      long coordinatesOffset = buffer.getLong();
+      long nodesOffset = buffer.getLong();
+      long payloadsOffset = buffer.getLong();
+      long fileLength = buffer.getLong();
+      if (size < 0 || dimension < 0 || numNormals < 0
+          || payloadsOffset > fileLength) {
+        throw new IOException("corrupt JRPT index header");
+      }
+      // the payloads are the only section whose length isn't implied by the
+      // counts, so the offsets must match the computed layout
+      Header header = new Header(size, dimension, numNormals, fileLength
+          - payloadsOffset);
+      if (header.normalsOffset != normalsOffset
+          || header.coordinatesOffset != coordinatesOffset
+          || header.nodesOffset != nodesOffset
+          || header.payloadsOffset != payloadsOffset) {
+        throw new IOException("corrupt JRPT index header");
+      }
+      return header;
+    }
+  }
+
+  /**
+   * The header and the chunks of all sections of an index.
+   */
+  static final class Sections {
+
+    final Header header;
+    final ByteBuffer[][] chunks;
+
+    Sections(Header header, ByteBuffer[][] chunks) {
+      this.header = header;
+      this.chunks = chunks;
+    }
+  }
+
+  private IndexFormat() {
+    throw new IllegalAccessError();
+  }
+
+  /**
+   * Writes the compiled tree as an index file.
+   */
+  static <VALUE> void write(CompiledANNTree<VALUE> tree,
+      PayloadCodec<? super VALUE> codec, Path path) throws IOException {
+    Writer<VALUE> writer = new Writer<>(tree, codec);
+    try (FileChannel channel = FileChannel.open(path,
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.WRITE)) {
+      writer.writeTo(channel);
+    }
+  }
+
+  /**
+   * Lays the compiled tree out in newly allocated direct buffers, exactly like
+   * the sections of a mapped index file. The payloads are not stored.
+   *
+   * @return the header and the sections.
+   */
+  static Sections allocate(CompiledANNTree<?> tree) {
+    Writer<Object> writer = new Writer<>(tree, PayloadCodec.none());
+    Header header = writer.header;
+    long[] offsets = header.sectionOffsets();
+    ByteBuffer[][] sections = new ByteBuffer[SECTIONS][];
+    for (int i = 0; i < SECTIONS; i++) {
+      long length = offsets[i + 1] - offsets[i];
+      sections[i] = new ByteBuffer[chunks(length)];
+      for (int c = 0; c < sections[i].length; c++) {
+        sections[i][c] = ByteBuffer.allocateDirect(
+            (int) Math.min(CHUNK_LENGTH, length - c * CHUNK_LENGTH)).order(
+            ByteOrder.LITTLE_ENDIAN);
+      }
+    }
+    try {
+      writer.writeTo(new SectionChannel(offsets, sections));
+    } catch (IOException e) {
+      // writing to memory doesn't fail
+      throw new IllegalStateException(e);
+    }
+    return new Sections(header, sections);
+  }
+
+  /**
+   * Maps the sections of an index file read-only in chunks.
+   */
+  static ByteBuffer[][] map(FileChannel channel, Header header)
+      throws IOException {
+    long[] offsets = header.sectionOffsets();
+    ByteBuffer[][] sections = new ByteBuffer[SECTIONS][];
+    for (int i = 0; i < SECTIONS; i++) {
+      long length = offsets[i + 1] - offsets[i];
+      sections[i] = new ByteBuffer[chunks(length)];
+      for (int c = 0; c < sections[i].length; c++) {
+        long start = c * CHUNK_LENGTH;
+        sections[i][c] = channel.map(MapMode.READ_ONLY, offsets[i] + start,
+            Math.min(CHUNK_LENGTH, length - start)).order(
+            ByteOrder.LITTLE_ENDIAN);
+      }
+    }
+    return sections;
+  }
+
+  /**
+   * @return the number of fixed length records in a chunk.
+   */
+  static int recordsPerChunk(int recordLength) {
+    return (int) (CHUNK_LENGTH / recordLength);
+  }
+
+  /**
+   * @return the length of a section of fixed length records.
+   */
+  static long sectionLength(long records, int recordLength) {
+    if (recordLength == 0) {
+      return 0;
+    }
+    final int perChunk = recordsPerChunk(recordLength);
+    return (records / perChunk) * CHUNK_LENGTH + (records % perChunk)
+        * recordLength;
+  }
+
+  /**
+   * @return the little endian bytes of a chunk between the given positions.
+   */
+  static ByteBuffer slice(ByteBuffer chunk, int from, int to) {
+    // the casts keep the byte code compatible with Java 8
+    ByteBuffer duplicate = chunk.duplicate();
+    ((Buffer) duplicate).position(from);
+    ((Buffer) duplicate).limit(to);
+    return duplicate.slice().order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * @return the position of a record of the given length at or after the
+   *         given position of its section, records are moved to the next chunk
+   *         instead of crossing a chunk boundary.
+   */
+  private static long recordStart(long position, long length) {
+    long end = (position & (CHUNK_LENGTH - 1)) + length;
+    return end > CHUNK_LENGTH ? ((position >>> CHUNK_SHIFT) + 1) << CHUNK_SHIFT
+        : position;
+  }
+
+  private static int chunks(long length) {
+    return (int) ((length + CHUNK_LENGTH - 1) / CHUNK_LENGTH);
+  }
+
+  private static long align(long position) {
+    return (position + ALIGNMENT - 1) & -ALIGNMENT;
+  }
+
+  /**
+   * Lays out a compiled tree and writes it in the index format.
+   */
+  private static final class Writer<VALUE> {
+
+    final CompiledANNTree<?> tree;
+    final Header header;
+    // hyperplanes are shared by copied nodes, so only distinct ones are stored
+    final Map<Hyperplane, Integer> normalIndices = new IdentityHashMap<>();
+    final List<Hyperplane> normals = new ArrayList<>();
+    final byte[][] payloads;
+    final long[] payloadOffsets;
+
+    Writer(CompiledANNTree<?> tree, PayloadCodec<? super VALUE> codec) {
+      this.tree = tree;
+      final int size = tree.size();
+      final int dimension = tree.getDimension();
+      Preconditions.checkArgument(dimension * 8L <= CHUNK_LENGTH,
+          "dimension is too large for the index format: " + dimension);
+      for (Hyperplane normal : tree.hyperplanes) {
+        if (normal != null && !normalIndices.containsKey(normal)) {
+          normalIndices.put(normal, normals.size());
+          normals.add(normal);
+        }
+      }
+
+      payloads = new byte[size][];
+      payloadOffsets = new long[size];
+      long payloadsLength = 0;
+      for (int id = 0; id < size; id++) {
+        @SuppressWarnings("unchecked")
+        VALUE value = (VALUE) tree.values[id];
+        byte[] payload = value == null ? null : codec.encode(value);
+        if (payload != null) {
+          Preconditions.checkArgument(payload.length <= CHUNK_LENGTH,
+              "payload of node " + id + " is too large: " + payload.length);
+          payloadsLength = recordStart(payloadsLength, payload.length);
+          payloadOffsets[id] = payloadsLength;
+          payloadsLength += payload.length;
+        }
+        payloads[id] = payload;
+      }
+      header = new Header(size, dimension, normals.size(), payloadsLength);
+    }
+
+    void writeTo(WritableByteChannel channel) throws IOException {
+      final int size = tree.size();
+      final int dimension = tree.getDimension();
+      Output out = new Output(channel);
+      header.write(out.buffer);
+      out.position = out.buffer.position();
+      out.padTo(header.normalsOffset);
+
+      for (Hyperplane normal : normals) {
+        out.startRecord(header.normalsOffset, dimension * 8);
+        // the normals are sparse in memory, but dense like the coordinates here
+        final int[] indices = normal.getIndices();
+        final double[] values = normal.getValues();
+        for (int d = 0, i = 0; d < dimension; d++) {
+          out.putDouble(i < indices.length && indices[i] == d ? values[i++]
+              : 0d);
+        }
+      }
+      out.padTo(header.coordinatesOffset);
+
+      for (int id = 0; id < size; id++) {
+        out.startRecord(header.coordinatesOffset, dimension * 8);
+        for (int d = 0; d < dimension; d++) {
+          out.putDouble(tree.coordinates[id * dimension + d]);
+        }
+      }
+      out.padTo(header.nodesOffset);
+
+      for (int id = 0; id < size; id++) {
+        out.startRecord(header.nodesOffset, NODE_LENGTH);
+        out.putDouble(tree.splitValues[id]);
+        out.putLong(payloadOffsets[id]);
+        out.putInt(tree.splitDimensions[id]);
+        out.putInt(tree.leftChildren[id]);
+        out.putInt(tree.rightChildren[id]);
+        Hyperplane normal = tree.hyperplanes[id];
+        out.putInt(normal == null ? NO_NORMAL : normalIndices.get(normal));
+        out.putInt(payloads[id] == null ? NULL_PAYLOAD : payloads[id].length);
+      }
+      out.padTo(header.payloadsOffset);
+
+      for (int id = 0; id < size; id++) {
+        if (payloads[id] != null) {
+          out.padTo(header.payloadsOffset + payloadOffsets[id]);
+          out.putBytes(payloads[id]);
+        }
+      }
+      out.flush();
+    }
+  }
+
+  /**
+   * A channel that writes the bytes of an index file into the chunks of its
+   * sections, the header and the padding between sections are dropped.
+   */
+  private static final class SectionChannel implements WritableByteChannel {
+
+    final long[] offsets;
+    final ByteBuffer[][] sections;
+    long position;
+
+    SectionChannel(long[] offsets, ByteBuffer[][] sections) {
+      this.offsets = offsets;
+      this.sections = sections;
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+      final int length = src.remaining();
+      while (src.hasRemaining()) {
+        int section = 0;
+        while (section < SECTIONS && position >= offsets[section + 1]) {
+          section++;
+        }
+        int count = src.remaining();
+        if (section == SECTIONS || position < offsets[section]) {
+          // the header or padding in front of a section
+          if (section < SECTIONS) {
+            count = (int) Math.min(count, offsets[section] - position);
+          }
+        } else {
+          long relative = position - offsets[section];
+          ByteBuffer chunk = sections[section][(int) (relative
+              >>> CHUNK_SHIFT)];
+          int chunkPosition = (int) (relative & (CHUNK_LENGTH - 1));
+          count = Math.min(count, chunk.capacity() - chunkPosition);
+          ByteBuffer part = src.duplicate();
+          ((Buffer) part).limit(src.position() + count);
+          ByteBuffer target = chunk.duplicate();
+          ((Buffer) target).position(chunkPosition);
+          target.put(part);
+        }
+        ((Buffer) src).position(src.position() + count);
+        position += count;
+      }
+      return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  /**
+   * A buffered writer that keeps track of the position in the file.
+   */
+  private static final class Output {
+
+    final WritableByteChannel channel;
+    final ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_LENGTH).order(
+        ByteOrder.LITTLE_ENDIAN);
+    // the position in the file after the last byte written to the buffer
+    long position;
+
+    Output(WritableByteChannel channel) {
+      this.channel = channel;
+    }
+
+    void startRecord(long sectionOffset, int length) throws IOException {
+      padTo(sectionOffset + recordStart(position - sectionOffset, length));
+    }
+
+    void putInt(int value) throws IOException {
+      ensure(4);
+      buffer.putInt(value);
+      position += 4;
+    }
+
+    void putLong(long value) throws IOException {
+      ensure(8);
+      buffer.putLong(value);
+      position += 8;
+    }
+
+    void putDouble(double value) throws IOException {
+      ensure(8);
+      buffer.putDouble(value);
+      position += 8;
+    }
+
+    void putBytes(byte[] bytes) throws IOException {
+      int offset = 0;
+      while (offset < bytes.length) {
+        ensure(1);
+        int length = Math.min(buffer.remaining(), bytes.length - offset);
+        buffer.put(bytes, offset, length);
+        offset += length;
+        position += length;
+      }
+    }
+
+    void padTo(long target) throws IOException {
+      while (position < target) {
+        ensure(1);
+        int length = (int) Math.min(buffer.remaining(), target - position);
+        for (int i = 0; i < length; i++) {
+          buffer.put((byte) 0);
+        }
+        position += length;
+      }
+    }
+
+    void flush() throws IOException {
+      ((Buffer) buffer).flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      ((Buffer) buffer).clear();
+    }
+
+    private void ensure(int length) throws IOException {
+      if (buffer.remaining() < length) {
+        flush();
+      }
+    }
+  }
+
+}
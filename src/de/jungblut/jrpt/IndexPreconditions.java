@@ -0,0 +1,55 @@
+package de.jungblut.jrpt;
+
+import com.google.common.base.Preconditions;
+
+import de.jungblut.math.DoubleVector;
+
+/**
+ * The argument checks that all indexes share.
+ */
+final class IndexPreconditions {
+
+  private IndexPreconditions() {
+  }
+
+  /**
+   * Checks a vector that is added to an index, the first vector sets the
+   * dimension of the index.
+   *
+   * @param dimension the dimension of the index, zero if nothing was added.
+   * @param vec the added vector.
+   * @param index the name of the index in the error message.
+   * @return the dimension of the index.
+   */
+  static int checkAddedVector(int dimension, DoubleVector vec, String index) {
+    Preconditions.checkArgument(vec.getDimension() != 0,
+        "vector dimension can't be zero");
+    if (dimension == 0) {
+      return vec.getDimension();
+    }
+    checkDimension(dimension, vec, index);
+    return dimension;
+  }
+
+  /**
+   * Checks that the vector has the dimension of the index.
+   *
+   * @param index the name of the index in the error message.
+   */
+  static void checkDimension(int dimension, DoubleVector vec, String index) {
+    Preconditions.checkArgument(dimension == vec.getDimension(),
+        "Dimensional mismatch between vector and " + index + ". Expected "
+            + dimension + " but given " + vec.getDimension() + "!");
+  }
+
+  /**
+   * @see ANNTree#setCompactionThreshold(double)
+   * @return the given threshold.
+   */
+  static double checkCompactionThreshold(double threshold) {
+    Preconditions.checkArgument(threshold > 0d && threshold <= 1d,
+        "threshold must be in (0, 1], but was " + threshold);
+    return threshold;
+  }
+
+}
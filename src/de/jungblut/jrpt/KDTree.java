@@ -1,5 +1,6 @@
 package de.jungblut.jrpt;
 
+import de.jungblut.jrpt.distance.DistanceMeasurer;
 import de.jungblut.jrpt.rules.KDTreeSplitPolicy;
 
 /**
@@ -14,4 +15,19 @@ public final class KDTree<VALUE> extends ANNTree<VALUE> {
     super(new KDTreeSplitPolicy<VALUE>());
   }
 
+  /**
+   * Creates a tree that searches with the given distance measurer.
+   */
+  public KDTree(DistanceMeasurer distance) {
+    super(new KDTreeSplitPolicy<VALUE>(), distance);
+  }
+
+  /**
+   * Creates a tree that keeps its depth logarithmic while vectors are added,
+   * see {@link ANNTree#ANNTree(de.jungblut.jrpt.rules.SplitPolicy, double)}.
+   */
+  public KDTree(double alpha) {
+    super(new KDTreeSplitPolicy<VALUE>(), alpha);
+  }
+
 }
@@ -0,0 +1,118 @@
+package de.jungblut.jrpt;
+
+/**
+ * Partitions ranges of items by a key per item, shared by the tree builders.
+ * Subclasses fill the keys of a range and swap their own items along with
+ * them.
+ */
+abstract class KeyedPartition {
+
+  // the keys of the items in the range that is currently partitioned
+  final double[] keys;
+
+  KeyedPartition(int length) {
+    this.keys = new double[length];
+  }
+
+  /**
+   * Swaps the items at the given indices, the keys are swapped already.
+   */
+  abstract void swapItems(int i, int j);
+
+  final void swap(int i, int j) {
+    swapItems(i, j);
+    double key = keys[i];
+    keys[i] = keys[j];
+    keys[j] = key;
+  }
+
+  /**
+   * Quickselect with three-way partitioning, so duplicates of the pivot are
+   * grouped together.
+   *
+   * @return k, all keys before it are lower or equal and all keys after it
+   *         are higher or equal to the k-th smallest key.
+   */
+  final int select(int lo, int hi, int k) {
+    while (lo < hi) {
+      double pivot = medianOfThree(keys[lo], keys[(lo + hi) >>> 1], keys[hi]);
+      int lt = lo;
+      int gt = hi;
+      int i = lo;
+      while (i <= gt) {
+        double v = keys[i];
+        if (v < pivot) {
+          swap(lt++, i++);
+        } else if (v > pivot) {
+          swap(i, gt--);
+        } else {
+          i++;
+        }
+      }
+      // [lo, lt) is lower, [lt, gt] is equal and (gt, hi] is higher
+      if (k < lt) {
+        hi = lt - 1;
+      } else if (k > gt) {
+        lo = gt + 1;
+      } else {
+        return k;
+      }
+    }
+    return k;
+  }
+
+  /**
+   * Partitions the range by the given threshold into the keys that are lower
+   * and the ones that are higher or equal.
+   *
+   * @return the index of the first key that is higher or equal.
+   */
+  final int partition(int from, int to, double threshold) {
+    int lo = from;
+    int hi = to - 1;
+    while (lo <= hi) {
+      if (keys[lo] < threshold) {
+        lo++;
+      } else {
+        swap(lo, hi--);
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * Partitions the range by the given threshold around a pivot, keys equal to
+   * the threshold are divided between both sides.
+   *
+   * @return the index of the pivot closest to the middle of the range, all
+   *         keys before it are lower or equal and all keys after it are higher
+   *         or equal to the threshold.
+   */
+  final int partitionEvenly(int from, int to, double threshold) {
+    // [from, lt) is lower, [lt, gt) is equal and [gt, to) is higher
+    int lt = from;
+    int gt = to;
+    int i = from;
+    while (i < gt) {
+      if (keys[i] < threshold) {
+        swap(lt++, i++);
+      } else if (keys[i] > threshold) {
+        swap(i, --gt);
+      } else {
+        i++;
+      }
+    }
+    final int middle = (from + to - 1) >>> 1;
+    return Math.min(Math.max(middle, Math.max(from, lt - 1)),
+        Math.min(gt, to - 1));
+  }
+
+  private static double medianOfThree(double a, double b, double c) {
+    if (a > b) {
+      return b > c ? b : Math.min(a, c);
+    } else {
+      return a > c ? a : Math.min(b, c);
+    }
+  }
+
+}
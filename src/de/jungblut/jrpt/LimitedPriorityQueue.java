@@ -8,8 +8,11 @@ import java.util.PriorityQueue;
  * A queue that has limited capacity. Once it hits the maximum defined capacity
  * it will drop off the one with the most cost.
  * 
+ * @deprecated the trees use the allocation free {@link BoundedMaxHeap}, which
+ *             also yields its entries in sorted order.
  * @author thomas.jungblut
  */
+@Deprecated
 public final class LimitedPriorityQueue<T> {
 
   static class Entry<T> implements Comparable<Entry<T>> {
@@ -0,0 +1,293 @@
+package de.jungblut.jrpt;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.google.common.base.Preconditions;
+
+import de.jungblut.jrpt.ANNTree.TreeNode;
+import de.jungblut.jrpt.rules.Hyperplane;
+import de.jungblut.jrpt.rules.SplitPolicy;
+import de.jungblut.math.DoubleVector;
+
+/**
+ * Bulk builds a balanced tree by recursive median partitioning. For every
+ * subtree the split dimension is chosen by the {@link SplitPolicy}, the median
+ * along that dimension is selected with a quickselect and becomes the root of
+ * the subtree. Policies that split on hyperplanes choose the threshold
+ * themselves. Both halves of larger subtrees are built in parallel on the
+ * common fork-join pool.
+ *
+ * The resulting tree consists of new nodes, the given nodes are not modified.
+ * Tombstones of removed nodes are carried over.
+ * Everything that is lower than the split value ends up on the left side and
+ * everything higher on the right side. Vectors that are equal to the split
+ * value are divided between both sides, so the median always is at the middle
+ * of the range and duplicates can't unbalance the tree. The incremental insert
+ * puts them on the right, searches and removals check both sides.
+ *
+ * @param <VALUE> the payload type.
+ */
+final class MedianTreeBuilder<VALUE> extends KeyedPartition {
+
+  // subtrees up to this size are built sequentially
+  static final int PARALLEL_THRESHOLD = 4096;
+
+  private final SplitPolicy<VALUE> splitRule;
+  private final TreeNode<VALUE>[] work;
+  private final TreeNode<VALUE>[] index;
+  // added to the offsets of the ranges, which identify the subtrees
+  private final long offset;
+
+  private MedianTreeBuilder(SplitPolicy<VALUE> splitRule,
+      TreeNode<VALUE>[] work, TreeNode<VALUE>[] index, long offset) {
+    super(work.length);
+    this.splitRule = splitRule;
+    this.work = work;
+    this.index = index;
+    this.offset = offset;
+  }
+
+  @Override
+  void swapItems(int i, int j) {
+    TreeNode<VALUE> tmp = work[i];
+    work[i] = work[j];
+    work[j] = tmp;
+  }
+
+  /**
+   * Builds a new balanced tree.
+   *
+   * @param splitRule the split rule to choose the split dimension per subtree.
+   * @param nodes the nodes to build the tree from, in [0, size).
+   * @param size the number of nodes.
+   * @param index the array to store the newly built nodes by their id.
+   * @return the root of the new tree or null if there are no nodes.
+   */
+  static <VALUE> TreeNode<VALUE> build(SplitPolicy<VALUE> splitRule,
+      TreeNode<VALUE>[] nodes, int size, TreeNode<VALUE>[] index) {
+    return build(splitRule, nodes, size, index, 0, 0);
+  }
+
+  /**
+   * Builds a new balanced subtree.
+   *
+   * @param splitRule the split rule to choose the split dimension per subtree.
+   * @param nodes the nodes to build the subtree from, in [0, size).
+   * @param size the number of nodes.
+   * @param index the array to store the newly built nodes by their id.
+   * @param level the tree level of the root of the subtree.
+   * @param offset the offset of the subtree for the split policy, see
+   *          {@link SplitPolicy#splitHyperplane(List, int, long)}.
+   * @return the root of the new subtree or null if there are no nodes.
+   */
+  static <VALUE> TreeNode<VALUE> build(SplitPolicy<VALUE> splitRule,
+      TreeNode<VALUE>[] nodes, int size, TreeNode<VALUE>[] index, int level,
+      long offset) {
+    MedianTreeBuilder<VALUE> builder = new MedianTreeBuilder<>(splitRule,
+        Arrays.copyOf(nodes, size), index, offset);
+    if (size > PARALLEL_THRESHOLD) {
+      return ForkJoinPool.commonPool().invoke(
+          builder.new BuildTask(0, size, level));
+    } else {
+      return builder.build(0, size, level);
+    }
+  }
+
+  /**
+   * Builds the subtree of the range sequentially. The pending ranges are kept
+   * on an explicit stack instead of recursing, so even the chains of
+   * unbalanced hyperplane splits can't overflow the call stack.
+   */
+  private TreeNode<VALUE> build(int from, int to, int level) {
+    if (from >= to) {
+      return null;
+    }
+    // from, to, level and the link to the parent of every pending range: the
+    // pivot of the parent times two plus one for the right side, or -1
+    int[] stack = new int[32];
+    int length = 0;
+    stack[length++] = from;
+    stack[length++] = to;
+    stack[length++] = level;
+    stack[length++] = -1;
+    TreeNode<VALUE> root = null;
+    while (length > 0) {
+      final int link = stack[--length];
+      final int l = stack[--length];
+      final int t = stack[--length];
+      final int f = stack[--length];
+      final int pivot = split(f, t, l);
+      final TreeNode<VALUE> node = work[pivot];
+      if (link < 0) {
+        root = node;
+      } else {
+        attach(work[link >>> 1], (link & 1) != 0, node);
+      }
+      if (stack.length < length + 8) {
+        stack = Arrays.copyOf(stack, stack.length * 2);
+      }
+      if (pivot + 1 < t) {
+        stack[length++] = pivot + 1;
+        stack[length++] = t;
+        stack[length++] = l + 1;
+        stack[length++] = pivot * 2 + 1;
+      }
+      if (f < pivot) {
+        stack[length++] = f;
+        stack[length++] = pivot;
+        stack[length++] = l + 1;
+        stack[length++] = pivot * 2;
+      }
+    }
+    return root;
+  }
+
+  private static <VALUE> void attach(TreeNode<VALUE> parent, boolean right,
+      TreeNode<VALUE> child) {
+    if (right) {
+      parent.right = child;
+    } else {
+      parent.left = child;
+    }
+  }
+
+  private final class BuildTask extends RecursiveTask<TreeNode<VALUE>> {
+    private static final long serialVersionUID = 1L;
+
+    private final int from;
+    private final int to;
+    private final int level;
+    // the node this subtree is attached to by the task that forked it
+    private TreeNode<VALUE> parent;
+    private boolean right;
+
+    BuildTask(int from, int to, int level) {
+      this.from = from;
+      this.to = to;
+      this.level = level;
+    }
+
+    /**
+     * Descends into the larger side of every split and forks the smaller one,
+     * so tasks are nested at most logarithmically deep even if the splits are
+     * unbalanced.
+     */
+    @Override
+    protected TreeNode<VALUE> compute() {
+      List<BuildTask> forked = new ArrayList<>();
+      TreeNode<VALUE> root = null;
+      TreeNode<VALUE> parent = null;
+      boolean right = false;
+      int from = this.from;
+      int to = this.to;
+      int level = this.level;
+      while (to - from > PARALLEL_THRESHOLD) {
+        int pivot = split(from, to, level);
+        TreeNode<VALUE> node = work[pivot];
+        if (parent == null) {
+          root = node;
+        } else {
+          attach(parent, right, node);
+        }
+        right = pivot - from <= to - pivot - 1;
+        BuildTask smaller = right ? new BuildTask(from, pivot, level + 1)
+            : new BuildTask(pivot + 1, to, level + 1);
+        smaller.parent = node;
+        smaller.right = !right;
+        smaller.fork();
+        forked.add(smaller);
+        if (right) {
+          from = pivot + 1;
+        } else {
+          to = pivot;
+        }
+        parent = node;
+        level++;
+      }
+      TreeNode<VALUE> rest = build(from, to, level);
+      if (parent == null) {
+        root = rest;
+      } else {
+        attach(parent, right, rest);
+      }
+      for (int i = forked.size() - 1; i >= 0; i--) {
+        BuildTask task = forked.get(i);
+        attach(task.parent, task.right, task.join());
+      }
+      return root;
+    }
+  }
+
+  /**
+   * Partitions the given range around the median of the chosen split dimension
+   * and replaces the median node with a new node that splits on that
+   * dimension. The pivot is the middle of the range, everything before is
+   * lower or equal and everything after higher or equal.
+   *
+   * If the split policy chooses a hyperplane instead, the range is partitioned
+   * by the hyperplane threshold and the node at the border of both sides
+   * becomes the new root of the subtree. Nodes on the hyperplane fill up the
+   * smaller side.
+   *
+   * @return the index of the pivot.
+   */
+  private int split(int from, int to, int level) {
+    List<DoubleVector> subtree = keyVectors(from, to);
+    Hyperplane hyperplane = splitRule.splitHyperplane(subtree, level,
+        offset + from);
+    if (hyperplane != null) {
+      return split(from, to, hyperplane);
+    }
+    int splitDimension = splitRule.splitDimension(subtree, level);
+    Preconditions.checkElementIndex(splitDimension,
+        work[from].keyVector.getDimension(), "split returned invalid index!");
+
+    for (int i = from; i < to; i++) {
+      keys[i] = work[i].keyVector.get(splitDimension);
+    }
+    int pivot = select(from, to - 1, (from + to - 1) >>> 1);
+    TreeNode<VALUE> old = work[pivot];
+    TreeNode<VALUE> node = new TreeNode<>(old.id, splitDimension, old);
+    node.removed = old.removed;
+    work[pivot] = node;
+    index[node.id] = node;
+    return pivot;
+  }
+
+  /**
+   * @return a view of the key vectors of the range for the split policy.
+   */
+  private List<DoubleVector> keyVectors(int from, int to) {
+    return new AbstractList<DoubleVector>() {
+      @Override
+      public DoubleVector get(int index) {
+        return work[from + index].keyVector;
+      }
+
+      @Override
+      public int size() {
+        return to - from;
+      }
+    };
+  }
+
+  private int split(int from, int to, Hyperplane hyperplane) {
+    final double threshold = hyperplane.getThreshold();
+    for (int i = from; i < to; i++) {
+      keys[i] = work[i].projectOnto(hyperplane);
+    }
+    final int pivot = partitionEvenly(from, to, threshold);
+    TreeNode<VALUE> old = work[pivot];
+    TreeNode<VALUE> node = new TreeNode<>(old, hyperplane);
+    node.removed = old.removed;
+    work[pivot] = node;
+    index[node.id] = node;
+    return pivot;
+  }
+
+}
@@ -0,0 +1,419 @@
+package de.jungblut.jrpt;
+
+import gnu.trove.map.hash.TLongIntHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+
+import de.jungblut.jrpt.distance.SparseEntries;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.tuple.Tuple;
+
+/**
+ * Locality sensitive hashing index for the Jaccard similarity of the sets of
+ * non-zero indices of the vectors, e.g. of shingled documents or bag of words.
+ *
+ * Every vector is summarized by a MinHash signature of bands * rows values,
+ * the minimum of a universal hash function over its non-zero indices. Two sets
+ * agree on a single value with a probability of their Jaccard similarity s, so
+ * they share a bucket in at least one band with a probability of 1 - (1 -
+ * s^rows)^bands. More rows make the buckets more selective, more bands increase
+ * the recall. The candidates of all buckets of the query are ranked by their
+ * exact Jaccard distance, 1 - |A ∩ B| / |A ∪ B|.
+ *
+ * The buckets of every band are primitive hash maps from the band's hash to
+ * the last added vector, the vectors in the same bucket are chained by their
+ * ids. Removed vectors stay in the chains until the next compaction.
+ *
+ * @param <VALUE> the payload type.
+ */
+public final class MinHashANN<VALUE> implements ANN<VALUE> {
+
+  private static final int INITIAL_CAPACITY = 16;
+  private static final int NO_ID = -1;
+
+  private final int bands;
+  private final int rows;
+  // the multipliers (odd) and increments of the hash functions
+  private final long[] multipliers;
+  private final long[] increments;
+  // the last added id for the hash of every band
+  private final TLongIntHashMap[] buckets;
+
+  // the vectors, payloads and sorted non-zero indices by their id. Removed
+  // vectors are null until the next compaction.
+  private DoubleVector[] vectors = new DoubleVector[INITIAL_CAPACITY];
+  private Object[] values = new Object[INITIAL_CAPACITY];
+  private int[][] sets = new int[INITIAL_CAPACITY][];
+  // the next id in the same bucket at id * bands + band
+  private int[] chains;
+  private int size;
+  private int removed;
+  private int vectorDimension;
+  private double compactionThreshold = ANNTree.DEFAULT_COMPACTION_THRESHOLD;
+
+  /**
+   * Creates a new index with random hash functions.
+   *
+   * @param bands the number of bands, a vector is a candidate if it shares
+   *          the bucket of at least one band with the query.
+   * @param rows the number of hash values per band.
+   */
+  public MinHashANN(int bands, int rows) {
+    this(bands, rows, new Random());
+  }
+
+  /**
+   * Creates a new index with hash functions drawn from the given random.
+   *
+   * @param bands the number of bands, a vector is a candidate if it shares
+   *          the bucket of at least one band with the query.
+   * @param rows the number of hash values per band.
+   * @param rand the random to draw the hash functions from.
+   */
+  public MinHashANN(int bands, int rows, Random rand) {
+    Preconditions.checkArgument(bands > 0, "bands must be positive, but was "
+        + bands);
+    Preconditions.checkArgument(rows > 0, "rows must be positive, but was "
+        + rows);
+    Preconditions.checkNotNull(rand, "rand");
+    this.bands = bands;
+    this.rows = rows;
+    this.multipliers = new long[bands * rows];
+    this.increments = new long[bands * rows];
+    for (int i = 0; i < multipliers.length; i++) {
+      multipliers[i] = rand.nextLong() | 1L;
+      increments[i] = rand.nextLong();
+    }
+    this.buckets = new TLongIntHashMap[bands];
+    for (int band = 0; band < bands; band++) {
+      buckets[band] = newBucket();
+    }
+    this.chains = new int[INITIAL_CAPACITY * bands];
+  }
+
+  @Override
+  public void add(DoubleVector vec, VALUE value) {
+    Preconditions.checkNotNull(vec, "vector");
+    validateVector(vec);
+    int[] set = set(vec);
+    insert(vec, value, set, signature(set));
+  }
+
+  @Override
+  public void addVectorStream(Stream<DoubleVector> vectors) {
+    addStream(vectors.map((v) -> new Tuple<>(v, null)));
+  }
+
+  /**
+   * Adds all vector/payload pairs of the given stream, their signatures are
+   * computed in parallel.
+   */
+  @Override
+  public void addStream(Stream<Tuple<DoubleVector, VALUE>> pairs) {
+    List<Tuple<DoubleVector, VALUE>> list = pairs.collect(Collectors
+        .toList());
+    for (Tuple<DoubleVector, VALUE> pair : list) {
+      validateVector(Preconditions.checkNotNull(pair.getFirst(), "vector"));
+    }
+    final int[][] newSets = new int[list.size()][];
+    final int[][] signatures = new int[list.size()][];
+    IntStream.range(0, list.size()).parallel().forEach((i) -> {
+      newSets[i] = set(list.get(i).getFirst());
+      signatures[i] = signature(newSets[i]);
+    });
+    for (int i = 0; i < list.size(); i++) {
+      Tuple<DoubleVector, VALUE> pair = list.get(i);
+      insert(pair.getFirst(), pair.getSecond(), newSets[i], signatures[i]);
+    }
+  }
+
+  /**
+   * Removes the vector, once the ratio of removed vectors exceeds the
+   * compaction threshold the index is compacted.
+   */
+  @Override
+  public boolean remove(DoubleVector vec, VALUE payload) {
+    Preconditions.checkNotNull(vec, "vector");
+    if (size == 0 || vec.getDimension() != vectorDimension) {
+      return false;
+    }
+    // an equal vector has the same signature, so it is in the first bucket
+    int[] signature = signature(set(vec));
+    int id = buckets[0].get(bandHash(signature, 0));
+    while (id != NO_ID) {
+      if (vectors[id] != null && ANNTree.equal(vectors[id], vec)
+          && Objects.equals(values[id], payload)) {
+        vectors[id] = null;
+        values[id] = null;
+        sets[id] = null;
+        removed++;
+        if (removed > compactionThreshold * size) {
+          compact();
+        }
+        return true;
+      }
+      id = chains[id * bands];
+    }
+    return false;
+  }
+
+  /**
+   * Drops the removed vectors and rebuilds the buckets, the remaining vectors
+   * keep their order.
+   */
+  public void compact() {
+    if (removed == 0) {
+      return;
+    }
+    int live = 0;
+    for (int id = 0; id < size; id++) {
+      if (vectors[id] != null) {
+        vectors[live] = vectors[id];
+        values[live] = values[id];
+        sets[live] = sets[id];
+        live++;
+      }
+    }
+    Arrays.fill(vectors, live, size, null);
+    Arrays.fill(values, live, size, null);
+    Arrays.fill(sets, live, size, null);
+    size = live;
+    removed = 0;
+    final int[][] signatures = new int[size][];
+    IntStream.range(0, size).parallel()
+        .forEach((id) -> signatures[id] = signature(sets[id]));
+    for (int band = 0; band < bands; band++) {
+      buckets[band] = newBucket();
+    }
+    for (int id = 0; id < size; id++) {
+      link(id, signatures[id]);
+    }
+  }
+
+  /**
+   * The buckets don't need to be balanced, this only compacts the index.
+   */
+  @Override
+  public void balance() {
+    compact();
+  }
+
+  /**
+   * @see ANNTree#setCompactionThreshold(double)
+   */
+  public void setCompactionThreshold(double threshold) {
+    this.compactionThreshold = IndexPreconditions
+        .checkCompactionThreshold(threshold);
+  }
+
+  @Override
+  public List<VectorDistanceTuple<VALUE>> getNearestNeighbours(
+      DoubleVector vec, int k, double radius) {
+    return getNearestNeighbours(vec, k, radius, SearchOptions.EXACT);
+  }
+
+  /**
+   * Searches the candidates that share a bucket with the query, the radius is
+   * a Jaccard distance. At most maxChecks candidates are ranked, the epsilon
+   * of the options is ignored.
+   */
+  @Override
+  public List<VectorDistanceTuple<VALUE>> getNearestNeighbours(
+      DoubleVector vec, int k, double radius, SearchOptions options) {
+    Preconditions.checkNotNull(vec, "vector");
+    Preconditions.checkNotNull(options, "options");
+    if (size == 0) {
+      return new ArrayList<>();
+    }
+    IndexPreconditions.checkDimension(vectorDimension, vec, "index");
+    int[] set = set(vec);
+    int[] signature = signature(set);
+    SearchContext context = SearchContext.get();
+    context.reset(0, k, options.getMaxChecks());
+    context.resetResults(k, size);
+    BoundedMaxHeap candidates = context.candidates;
+    for (int band = 0; band < bands && context.remainingChecks > 0; band++) {
+      int id = buckets[band].get(bandHash(signature, band));
+      while (id != NO_ID && context.remainingChecks > 0) {
+        if (vectors[id] != null && context.mark(id)) {
+          context.remainingChecks--;
+          double distance = jaccardDistance(set, sets[id]);
+          if (distance <= radius) {
+            candidates.offer(id, distance);
+          }
+        }
+        id = chains[id * bands + band];
+      }
+    }
+
+    candidates.sort();
+    List<VectorDistanceTuple<VALUE>> list = new ArrayList<>(
+        candidates.size());
+    for (int i = 0; i < candidates.size(); i++) {
+      int id = candidates.getId(i);
+      list.add(new VectorDistanceTuple<>(vectors[id], value(id), candidates
+          .getDistance(i)));
+    }
+    return list;
+  }
+
+  /**
+   * Range queries can't use the buckets, they scan all vectors.
+   */
+  @Override
+  public List<VectorDistanceTuple<VALUE>> rangeQuery(DoubleVector lower,
+      DoubleVector upper) {
+    return Lists.newArrayList(rangeIterator(lower, upper));
+  }
+
+  @Override
+  public Iterator<VectorDistanceTuple<VALUE>> rangeIterator(
+      DoubleVector lower, DoubleVector upper) {
+    final RangeBounds bounds = new RangeBounds(lower, upper);
+    final int limit = size;
+    Iterator<Integer> ids = IntStream.range(0, limit)
+        .filter((id) -> vectors[id] != null && bounds.contains(vectors[id]))
+        .iterator();
+    return Iterators.transform(ids,
+        (id) -> new VectorDistanceTuple<>(vectors[id], value(id), 0));
+  }
+
+  /**
+   * @return the number of bands.
+   */
+  public int getBands() {
+    return bands;
+  }
+
+  /**
+   * @return the number of hash values per band.
+   */
+  public int getRows() {
+    return rows;
+  }
+
+  @Override
+  public int size() {
+    return size - removed;
+  }
+
+  @Override
+  public int tombstones() {
+    return removed;
+  }
+
+  /**
+   * Iterates over the vectors in the order they were added.
+   */
+  @Override
+  public Iterator<DoubleVector> iterator() {
+    return Iterators.filter(Arrays.asList(vectors).subList(0, size)
+        .iterator(), (v) -> v != null);
+  }
+
+  /**
+   * @return the Jaccard distance of the two sorted sets, zero if both are
+   *         empty.
+   */
+  static double jaccardDistance(int[] a, int[] b) {
+    int intersection = 0;
+    int i = 0;
+    int j = 0;
+    while (i < a.length && j < b.length) {
+      if (a[i] == b[j]) {
+        intersection++;
+        i++;
+        j++;
+      } else if (a[i] < b[j]) {
+        i++;
+      } else {
+        j++;
+      }
+    }
+    final int union = a.length + b.length - intersection;
+    return union == 0 ? 0d : 1d - (double) intersection / union;
+  }
+
+  private void insert(DoubleVector vec, VALUE value, int[] set,
+      int[] signature) {
+    if (size == vectors.length) {
+      vectors = Arrays.copyOf(vectors, size * 2);
+      values = Arrays.copyOf(values, size * 2);
+      sets = Arrays.copyOf(sets, size * 2);
+    }
+    vectors[size] = vec;
+    values[size] = value;
+    sets[size] = set;
+    link(size, signature);
+    size++;
+  }
+
+  // prepends the id to its bucket in every band
+  private void link(int id, int[] signature) {
+    if (chains.length < (id + 1) * bands) {
+      chains = Arrays.copyOf(chains, vectors.length * bands);
+    }
+    for (int band = 0; band < bands; band++) {
+      chains[id * bands + band] = buckets[band].put(bandHash(signature, band),
+          id);
+    }
+  }
+
+  /**
+   * @return the minimum of every hash function over the set, the maximum
+   *         integer for an empty set.
+   */
+  private int[] signature(int[] set) {
+    int[] signature = new int[multipliers.length];
+    Arrays.fill(signature, Integer.MAX_VALUE);
+    for (int index : set) {
+      for (int i = 0; i < signature.length; i++) {
+        // multiply-add-shift, the high bits are universal for the index
+        int hash = (int) ((multipliers[i] * index + increments[i]) >>> 33);
+        if (hash < signature[i]) {
+          signature[i] = hash;
+        }
+      }
+    }
+    return signature;
+  }
+
+  private long bandHash(int[] signature, int band) {
+    long hash = band;
+    for (int i = band * rows; i < (band + 1) * rows; i++) {
+      hash = (hash ^ signature[i]) * 0x9E3779B97F4A7C15L;
+    }
+    return hash ^ (hash >>> 29);
+  }
+
+  private static int[] set(DoubleVector vec) {
+    return SparseEntries.of(vec).indices();
+  }
+
+  private static TLongIntHashMap newBucket() {
+    return new TLongIntHashMap(INITIAL_CAPACITY, 0.5f, 0L, NO_ID);
+  }
+
+  private void validateVector(DoubleVector vec) {
+    vectorDimension = IndexPreconditions.checkAddedVector(vectorDimension,
+        vec, "index");
+  }
+
+  @SuppressWarnings("unchecked")
+  private VALUE value(int id) {
+    return (VALUE) values[id];
+  }
+
+}
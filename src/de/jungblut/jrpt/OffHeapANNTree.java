@@ -0,0 +1,497 @@
+package de.jungblut.jrpt;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Lists;
+
+import de.jungblut.jrpt.IndexFormat.Header;
+import de.jungblut.jrpt.IndexFormat.Sections;
+import de.jungblut.jrpt.distance.EuclidianDistance;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.dense.DenseDoubleVector;
+
+/**
+ * Read-only tree in the {@link IndexFormat} whose structure and coordinates
+ * live outside of the heap, either in a memory mapped index file together with
+ * the encoded payloads or in direct memory. Searches read directly from the
+ * buffers, so opening an index doesn't deserialize anything and the pages of a
+ * mapped file are shared by all processes that open it. Since the garbage
+ * collector only sees a few buffers per tree, its marking time doesn't grow
+ * with the size of the index.
+ *
+ * The search results contain dense copies of the vectors and the payloads are
+ * decoded for every result.
+ *
+ * Instances are safe to be queried by multiple threads concurrently.
+ *
+ * @param <VALUE> the payload type.
+ */
+public final class OffHeapANNTree<VALUE> implements ANNSearch<VALUE>,
+    Iterable<DoubleVector>, Closeable {
+
+  private static final int NO_CHILD = CompiledANNTree.NO_CHILD;
+  // the sign bit of the state, the other bits count the running searches
+  private static final int CLOSED = Integer.MIN_VALUE;
+
+  private final int size;
+  private final int dimension;
+
+  private final int vectorsPerChunk;
+  private final int nodesPerChunk;
+  private final ByteBuffer[][] sections;
+  private final DoubleBuffer[] normals;
+  private final DoubleBuffer[] coordinates;
+  private final ByteBuffer[] nodes;
+  private final ByteBuffer[] payloads;
+  private final PayloadCodec<VALUE> codec;
+  // the payloads by node id if they are kept on the heap, otherwise null
+  private final Object[] values;
+
+  private final AtomicInteger state = new AtomicInteger();
+
+  private final Search search;
+
+  private OffHeapANNTree(Sections sections, PayloadCodec<VALUE> codec,
+      Object[] values) {
+    this.size = sections.header.size;
+    this.dimension = sections.header.dimension;
+    this.vectorsPerChunk = dimension == 0 ? 0 : IndexFormat
+        .recordsPerChunk(dimension * 8);
+    this.nodesPerChunk = IndexFormat.recordsPerChunk(IndexFormat.NODE_LENGTH);
+    this.sections = sections.chunks;
+    this.normals = doubles(this.sections[IndexFormat.NORMALS]);
+    this.coordinates = doubles(this.sections[IndexFormat.COORDINATES]);
+    this.nodes = this.sections[IndexFormat.NODES];
+    this.payloads = this.sections[IndexFormat.PAYLOADS];
+    this.codec = codec;
+    this.values = values;
+    this.search = new Search();
+  }
+
+  /**
+   * Opens an index file written by
+   * {@link CompiledANNTree#write(Path, PayloadCodec)} by mapping it read-only
+   * into memory. The mapping is released by {@link #close()} or once the tree
+   * is garbage collected.
+   *
+   * @param path the path of the index file.
+   * @param codec the codec the payloads were written with.
+   * @return a new tree on the mapped file.
+   * @throws IOException if the file can't be read or is not a valid index.
+   */
+  public static <VALUE> OffHeapANNTree<VALUE> open(Path path,
+      PayloadCodec<VALUE> codec) throws IOException {
+    Preconditions.checkNotNull(path, "path");
+    Preconditions.checkNotNull(codec, "codec");
+    try (FileChannel channel = FileChannel.open(path,
+        StandardOpenOption.READ)) {
+      ByteBuffer buffer = ByteBuffer.allocate(IndexFormat.HEADER_LENGTH)
+          .order(ByteOrder.LITTLE_ENDIAN);
+      while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+        // read the complete header
+      }
+      ((Buffer) buffer).flip();
+      Header header = Header.read(buffer);
+      if (channel.size() != header.fileLength) {
+        throw new IOException("index file has " + channel.size()
+            + " bytes, but expected " + header.fileLength);
+      }
+      return new OffHeapANNTree<>(new Sections(header, IndexFormat.map(
+          channel, header)), codec, null);
+    }
+  }
+
+  /**
+   * Copies the structure and coordinates of the compiled tree into direct
+   * memory, only the payloads stay on the heap. The memory is freed by
+   * {@link #close()} or once the tree is garbage collected, it counts against
+   * the limit of -XX:MaxDirectMemorySize. Only trees with the euclidian
+   * distance are supported.
+   *
+   * @param tree the compiled tree.
+   * @return a new tree in direct memory.
+   */
+  public static <VALUE> OffHeapANNTree<VALUE> allocate(
+      CompiledANNTree<VALUE> tree) {
+    Preconditions.checkNotNull(tree, "tree");
+    tree.checkEuclidian();
+    return new OffHeapANNTree<>(IndexFormat.allocate(tree), null,
+        tree.values.clone());
+  }
+
+  /**
+   * Frees the memory or unmaps the file of this tree. Running searches finish
+   * first and the memory is freed by the last of them, later calls to any
+   * search method throw an {@link IllegalStateException}. Closing a tree
+   * twice has no effect.
+   */
+  @Override
+  public void close() {
+    while (true) {
+      int current = state.get();
+      if (current < 0) {
+        return;
+      }
+      if (state.compareAndSet(current, current | CLOSED)) {
+        if (current == 0) {
+          free();
+        }
+        return;
+      }
+    }
+  }
+
+  /**
+   * @return true if this tree was closed.
+   */
+  public boolean isClosed() {
+    return state.get() < 0;
+  }
+
+  private void acquire() {
+    while (true) {
+      int current = state.get();
+      Preconditions.checkState(current >= 0, "tree is closed");
+      if (state.compareAndSet(current, current + 1)) {
+        return;
+      }
+    }
+  }
+
+  private void release() {
+    if (state.decrementAndGet() == CLOSED) {
+      free();
+    }
+  }
+
+  private void free() {
+    for (ByteBuffer[] chunks : sections) {
+      BufferCleaner.free(chunks);
+    }
+  }
+
+  @Override
+  public List<VectorDistanceTuple<VALUE>> getNearestNeighbours(
+      DoubleVector vec, int k, double radius) {
+    acquire();
+    try {
+      if (size == 0) {
+        return Lists.newArrayList();
+      }
+      checkDimension(vec);
+      EuclidianDistance distance = EuclidianDistance.get();
+      SearchContext context = SearchContext.get();
+      context.reset(dimension, k);
+      search.search(0, vec.toArray(), distance.toRankDistance(radius),
+          context);
+      return results(distance, context);
+    } finally {
+      release();
+    }
+  }
+
+  @Override
+  public List<VectorDistanceTuple<VALUE>> getNearestNeighbours(
+      DoubleVector vec, int k, double radius, SearchOptions options) {
+    Preconditions.checkNotNull(options, "options");
+    acquire();
+    try {
+      if (size == 0) {
+        return Lists.newArrayList();
+      }
+      checkDimension(vec);
+      EuclidianDistance distance = EuclidianDistance.get();
+      SearchContext context = SearchContext.get();
+      context.reset(dimension, k, options.getMaxChecks());
+      search.bestBinFirst(0, vec.toArray(), distance.toRankDistance(radius),
+          options.rankFactor(), context);
+      return results(distance, context);
+    } finally {
+      release();
+    }
+  }
+
+  private List<VectorDistanceTuple<VALUE>> results(EuclidianDistance distance,
+      SearchContext context) {
+    BoundedMaxHeap candidates = context.candidates;
+    candidates.sort();
+    List<VectorDistanceTuple<VALUE>> list = new ArrayList<>(
+        candidates.size());
+    for (int i = 0; i < candidates.size(); i++) {
+      int id = candidates.getId(i);
+      list.add(new VectorDistanceTuple<>(vector(id), value(id), distance
+          .toDistance(candidates.getDistance(i))));
+    }
+    return list;
+  }
+
+  /**
+   * The node records for the searches, addressed by their index.
+   */
+  private final class Search extends TreeSearch<double[]> {
+
+    Search() {
+      super(EuclidianDistance.get(), OffHeapANNTree.this.dimension);
+    }
+
+    @Override
+    int left(int node, SearchContext context) {
+      return field(node, IndexFormat.LEFT);
+    }
+
+    @Override
+    int right(int node, SearchContext context) {
+      return field(node, IndexFormat.RIGHT);
+    }
+
+    @Override
+    double diff(int node, double[] target, SearchContext context) {
+      return project(field(node, IndexFormat.NORMAL), node, target)
+          - splitValue(node);
+    }
+
+    @Override
+    int splitDimension(int node, SearchContext context) {
+      return field(node, IndexFormat.SPLIT_DIMENSION);
+    }
+
+    @Override
+    int check(int node, double[] target, double rankRadius,
+        SearchContext context) {
+      double bound = context.candidates.bound(rankRadius);
+      double rankDistance = rankDistance(target, node, bound);
+      if (rankDistance <= bound) {
+        context.candidates.offer(node, rankDistance);
+      }
+      return 1;
+    }
+  }
+
+  @Override
+  public List<VectorDistanceTuple<VALUE>> rangeQuery(DoubleVector lower,
+      DoubleVector upper) {
+    return Lists.newArrayList(rangeIterator(lower, upper));
+  }
+
+  /**
+   * Same depth first search as in the {@link CompiledANNTree}. The tree must
+   * not be closed while iterating.
+   */
+  @Override
+  public Iterator<VectorDistanceTuple<VALUE>> rangeIterator(
+      DoubleVector lower, DoubleVector upper) {
+    if (size == 0) {
+      return Collections.emptyIterator();
+    }
+    checkDimension(lower);
+    checkDimension(upper);
+    final RangeBounds bounds = new RangeBounds(lower, upper);
+    return new AbstractIterator<VectorDistanceTuple<VALUE>>() {
+      // at most one pending sibling per level, starting with the root at 0
+      int[] toVisit = new int[16];
+      int length = 1;
+
+      @Override
+      protected VectorDistanceTuple<VALUE> computeNext() {
+        acquire();
+        try {
+          while (length > 0) {
+            final int next = toVisit[--length];
+            final int normal = field(next, IndexFormat.NORMAL);
+            final int sides = normal == IndexFormat.NO_NORMAL ? bounds.sides(
+                field(next, IndexFormat.SPLIT_DIMENSION), splitValue(next))
+                : bounds.sides(normal(normal), splitValue(next));
+            final int right = field(next, IndexFormat.RIGHT);
+            if ((sides & RangeBounds.RIGHT) != 0 && right != NO_CHILD) {
+              push(right);
+            }
+            final int left = field(next, IndexFormat.LEFT);
+            if ((sides & RangeBounds.LEFT) != 0 && left != NO_CHILD) {
+              push(left);
+            }
+            if (bounds.contains(coordinates[next / vectorsPerChunk],
+                (next % vectorsPerChunk) * dimension)) {
+              return new VectorDistanceTuple<>(vector(next), value(next), 0);
+            }
+          }
+          return endOfData();
+        } finally {
+          release();
+        }
+      }
+
+      private void push(int node) {
+        if (length == toVisit.length) {
+          toVisit = Arrays.copyOf(toVisit, length * 2);
+        }
+        toVisit[length++] = node;
+      }
+    };
+  }
+
+  /**
+   * @return a copy of the normal with the given index.
+   */
+  private double[] normal(int normal) {
+    final DoubleBuffer chunk = normals[normal / vectorsPerChunk];
+    final int offset = (normal % vectorsPerChunk) * dimension;
+    double[] array = new double[dimension];
+    for (int d = 0; d < dimension; d++) {
+      array[d] = chunk.get(offset + d);
+    }
+    return array;
+  }
+
+  /**
+   * @return the squared distance between the target and the node if it is
+   *         lower or equal to the bound, otherwise any value higher than the
+   *         bound.
+   */
+  private double rankDistance(double[] target, int node, double bound) {
+    final DoubleBuffer chunk = coordinates[node / vectorsPerChunk];
+    final int offset = (node % vectorsPerChunk) * dimension;
+    double sum = 0;
+    int d = 0;
+    // only check the bound every few dimensions
+    while (d < dimension) {
+      final int end = Math.min(dimension, d + 8);
+      for (; d < end; d++) {
+        double diff = chunk.get(offset + d) - target[d];
+        sum += (diff * diff);
+      }
+      if (sum > bound) {
+        break;
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * @return the projection of the target onto the split of the node.
+   */
+  private double project(int normal, int node, double[] target) {
+    if (normal == IndexFormat.NO_NORMAL) {
+      return target[field(node, IndexFormat.SPLIT_DIMENSION)];
+    }
+    final DoubleBuffer chunk = normals[normal / vectorsPerChunk];
+    final int offset = (normal % vectorsPerChunk) * dimension;
+    double sum = 0;
+    for (int d = 0; d < dimension; d++) {
+      sum += chunk.get(offset + d) * target[d];
+    }
+    return sum;
+  }
+
+  /**
+   * @return the int field of the node record.
+   */
+  private int field(int node, int field) {
+    return nodes[node / nodesPerChunk].getInt((node % nodesPerChunk)
+        * IndexFormat.NODE_LENGTH + field);
+  }
+
+  private double splitValue(int node) {
+    return nodes[node / nodesPerChunk].getDouble((node % nodesPerChunk)
+        * IndexFormat.NODE_LENGTH + IndexFormat.SPLIT_VALUE);
+  }
+
+  /**
+   * @return a dense copy of the vector of the node.
+   */
+  private DoubleVector vector(int node) {
+    final DoubleBuffer chunk = coordinates[node / vectorsPerChunk];
+    final int offset = (node % vectorsPerChunk) * dimension;
+    double[] array = new double[dimension];
+    for (int d = 0; d < dimension; d++) {
+      array[d] = chunk.get(offset + d);
+    }
+    return new DenseDoubleVector(array);
+  }
+
+  /**
+   * @return the decoded payload of the node.
+   */
+  @SuppressWarnings("unchecked")
+  private VALUE value(int node) {
+    if (values != null) {
+      return (VALUE) values[node];
+    }
+    final ByteBuffer chunk = nodes[node / nodesPerChunk];
+    final int record = (node % nodesPerChunk) * IndexFormat.NODE_LENGTH;
+    final int length = chunk.getInt(record + IndexFormat.PAYLOAD_LENGTH);
+    if (length == IndexFormat.NULL_PAYLOAD) {
+      return null;
+    }
+    final long offset = chunk.getLong(record + IndexFormat.PAYLOAD_OFFSET);
+    final int position = (int) (offset & (IndexFormat.CHUNK_LENGTH - 1));
+    return codec.decode(IndexFormat.slice(
+        payloads[(int) (offset >>> IndexFormat.CHUNK_SHIFT)], position,
+        position + length));
+  }
+
+  private void checkDimension(DoubleVector vec) {
+    IndexPreconditions.checkDimension(dimension, vec, "tree");
+  }
+
+  private static DoubleBuffer[] doubles(ByteBuffer[] chunks) {
+    DoubleBuffer[] doubles = new DoubleBuffer[chunks.length];
+    for (int i = 0; i < chunks.length; i++) {
+      doubles[i] = chunks[i].asDoubleBuffer();
+    }
+    return doubles;
+  }
+
+  /**
+   * @return the number of nodes in this tree.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return the dimension of the vectors in this tree.
+   */
+  public int getDimension() {
+    return dimension;
+  }
+
+  /**
+   * Iterates over dense copies of the vectors in layout (pre-order) order.
+   */
+  @Override
+  public Iterator<DoubleVector> iterator() {
+    return new AbstractIterator<DoubleVector>() {
+      int next = 0;
+
+      @Override
+      protected DoubleVector computeNext() {
+        if (next >= size) {
+          return endOfData();
+        }
+        acquire();
+        try {
+          return vector(next++);
+        } finally {
+          release();
+        }
+      }
+    };
+  }
+
+}
@@ -0,0 +1,82 @@
+package de.jungblut.jrpt;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts payloads from and to bytes, to store them in an index file. Null
+ * payloads are handled by the index itself and never passed to a codec.
+ *
+ * @param <VALUE> the payload type.
+ */
+public interface PayloadCodec<VALUE> {
+
+  /**
+   * @return the bytes of the given non-null payload, or null to not store it.
+   */
+  public byte[] encode(VALUE value);
+
+  /**
+   * Decodes a payload from the remaining bytes of the given buffer. The buffer
+   * is little endian and only valid during this call.
+   *
+   * @return the payload.
+   */
+  public VALUE decode(ByteBuffer buffer);
+
+  /**
+   * @return a codec that stores strings as UTF-8.
+   */
+  public static PayloadCodec<String> utf8() {
+    return new PayloadCodec<String>() {
+      @Override
+      public byte[] encode(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+      }
+
+      @Override
+      public String decode(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+      }
+    };
+  }
+
+  /**
+   * @return a codec that stores integers in four bytes.
+   */
+  public static PayloadCodec<Integer> integers() {
+    return new PayloadCodec<Integer>() {
+      @Override
+      public byte[] encode(Integer value) {
+        return new byte[] { (byte) value.intValue(), (byte) (value >>> 8),
+            (byte) (value >>> 16), (byte) (value >>> 24) };
+      }
+
+      @Override
+      public Integer decode(ByteBuffer buffer) {
+        return buffer.getInt();
+      }
+    };
+  }
+
+  /**
+   * @return a codec that doesn't store the payloads at all, they are null once
+   *         the index is opened.
+   */
+  public static <VALUE> PayloadCodec<VALUE> none() {
+    return new PayloadCodec<VALUE>() {
+      @Override
+      public byte[] encode(VALUE value) {
+        return null;
+      }
+
+      @Override
+      public VALUE decode(ByteBuffer buffer) {
+        return null;
+      }
+    };
+  }
+
+}
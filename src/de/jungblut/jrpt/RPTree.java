@@ -0,0 +1,34 @@
+package de.jungblut.jrpt;
+
+import de.jungblut.jrpt.distance.DistanceMeasurer;
+import de.jungblut.jrpt.rules.RPTreeMaxSplitPolicy;
+
+/**
+ * Implementation of a random projection tree, every node splits on a
+ * hyperplane orthogonal to a random direction. Unlike the axis aligned splits
+ * of a kd-tree, this adapts to data with a low intrinsic dimension in high
+ * dimensional spaces. The splits follow the RP-tree max rule once the tree is
+ * built with {@link #bulkLoad(java.util.stream.Stream)} or {@link #balance()}.
+ */
+public final class RPTree<VALUE> extends ANNTree<VALUE> {
+
+  public RPTree() {
+    super(new RPTreeMaxSplitPolicy<VALUE>());
+  }
+
+  /**
+   * Creates a tree that searches with the given distance measurer.
+   */
+  public RPTree(DistanceMeasurer distance) {
+    super(new RPTreeMaxSplitPolicy<VALUE>(), distance);
+  }
+
+  /**
+   * Creates a tree that keeps its depth logarithmic while vectors are added,
+   * see {@link ANNTree#ANNTree(de.jungblut.jrpt.rules.SplitPolicy, double)}.
+   */
+  public RPTree(double alpha) {
+    super(new RPTreeMaxSplitPolicy<VALUE>(), alpha);
+  }
+
+}
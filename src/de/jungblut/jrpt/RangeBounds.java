@@ -0,0 +1,182 @@
+package de.jungblut.jrpt;
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import com.google.common.base.Preconditions;
+
+import de.jungblut.jrpt.rules.Hyperplane;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.DoubleVector.DoubleVectorElement;
+
+/**
+ * The axis aligned box of a range query. Like in all range queries of this
+ * library, zeros in the lower and upper bound don't restrict the range in that
+ * dimension.
+ *
+ * Subtrees are pruned with the split of their parent: everything lower or
+ * equal to the split value is on the left side, everything higher or equal on
+ * the right side. For hyperplanes the box is projected onto the normal.
+ */
+final class RangeBounds {
+
+  static final int LEFT = 1;
+  static final int RIGHT = 2;
+  static final int BOTH = LEFT | RIGHT;
+
+  // relative slack for the projection of the box, so rounding can't prune a
+  // vector on the border of a hyperplane
+  private static final double TOLERANCE = 1e-9;
+
+  // the bounds with infinity for the unrestricted dimensions
+  private final double[] lower;
+  private final double[] upper;
+  // the restricted dimensions and their bounds
+  private final int[] lowerIndices;
+  private final double[] lowerValues;
+  private final int[] upperIndices;
+  private final double[] upperValues;
+
+  RangeBounds(DoubleVector lower, DoubleVector upper) {
+    Preconditions.checkArgument(lower.getDimension() == upper.getDimension(),
+        "Dimensional mismatch between lower and upper bound: "
+            + lower.getDimension() + " != " + upper.getDimension() + "!");
+    final int dimension = lower.getDimension();
+    this.lower = new double[dimension];
+    this.upper = new double[dimension];
+    Arrays.fill(this.lower, Double.NEGATIVE_INFINITY);
+    Arrays.fill(this.upper, Double.POSITIVE_INFINITY);
+    this.lowerIndices = nonZero(lower, this.lower);
+    this.lowerValues = values(this.lower, lowerIndices);
+    this.upperIndices = nonZero(upper, this.upper);
+    this.upperValues = values(this.upper, upperIndices);
+  }
+
+  int getDimension() {
+    return lower.length;
+  }
+
+  /**
+   * @return true if the vector is inside the range.
+   */
+  boolean contains(DoubleVector v) {
+    for (int i = 0; i < lowerIndices.length; i++) {
+      if (v.get(lowerIndices[i]) < lowerValues[i]) {
+        return false;
+      }
+    }
+    for (int i = 0; i < upperIndices.length; i++) {
+      if (v.get(upperIndices[i]) > upperValues[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return true if the vector at the given offset is inside the range.
+   */
+  boolean contains(double[] coordinates, int offset) {
+    for (int i = 0; i < lowerIndices.length; i++) {
+      if (coordinates[offset + lowerIndices[i]] < lowerValues[i]) {
+        return false;
+      }
+    }
+    for (int i = 0; i < upperIndices.length; i++) {
+      if (coordinates[offset + upperIndices[i]] > upperValues[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return true if the vector at the given offset is inside the range.
+   */
+  boolean contains(DoubleBuffer coordinates, int offset) {
+    for (int i = 0; i < lowerIndices.length; i++) {
+      if (coordinates.get(offset + lowerIndices[i]) < lowerValues[i]) {
+        return false;
+      }
+    }
+    for (int i = 0; i < upperIndices.length; i++) {
+      if (coordinates.get(offset + upperIndices[i]) > upperValues[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the sides of an axis aligned split that intersect the range, a
+   *         combination of {@link #LEFT} and {@link #RIGHT}.
+   */
+  int sides(int splitDimension, double splitValue) {
+    return (lower[splitDimension] <= splitValue ? LEFT : 0)
+        | (upper[splitDimension] >= splitValue ? RIGHT : 0);
+  }
+
+  /**
+   * @return the sides of a hyperplane split that intersect the range, a
+   *         combination of {@link #LEFT} and {@link #RIGHT}.
+   */
+  int sides(Hyperplane hyperplane, double threshold) {
+    return sides(hyperplane.getIndices(), hyperplane.getValues(), threshold);
+  }
+
+  /**
+   * @return the sides of a hyperplane split with a dense normal that intersect
+   *         the range, a combination of {@link #LEFT} and {@link #RIGHT}.
+   */
+  int sides(double[] normal, double threshold) {
+    return sides(null, normal, threshold);
+  }
+
+  /**
+   * @param indices the dimensions of the normal values, null if they are dense.
+   */
+  private int sides(int[] indices, double[] normal, double threshold) {
+    double min = 0;
+    double max = 0;
+    double magnitude = Math.abs(threshold);
+    for (int i = 0; i < normal.length; i++) {
+      final double n = normal[i];
+      if (n == 0d) {
+        continue;
+      }
+      final int d = indices == null ? i : indices[i];
+      final double a = n * lower[d];
+      final double b = n * upper[d];
+      min += Math.min(a, b);
+      max += Math.max(a, b);
+      magnitude += Math.max(Math.abs(a), Math.abs(b));
+    }
+    final double slack = TOLERANCE * magnitude;
+    return (min <= threshold + slack ? LEFT : 0)
+        | (max >= threshold - slack ? RIGHT : 0);
+  }
+
+  private static int[] nonZero(DoubleVector bound, double[] bounds) {
+    int[] indices = new int[bound.getDimension()];
+    int length = 0;
+    Iterator<DoubleVectorElement> iterateNonZero = bound.iterateNonZero();
+    while (iterateNonZero.hasNext()) {
+      DoubleVectorElement next = iterateNonZero.next();
+      if (next.getValue() != 0d) {
+        indices[length++] = next.getIndex();
+        bounds[next.getIndex()] = next.getValue();
+      }
+    }
+    return Arrays.copyOf(indices, length);
+  }
+
+  private static double[] values(double[] bounds, int[] indices) {
+    double[] values = new double[indices.length];
+    for (int i = 0; i < indices.length; i++) {
+      values[i] = bounds[indices[i]];
+    }
+    return values;
+  }
+
+}
@@ -0,0 +1,207 @@
+package de.jungblut.jrpt;
+
+import java.util.Arrays;
+
+import de.jungblut.jrpt.distance.SparseEntries;
+
+/**
+ * Reusable scratch state for a single nearest neighbour search. It contains the
+ * per-dimension offsets from the query to the currently visited cell and a
+ * {@link BoundedMaxHeap} of candidate node ids keyed by their rank distance.
+ * Instances are cached per thread, so a steady-state query doesn't allocate
+ * anything.
+ */
+final class SearchContext {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private static final ThreadLocal<SearchContext> CONTEXT = ThreadLocal
+      .withInitial(SearchContext::new);
+
+  // offset of the query to the current cell in each dimension
+  double[] offsets = new double[0];
+
+  final BoundedMaxHeap candidates = new BoundedMaxHeap(INITIAL_CAPACITY);
+
+  // the number of nodes the current search is still allowed to check
+  int remainingChecks;
+
+  // the sorted entries of a sparse query, computed once per query
+  SparseEntries sparseQuery;
+
+  // unexplored branches for best bin first searches
+  final BranchQueue branches = new BranchQueue();
+
+  // the nodes of tree layouts that address them by reference, by the handles
+  // a search assigned to them, see TreeSearch
+  private Object[] nodes = new Object[INITIAL_CAPACITY];
+  private int numNodes;
+
+  // distances of a block of vectors that were measured at once
+  private double[] distances = new double[INITIAL_CAPACITY];
+
+  // a per-query lookup table, e.g. of product quantized distances
+  private double[] table = new double[0];
+
+  // the neighbours of a node in a graph, copied while holding its lock
+  private int[] neighbours = new int[0];
+
+  // merged results over multiple searches, e.g. of the trees in a forest
+  final BoundedMaxHeap results = new BoundedMaxHeap(INITIAL_CAPACITY);
+  // ids that were already merged into the results, marked with the stamp
+  private int[] merged = new int[0];
+  private int stamp;
+
+  /**
+   * @return the search context of the current thread.
+   */
+  static SearchContext get() {
+    return CONTEXT.get();
+  }
+
+  /**
+   * Resets this context for a new query.
+   *
+   * @param dimension the dimension of the query vector.
+   * @param k the maximum number of candidates to keep.
+   */
+  void reset(int dimension, int k) {
+    reset(dimension, k, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Resets this context for a new query with a limited number of checks.
+   *
+   * @param dimension the dimension of the query vector.
+   * @param k the maximum number of candidates to keep.
+   * @param maxChecks the maximum number of nodes to check.
+   */
+  void reset(int dimension, int k, int maxChecks) {
+    remainingChecks = maxChecks;
+    sparseQuery = null;
+    if (offsets.length < dimension) {
+      offsets = new double[dimension];
+    } else {
+      Arrays.fill(offsets, 0, dimension, 0d);
+    }
+    candidates.reset(k);
+    branches.reset();
+    Arrays.fill(nodes, 0, numNodes, null);
+    numNodes = 0;
+  }
+
+  /**
+   * @return a new handle of the given node for the current query.
+   */
+  int handle(Object node) {
+    if (numNodes == nodes.length) {
+      nodes = Arrays.copyOf(nodes, numNodes * 2);
+    }
+    nodes[numNodes] = node;
+    return numNodes++;
+  }
+
+  /**
+   * @return the node of the given handle.
+   */
+  Object node(int handle) {
+    return nodes[handle];
+  }
+
+  /**
+   * @return the bound that the lower bound of a branch must not exceed to be
+   *         searched, the distance of the k-th candidate is divided by the
+   *         given factor.
+   */
+  double pruneBound(double rankRadius, double rankFactor) {
+    return candidates.isFull() ? Math.min(rankRadius,
+        candidates.getMaximumDistance() / rankFactor) : rankRadius;
+  }
+
+  /**
+   * @return a scratch array for at least the given number of distances.
+   */
+  double[] distances(int length) {
+    if (distances.length < length) {
+      distances = new double[Math.max(length, distances.length * 2)];
+    }
+    return distances;
+  }
+
+  /**
+   * @return a scratch array for at least the given number of neighbour ids.
+   */
+  int[] neighbours(int length) {
+    if (neighbours.length < length) {
+      neighbours = new int[length];
+    }
+    return neighbours;
+  }
+
+  /**
+   * @return a scratch array for a lookup table of at least the given length.
+   */
+  double[] table(int length) {
+    if (table.length < length) {
+      table = new double[length];
+    }
+    return table;
+  }
+
+  /**
+   * Resets the merged results for a new query.
+   *
+   * @param k the maximum number of results to keep.
+   * @param numIds the number of distinct ids that can be merged.
+   */
+  void resetResults(int k, int numIds) {
+    results.reset(k);
+    resetMarks(numIds);
+  }
+
+  /**
+   * Clears the marks of all ids for a new query, see {@link #mark(int)}.
+   *
+   * @param numIds the number of distinct ids that can be marked.
+   */
+  void resetMarks(int numIds) {
+    if (merged.length < numIds) {
+      // grows geometrically, the ids of a growing graph are marked per insert
+      merged = new int[Math.max(numIds, merged.length * 2)];
+      stamp = 0;
+    }
+    if (++stamp == 0) {
+      // the stamp overflowed, so older marks could collide
+      Arrays.fill(merged, 0);
+      stamp = 1;
+    }
+  }
+
+  /**
+   * Merges the current candidates into the results, ids that were merged
+   * before since the last {@link #resetResults(int, int)} are skipped.
+   */
+  void mergeCandidates() {
+    for (int i = 0; i < candidates.size(); i++) {
+      int id = candidates.getId(i);
+      if (mark(id)) {
+        results.offer(id, candidates.getDistance(i));
+      }
+    }
+  }
+
+  /**
+   * Marks the given id as seen for the current query.
+   *
+   * @return true if the id wasn't marked since the last
+   *         {@link #resetMarks(int)}.
+   */
+  boolean mark(int id) {
+    if (merged[id] == stamp) {
+      return false;
+    }
+    merged[id] = stamp;
+    return true;
+  }
+
+}
@@ -0,0 +1,76 @@
+package de.jungblut.jrpt;
+
+import com.google.common.base.Preconditions;
+
+import de.jungblut.jrpt.distance.DistanceMeasurer;
+import de.jungblut.jrpt.distance.EuclidianDistance;
+
+/**
+ * Options that bound the work of a nearest neighbour search.
+ *
+ * <ul>
+ * <li>maxChecks: the maximum number of nodes whose distance to the query is
+ * measured. The unexplored branches are visited best bin first, so the most
+ * promising nodes are checked before the budget is exhausted.</li>
+ * <li>epsilon: a branch is skipped when (1 + epsilon) times the lower bound of
+ * its distance exceeds the distance of the current k-th neighbour. Every
+ * returned neighbour is then at most (1 + epsilon) times further away than the
+ * true neighbour of the same rank.</li>
+ * </ul>
+ *
+ * Instances are immutable.
+ */
+public final class SearchOptions {
+
+  /**
+   * Options for an exact search.
+   */
+  public static final SearchOptions EXACT = new SearchOptions(
+      Integer.MAX_VALUE, 0d);
+
+  private final int maxChecks;
+  private final double epsilon;
+
+  /**
+   * @param maxChecks the positive maximum number of nodes to check.
+   * @param epsilon the non-negative approximation factor.
+   */
+  public SearchOptions(int maxChecks, double epsilon) {
+    Preconditions.checkArgument(maxChecks > 0,
+        "maxChecks must be positive, but was " + maxChecks);
+    Preconditions.checkArgument(epsilon >= 0d,
+        "epsilon must be non-negative, but was " + epsilon);
+    this.maxChecks = maxChecks;
+    this.epsilon = epsilon;
+  }
+
+  public int getMaxChecks() {
+    return maxChecks;
+  }
+
+  public double getEpsilon() {
+    return epsilon;
+  }
+
+  /**
+   * @return the factor for lower bounds of squared distances, (1 + epsilon)^2.
+   */
+  double rankFactor() {
+    return rankFactor(EuclidianDistance.get());
+  }
+
+  /**
+   * @return the factor for lower bounds of the rank distances of the given
+   *         measurer.
+   */
+  double rankFactor(DistanceMeasurer distance) {
+    return distance.rankFactor(epsilon);
+  }
+
+  @Override
+  public String toString() {
+    return "SearchOptions [maxChecks=" + maxChecks + ", epsilon=" + epsilon
+        + "]";
+  }
+
+}
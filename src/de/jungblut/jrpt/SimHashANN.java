@@ -0,0 +1,495 @@
+package de.jungblut.jrpt;
+
+import gnu.trove.map.hash.TLongIntHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+
+import de.jungblut.jrpt.distance.CosineDistance;
+import de.jungblut.jrpt.distance.SparseEntries;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.tuple.Tuple;
+
+/**
+ * Locality sensitive hashing index for the cosine distance. Every vector is
+ * hashed by the signs of its projections onto random hyperplanes, two vectors
+ * at an angle theta get a different bit with a probability of theta / pi. The
+ * bits of every table are packed into a long, that is the key of the table's
+ * bucket.
+ *
+ * A search looks up the bucket of the query in every table and probes the
+ * neighbouring buckets, whose keys differ in the bits whose projections were
+ * closest to the hyperplane. The candidates are ordered by the hamming
+ * distance of their signatures over all tables and the closest of them are
+ * ranked by their exact cosine distance. Only the signature, the norm and the
+ * bucket chains are stored per vector, besides the vector itself.
+ *
+ * More bits per table make the buckets more selective, more tables and probes
+ * increase the recall. Removed vectors stay in the chains until the next
+ * compaction.
+ *
+ * @param <VALUE> the payload type.
+ */
+public final class SimHashANN<VALUE> implements ANN<VALUE> {
+
+  private static final int INITIAL_CAPACITY = 16;
+  private static final int NO_ID = -1;
+
+  private final int tables;
+  private final int bits;
+  private final int probes;
+  private final Random rand;
+  // the last added id for the key of every table
+  private final TLongIntHashMap[] buckets;
+  // the normals of the hyperplanes per table, bits rows of the dimension
+  private double[][] hyperplanes;
+
+  // the vectors, payloads and norms by their id. Removed vectors are null
+  // until the next compaction.
+  private DoubleVector[] vectors = new DoubleVector[INITIAL_CAPACITY];
+  private Object[] values = new Object[INITIAL_CAPACITY];
+  private double[] norms = new double[INITIAL_CAPACITY];
+  // the key of every table at id * tables + table
+  private long[] signatures;
+  // the next id in the same bucket at id * tables + table
+  private int[] chains;
+  private int size;
+  private int removed;
+  private int vectorDimension;
+  private double compactionThreshold = ANNTree.DEFAULT_COMPACTION_THRESHOLD;
+
+  /**
+   * Creates a new index with random hyperplanes that probes one neighbouring
+   * bucket per table.
+   *
+   * @param tables the number of hash tables.
+   * @param bits the number of hyperplanes per table, at most 64.
+   */
+  public SimHashANN(int tables, int bits) {
+    this(tables, bits, 1, new Random());
+  }
+
+  /**
+   * Creates a new index with random hyperplanes.
+   *
+   * @param tables the number of hash tables.
+   * @param bits the number of hyperplanes per table, at most 64.
+   * @param probes the number of neighbouring buckets probed per table, at most
+   *          the number of bits.
+   */
+  public SimHashANN(int tables, int bits, int probes) {
+    this(tables, bits, probes, new Random());
+  }
+
+  /**
+   * Creates a new index with hyperplanes drawn from the given random.
+   *
+   * @param tables the number of hash tables.
+   * @param bits the number of hyperplanes per table, at most 64.
+   * @param probes the number of neighbouring buckets probed per table, at most
+   *          the number of bits.
+   * @param rand the random to draw the hyperplanes from.
+   */
+  public SimHashANN(int tables, int bits, int probes, Random rand) {
+    Preconditions.checkArgument(tables > 0,
+        "tables must be positive, but was " + tables);
+    Preconditions.checkArgument(bits > 0 && bits <= Long.SIZE,
+        "bits must be in [1, 64], but was " + bits);
+    Preconditions.checkArgument(probes >= 0 && probes <= bits,
+        "probes must be in [0, bits], but was " + probes);
+    this.tables = tables;
+    this.bits = bits;
+    this.probes = probes;
+    this.rand = Preconditions.checkNotNull(rand, "rand");
+    this.buckets = new TLongIntHashMap[tables];
+    for (int table = 0; table < tables; table++) {
+      buckets[table] = newBucket();
+    }
+    this.signatures = new long[INITIAL_CAPACITY * tables];
+    this.chains = new int[INITIAL_CAPACITY * tables];
+  }
+
+  @Override
+  public void add(DoubleVector vec, VALUE value) {
+    Preconditions.checkNotNull(vec, "vector");
+    validateVector(vec);
+    insert(vec, value, signature(project(vec)));
+  }
+
+  @Override
+  public void addVectorStream(Stream<DoubleVector> vectors) {
+    addStream(vectors.map((v) -> new Tuple<>(v, null)));
+  }
+
+  /**
+   * Adds all vector/payload pairs of the given stream, their signatures are
+   * computed in parallel.
+   */
+  @Override
+  public void addStream(Stream<Tuple<DoubleVector, VALUE>> pairs) {
+    List<Tuple<DoubleVector, VALUE>> list = pairs.collect(Collectors
+        .toList());
+    for (Tuple<DoubleVector, VALUE> pair : list) {
+      validateVector(Preconditions.checkNotNull(pair.getFirst(), "vector"));
+    }
+    final long[][] newSignatures = new long[list.size()][];
+    IntStream.range(0, list.size()).parallel().forEach(
+        (i) -> newSignatures[i] = signature(project(list.get(i).getFirst())));
+    for (int i = 0; i < list.size(); i++) {
+      Tuple<DoubleVector, VALUE> pair = list.get(i);
+      insert(pair.getFirst(), pair.getSecond(), newSignatures[i]);
+    }
+  }
+
+  /**
+   * Removes the vector, once the ratio of removed vectors exceeds the
+   * compaction threshold the index is compacted.
+   */
+  @Override
+  public boolean remove(DoubleVector vec, VALUE payload) {
+    Preconditions.checkNotNull(vec, "vector");
+    if (size == 0 || vec.getDimension() != vectorDimension) {
+      return false;
+    }
+    // an equal vector has the same signature, so it is in the first bucket
+    long[] signature = signature(project(vec));
+    int id = buckets[0].get(signature[0]);
+    while (id != NO_ID) {
+      if (vectors[id] != null && ANNTree.equal(vectors[id], vec)
+          && Objects.equals(values[id], payload)) {
+        vectors[id] = null;
+        values[id] = null;
+        removed++;
+        if (removed > compactionThreshold * size) {
+          compact();
+        }
+        return true;
+      }
+      id = chains[id * tables];
+    }
+    return false;
+  }
+
+  /**
+   * Drops the removed vectors and rebuilds the buckets, the remaining vectors
+   * keep their order.
+   */
+  public void compact() {
+    if (removed == 0) {
+      return;
+    }
+    int live = 0;
+    for (int id = 0; id < size; id++) {
+      if (vectors[id] != null) {
+        vectors[live] = vectors[id];
+        values[live] = values[id];
+        norms[live] = norms[id];
+        System.arraycopy(signatures, id * tables, signatures, live * tables,
+            tables);
+        live++;
+      }
+    }
+    Arrays.fill(vectors, live, size, null);
+    Arrays.fill(values, live, size, null);
+    size = live;
+    removed = 0;
+    for (int table = 0; table < tables; table++) {
+      buckets[table] = newBucket();
+    }
+    for (int id = 0; id < size; id++) {
+      link(id);
+    }
+  }
+
+  /**
+   * The buckets don't need to be balanced, this only compacts the index.
+   */
+  @Override
+  public void balance() {
+    compact();
+  }
+
+  /**
+   * @see ANNTree#setCompactionThreshold(double)
+   */
+  public void setCompactionThreshold(double threshold) {
+    this.compactionThreshold = IndexPreconditions
+        .checkCompactionThreshold(threshold);
+  }
+
+  @Override
+  public List<VectorDistanceTuple<VALUE>> getNearestNeighbours(
+      DoubleVector vec, int k, double radius) {
+    return getNearestNeighbours(vec, k, radius, SearchOptions.EXACT);
+  }
+
+  /**
+   * Searches the candidates in the probed buckets, the radius is a cosine
+   * distance. Only the maxChecks candidates with the lowest hamming distance
+   * to the query are ranked exactly, the epsilon of the options is ignored.
+   */
+  @Override
+  public List<VectorDistanceTuple<VALUE>> getNearestNeighbours(
+      DoubleVector vec, int k, double radius, SearchOptions options) {
+    Preconditions.checkNotNull(vec, "vector");
+    Preconditions.checkNotNull(options, "options");
+    if (size == 0) {
+      return new ArrayList<>();
+    }
+    IndexPreconditions.checkDimension(vectorDimension, vec, "index");
+    double[] projections = project(vec);
+    long[] signature = signature(projections);
+    SearchContext context = SearchContext.get();
+    context.reset(0, options.getMaxChecks());
+    context.resetResults(k, size);
+    BoundedMaxHeap candidates = context.candidates;
+    int[] flips = new int[probes];
+    for (int table = 0; table < tables; table++) {
+      final long key = signature[table];
+      collect(buckets[table].get(key), table, signature, context);
+      leastConfident(projections, table * bits, flips);
+      for (int bit : flips) {
+        collect(buckets[table].get(key ^ (1L << bit)), table, signature,
+            context);
+      }
+    }
+
+    final double norm = Math.sqrt(vec.dot(vec));
+    BoundedMaxHeap results = context.results;
+    for (int i = 0; i < candidates.size(); i++) {
+      final int id = candidates.getId(i);
+      final double distance = CosineDistance.distance(vec.dot(vectors[id]),
+          norm, norms[id]);
+      if (distance <= radius) {
+        results.offer(id, distance);
+      }
+    }
+
+    results.sort();
+    List<VectorDistanceTuple<VALUE>> list = new ArrayList<>(results.size());
+    for (int i = 0; i < results.size(); i++) {
+      int id = results.getId(i);
+      list.add(new VectorDistanceTuple<>(vectors[id], value(id), results
+          .getDistance(i)));
+    }
+    return list;
+  }
+
+  /**
+   * Range queries can't use the buckets, they scan all vectors.
+   */
+  @Override
+  public List<VectorDistanceTuple<VALUE>> rangeQuery(DoubleVector lower,
+      DoubleVector upper) {
+    return Lists.newArrayList(rangeIterator(lower, upper));
+  }
+
+  @Override
+  public Iterator<VectorDistanceTuple<VALUE>> rangeIterator(
+      DoubleVector lower, DoubleVector upper) {
+    final RangeBounds bounds = new RangeBounds(lower, upper);
+    final int limit = size;
+    Iterator<Integer> ids = IntStream.range(0, limit)
+        .filter((id) -> vectors[id] != null && bounds.contains(vectors[id]))
+        .iterator();
+    return Iterators.transform(ids,
+        (id) -> new VectorDistanceTuple<>(vectors[id], value(id), 0));
+  }
+
+  /**
+   * @return the number of hash tables.
+   */
+  public int getTables() {
+    return tables;
+  }
+
+  /**
+   * @return the number of hyperplanes per table.
+   */
+  public int getBits() {
+    return bits;
+  }
+
+  @Override
+  public int size() {
+    return size - removed;
+  }
+
+  @Override
+  public int tombstones() {
+    return removed;
+  }
+
+  /**
+   * Iterates over the vectors in the order they were added.
+   */
+  @Override
+  public Iterator<DoubleVector> iterator() {
+    return Iterators.filter(Arrays.asList(vectors).subList(0, size)
+        .iterator(), (v) -> v != null);
+  }
+
+  /**
+   * @return the number of different bits in the signatures over all tables.
+   */
+  static int hammingDistance(long[] signature, long[] signatures, int offset) {
+    int distance = 0;
+    for (int i = 0; i < signature.length; i++) {
+      distance += Long.bitCount(signature[i] ^ signatures[offset + i]);
+    }
+    return distance;
+  }
+
+  // offers the unseen ids of the bucket by their hamming distance
+  private void collect(int head, int table, long[] signature,
+      SearchContext context) {
+    int id = head;
+    while (id != NO_ID) {
+      if (vectors[id] != null && context.mark(id)) {
+        context.candidates.offer(id,
+            hammingDistance(signature, signatures, id * tables));
+      }
+      id = chains[id * tables + table];
+    }
+  }
+
+  /**
+   * Writes the bits of the table starting at the given offset whose
+   * projections are closest to zero into the given array, closest first.
+   */
+  private void leastConfident(double[] projections, int offset, int[] flips) {
+    int length = 0;
+    for (int bit = 0; bit < bits; bit++) {
+      final double margin = Math.abs(projections[offset + bit]);
+      // insertion sort, the bit with the highest margin drops out
+      int i = length;
+      if (length == flips.length) {
+        if (length == 0
+            || margin >= Math.abs(projections[offset + flips[length - 1]])) {
+          continue;
+        }
+        i--;
+      } else {
+        length++;
+      }
+      while (i > 0 && margin < Math.abs(projections[offset + flips[i - 1]])) {
+        flips[i] = flips[i - 1];
+        i--;
+      }
+      flips[i] = bit;
+    }
+  }
+
+  /**
+   * @return the projections of the vector onto all hyperplanes. The non-zero
+   *         entries are summed in the order of their indices, so equal dense
+   *         and sparse vectors get the same signature.
+   */
+  private double[] project(DoubleVector vec) {
+    final int dimension = vectorDimension;
+    double[] projections = new double[tables * bits];
+    SparseEntries entries = vec.isSparse() ? SparseEntries.of(vec) : null;
+    double[] array = vec.isSparse() ? null : vec.toArray();
+    for (int p = 0; p < projections.length; p++) {
+      final double[] normals = hyperplanes[p / bits];
+      final int offset = (p % bits) * dimension;
+      double sum = 0;
+      if (entries != null) {
+        final int[] indices = entries.indices();
+        final double[] entryValues = entries.values();
+        for (int i = 0; i < indices.length; i++) {
+          sum += normals[offset + indices[i]] * entryValues[i];
+        }
+      } else {
+        // zeros don't change the sum, so it equals the one of the entries
+        for (int i = 0; i < dimension; i++) {
+          sum += normals[offset + i] * array[i];
+        }
+      }
+      projections[p] = sum;
+    }
+    return projections;
+  }
+
+  /**
+   * @return the key of every table, bit i is set if the vector is on the
+   *         positive side of the i-th hyperplane.
+   */
+  private long[] signature(double[] projections) {
+    long[] signature = new long[tables];
+    for (int table = 0; table < tables; table++) {
+      long key = 0;
+      for (int bit = 0; bit < bits; bit++) {
+        if (projections[table * bits + bit] > 0d) {
+          key |= 1L << bit;
+        }
+      }
+      signature[table] = key;
+    }
+    return signature;
+  }
+
+  private void insert(DoubleVector vec, VALUE value, long[] signature) {
+    if (size == vectors.length) {
+      vectors = Arrays.copyOf(vectors, size * 2);
+      values = Arrays.copyOf(values, size * 2);
+      norms = Arrays.copyOf(norms, size * 2);
+      signatures = Arrays.copyOf(signatures, size * 2 * tables);
+      chains = Arrays.copyOf(chains, size * 2 * tables);
+    }
+    vectors[size] = vec;
+    values[size] = value;
+    norms[size] = Math.sqrt(vec.dot(vec));
+    System.arraycopy(signature, 0, signatures, size * tables, tables);
+    link(size);
+    size++;
+  }
+
+  // prepends the id to its bucket in every table
+  private void link(int id) {
+    for (int table = 0; table < tables; table++) {
+      final int index = id * tables + table;
+      chains[index] = buckets[table].put(signatures[index], id);
+    }
+  }
+
+  private static TLongIntHashMap newBucket() {
+    return new TLongIntHashMap(INITIAL_CAPACITY, 0.5f, 0L, NO_ID);
+  }
+
+  private void validateVector(DoubleVector vec) {
+    final int dimension = IndexPreconditions.checkAddedVector(vectorDimension,
+        vec, "index");
+    if (vectorDimension == 0) {
+      // one array per table, so only bits * dimension has to fit in an int
+      final long length = (long) bits * dimension;
+      Preconditions.checkArgument(length <= Integer.MAX_VALUE - 8,
+          "%s bits of dimension %s exceed the maximum array length", bits,
+          dimension);
+      hyperplanes = new double[tables][(int) length];
+      for (double[] normals : hyperplanes) {
+        for (int i = 0; i < normals.length; i++) {
+          normals[i] = rand.nextGaussian();
+        }
+      }
+      vectorDimension = dimension;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private VALUE value(int id) {
+    return (VALUE) values[id];
+  }
+
+}
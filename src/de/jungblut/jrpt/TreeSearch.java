@@ -0,0 +1,208 @@
+package de.jungblut.jrpt;
+
+import de.jungblut.jrpt.distance.DistanceMeasurer;
+
+/**
+ * The nearest neighbour searches shared by all tree layouts. A layout only
+ * gives access to its nodes by int handles: the index in a flat layout, or a
+ * handle that the {@link SearchContext} assigned to a node object during the
+ * current query.
+ *
+ * @param <T> the type of the query as the layout measures it.
+ */
+abstract class TreeSearch<T> {
+
+  static final int NONE = -1;
+
+  final DistanceMeasurer distance;
+  final int dimension;
+
+  /**
+   * @param distance the distance measurer of the tree.
+   * @param dimension the dimension of the vectors in the tree.
+   */
+  TreeSearch(DistanceMeasurer distance, int dimension) {
+    this.distance = distance;
+    this.dimension = dimension;
+  }
+
+  /**
+   * @return the left child of the node or {@link #NONE} if there is none that
+   *         is visible to the search.
+   */
+  abstract int left(int node, SearchContext context);
+
+  /**
+   * @return the right child of the node or {@link #NONE} if there is none that
+   *         is visible to the search.
+   */
+  abstract int right(int node, SearchContext context);
+
+  /**
+   * @return the projection of the target onto the split of the node minus its
+   *         split value.
+   */
+  abstract double diff(int node, T target, SearchContext context);
+
+  /**
+   * @return the split dimension of the node or -1 if it splits on a
+   *         hyperplane.
+   */
+  abstract int splitDimension(int node, SearchContext context);
+
+  /**
+   * Measures the vectors of the node and offers them to the candidates of the
+   * context.
+   *
+   * @return the number of checks that were used.
+   */
+  abstract int check(int node, T target, double rankRadius,
+      SearchContext context);
+
+  /**
+   * Searches the tree below the given root with the recursive algorithm.
+   *
+   * @param root the root or {@link #NONE} for an empty tree.
+   * @param rankRadius the rank equivalent radius.
+   */
+  final void search(int root, T target, double rankRadius,
+      SearchContext context) {
+    if (root != NONE) {
+      final double origin = distance.lowerRankDistance(0d, dimension);
+      search(root, target, origin, origin, rankRadius, context);
+    }
+  }
+
+  /**
+   * Recursive algorithm for nearest neighbour queries based on "Algorithms for
+   * Fast Vector Quantization" by Arya and Mount. The distance from the target
+   * to the cell of the current node is tracked incrementally by updating the
+   * offset of the split dimension before descending into the further child and
+   * restoring it afterwards. The distance measurer turns the offsets into a
+   * lower bound of its rank distance, all comparisons are done on the rank
+   * distances (e.g. the squared euclidian distances).
+   *
+   * Hyperplane splits don't change the axis aligned cell, but the distance to
+   * every hyperplane on the way is a lower bound as well, so the maximum of
+   * them is used.
+   *
+   * @param cellDistance the lower bound of the rank distance from the target
+   *          to the axis aligned cell of the current node.
+   * @param lowerBound the lower bound of the rank distance from the target to
+   *          any node below the current node.
+   * @param rankRadius the rank equivalent radius.
+   */
+  private void search(int current, T target, double cellDistance,
+      double lowerBound, final double rankRadius, SearchContext context) {
+    check(current, target, rankRadius, context);
+    final int left = left(current, context);
+    final int right = right(current, context);
+    if (left == NONE && right == NONE) {
+      return;
+    }
+
+    // the insert puts everything that is higher or equal on the right
+    final double diff = diff(current, target, context);
+    final int nearest = diff >= 0 ? right : left;
+    final int furthest = diff >= 0 ? left : right;
+
+    if (nearest != NONE) {
+      search(nearest, target, cellDistance, lowerBound, rankRadius, context);
+    }
+
+    if (furthest == NONE) {
+      return;
+    }
+    final int s = splitDimension(current, context);
+    if (s < 0) {
+      final double furthestBound = Math.max(lowerBound,
+          distance.lowerRankDistance(diff * diff, dimension));
+      if (furthestBound <= context.candidates.bound(rankRadius)) {
+        search(furthest, target, cellDistance, furthestBound, rankRadius,
+            context);
+      }
+      return;
+    }
+    final double[] offsets = context.offsets;
+    final double oldOffset = offsets[s];
+    final double furthestCellDistance = distance.cellRankDistance(
+        cellDistance, oldOffset, diff);
+    final double furthestBound = Math.max(lowerBound, furthestCellDistance);
+    // check the furthest child only if its cell can contain a better result
+    if (furthestBound <= context.candidates.bound(rankRadius)) {
+      offsets[s] = diff;
+      search(furthest, target, furthestCellDistance, furthestBound,
+          rankRadius, context);
+      offsets[s] = oldOffset;
+    }
+  }
+
+  /**
+   * Best bin first variant of the search above. The further children are not
+   * searched recursively, but queued by the lower bound of their distance.
+   * Every round the most promising branch is taken from the queue and followed
+   * down to a leaf, until the queue is empty, the budget of checks is used up
+   * or even the most promising branch can't contain a better result.
+   *
+   * @param root the root or {@link #NONE} for an empty tree.
+   * @param rankRadius the rank equivalent radius.
+   * @param rankFactor the factor the lower bounds are multiplied with before
+   *          they are compared to the current k-th distance.
+   */
+  final void bestBinFirst(int root, T target, final double rankRadius,
+      final double rankFactor, SearchContext context) {
+    final BranchQueue branches = context.branches;
+    final double[] offsets = context.offsets;
+    if (root != NONE) {
+      final double origin = distance.lowerRankDistance(0d, dimension);
+      branches.push(root, origin, origin, BranchQueue.NO_PATH);
+    }
+    while (!branches.isEmpty() && context.remainingChecks > 0) {
+      int branch = branches.poll();
+      final double lowerBound = branches.lowerBound(branch);
+      if (lowerBound > context.pruneBound(rankRadius, rankFactor)) {
+        // the queue is ordered, so no other branch can be better
+        break;
+      }
+      final int path = branches.path(branch);
+      final double cellDistance = branches.cellDistance(branch);
+      branches.restoreOffsets(path, offsets);
+
+      // the nearest children share the cell distance of the branch
+      int current = branches.id(branch);
+      while (current != NONE && context.remainingChecks > 0) {
+        context.remainingChecks -= check(current, target, rankRadius, context);
+        final int left = left(current, context);
+        final int right = right(current, context);
+        if (left == NONE && right == NONE) {
+          break;
+        }
+
+        final double diff = diff(current, target, context);
+        final int nearest = diff >= 0 ? right : left;
+        final int furthest = diff >= 0 ? left : right;
+        if (furthest != NONE) {
+          final int s = splitDimension(current, context);
+          if (s < 0) {
+            final double furthestBound = Math.max(lowerBound,
+                distance.lowerRankDistance(diff * diff, dimension));
+            if (furthestBound <= context.pruneBound(rankRadius, rankFactor)) {
+              branches.push(furthest, cellDistance, furthestBound, path);
+            }
+          } else {
+            final double furthestCellDistance = distance.cellRankDistance(
+                cellDistance, offsets[s], diff);
+            final double furthestBound = Math.max(lowerBound,
+                furthestCellDistance);
+            if (furthestBound <= context.pruneBound(rankRadius, rankFactor)) {
+              branches.push(furthest, furthestCellDistance, furthestBound,
+                  branches.extendPath(path, s, diff));
+            }
+          }
+        }
+        current = nearest;
+      }
+    }
+  }
+
+}
@@ -6,8 +6,7 @@ import de.jungblut.math.DoubleVector;
 
 /**
  * Tuple for holding element information from an ANN. Comparable is implemented
- * on the distance, enabling a descending sort mainly designed for use in a
- * {@link LimitedPriorityQueue}.
+ * on the distance, enabling a descending sort.
  * 
  * @author thomas.jungblut
  *
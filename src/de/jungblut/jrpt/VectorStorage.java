@@ -0,0 +1,407 @@
+package de.jungblut.jrpt;
+
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+
+import de.jungblut.jrpt.distance.EuclidianDistance;
+import de.jungblut.jrpt.quantization.ProductQuantizer;
+import de.jungblut.jrpt.quantization.ScalarQuantizer;
+
+/**
+ * The format of the vectors in the leaf blocks of a {@link BucketANNTree}.
+ *
+ * <ul>
+ * <li>{@link #doubles()}: exact, the block is the only copy of the vectors.
+ * </li>
+ * <li>{@link #floats()}: float32 components, half the memory of the
+ * doubles.</li>
+ * <li>{@link #int8(ScalarQuantizer)}: one byte per component, an eighth of the
+ * memory of the doubles.</li>
+ * <li>{@link #pq(ProductQuantizer)}: one byte per subspace of the product
+ * quantizer, a few bytes per vector.</li>
+ * </ul>
+ *
+ * The compact formats don't keep the added vectors. Distances are measured
+ * directly on the compact form, so they are approximations, and the vectors of
+ * the results are restored from it. With {@link #withExactRerank(int)} the
+ * added vectors are kept and a multiple of the k candidates found on the
+ * compact form are re-ranked by their exact distance.
+ *
+ * Instances are immutable.
+ */
+public abstract class VectorStorage {
+
+  private final boolean keepsVectors;
+  private final int rerankFactor;
+
+  private VectorStorage(boolean keepsVectors, int rerankFactor) {
+    this.keepsVectors = keepsVectors;
+    this.rerankFactor = rerankFactor;
+  }
+
+  /**
+   * @return a storage of exact double components.
+   */
+  public static VectorStorage doubles() {
+    return new DoubleStorage();
+  }
+
+  /**
+   * @return a storage of float32 components.
+   */
+  public static VectorStorage floats() {
+    return new FloatStorage(0);
+  }
+
+  /**
+   * @param quantizer the quantizer for the components, should be fit to the
+   *          range of the vectors that will be added.
+   * @return a storage of 8 bit quantized components.
+   */
+  public static VectorStorage int8(ScalarQuantizer quantizer) {
+    return new ByteStorage(Preconditions.checkNotNull(quantizer, "quantizer"),
+        0);
+  }
+
+  /**
+   * @param quantizer the trained product quantizer.
+   * @return a storage of product quantized vectors.
+   */
+  public static VectorStorage pq(ProductQuantizer quantizer) {
+    return new ProductStorage(
+        Preconditions.checkNotNull(quantizer, "quantizer"), 0);
+  }
+
+  /**
+   * @param factor the positive factor of k for the number of candidates that
+   *          are re-ranked.
+   * @return a copy of this storage, that also keeps the added vectors to
+   *         re-rank the candidates by their exact distance.
+   */
+  public abstract VectorStorage withExactRerank(int factor);
+
+  /**
+   * @return true if the added vectors are kept.
+   */
+  boolean keepsVectors() {
+    return keepsVectors;
+  }
+
+  /**
+   * @return the factor of k for the candidates to re-rank, zero if the
+   *         distances on the compact form are final.
+   */
+  int getRerankFactor() {
+    return rerankFactor;
+  }
+
+  /**
+   * @return a new block with space for the given number of vectors.
+   */
+  abstract Object newBlock(int capacity, int dimension);
+
+  /**
+   * @return a copy of the block with space for the given number of vectors.
+   */
+  abstract Object copyOf(Object block, int capacity, int dimension);
+
+  /**
+   * Stores the vector at the given index of the block.
+   */
+  abstract void encode(double[] vector, Object block, int index);
+
+  /**
+   * Restores the vector at the given index of the block.
+   */
+  abstract void decode(Object block, int index, double[] vector);
+
+  /**
+   * Copies the vector at index from to index to of the same block.
+   */
+  void move(Object block, int from, int to, int dimension) {
+    final int stride = stride(dimension);
+    System.arraycopy(block, from * stride, block, to * stride, stride);
+  }
+
+  /**
+   * @return the number of array elements that a vector takes in a block.
+   */
+  int stride(int dimension) {
+    return dimension;
+  }
+
+  /**
+   * Prepares the query for {@link #measure(double[], Object, int, double,
+   * double[])}, e.g. by computing a lookup table.
+   *
+   * @return the prepared query, by default the query itself.
+   */
+  double[] prepare(double[] query, SearchContext context) {
+    return query;
+  }
+
+  /**
+   * Measures the squared distances between the prepared query and the first
+   * count vectors of the block, distances above the bound may be any value
+   * higher than it.
+   */
+  abstract void measure(double[] query, Object block, int count, double bound,
+      double[] result);
+
+  String rerankSuffix() {
+    return rerankFactor > 0 ? " (rerank x" + rerankFactor + ")" : "";
+  }
+
+  static int checkFactor(int factor) {
+    Preconditions.checkArgument(factor > 0, "factor must be positive, but was "
+        + factor);
+    return factor;
+  }
+
+  private static final class DoubleStorage extends VectorStorage {
+
+    DoubleStorage() {
+      // the blocks are exact, so the added vectors aren't kept a second time
+      super(false, 0);
+    }
+
+    @Override
+    public VectorStorage withExactRerank(int factor) {
+      checkFactor(factor);
+      return this;
+    }
+
+    @Override
+    Object newBlock(int capacity, int dimension) {
+      return new double[capacity * dimension];
+    }
+
+    @Override
+    Object copyOf(Object block, int capacity, int dimension) {
+      return Arrays.copyOf((double[]) block, capacity * dimension);
+    }
+
+    @Override
+    void encode(double[] vector, Object block, int index) {
+      System.arraycopy(vector, 0, block, index * vector.length, vector.length);
+    }
+
+    @Override
+    void decode(Object block, int index, double[] vector) {
+      System.arraycopy(block, index * vector.length, vector, 0, vector.length);
+    }
+
+    @Override
+    void measure(double[] query, Object block, int count, double bound,
+        double[] result) {
+      EuclidianDistance.get().measureBoundedRankDistances(query,
+          (double[]) block, count, bound, result);
+    }
+
+    @Override
+    public String toString() {
+      return "doubles";
+    }
+  }
+
+  private static final class FloatStorage extends VectorStorage {
+
+    FloatStorage(int rerankFactor) {
+      super(rerankFactor > 0, rerankFactor);
+    }
+
+    @Override
+    public VectorStorage withExactRerank(int factor) {
+      return new FloatStorage(checkFactor(factor));
+    }
+
+    @Override
+    Object newBlock(int capacity, int dimension) {
+      return new float[capacity * dimension];
+    }
+
+    @Override
+    Object copyOf(Object block, int capacity, int dimension) {
+      return Arrays.copyOf((float[]) block, capacity * dimension);
+    }
+
+    @Override
+    void encode(double[] vector, Object block, int index) {
+      float[] floats = (float[]) block;
+      final int offset = index * vector.length;
+      for (int d = 0; d < vector.length; d++) {
+        floats[offset + d] = (float) vector[d];
+      }
+    }
+
+    @Override
+    void decode(Object block, int index, double[] vector) {
+      float[] floats = (float[]) block;
+      final int offset = index * vector.length;
+      for (int d = 0; d < vector.length; d++) {
+        vector[d] = floats[offset + d];
+      }
+    }
+
+    @Override
+    void measure(double[] query, Object block, int count, double bound,
+        double[] result) {
+      final float[] floats = (float[]) block;
+      final int dimension = query.length;
+      for (int i = 0; i < count; i++) {
+        final int offset = i * dimension;
+        double sum = 0;
+        int d = 0;
+        // only check the bound every few dimensions
+        while (d < dimension) {
+          final int end = Math.min(dimension, d + 8);
+          for (; d < end; d++) {
+            double diff = floats[offset + d] - query[d];
+            sum += (diff * diff);
+          }
+          if (sum > bound) {
+            break;
+          }
+        }
+        result[i] = sum;
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "floats" + rerankSuffix();
+    }
+  }
+
+  private static final class ByteStorage extends VectorStorage {
+
+    private final ScalarQuantizer quantizer;
+
+    ByteStorage(ScalarQuantizer quantizer, int rerankFactor) {
+      super(rerankFactor > 0, rerankFactor);
+      this.quantizer = quantizer;
+    }
+
+    @Override
+    public VectorStorage withExactRerank(int factor) {
+      return new ByteStorage(quantizer, checkFactor(factor));
+    }
+
+    @Override
+    Object newBlock(int capacity, int dimension) {
+      checkDimension(dimension);
+      return new byte[capacity * dimension];
+    }
+
+    @Override
+    Object copyOf(Object block, int capacity, int dimension) {
+      return Arrays.copyOf((byte[]) block, capacity * dimension);
+    }
+
+    @Override
+    void encode(double[] vector, Object block, int index) {
+      quantizer.encode(vector, (byte[]) block, index * vector.length);
+    }
+
+    @Override
+    void decode(Object block, int index, double[] vector) {
+      quantizer.decode((byte[]) block, index * vector.length, vector);
+    }
+
+    @Override
+    void measure(double[] query, Object block, int count, double bound,
+        double[] result) {
+      final byte[] codes = (byte[]) block;
+      final int dimension = query.length;
+      for (int i = 0; i < count; i++) {
+        result[i] = quantizer.squaredDistance(query, codes, i * dimension,
+            bound);
+      }
+    }
+
+    private void checkDimension(int dimension) {
+      Preconditions.checkArgument(quantizer.getDimension() == dimension,
+          "Dimensional mismatch between vector and quantizer. Expected "
+              + quantizer.getDimension() + " but given " + dimension + "!");
+    }
+
+    @Override
+    public String toString() {
+      return "int8" + rerankSuffix();
+    }
+  }
+
+  private static final class ProductStorage extends VectorStorage {
+
+    private final ProductQuantizer quantizer;
+
+    ProductStorage(ProductQuantizer quantizer, int rerankFactor) {
+      super(rerankFactor > 0, rerankFactor);
+      this.quantizer = quantizer;
+    }
+
+    @Override
+    public VectorStorage withExactRerank(int factor) {
+      return new ProductStorage(quantizer, checkFactor(factor));
+    }
+
+    @Override
+    Object newBlock(int capacity, int dimension) {
+      Preconditions.checkArgument(quantizer.getDimension() == dimension,
+          "Dimensional mismatch between vector and quantizer. Expected "
+              + quantizer.getDimension() + " but given " + dimension + "!");
+      return new byte[capacity * quantizer.getNumSubspaces()];
+    }
+
+    @Override
+    Object copyOf(Object block, int capacity, int dimension) {
+      return Arrays.copyOf((byte[]) block,
+          capacity * quantizer.getNumSubspaces());
+    }
+
+    @Override
+    void encode(double[] vector, Object block, int index) {
+      quantizer.encode(vector, (byte[]) block,
+          index * quantizer.getNumSubspaces());
+    }
+
+    @Override
+    void decode(Object block, int index, double[] vector) {
+      quantizer.decode((byte[]) block, index * quantizer.getNumSubspaces(),
+          vector);
+    }
+
+    @Override
+    int stride(int dimension) {
+      return quantizer.getNumSubspaces();
+    }
+
+    /**
+     * @return the lookup table of the query.
+     */
+    @Override
+    double[] prepare(double[] query, SearchContext context) {
+      double[] table = context.table(quantizer.getTableLength());
+      quantizer.computeTable(query, table);
+      return table;
+    }
+
+    @Override
+    void measure(double[] table, Object block, int count, double bound,
+        double[] result) {
+      final byte[] codes = (byte[]) block;
+      final int numSubspaces = quantizer.getNumSubspaces();
+      for (int i = 0; i < count; i++) {
+        result[i] = quantizer.squaredDistance(table, codes, i * numSubspaces,
+            bound);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "pq" + rerankSuffix();
+    }
+  }
+
+}
@@ -0,0 +1,150 @@
+package de.jungblut.jrpt.distance;
+
+import java.util.Iterator;
+
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.DoubleVector.DoubleVectorElement;
+
+/**
+ * The chebyshev (L-infinity) distance, the largest absolute difference in any
+ * dimension. The rank distance is the distance itself.
+ */
+public final class ChebyshevDistance implements DistanceMeasurer {
+
+  private static final ChebyshevDistance DISTANCE = new ChebyshevDistance();
+
+  @Override
+  public double measureDistance(double[] set1, double[] set2) {
+    return measureBoundedRankDistance(set1, set2, 0, Double.MAX_VALUE);
+  }
+
+  @Override
+  public double measureDistance(DoubleVector vec1, DoubleVector vec2) {
+    return measureBoundedRankDistance(vec1, vec2, Double.MAX_VALUE);
+  }
+
+  @Override
+  public double measureBoundedRankDistance(double[] set1, double[] set2,
+      double bound) {
+    return measureBoundedRankDistance(set1, set2, 0, bound);
+  }
+
+  @Override
+  public double measureBoundedRankDistance(double[] set1, double[] set2,
+      int offset, double bound) {
+    double max = 0;
+    for (int i = 0; i < set1.length; i++) {
+      max = Math.max(max, Math.abs(set1[i] - set2[offset + i]));
+      if (max > bound) {
+        break;
+      }
+    }
+    return max;
+  }
+
+  @Override
+  public double measureBoundedRankDistance(DoubleVector vec1,
+      DoubleVector vec2, double bound) {
+    if (vec1.isSparse() && vec2.isSparse()) {
+      return sparseDistance(vec1, vec2, bound);
+    } else if (vec1.isSparse() || vec2.isSparse()) {
+      double max = 0;
+      for (int i = 0; i < vec1.getDimension() && max <= bound; i++) {
+        max = Math.max(max, Math.abs(vec1.get(i) - vec2.get(i)));
+      }
+      return max;
+    } else {
+      return measureBoundedRankDistance(vec1.toArray(), vec2.toArray(), bound);
+    }
+  }
+
+  /**
+   * Distance between two sparse vectors that only iterates their non-zero
+   * entries, without any intermediate vectors.
+   */
+  private static double sparseDistance(DoubleVector vec1, DoubleVector vec2,
+      double bound) {
+    double max = 0;
+    Iterator<DoubleVectorElement> iterateNonZero = vec1.iterateNonZero();
+    while (iterateNonZero.hasNext() && max <= bound) {
+      DoubleVectorElement next = iterateNonZero.next();
+      if (next.getValue() != 0d) {
+        max = Math.max(max, Math.abs(next.getValue()
+            - vec2.get(next.getIndex())));
+      }
+    }
+    // the entries that are only non-zero in the second vector
+    iterateNonZero = vec2.iterateNonZero();
+    while (iterateNonZero.hasNext() && max <= bound) {
+      DoubleVectorElement next = iterateNonZero.next();
+      if (vec1.get(next.getIndex()) == 0d) {
+        max = Math.max(max, Math.abs(next.getValue()));
+      }
+    }
+    return max;
+  }
+
+  /**
+   * Merges the sorted entries of both vectors.
+   */
+  @Override
+  public double measureBoundedRankDistance(SparseEntries set1,
+      SparseEntries set2, double bound) {
+    final int[] indices1 = set1.indices();
+    final double[] values1 = set1.values();
+    final int[] indices2 = set2.indices();
+    final double[] values2 = set2.values();
+    double max = 0;
+    int i = 0;
+    int j = 0;
+    while (i < indices1.length && j < indices2.length) {
+      final double diff;
+      if (indices1[i] == indices2[j]) {
+        diff = values1[i++] - values2[j++];
+      } else if (indices1[i] < indices2[j]) {
+        diff = values1[i++];
+      } else {
+        diff = values2[j++];
+      }
+      max = Math.max(max, Math.abs(diff));
+      if (max > bound) {
+        return max;
+      }
+    }
+    for (; i < indices1.length; i++) {
+      max = Math.max(max, Math.abs(values1[i]));
+    }
+    for (; j < indices2.length; j++) {
+      max = Math.max(max, Math.abs(values2[j]));
+    }
+    return max;
+  }
+
+  /**
+   * @return the largest absolute offset to the cell, the offsets of a
+   *         dimension only grow so the old one doesn't need to be removed.
+   */
+  @Override
+  public double cellRankDistance(double cellDistance, double oldOffset,
+      double offset) {
+    return Math.max(cellDistance, Math.abs(offset));
+  }
+
+  /**
+   * @return the euclidian distance divided by the square root of the
+   *         dimension, which is never larger than the chebyshev distance.
+   */
+  @Override
+  public double lowerRankDistance(double squaredEuclidianDistance,
+      int dimension) {
+    return Math.sqrt(squaredEuclidianDistance / dimension);
+  }
+
+  /**
+   * @return a cached chebyshev distance measurer.
+   */
+  public static ChebyshevDistance get() {
+    return DISTANCE;
+  }
+
+}
@@ -0,0 +1,171 @@
+package de.jungblut.jrpt.distance;
+
+import com.google.common.base.Preconditions;
+
+import de.jungblut.math.DoubleVector;
+
+/**
+ * The cosine distance, one minus the cosine of the angle between two vectors.
+ * Vectors of zero length have a distance of one to every other vector.
+ *
+ * The distance doesn't give any lower bound for the cells of a tree, so a tree
+ * with the plain cosine distance has to check every node. The
+ * {@link #normalized()} variant scales every vector to unit length before it
+ * is added or searched for. On unit vectors the cosine distance is half of the
+ * squared euclidian distance, so the euclidian kernels and cell bounds can be
+ * used.
+ */
+public final class CosineDistance implements DistanceMeasurer {
+
+  private static final CosineDistance DISTANCE = new CosineDistance(null);
+  private static final CosineDistance NORMALIZED = new CosineDistance(
+      EuclidianDistance.get());
+
+  // the distance between unit vectors or null if they are not normalized
+  private final EuclidianDistance euclidian;
+
+  private CosineDistance(EuclidianDistance euclidian) {
+    this.euclidian = euclidian;
+  }
+
+  @Override
+  public double measureDistance(double[] set1, double[] set2) {
+    return toDistance(measureRankDistance(set1, set2));
+  }
+
+  @Override
+  public double measureDistance(DoubleVector vec1, DoubleVector vec2) {
+    return toDistance(measureRankDistance(vec1, vec2));
+  }
+
+  @Override
+  public double measureRankDistance(double[] set1, double[] set2) {
+    return measureBoundedRankDistance(set1, set2, 0, Double.MAX_VALUE);
+  }
+
+  @Override
+  public double measureRankDistance(DoubleVector vec1, DoubleVector vec2) {
+    if (euclidian != null) {
+      return euclidian.measureRankDistance(vec1, vec2);
+    }
+    return distance(vec1.dot(vec2), Math.sqrt(vec1.dot(vec1)),
+        Math.sqrt(vec2.dot(vec2)));
+  }
+
+  @Override
+  public double measureBoundedRankDistance(double[] set1, double[] set2,
+      double bound) {
+    return measureBoundedRankDistance(set1, set2, 0, bound);
+  }
+
+  @Override
+  public double measureBoundedRankDistance(double[] set1, double[] set2,
+      int offset, double bound) {
+    if (euclidian != null) {
+      return euclidian.measureBoundedRankDistance(set1, set2, offset, bound);
+    }
+    double dot = 0;
+    double norm1 = 0;
+    double norm2 = 0;
+    for (int i = 0; i < set1.length; i++) {
+      final double b = set2[offset + i];
+      dot += set1[i] * b;
+      norm1 += set1[i] * set1[i];
+      norm2 += b * b;
+    }
+    return distance(dot, Math.sqrt(norm1), Math.sqrt(norm2));
+  }
+
+  @Override
+  public double measureBoundedRankDistance(DoubleVector vec1,
+      DoubleVector vec2, double bound) {
+    if (euclidian != null) {
+      return euclidian.measureBoundedRankDistance(vec1, vec2, bound);
+    }
+    return measureRankDistance(vec1, vec2);
+  }
+
+  /**
+   * Only merges the common entries for the dot product, the norms are already
+   * known.
+   */
+  @Override
+  public double measureBoundedRankDistance(SparseEntries set1,
+      SparseEntries set2, double bound) {
+    if (euclidian != null) {
+      return euclidian.measureBoundedRankDistance(set1, set2, bound);
+    }
+    return distance(set1.dot(set2), set1.norm(), set2.norm());
+  }
+
+  @Override
+  public double cellRankDistance(double cellDistance, double oldOffset,
+      double offset) {
+    if (euclidian != null) {
+      return euclidian.cellRankDistance(cellDistance, oldOffset, offset);
+    }
+    return Double.NEGATIVE_INFINITY;
+  }
+
+  @Override
+  public double lowerRankDistance(double squaredEuclidianDistance,
+      int dimension) {
+    return euclidian != null ? squaredEuclidianDistance
+        : Double.NEGATIVE_INFINITY;
+  }
+
+  @Override
+  public DoubleVector normalize(DoubleVector vec) {
+    return euclidian != null ? unit(vec) : vec;
+  }
+
+  /**
+   * @return the cosine distance, for unit vectors half of the squared
+   *         euclidian distance.
+   */
+  @Override
+  public double toDistance(double rankDistance) {
+    return euclidian != null ? rankDistance / 2d : rankDistance;
+  }
+
+  @Override
+  public double toRankDistance(double distance) {
+    return euclidian != null ? distance * 2d : distance;
+  }
+
+  /**
+   * @return the cosine distance of two vectors with the given dot product and
+   *         euclidian norms, one if either of them has a length of zero.
+   */
+  public static double distance(double dot, double norm1, double norm2) {
+    final double norms = norm1 * norm2;
+    return norms == 0d ? 1d : 1d - dot / norms;
+  }
+
+  /**
+   * @return the vector scaled to unit length.
+   * @throws IllegalArgumentException if the vector has a length of zero.
+   */
+  static DoubleVector unit(DoubleVector vec) {
+    final double norm = Math.sqrt(vec.dot(vec));
+    Preconditions.checkArgument(norm > 0d,
+        "vectors of zero length can't be normalized");
+    return vec.divide(norm);
+  }
+
+  /**
+   * @return a cached cosine distance measurer.
+   */
+  public static CosineDistance get() {
+    return DISTANCE;
+  }
+
+  /**
+   * @return a cached cosine distance measurer that scales the vectors to unit
+   *         length and only measures the distance between unit vectors.
+   */
+  public static CosineDistance normalized() {
+    return NORMALIZED;
+  }
+
+}
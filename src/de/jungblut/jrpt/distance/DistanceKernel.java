@@ -0,0 +1,97 @@
+package de.jungblut.jrpt.distance;
+
+/**
+ * The inner loops of the distance computations over contiguous arrays. The
+ * second vector always starts at an offset in its array, so points that are
+ * stored next to each other in a larger block can be measured without copying
+ * them. The length of the first vector determines the dimension.
+ *
+ * {@link #get()} returns a kernel that uses the SIMD instructions of the JDK
+ * Vector API if it was compiled in (the "vector-api" profile) and the
+ * jdk.incubator.vector module is available at runtime, otherwise the scalar
+ * loops.
+ */
+public interface DistanceKernel {
+
+  /**
+   * @return the squared euclidian distance between a and the vector in b that
+   *         starts at the given offset.
+   */
+  public double squaredEuclidean(double[] a, double[] b, int offset);
+
+  /**
+   * Measures the squared euclidian distance, but is allowed to stop early once
+   * the distance exceeds the given bound.
+   *
+   * @return the same value as
+   *         {@link #squaredEuclidean(double[], double[], int)} if it is lower
+   *         or equal to the bound, otherwise any value higher than the bound.
+   */
+  public double boundedSquaredEuclidean(double[] a, double[] b, int offset,
+      double bound);
+
+  /**
+   * @return the dot product between a and the vector in b that starts at the
+   *         given offset.
+   */
+  public double dot(double[] a, double[] b, int offset);
+
+  /**
+   * @return the manhattan (L1) distance between a and the vector in b that
+   *         starts at the given offset.
+   */
+  public double manhattan(double[] a, double[] b, int offset);
+
+  /**
+   * Measures the squared euclidian distances between the query and the first
+   * count vectors that are stored one after another in the block.
+   *
+   * @param query the query vector.
+   * @param block the vectors, vector i starts at i * query.length.
+   * @param count the number of vectors to measure.
+   * @param result the array the distance of vector i is written to at index i.
+   */
+  public default void squaredEuclidean(double[] query, double[] block,
+      int count, double[] result) {
+    final int dimension = query.length;
+    for (int i = 0; i < count; i++) {
+      result[i] = squaredEuclidean(query, block, i * dimension);
+    }
+  }
+
+  /**
+   * Measures the squared euclidian distances between the query and the first
+   * count vectors in the block, but is allowed to stop early for vectors whose
+   * distance exceeds the given bound. By default every distance is computed
+   * with {@link #boundedSquaredEuclidean(double[], double[], int, double)}.
+   *
+   * @param query the query vector.
+   * @param block the vectors, vector i starts at i * query.length.
+   * @param count the number of vectors to measure.
+   * @param bound the squared distance after which the computation can stop.
+   * @param result the array the distance of vector i is written to at index i,
+   *          distances above the bound may be any value higher than it.
+   */
+  public default void boundedSquaredEuclidean(double[] query, double[] block,
+      int count, double bound, double[] result) {
+    final int dimension = query.length;
+    for (int i = 0; i < count; i++) {
+      result[i] = boundedSquaredEuclidean(query, block, i * dimension, bound);
+    }
+  }
+
+  /**
+   * @return the fastest available kernel.
+   */
+  public static DistanceKernel get() {
+    return DistanceKernels.BEST;
+  }
+
+  /**
+   * @return the kernel with plain scalar loops.
+   */
+  public static DistanceKernel scalar() {
+    return ScalarDistanceKernel.INSTANCE;
+  }
+
+}
@@ -0,0 +1,34 @@
+package de.jungblut.jrpt.distance;
+
+/**
+ * Selects the best kernel once per class loader. The Vector API kernel is only
+ * compiled with the "vector-api" profile and needs the jdk.incubator.vector
+ * module at runtime (--add-modules jdk.incubator.vector), without either the
+ * scalar kernel is used. Setting the system property "jrpt.scalar" to true
+ * forces the scalar kernel.
+ */
+final class DistanceKernels {
+
+  private static final String VECTOR_KERNEL = DistanceKernels.class
+      .getPackage().getName() + ".VectorDistanceKernel";
+
+  static final DistanceKernel BEST = select();
+
+  private DistanceKernels() {
+    throw new IllegalAccessError();
+  }
+
+  private static DistanceKernel select() {
+    if (Boolean.getBoolean("jrpt.scalar")) {
+      return ScalarDistanceKernel.INSTANCE;
+    }
+    try {
+      return (DistanceKernel) Class.forName(VECTOR_KERNEL)
+          .getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException | LinkageError e) {
+      // not compiled in or the incubator module is missing
+      return ScalarDistanceKernel.INSTANCE;
+    }
+  }
+
+}
@@ -1,11 +1,140 @@
 package de.jungblut.jrpt.distance;
 
+import java.util.Arrays;
+
 import de.jungblut.math.DoubleVector;
 
+/**
+ * Measures the distance between two vectors. Besides the distance itself, a
+ * measurer provides a rank equivalent distance that the searches compare and
+ * lower bounds of it from a query to the cell of a tree node, that are used to
+ * prune the cells. The defaults don't bound anything, so every cell is
+ * searched.
+ */
 public interface DistanceMeasurer {
 
   public double measureDistance(double[] set1, double[] set2);
 
   public double measureDistance(DoubleVector vec1, DoubleVector vec2);
 
+  /**
+   * Measures a rank equivalent distance, that is a distance that yields the
+   * same ordering as {@link #measureDistance(double[], double[])} but might be
+   * cheaper to compute (e.g. the squared euclidian distance).
+   */
+  public default double measureRankDistance(double[] set1, double[] set2) {
+    return measureDistance(set1, set2);
+  }
+
+  /**
+   * Measures a rank equivalent distance, see
+   * {@link #measureRankDistance(double[], double[])}.
+   */
+  public default double measureRankDistance(DoubleVector vec1,
+      DoubleVector vec2) {
+    return measureDistance(vec1, vec2);
+  }
+
+  /**
+   * Measures the rank equivalent distance, but is allowed to stop early once
+   * the distance exceeds the given bound.
+   *
+   * @param bound the rank distance after which the computation can stop.
+   * @return the rank distance if it is lower or equal to the bound, otherwise
+   *         any value higher than the bound.
+   */
+  public default double measureBoundedRankDistance(double[] set1,
+      double[] set2, double bound) {
+    return measureRankDistance(set1, set2);
+  }
+
+  /**
+   * Measures the rank equivalent distance with an early stop, see
+   * {@link #measureBoundedRankDistance(double[], double[], double)}.
+   */
+  public default double measureBoundedRankDistance(DoubleVector vec1,
+      DoubleVector vec2, double bound) {
+    return measureRankDistance(vec1, vec2);
+  }
+
+  /**
+   * Measures the bounded rank equivalent distance between the first array and
+   * the values in the second array that start at the given offset, see
+   * {@link #measureBoundedRankDistance(double[], double[], double)}. By
+   * default the second vector is copied out of the array.
+   */
+  public default double measureBoundedRankDistance(double[] set1,
+      double[] set2, int offset, double bound) {
+    return measureBoundedRankDistance(set1,
+        Arrays.copyOfRange(set2, offset, offset + set1.length), bound);
+  }
+
+  /**
+   * Measures the bounded rank equivalent distance between two sparse vectors,
+   * see {@link #measureBoundedRankDistance(double[], double[], double)}. By
+   * default both are converted back into sparse vectors.
+   */
+  public default double measureBoundedRankDistance(SparseEntries set1,
+      SparseEntries set2, double bound) {
+    return measureBoundedRankDistance(set1.toVector(), set2.toVector(), bound);
+  }
+
+  /**
+   * Updates the lower bound of the rank distance from a query to an axis
+   * aligned cell, after the offset from the query to the cell changed in a
+   * single dimension. The absolute offsets only grow while descending into the
+   * tree.
+   *
+   * @param cellDistance the lower bound before the change.
+   * @param oldOffset the previous offset in the changed dimension.
+   * @param offset the new offset in the changed dimension.
+   * @return the new lower bound, by default negative infinity.
+   */
+  public default double cellRankDistance(double cellDistance,
+      double oldOffset, double offset) {
+    return Double.NEGATIVE_INFINITY;
+  }
+
+  /**
+   * @return a lower bound of the rank distance between any two vectors whose
+   *         squared euclidian distance is at least the given one, by default
+   *         negative infinity.
+   */
+  public default double lowerRankDistance(double squaredEuclidianDistance,
+      int dimension) {
+    return Double.NEGATIVE_INFINITY;
+  }
+
+  /**
+   * @return the factor the rank distance grows by when the distance grows by
+   *         the factor (1 + epsilon).
+   */
+  public default double rankFactor(double epsilon) {
+    return 1d + epsilon;
+  }
+
+  /**
+   * Transforms a vector before it is added to a tree or searched for, by
+   * default the vector itself is returned.
+   */
+  public default DoubleVector normalize(DoubleVector vec) {
+    return vec;
+  }
+
+  /**
+   * @return the real distance of the given rank equivalent distance.
+   */
+  public default double toDistance(double rankDistance) {
+    return rankDistance;
+  }
+
+  /**
+   * @return the highest rank equivalent distance whose
+   *         {@link #toDistance(double)} is lower or equal than the given
+   *         distance.
+   */
+  public default double toRankDistance(double distance) {
+    return distance;
+  }
+
 }
@@ -1,35 +1,246 @@
 package de.jungblut.jrpt.distance;
 
+import java.util.Iterator;
+
 import org.apache.commons.math3.util.FastMath;
 
+import com.google.common.base.Preconditions;
+
 import de.jungblut.math.DoubleVector;
+import de.jungblut.math.DoubleVector.DoubleVectorElement;
 
 public final class EuclidianDistance implements DistanceMeasurer {
 
   private static final EuclidianDistance DISTANCE = new EuclidianDistance();
 
+  // relative slack of the lower bound from the norms of two sparse vectors
+  private static final double NORM_TOLERANCE = 1e-9;
+
+  private final DistanceKernel kernel;
+
+  /**
+   * Creates a distance measurer with the fastest available kernel.
+   */
+  public EuclidianDistance() {
+    this(DistanceKernel.get());
+  }
+
+  /**
+   * @param kernel the kernel for the distance computations over arrays.
+   */
+  public EuclidianDistance(DistanceKernel kernel) {
+    this.kernel = Preconditions.checkNotNull(kernel, "kernel");
+  }
+
   @Override
   public double measureDistance(double[] set1, double[] set2) {
+    return FastMath.sqrt(measureRankDistance(set1, set2));
+  }
+
+  @Override
+  public double measureDistance(DoubleVector vec1, DoubleVector vec2) {
+    return FastMath.sqrt(measureRankDistance(vec1, vec2));
+  }
+
+  /**
+   * @return the squared euclidian distance.
+   */
+  @Override
+  public double measureRankDistance(double[] set1, double[] set2) {
+    return kernel.squaredEuclidean(set1, set2, 0);
+  }
+
+  /**
+   * @return the squared euclidian distance.
+   */
+  @Override
+  public double measureRankDistance(DoubleVector vec1, DoubleVector vec2) {
+    if (vec1.isSparse() && vec2.isSparse()) {
+      return sparseRankDistance(vec1, vec2);
+    } else if (vec1.isSparse() || vec2.isSparse()) {
+      double sum = 0;
+      for (int i = 0; i < vec1.getDimension(); i++) {
+        final double diff = vec1.get(i) - vec2.get(i);
+        sum += diff * diff;
+      }
+      return sum;
+    } else {
+      // dense vectors usually doesn't do a defensive copy, so it is faster than
+      // the implementation above.
+      return measureRankDistance(vec1.toArray(), vec2.toArray());
+    }
+  }
+
+  /**
+   * Squared distance between two sparse vectors that only iterates their
+   * non-zero entries, without any intermediate vectors.
+   */
+  private static double sparseRankDistance(DoubleVector vec1,
+      DoubleVector vec2) {
     double sum = 0;
-    int length = set1.length;
-    for (int i = 0; i < length; i++) {
-      double diff = set2[i] - set1[i];
-      // multiplication is faster than Math.pow() for ^2.
-      sum += (diff * diff);
+    Iterator<DoubleVectorElement> iterateNonZero = vec1.iterateNonZero();
+    while (iterateNonZero.hasNext()) {
+      DoubleVectorElement next = iterateNonZero.next();
+      if (next.getValue() != 0d) {
+        final double diff = next.getValue() - vec2.get(next.getIndex());
+        sum += diff * diff;
+      }
+    }
+    // the entries that are only non-zero in the second vector
+    iterateNonZero = vec2.iterateNonZero();
+    while (iterateNonZero.hasNext()) {
+      DoubleVectorElement next = iterateNonZero.next();
+      if (vec1.get(next.getIndex()) == 0d) {
+        sum += next.getValue() * next.getValue();
+      }
     }
+    return sum;
+  }
 
-    return FastMath.sqrt(sum);
+  /**
+   * Merges the sorted entries of both vectors. Their norms bound the distance
+   * from below, so vectors that can't be within the bound are rejected before
+   * merging.
+   */
+  @Override
+  public double measureBoundedRankDistance(SparseEntries set1,
+      SparseEntries set2, double bound) {
+    final double normDiff = set1.norm() - set2.norm();
+    final double lowerBound = normDiff * normDiff;
+    // keep some slack, so rounding can't reject a vector on the bound
+    if (lowerBound > bound + NORM_TOLERANCE * lowerBound) {
+      return lowerBound;
+    }
+    final int[] indices1 = set1.indices();
+    final double[] values1 = set1.values();
+    final int[] indices2 = set2.indices();
+    final double[] values2 = set2.values();
+    double sum = 0;
+    int i = 0;
+    int j = 0;
+    while (i < indices1.length && j < indices2.length) {
+      final double diff;
+      if (indices1[i] == indices2[j]) {
+        diff = values1[i++] - values2[j++];
+      } else if (indices1[i] < indices2[j]) {
+        diff = values1[i++];
+      } else {
+        diff = values2[j++];
+      }
+      sum += diff * diff;
+      if (sum > bound) {
+        return sum;
+      }
+    }
+    for (; i < indices1.length; i++) {
+      sum += values1[i] * values1[i];
+    }
+    for (; j < indices2.length; j++) {
+      sum += values2[j] * values2[j];
+    }
+    return sum;
   }
 
   @Override
-  public double measureDistance(DoubleVector vec1, DoubleVector vec2) {
+  public double measureBoundedRankDistance(double[] set1, double[] set2,
+      double bound) {
+    return measureBoundedRankDistance(set1, set2, 0, bound);
+  }
+
+  /**
+   * Measures the bounded squared distance between the first array and the
+   * values in the second array that start at the given offset. This is useful
+   * for points stored contiguously in a larger array.
+   *
+   * @param set1 the first vector.
+   * @param set2 the array containing the second vector.
+   * @param offset the offset of the second vector within set2.
+   * @param bound the rank distance after which the computation can stop.
+   * @return the squared distance if it is lower or equal to the bound,
+   *         otherwise any value higher than the bound.
+   */
+  @Override
+  public double measureBoundedRankDistance(double[] set1, double[] set2,
+      int offset, double bound) {
+    return kernel.boundedSquaredEuclidean(set1, set2, offset, bound);
+  }
+
+  /**
+   * Measures the squared distances between the query and the first count
+   * vectors that are stored contiguously in the block.
+   *
+   * @see DistanceKernel#squaredEuclidean(double[], double[], int, double[])
+   */
+  public void measureRankDistances(double[] query, double[] block, int count,
+      double[] result) {
+    kernel.squaredEuclidean(query, block, count, result);
+  }
+
+  /**
+   * Measures the bounded squared distances between the query and the first
+   * count vectors that are stored contiguously in the block.
+   *
+   * @see DistanceKernel#boundedSquaredEuclidean(double[], double[], int,
+   *      double, double[])
+   */
+  public void measureBoundedRankDistances(double[] query, double[] block,
+      int count, double bound, double[] result) {
+    kernel.boundedSquaredEuclidean(query, block, count, bound, result);
+  }
+
+  @Override
+  public double measureBoundedRankDistance(DoubleVector vec1,
+      DoubleVector vec2, double bound) {
     if (vec1.isSparse() || vec2.isSparse()) {
-      return FastMath.sqrt(vec2.subtract(vec1).pow(2).sum());
+      return measureRankDistance(vec1, vec2);
     } else {
-      // dense vectors usually doesn't do a defensive copy, so it is faster than
-      // the implementation above.
-      return measureDistance(vec1.toArray(), vec2.toArray());
+      return measureBoundedRankDistance(vec1.toArray(), vec2.toArray(), bound);
+    }
+  }
+
+  /**
+   * @return the squared distance to the cell, the squared offset of the
+   *         dimension is replaced.
+   */
+  @Override
+  public double cellRankDistance(double cellDistance, double oldOffset,
+      double offset) {
+    return cellDistance - oldOffset * oldOffset + offset * offset;
+  }
+
+  @Override
+  public double lowerRankDistance(double squaredEuclidianDistance,
+      int dimension) {
+    return squaredEuclidianDistance;
+  }
+
+  @Override
+  public double rankFactor(double epsilon) {
+    return (1d + epsilon) * (1d + epsilon);
+  }
+
+  @Override
+  public double toDistance(double rankDistance) {
+    return FastMath.sqrt(rankDistance);
+  }
+
+  @Override
+  public double toRankDistance(double distance) {
+    if (!(distance > 0d)) {
+      // negative distances can't be reached
+      return distance == 0d ? 0d : Double.NEGATIVE_INFINITY;
+    }
+    double rankDistance = distance * distance;
+    // the rounding of the square and its root can be off by an ulp, so move
+    // to the exact boundary to not lose any border hits in radius searches.
+    while (toDistance(rankDistance) > distance) {
+      rankDistance = Math.nextDown(rankDistance);
+    }
+    while (rankDistance < Double.POSITIVE_INFINITY
+        && toDistance(Math.nextUp(rankDistance)) <= distance) {
+      rankDistance = Math.nextUp(rankDistance);
     }
+    return rankDistance;
   }
 
   /**
@@ -0,0 +1,103 @@
+package de.jungblut.jrpt.distance;
+
+import de.jungblut.math.DoubleVector;
+
+/**
+ * The negative inner product, so the nearest neighbours of a query are the
+ * vectors with the maximum inner product (MIPS). The distance can be negative
+ * and isn't a metric, so a tree with the inner product has to check every
+ * node.
+ *
+ * Scaling the vectors to unit length would change the ranking of vectors with
+ * different norms, so there is no normalized variant. If only the angle
+ * between the vectors matters, use {@link CosineDistance#normalized()}, which
+ * prunes the search like the euclidian distance.
+ */
+public final class InnerProductDistance implements DistanceMeasurer {
+
+  private static final InnerProductDistance DISTANCE =
+      new InnerProductDistance(DistanceKernel.get());
+
+  private final DistanceKernel kernel;
+
+  private InnerProductDistance(DistanceKernel kernel) {
+    this.kernel = kernel;
+  }
+
+  @Override
+  public double measureDistance(double[] set1, double[] set2) {
+    return measureRankDistance(set1, set2);
+  }
+
+  @Override
+  public double measureDistance(DoubleVector vec1, DoubleVector vec2) {
+    return measureRankDistance(vec1, vec2);
+  }
+
+  @Override
+  public double measureRankDistance(double[] set1, double[] set2) {
+    return measureBoundedRankDistance(set1, set2, 0, Double.MAX_VALUE);
+  }
+
+  @Override
+  public double measureRankDistance(DoubleVector vec1, DoubleVector vec2) {
+    return -vec1.dot(vec2);
+  }
+
+  @Override
+  public double measureBoundedRankDistance(double[] set1, double[] set2,
+      double bound) {
+    return measureBoundedRankDistance(set1, set2, 0, bound);
+  }
+
+  @Override
+  public double measureBoundedRankDistance(double[] set1, double[] set2,
+      int offset, double bound) {
+    return -kernel.dot(set1, set2, offset);
+  }
+
+  @Override
+  public double measureBoundedRankDistance(DoubleVector vec1,
+      DoubleVector vec2, double bound) {
+    return measureRankDistance(vec1, vec2);
+  }
+
+  @Override
+  public double measureBoundedRankDistance(SparseEntries set1,
+      SparseEntries set2, double bound) {
+    return -set1.dot(set2);
+  }
+
+  @Override
+  public double cellRankDistance(double cellDistance, double oldOffset,
+      double offset) {
+    return Double.NEGATIVE_INFINITY;
+  }
+
+  @Override
+  public double lowerRankDistance(double squaredEuclidianDistance,
+      int dimension) {
+    return Double.NEGATIVE_INFINITY;
+  }
+
+  /**
+   * @return the negative inner product, which is its own rank distance.
+   */
+  @Override
+  public double toDistance(double rankDistance) {
+    return rankDistance;
+  }
+
+  @Override
+  public double toRankDistance(double distance) {
+    return distance;
+  }
+
+  /**
+   * @return a cached inner product distance measurer.
+   */
+  public static InnerProductDistance get() {
+    return DISTANCE;
+  }
+
+}
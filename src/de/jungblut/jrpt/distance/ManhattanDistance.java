@@ -0,0 +1,159 @@
+package de.jungblut.jrpt.distance;
+
+import java.util.Iterator;
+
+import com.google.common.base.Preconditions;
+
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.DoubleVector.DoubleVectorElement;
+
+/**
+ * The manhattan (L1) distance, the sum of the absolute differences. The rank
+ * distance is the distance itself.
+ */
+public final class ManhattanDistance implements DistanceMeasurer {
+
+  private static final ManhattanDistance DISTANCE = new ManhattanDistance();
+
+  private final DistanceKernel kernel;
+
+  /**
+   * Creates a distance measurer with the fastest available kernel.
+   */
+  public ManhattanDistance() {
+    this(DistanceKernel.get());
+  }
+
+  /**
+   * @param kernel the kernel for the distance computations over arrays.
+   */
+  public ManhattanDistance(DistanceKernel kernel) {
+    this.kernel = Preconditions.checkNotNull(kernel, "kernel");
+  }
+
+  @Override
+  public double measureDistance(double[] set1, double[] set2) {
+    return kernel.manhattan(set1, set2, 0);
+  }
+
+  @Override
+  public double measureDistance(DoubleVector vec1, DoubleVector vec2) {
+    return measureBoundedRankDistance(vec1, vec2, Double.MAX_VALUE);
+  }
+
+  @Override
+  public double measureBoundedRankDistance(double[] set1, double[] set2,
+      double bound) {
+    return kernel.manhattan(set1, set2, 0);
+  }
+
+  @Override
+  public double measureBoundedRankDistance(double[] set1, double[] set2,
+      int offset, double bound) {
+    return kernel.manhattan(set1, set2, offset);
+  }
+
+  @Override
+  public double measureBoundedRankDistance(DoubleVector vec1,
+      DoubleVector vec2, double bound) {
+    if (vec1.isSparse() && vec2.isSparse()) {
+      return sparseDistance(vec1, vec2, bound);
+    } else if (vec1.isSparse() || vec2.isSparse()) {
+      double sum = 0;
+      for (int i = 0; i < vec1.getDimension() && sum <= bound; i++) {
+        sum += Math.abs(vec1.get(i) - vec2.get(i));
+      }
+      return sum;
+    } else {
+      return measureDistance(vec1.toArray(), vec2.toArray());
+    }
+  }
+
+  /**
+   * Distance between two sparse vectors that only iterates their non-zero
+   * entries, without any intermediate vectors.
+   */
+  private static double sparseDistance(DoubleVector vec1, DoubleVector vec2,
+      double bound) {
+    double sum = 0;
+    Iterator<DoubleVectorElement> iterateNonZero = vec1.iterateNonZero();
+    while (iterateNonZero.hasNext() && sum <= bound) {
+      DoubleVectorElement next = iterateNonZero.next();
+      if (next.getValue() != 0d) {
+        sum += Math.abs(next.getValue() - vec2.get(next.getIndex()));
+      }
+    }
+    // the entries that are only non-zero in the second vector
+    iterateNonZero = vec2.iterateNonZero();
+    while (iterateNonZero.hasNext() && sum <= bound) {
+      DoubleVectorElement next = iterateNonZero.next();
+      if (vec1.get(next.getIndex()) == 0d) {
+        sum += Math.abs(next.getValue());
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * Merges the sorted entries of both vectors.
+   */
+  @Override
+  public double measureBoundedRankDistance(SparseEntries set1,
+      SparseEntries set2, double bound) {
+    final int[] indices1 = set1.indices();
+    final double[] values1 = set1.values();
+    final int[] indices2 = set2.indices();
+    final double[] values2 = set2.values();
+    double sum = 0;
+    int i = 0;
+    int j = 0;
+    while (i < indices1.length && j < indices2.length) {
+      final double diff;
+      if (indices1[i] == indices2[j]) {
+        diff = values1[i++] - values2[j++];
+      } else if (indices1[i] < indices2[j]) {
+        diff = values1[i++];
+      } else {
+        diff = values2[j++];
+      }
+      sum += Math.abs(diff);
+      if (sum > bound) {
+        return sum;
+      }
+    }
+    for (; i < indices1.length; i++) {
+      sum += Math.abs(values1[i]);
+    }
+    for (; j < indices2.length; j++) {
+      sum += Math.abs(values2[j]);
+    }
+    return sum;
+  }
+
+  /**
+   * @return the sum of the absolute offsets to the cell.
+   */
+  @Override
+  public double cellRankDistance(double cellDistance, double oldOffset,
+      double offset) {
+    return cellDistance - Math.abs(oldOffset) + Math.abs(offset);
+  }
+
+  /**
+   * @return the euclidian distance, which is never larger than the manhattan
+   *         distance.
+   */
+  @Override
+  public double lowerRankDistance(double squaredEuclidianDistance,
+      int dimension) {
+    return Math.sqrt(squaredEuclidianDistance);
+  }
+
+  /**
+   * @return a cached manhattan distance measurer.
+   */
+  public static ManhattanDistance get() {
+    return DISTANCE;
+  }
+
+}
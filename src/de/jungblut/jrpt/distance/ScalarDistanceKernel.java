@@ -0,0 +1,96 @@
+package de.jungblut.jrpt.distance;
+
+/**
+ * The distance loops in plain java, the JIT may unroll or auto-vectorize them.
+ */
+final class ScalarDistanceKernel implements DistanceKernel {
+
+  static final ScalarDistanceKernel INSTANCE = new ScalarDistanceKernel();
+
+  // number of dimensions summed up between two checks of the bound
+  private static final int BOUND_CHECK_INTERVAL = 8;
+
+  private ScalarDistanceKernel() {
+  }
+
+  @Override
+  public double squaredEuclidean(double[] a, double[] b, int offset) {
+    double sum = 0;
+    final int length = a.length;
+    for (int i = 0; i < length; i++) {
+      double diff = b[offset + i] - a[i];
+      // multiplication is faster than Math.pow() for ^2.
+      sum += (diff * diff);
+    }
+    return sum;
+  }
+
+  @Override
+  public double boundedSquaredEuclidean(double[] a, double[] b, int offset,
+      double bound) {
+    double sum = 0;
+    final int length = a.length;
+    int i = 0;
+    // only check the bound every few dimensions to keep the inner loop tight
+    while (i < length) {
+      final int end = Math.min(length, i + BOUND_CHECK_INTERVAL);
+      for (; i < end; i++) {
+        double diff = b[offset + i] - a[i];
+        sum += (diff * diff);
+      }
+      if (sum > bound) {
+        return sum;
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * Measures two vectors of the block at a time, their independent sums keep
+   * more additions in flight.
+   */
+  @Override
+  public void squaredEuclidean(double[] query, double[] block, int count,
+      double[] result) {
+    final int dimension = query.length;
+    int j = 0;
+    for (; j + 1 < count; j += 2) {
+      final int offset1 = j * dimension;
+      final int offset2 = offset1 + dimension;
+      double sum1 = 0;
+      double sum2 = 0;
+      for (int i = 0; i < dimension; i++) {
+        double diff1 = block[offset1 + i] - query[i];
+        double diff2 = block[offset2 + i] - query[i];
+        sum1 += (diff1 * diff1);
+        sum2 += (diff2 * diff2);
+      }
+      result[j] = sum1;
+      result[j + 1] = sum2;
+    }
+    if (j < count) {
+      result[j] = squaredEuclidean(query, block, j * dimension);
+    }
+  }
+
+  @Override
+  public double dot(double[] a, double[] b, int offset) {
+    double sum = 0;
+    final int length = a.length;
+    for (int i = 0; i < length; i++) {
+      sum += a[i] * b[offset + i];
+    }
+    return sum;
+  }
+
+  @Override
+  public double manhattan(double[] a, double[] b, int offset) {
+    double sum = 0;
+    final int length = a.length;
+    for (int i = 0; i < length; i++) {
+      sum += Math.abs(b[offset + i] - a[i]);
+    }
+    return sum;
+  }
+
+}
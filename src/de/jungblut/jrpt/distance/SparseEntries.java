@@ -0,0 +1,126 @@
+package de.jungblut.jrpt.distance;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.DoubleVector.DoubleVectorElement;
+import de.jungblut.math.sparse.SparseDoubleVector;
+
+/**
+ * The non-zero entries of a sparse vector as primitive arrays sorted by their
+ * index, together with the euclidian norm of the vector. Distances between two
+ * of them are measured by merging the arrays, without allocating anything.
+ *
+ * Instances are immutable, the arrays must not be modified.
+ */
+public final class SparseEntries {
+
+  private final int dimension;
+  private final int[] indices;
+  private final double[] values;
+  private final double norm;
+
+  private SparseEntries(int dimension, int[] indices, double[] values) {
+    this.dimension = dimension;
+    this.indices = indices;
+    this.values = values;
+    double squaredNorm = 0;
+    for (double v : values) {
+      squaredNorm += v * v;
+    }
+    this.norm = Math.sqrt(squaredNorm);
+  }
+
+  /**
+   * @return the non-zero entries of the given vector.
+   */
+  public static SparseEntries of(DoubleVector vec) {
+    int[] indices = new int[vec.getLength()];
+    int length = 0;
+    Iterator<DoubleVectorElement> iterateNonZero = vec.iterateNonZero();
+    while (iterateNonZero.hasNext()) {
+      DoubleVectorElement next = iterateNonZero.next();
+      if (next.getValue() != 0d) {
+        if (length == indices.length) {
+          indices = Arrays.copyOf(indices, Math.max(16, length * 2));
+        }
+        indices[length++] = next.getIndex();
+      }
+    }
+    indices = Arrays.copyOf(indices, length);
+    // sparse vectors don't iterate in the order of their indices
+    Arrays.sort(indices);
+    double[] values = new double[length];
+    for (int i = 0; i < length; i++) {
+      values[i] = vec.get(indices[i]);
+    }
+    return new SparseEntries(vec.getDimension(), indices, values);
+  }
+
+  public int getDimension() {
+    return dimension;
+  }
+
+  /**
+   * @return the number of non-zero entries.
+   */
+  public int size() {
+    return indices.length;
+  }
+
+  /**
+   * @return the sorted indices of the non-zero entries.
+   */
+  public int[] indices() {
+    return indices;
+  }
+
+  /**
+   * @return the values of the non-zero entries in the order of their indices.
+   */
+  public double[] values() {
+    return values;
+  }
+
+  /**
+   * @return the euclidian norm of the vector.
+   */
+  public double norm() {
+    return norm;
+  }
+
+  /**
+   * @return the dot product with the other vector, only the common indices
+   *         are multiplied.
+   */
+  public double dot(SparseEntries other) {
+    final int[] otherIndices = other.indices;
+    final double[] otherValues = other.values;
+    double sum = 0;
+    int i = 0;
+    int j = 0;
+    while (i < indices.length && j < otherIndices.length) {
+      if (indices[i] == otherIndices[j]) {
+        sum += values[i++] * otherValues[j++];
+      } else if (indices[i] < otherIndices[j]) {
+        i++;
+      } else {
+        j++;
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * @return a sparse vector with the same entries.
+   */
+  public DoubleVector toVector() {
+    DoubleVector v = new SparseDoubleVector(dimension);
+    for (int i = 0; i < indices.length; i++) {
+      v.set(indices[i], values[i]);
+    }
+    return v;
+  }
+
+}
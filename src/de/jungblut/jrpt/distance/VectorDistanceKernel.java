@@ -0,0 +1,164 @@
+package de.jungblut.jrpt.distance;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The distance loops with the SIMD instructions of the JDK Vector API. This
+ * class needs JDK 17+ and is only compiled with the "vector-api" profile,
+ * {@link DistanceKernel#get()} falls back to the scalar loops without it.
+ *
+ * The lanes are summed up in a vector accumulator and only reduced at the end,
+ * so the results can differ from the scalar loops in the last bits.
+ */
+final class VectorDistanceKernel implements DistanceKernel {
+
+  private static final VectorSpecies<Double> SPECIES =
+      DoubleVector.SPECIES_PREFERRED;
+
+  // number of vector steps between two checks of the bound
+  private static final int BOUND_CHECK_INTERVAL = 4;
+
+  VectorDistanceKernel() {
+    // fail early if the module is missing, so the scalar kernel is used
+    DoubleVector.zero(SPECIES);
+  }
+
+  @Override
+  public double squaredEuclidean(double[] a, double[] b, int offset) {
+    final int length = a.length;
+    final int upper = SPECIES.loopBound(length);
+    DoubleVector acc = DoubleVector.zero(SPECIES);
+    int i = 0;
+    for (; i < upper; i += SPECIES.length()) {
+      DoubleVector diff = DoubleVector.fromArray(SPECIES, b, offset + i).sub(
+          DoubleVector.fromArray(SPECIES, a, i));
+      acc = acc.add(diff.mul(diff));
+    }
+    double sum = acc.reduceLanes(VectorOperators.ADD);
+    for (; i < length; i++) {
+      double diff = b[offset + i] - a[i];
+      sum += (diff * diff);
+    }
+    return sum;
+  }
+
+  @Override
+  public double boundedSquaredEuclidean(double[] a, double[] b, int offset,
+      double bound) {
+    final int length = a.length;
+    final int upper = SPECIES.loopBound(length);
+    final int step = SPECIES.length();
+    DoubleVector acc = DoubleVector.zero(SPECIES);
+    int i = 0;
+    // same order of additions as the unbounded version, the bound is only
+    // checked on an intermediate reduction
+    while (i < upper) {
+      final int end = Math.min(upper, i + BOUND_CHECK_INTERVAL * step);
+      for (; i < end; i += step) {
+        DoubleVector diff = DoubleVector.fromArray(SPECIES, b, offset + i)
+            .sub(DoubleVector.fromArray(SPECIES, a, i));
+        acc = acc.add(diff.mul(diff));
+      }
+      if (i < upper) {
+        double partial = acc.reduceLanes(VectorOperators.ADD);
+        if (partial > bound) {
+          return partial;
+        }
+      }
+    }
+    double sum = acc.reduceLanes(VectorOperators.ADD);
+    for (; i < length; i++) {
+      double diff = b[offset + i] - a[i];
+      sum += (diff * diff);
+    }
+    return sum;
+  }
+
+  @Override
+  public double dot(double[] a, double[] b, int offset) {
+    final int length = a.length;
+    final int upper = SPECIES.loopBound(length);
+    DoubleVector acc = DoubleVector.zero(SPECIES);
+    int i = 0;
+    for (; i < upper; i += SPECIES.length()) {
+      acc = acc.add(DoubleVector.fromArray(SPECIES, a, i).mul(
+          DoubleVector.fromArray(SPECIES, b, offset + i)));
+    }
+    double sum = acc.reduceLanes(VectorOperators.ADD);
+    for (; i < length; i++) {
+      sum += a[i] * b[offset + i];
+    }
+    return sum;
+  }
+
+  @Override
+  public double manhattan(double[] a, double[] b, int offset) {
+    final int length = a.length;
+    final int upper = SPECIES.loopBound(length);
+    DoubleVector acc = DoubleVector.zero(SPECIES);
+    int i = 0;
+    for (; i < upper; i += SPECIES.length()) {
+      acc = acc.add(DoubleVector.fromArray(SPECIES, b, offset + i)
+          .sub(DoubleVector.fromArray(SPECIES, a, i)).abs());
+    }
+    double sum = acc.reduceLanes(VectorOperators.ADD);
+    for (; i < length; i++) {
+      sum += Math.abs(b[offset + i] - a[i]);
+    }
+    return sum;
+  }
+
+  /**
+   * Ignores the bound, checking it costs more than measuring the rest of the
+   * vectors.
+   */
+  @Override
+  public void boundedSquaredEuclidean(double[] query, double[] block,
+      int count, double bound, double[] result) {
+    squaredEuclidean(query, block, count, result);
+  }
+
+  /**
+   * Loads every query lane once and measures two vectors of the block at a
+   * time, to halve the loads of the query.
+   */
+  @Override
+  public void squaredEuclidean(double[] query, double[] block, int count,
+      double[] result) {
+    final int dimension = query.length;
+    final int upper = SPECIES.loopBound(dimension);
+    int j = 0;
+    for (; j + 1 < count; j += 2) {
+      final int offset1 = j * dimension;
+      final int offset2 = offset1 + dimension;
+      DoubleVector acc1 = DoubleVector.zero(SPECIES);
+      DoubleVector acc2 = DoubleVector.zero(SPECIES);
+      int i = 0;
+      for (; i < upper; i += SPECIES.length()) {
+        DoubleVector q = DoubleVector.fromArray(SPECIES, query, i);
+        DoubleVector diff1 = DoubleVector.fromArray(SPECIES, block,
+            offset1 + i).sub(q);
+        DoubleVector diff2 = DoubleVector.fromArray(SPECIES, block,
+            offset2 + i).sub(q);
+        acc1 = acc1.add(diff1.mul(diff1));
+        acc2 = acc2.add(diff2.mul(diff2));
+      }
+      double sum1 = acc1.reduceLanes(VectorOperators.ADD);
+      double sum2 = acc2.reduceLanes(VectorOperators.ADD);
+      for (; i < dimension; i++) {
+        double diff1 = block[offset1 + i] - query[i];
+        double diff2 = block[offset2 + i] - query[i];
+        sum1 += (diff1 * diff1);
+        sum2 += (diff2 * diff2);
+      }
+      result[j] = sum1;
+      result[j + 1] = sum2;
+    }
+    if (j < count) {
+      result[j] = squaredEuclidean(query, block, j * dimension);
+    }
+  }
+
+}
@@ -0,0 +1,326 @@
+package de.jungblut.jrpt.quantization;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import com.google.common.base.Preconditions;
+
+import de.jungblut.math.DoubleVector;
+
+/**
+ * Product quantization as described in "Product quantization for nearest
+ * neighbor search" by Herve Jegou, Matthijs Douze and Cordelia Schmid.
+ *
+ * https://hal.inria.fr/inria-00514462/document
+ *
+ * The dimensions are split into contiguous subspaces, every subspace has its
+ * own codebook of up to 256 centroids that is trained with k-means. A vector
+ * is encoded as the index of the nearest centroid in every subspace, so it
+ * only takes a single byte per subspace.
+ *
+ * Distances are computed asymmetrically: for every query a lookup table of the
+ * squared distances between its subvectors and all centroids is computed once,
+ * the distance to an encoded vector is then the sum of one table entry per
+ * subspace.
+ *
+ * Instances are immutable.
+ */
+public final class ProductQuantizer {
+
+  private static final int MAX_CENTROIDS = 256;
+
+  private final int dimension;
+  private final int numCentroids;
+  // centroid c of subspace m is at [c * size(m), (c + 1) * size(m)) of
+  // codebook m
+  private final double[][] codebooks;
+
+  /**
+   * @param dimension the dimension of the vectors.
+   * @param codebooks the centroids of every subspace, one after another. The
+   *          subspace m spans the dimensions [m * dimension / M, (m + 1) *
+   *          dimension / M) for M codebooks.
+   */
+  public ProductQuantizer(int dimension, double[][] codebooks) {
+    Preconditions.checkArgument(codebooks.length > 0
+        && codebooks.length <= dimension,
+        "the number of codebooks must be in [1, dimension], but was "
+            + codebooks.length);
+    this.dimension = dimension;
+    this.codebooks = new double[codebooks.length][];
+    this.numCentroids = codebooks[0].length / subspaceSize(0);
+    Preconditions.checkArgument(numCentroids > 0
+        && numCentroids <= MAX_CENTROIDS,
+        "the number of centroids must be in [1, 256], but was " + numCentroids);
+    for (int m = 0; m < codebooks.length; m++) {
+      Preconditions.checkArgument(
+          codebooks[m].length == numCentroids * subspaceSize(m),
+          "codebook " + m + " doesn't contain " + numCentroids + " centroids");
+      this.codebooks[m] = codebooks[m].clone();
+    }
+  }
+
+  /**
+   * Trains the codebooks with k-means, the subspaces are trained in parallel.
+   *
+   * @param sample the sample of vectors to train on.
+   * @param numSubspaces the number of subspaces, which is the number of bytes
+   *          of an encoded vector.
+   * @param numCentroids the number of centroids per subspace, at most 256.
+   *          Smaller samples only yield as many centroids as there are
+   *          vectors.
+   * @param iterations the number of k-means iterations.
+   * @param rand the source of the initial centroids.
+   * @return a new quantizer.
+   */
+  public static ProductQuantizer train(List<DoubleVector> sample,
+      int numSubspaces, int numCentroids, int iterations, Random rand) {
+    Preconditions.checkArgument(!sample.isEmpty(), "no vectors to train on");
+    Preconditions.checkArgument(numCentroids > 0
+        && numCentroids <= MAX_CENTROIDS,
+        "numCentroids must be in [1, 256], but was " + numCentroids);
+    Preconditions.checkArgument(iterations >= 0,
+        "iterations must be non-negative, but was " + iterations);
+    final int dimension = sample.get(0).getDimension();
+    Preconditions.checkArgument(numSubspaces > 0 && numSubspaces <= dimension,
+        "numSubspaces must be in [1, " + dimension + "], but was "
+            + numSubspaces);
+    final int k = Math.min(numCentroids, sample.size());
+    final double[][] points = new double[sample.size()][];
+    for (int i = 0; i < points.length; i++) {
+      DoubleVector v = sample.get(i);
+      Preconditions.checkArgument(v.getDimension() == dimension,
+          "Dimensional mismatch. Expected " + dimension + " but given "
+              + v.getDimension() + "!");
+      points[i] = v.toArray();
+    }
+    // seeds are drawn upfront, so the parallel training is deterministic
+    final long[] seeds = new long[numSubspaces];
+    for (int m = 0; m < numSubspaces; m++) {
+      seeds[m] = rand.nextLong();
+    }
+    double[][] codebooks = new double[numSubspaces][];
+    IntStream.range(0, numSubspaces).parallel().forEach((m) -> {
+      int from = m * dimension / numSubspaces;
+      int to = (m + 1) * dimension / numSubspaces;
+      codebooks[m] = kMeans(points, from, to, k, iterations, new Random(
+          seeds[m]));
+    });
+    return new ProductQuantizer(dimension, codebooks);
+  }
+
+  /**
+   * Encodes the vector into the codes array at the given offset.
+   */
+  public void encode(double[] vector, byte[] codes, int offset) {
+    for (int m = 0; m < codebooks.length; m++) {
+      final int from = subspaceStart(m);
+      codes[offset + m] = (byte) nearest(codebooks[m], numCentroids, vector,
+          from, subspaceStart(m + 1) - from);
+    }
+  }
+
+  /**
+   * Reconstructs the vector at the given offset of the codes array from the
+   * centroids.
+   */
+  public void decode(byte[] codes, int offset, double[] vector) {
+    for (int m = 0; m < codebooks.length; m++) {
+      final int from = subspaceStart(m);
+      final int size = subspaceStart(m + 1) - from;
+      System.arraycopy(codebooks[m], (codes[offset + m] & 0xFF) * size,
+          vector, from, size);
+    }
+  }
+
+  /**
+   * Computes the lookup table of the query for
+   * {@link #squaredDistance(double[], byte[], int, double)}.
+   *
+   * @param query the query vector.
+   * @param table the table of at least {@link #getTableLength()} entries.
+   */
+  public void computeTable(double[] query, double[] table) {
+    for (int m = 0; m < codebooks.length; m++) {
+      final double[] codebook = codebooks[m];
+      final int from = subspaceStart(m);
+      final int size = subspaceStart(m + 1) - from;
+      for (int c = 0; c < numCentroids; c++) {
+        double sum = 0;
+        for (int d = 0; d < size; d++) {
+          double diff = codebook[c * size + d] - query[from + d];
+          sum += (diff * diff);
+        }
+        table[m * numCentroids + c] = sum;
+      }
+    }
+  }
+
+  /**
+   * Measures the squared euclidian distance between a query and the encoded
+   * vector at the given offset with the lookup table of the query, but is
+   * allowed to stop early once the distance exceeds the given bound.
+   *
+   * @return the squared distance if it is lower or equal to the bound,
+   *         otherwise any value higher than the bound.
+   */
+  public double squaredDistance(double[] table, byte[] codes, int offset,
+      double bound) {
+    final int numSubspaces = codebooks.length;
+    double sum = 0;
+    int m = 0;
+    while (m < numSubspaces) {
+      final int end = Math.min(numSubspaces, m + 8);
+      for (; m < end; m++) {
+        sum += table[m * numCentroids + (codes[offset + m] & 0xFF)];
+      }
+      if (sum > bound) {
+        return sum;
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * @return a copy of the centroids of the given subspace.
+   */
+  public double[] getCodebook(int subspace) {
+    return codebooks[subspace].clone();
+  }
+
+  public int getDimension() {
+    return dimension;
+  }
+
+  /**
+   * @return the number of subspaces, which is the number of bytes of an encoded
+   *         vector.
+   */
+  public int getNumSubspaces() {
+    return codebooks.length;
+  }
+
+  public int getNumCentroids() {
+    return numCentroids;
+  }
+
+  /**
+   * @return the length of the lookup table of a query.
+   */
+  public int getTableLength() {
+    return codebooks.length * numCentroids;
+  }
+
+  private int subspaceStart(int m) {
+    return m * dimension / codebooks.length;
+  }
+
+  private int subspaceSize(int m) {
+    return subspaceStart(m + 1) - subspaceStart(m);
+  }
+
+  /**
+   * @return the index of the centroid nearest to the subvector.
+   */
+  private static int nearest(double[] centroids, int k, double[] vector,
+      int from, int size) {
+    int best = 0;
+    double bestDistance = Double.POSITIVE_INFINITY;
+    for (int c = 0; c < k; c++) {
+      double sum = 0;
+      for (int d = 0; d < size && sum < bestDistance; d++) {
+        double diff = centroids[c * size + d] - vector[from + d];
+        sum += (diff * diff);
+      }
+      if (sum < bestDistance) {
+        bestDistance = sum;
+        best = c;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Lloyd's k-means with a k-means++ initialization on the dimensions [from,
+   * to) of the points.
+   *
+   * @return the k centroids one after another.
+   */
+  private static double[] kMeans(double[][] points, int from, int to, int k,
+      int iterations, Random rand) {
+    final int size = to - from;
+    final int n = points.length;
+    double[] centroids = new double[k * size];
+
+    // k-means++: every next centroid is a point drawn with a probability
+    // proportional to its squared distance to the nearest centroid so far
+    double[] distances = new double[n];
+    Arrays.fill(distances, Double.POSITIVE_INFINITY);
+    int next = rand.nextInt(n);
+    for (int c = 0; c < k; c++) {
+      System.arraycopy(points[next], from, centroids, c * size, size);
+      double total = 0;
+      for (int i = 0; i < n; i++) {
+        double sum = 0;
+        for (int d = 0; d < size; d++) {
+          double diff = centroids[c * size + d] - points[i][from + d];
+          sum += (diff * diff);
+        }
+        distances[i] = Math.min(distances[i], sum);
+        total += distances[i];
+      }
+      if (total == 0d) {
+        // all points are covered, fill up with random points
+        next = rand.nextInt(n);
+        continue;
+      }
+      double r = rand.nextDouble() * total;
+      next = n - 1;
+      for (int i = 0; i < n; i++) {
+        r -= distances[i];
+        if (r <= 0d) {
+          next = i;
+          break;
+        }
+      }
+    }
+
+    int[] assignments = new int[n];
+    int[] counts = new int[k];
+    for (int iteration = 0; iteration < iterations; iteration++) {
+      boolean changed = false;
+      for (int i = 0; i < n; i++) {
+        int c = nearest(centroids, k, points[i], from, size);
+        changed |= c != assignments[i];
+        assignments[i] = c;
+      }
+      if (!changed && iteration > 0) {
+        break;
+      }
+      Arrays.fill(centroids, 0d);
+      Arrays.fill(counts, 0);
+      for (int i = 0; i < n; i++) {
+        int c = assignments[i];
+        counts[c]++;
+        for (int d = 0; d < size; d++) {
+          centroids[c * size + d] += points[i][from + d];
+        }
+      }
+      for (int c = 0; c < k; c++) {
+        if (counts[c] == 0) {
+          // move empty clusters to a random point
+          System.arraycopy(points[rand.nextInt(n)], from, centroids, c * size,
+              size);
+          continue;
+        }
+        for (int d = 0; d < size; d++) {
+          centroids[c * size + d] /= counts[c];
+        }
+      }
+    }
+    return centroids;
+  }
+
+}
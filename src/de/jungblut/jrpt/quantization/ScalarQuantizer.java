@@ -0,0 +1,138 @@
+package de.jungblut.jrpt.quantization;
+
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+
+import de.jungblut.math.DoubleVector;
+
+/**
+ * Quantizes every component of a vector independently to one of 256 levels,
+ * so it can be stored in a single byte. The levels of each dimension are spread
+ * evenly between the minimum and maximum of that dimension, values outside of
+ * this range are clamped.
+ *
+ * Distances to a quantized vector are computed asymmetrically: the query stays
+ * exact and only the stored vector is approximated.
+ *
+ * Instances are immutable.
+ */
+public final class ScalarQuantizer {
+
+  private static final int LEVELS = 255;
+
+  private final double[] offsets;
+  private final double[] scales;
+
+  /**
+   * @param min the minimum value of every dimension.
+   * @param max the maximum value of every dimension.
+   */
+  public ScalarQuantizer(double[] min, double[] max) {
+    Preconditions.checkArgument(min.length == max.length && min.length > 0,
+        "min and max must have the same non-zero length");
+    this.offsets = Arrays.copyOf(min, min.length);
+    this.scales = new double[min.length];
+    for (int d = 0; d < min.length; d++) {
+      Preconditions.checkArgument(min[d] <= max[d], "min of dimension " + d
+          + " is larger than its max");
+      scales[d] = (max[d] - min[d]) / LEVELS;
+    }
+  }
+
+  /**
+   * Fits the range of every dimension to the given vectors.
+   *
+   * @param vectors a sample of the vectors that will be quantized.
+   * @return a new quantizer.
+   */
+  public static ScalarQuantizer fit(Iterable<DoubleVector> vectors) {
+    double[] min = null;
+    double[] max = null;
+    for (DoubleVector v : vectors) {
+      if (min == null) {
+        min = v.toArray().clone();
+        max = v.toArray().clone();
+      }
+      Preconditions.checkArgument(v.getDimension() == min.length,
+          "Dimensional mismatch. Expected " + min.length + " but given "
+              + v.getDimension() + "!");
+      for (int d = 0; d < min.length; d++) {
+        double value = v.get(d);
+        min[d] = Math.min(min[d], value);
+        max[d] = Math.max(max[d], value);
+      }
+    }
+    Preconditions.checkArgument(min != null, "no vectors to fit");
+    return new ScalarQuantizer(min, max);
+  }
+
+  /**
+   * Quantizes the vector into the codes array at the given offset.
+   */
+  public void encode(double[] vector, byte[] codes, int offset) {
+    for (int d = 0; d < offsets.length; d++) {
+      codes[offset + d] = quantize(d, vector[d]);
+    }
+  }
+
+  /**
+   * Restores the approximated vector at the given offset of the codes array.
+   */
+  public void decode(byte[] codes, int offset, double[] vector) {
+    for (int d = 0; d < offsets.length; d++) {
+      vector[d] = offsets[d] + scales[d] * (codes[offset + d] & 0xFF);
+    }
+  }
+
+  /**
+   * @return the level of the value in the given dimension as unsigned byte.
+   */
+  public byte quantize(int dimension, double value) {
+    if (scales[dimension] == 0d) {
+      return 0;
+    }
+    long level = Math.round((value - offsets[dimension]) / scales[dimension]);
+    return (byte) Math.max(0, Math.min(LEVELS, level));
+  }
+
+  /**
+   * Measures the squared euclidian distance between the exact query and the
+   * quantized vector at the given offset, but is allowed to stop early once
+   * the distance exceeds the given bound.
+   *
+   * @return the squared distance if it is lower or equal to the bound,
+   *         otherwise any value higher than the bound.
+   */
+  public double squaredDistance(double[] query, byte[] codes, int offset,
+      double bound) {
+    final int dimension = offsets.length;
+    double sum = 0;
+    int d = 0;
+    while (d < dimension) {
+      final int end = Math.min(dimension, d + 8);
+      for (; d < end; d++) {
+        double diff = query[d] - offsets[d] - scales[d]
+            * (codes[offset + d] & 0xFF);
+        sum += (diff * diff);
+      }
+      if (sum > bound) {
+        return sum;
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * @return the maximum error of a quantized component in the given dimension
+   *         within the range, half the distance between two levels.
+   */
+  public double getMaxError(int dimension) {
+    return scales[dimension] / 2d;
+  }
+
+  public int getDimension() {
+    return offsets.length;
+  }
+
+}
@@ -0,0 +1,201 @@
+package de.jungblut.jrpt.rules;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import com.google.common.base.Preconditions;
+
+import de.jungblut.jrpt.distance.SparseEntries;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.DoubleVector.DoubleVectorElement;
+
+/**
+ * A hyperplane that splits the space along the projection onto a unit length
+ * normal. Vectors with a projection lower than the threshold are on the left
+ * side, everything that is higher on the right side. Vectors on the hyperplane
+ * can be on either side. Since the normal has unit length, the difference
+ * between a projection and the threshold is the signed distance to the
+ * hyperplane.
+ *
+ * Only the non-zero entries of the normal are stored, so a sparse normal costs
+ * memory and projection time in its number of non-zeros, not in the dimension.
+ */
+public final class Hyperplane {
+
+  private static final double UNIT_TOLERANCE = 1e-6;
+
+  private final int dimension;
+  // the non-zero entries of the normal, by increasing index
+  private final int[] indices;
+  private final double[] values;
+  private final double threshold;
+
+  /**
+   * @param normal the dense normal of unit length.
+   * @param threshold the projection value where the split happens.
+   */
+  public Hyperplane(double[] normal, double threshold) {
+    Preconditions.checkNotNull(normal, "normal");
+    int nonZeros = 0;
+    for (double d : normal) {
+      if (d != 0d) {
+        nonZeros++;
+      }
+    }
+    this.dimension = normal.length;
+    this.indices = new int[nonZeros];
+    this.values = new double[nonZeros];
+    for (int d = 0, i = 0; d < normal.length; d++) {
+      if (normal[d] != 0d) {
+        indices[i] = d;
+        values[i++] = normal[d];
+      }
+    }
+    checkUnitLength(values);
+    this.threshold = threshold;
+  }
+
+  /**
+   * @param dimension the dimension of the normal.
+   * @param indices the strictly increasing indices of the non-zero entries of
+   *          the normal, they are not copied so they can be shared by many
+   *          hyperplanes.
+   * @param values the non-zero entries of the normal of unit length, not
+   *          copied either.
+   * @param threshold the projection value where the split happens.
+   */
+  public Hyperplane(int dimension, int[] indices, double[] values,
+      double threshold) {
+    Preconditions.checkNotNull(indices, "indices");
+    Preconditions.checkNotNull(values, "values");
+    Preconditions.checkArgument(indices.length == values.length,
+        "indices and values must have the same length: " + indices.length
+            + " != " + values.length);
+    for (int i = 0; i < indices.length; i++) {
+      Preconditions.checkArgument(indices[i] >= (i == 0 ? 0
+          : indices[i - 1] + 1) && indices[i] < dimension,
+          "indices must be strictly increasing and in [0, " + dimension
+              + "), but were " + Arrays.toString(indices));
+    }
+    checkUnitLength(values);
+    this.dimension = dimension;
+    this.indices = indices;
+    this.values = values;
+    this.threshold = threshold;
+  }
+
+  /**
+   * @return the projection of the given vector onto the normal.
+   */
+  public double project(DoubleVector v) {
+    checkDimension(v.getDimension());
+    if (!v.isSparse()) {
+      return project(v.toArray());
+    }
+    double sum = 0;
+    if (v.getLength() > indices.length) {
+      for (int i = 0; i < indices.length; i++) {
+        sum += values[i] * v.get(indices[i]);
+      }
+      return sum;
+    }
+    Iterator<DoubleVectorElement> iterateNonZero = v.iterateNonZero();
+    while (iterateNonZero.hasNext()) {
+      DoubleVectorElement next = iterateNonZero.next();
+      final int i = Arrays.binarySearch(indices, next.getIndex());
+      if (i >= 0) {
+        sum += values[i] * next.getValue();
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * @return the projection of the given sparse vector onto the normal.
+   */
+  public double project(SparseEntries v) {
+    checkDimension(v.getDimension());
+    final int[] otherIndices = v.indices();
+    final double[] otherValues = v.values();
+    double sum = 0;
+    int i = 0;
+    int j = 0;
+    while (i < indices.length && j < otherIndices.length) {
+      if (indices[i] < otherIndices[j]) {
+        i++;
+      } else if (indices[i] > otherIndices[j]) {
+        j++;
+      } else {
+        sum += values[i++] * otherValues[j++];
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * @return the projection of the given dense vector onto the normal.
+   */
+  public double project(double[] v) {
+    double sum = 0;
+    for (int i = 0; i < indices.length; i++) {
+      sum += values[i] * v[indices[i]];
+    }
+    return sum;
+  }
+
+  /**
+   * @return a dense copy of the normal.
+   */
+  public double[] getNormal() {
+    double[] normal = new double[dimension];
+    for (int i = 0; i < indices.length; i++) {
+      normal[indices[i]] = values[i];
+    }
+    return normal;
+  }
+
+  /**
+   * @return the indices of the non-zero entries of the normal, must not be
+   *         modified.
+   */
+  public int[] getIndices() {
+    return indices;
+  }
+
+  /**
+   * @return the non-zero entries of the normal, must not be modified.
+   */
+  public double[] getValues() {
+    return values;
+  }
+
+  public int getDimension() {
+    return dimension;
+  }
+
+  public double getThreshold() {
+    return threshold;
+  }
+
+  private void checkDimension(int vectorDimension) {
+    Preconditions.checkArgument(vectorDimension == dimension,
+        "Dimensional mismatch between vector and hyperplane. Expected "
+            + dimension + " but given " + vectorDimension + "!");
+  }
+
+  private static void checkUnitLength(double[] values) {
+    double length = 0;
+    for (double d : values) {
+      length += d * d;
+    }
+    Preconditions.checkArgument(Math.abs(length - 1d) < UNIT_TOLERANCE,
+        "normal must have unit length, but squared length was " + length);
+  }
+
+  @Override
+  public String toString() {
+    return "Hyperplane [threshold=" + threshold + ", nonZeros="
+        + indices.length + "]";
+  }
+
+}
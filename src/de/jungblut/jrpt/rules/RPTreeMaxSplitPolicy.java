@@ -1,8 +1,13 @@
 package de.jungblut.jrpt.rules;
 
+import gnu.trove.set.hash.TIntHashSet;
+
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 
+import com.google.common.base.Preconditions;
+
 import de.jungblut.jrpt.ANNTree.TreeNode;
 import de.jungblut.jrpt.distance.EuclidianDistance;
 import de.jungblut.math.DoubleVector;
@@ -11,32 +16,195 @@ import de.jungblut.math.DoubleVector;
  * Based on Section 2.3 of the paper
  * "Random projection trees and low dimensional manifolds" by Sanjoy Dasgupta
  * and Yoav Freund.
- * 
+ *
  * http://cseweb.ucsd.edu/~dasgupta/papers/rptree-stoc.pdf
- * 
+ *
+ * Every node splits on a hyperplane orthogonal to a random unit direction. Like
+ * in "very sparse random projections" (Li, Hastie and Church), the direction
+ * only has ceil(sqrt(D)) normally distributed non-zeros at random dimensions,
+ * so the tree keeps O(sqrt(D)) per node instead of a dense normal. When
+ * the tree is bulk built or balanced, the threshold is the median of the
+ * projections of a sample of the subtree, jittered by a random amount of up to
+ * 6 * ||x - y|| / sqrt(D), where y is the farthest sample point from a random
+ * sample point x. To keep the splits balanced, the threshold is clamped to the
+ * inner quartiles of the sampled projections.
+ *
  * Since the split policy (and our tree building algorithm) are stochastic, we
  * need heuristic around the "limited knowledge" that we have in our tree so
- * far.
- * 
- * 
+ * far: nodes that are added one by one split at the projection of their own
+ * vector, like in a kd-tree, until the tree is balanced.
+ *
+ * The randomness of every node is drawn from its own generator, that is seeded
+ * by the seed of the policy, the tree level and the offset of the subtree in
+ * the range the tree is built from, or the id of an added node. Subtrees that
+ * are rebuilt by an insert also get the id of the added node. So the same
+ * policy seed always builds the same tree, even if the subtrees are built
+ * concurrently.
+ *
  * @author thomas.jungblut
  *
  */
 public final class RPTreeMaxSplitPolicy<VALUE> implements SplitPolicy<VALUE> {
 
-  // TODO expose via constructor
-  private final double sampleSizePercent = 0.2;
-  private final EuclidianDistance dist = new EuclidianDistance();
-  private final Random rand = new Random();
+  private static final double DEFAULT_SAMPLE_SIZE_PERCENT = 0.2;
+  private static final double DEFAULT_JITTER = 6d;
+  private static final int MAX_SAMPLE_SIZE = 1024;
 
+  private final double sampleSizePercent;
+  private final double jitter;
+  private final EuclidianDistance dist = EuclidianDistance.get();
+  private final long seed;
+
+  public RPTreeMaxSplitPolicy() {
+    this(new Random());
+  }
+
+  public RPTreeMaxSplitPolicy(Random rand) {
+    this(DEFAULT_SAMPLE_SIZE_PERCENT, DEFAULT_JITTER, rand);
+  }
+
+  /**
+   * @param sampleSizePercent the share of a subtree that is sampled to find
+   *          the split threshold, between 0 (exclusive) and 1 (inclusive).
+   * @param jitter the factor of the random threshold jitter, zero splits at
+   *          the sampled median.
+   * @param rand the source of the seed of the random directions and the
+   *          jitter.
+   */
+  public RPTreeMaxSplitPolicy(double sampleSizePercent, double jitter,
+      Random rand) {
+    Preconditions.checkArgument(sampleSizePercent > 0d
+        && sampleSizePercent <= 1d,
+        "sampleSizePercent must be in (0, 1], but was " + sampleSizePercent);
+    Preconditions.checkArgument(jitter >= 0d,
+        "jitter must be non-negative, but was " + jitter);
+    this.sampleSizePercent = sampleSizePercent;
+    this.jitter = jitter;
+    this.seed = Preconditions.checkNotNull(rand, "rand").nextLong();
+  }
+
+  /**
+   * Only used as the fallback of the hyperplane splits, returns a random axis.
+   */
   @Override
   public int splitDimension(DoubleVector v, int level,
       List<TreeNode<VALUE>> treeNodes) {
+    return random(level, offset(treeNodes)).nextInt(v.getDimension());
+  }
+
+  @Override
+  public Hyperplane splitHyperplane(DoubleVector v, int level,
+      List<TreeNode<VALUE>> treeNodes) {
+    Random rand = random(level, offset(treeNodes));
+    Hyperplane projection = projection(rand, v.getDimension());
+    return withThreshold(projection, projection.project(v));
+  }
+
+  @Override
+  public Hyperplane splitHyperplane(List<DoubleVector> subtree, int level,
+      long offset) {
+    final int dimension = subtree.get(0).getDimension();
+    Random rand = random(level, offset);
+    Hyperplane projection = projection(rand, dimension);
+
+    DoubleVector[] sample = sample(subtree, rand);
+    double[] projections = new double[sample.length];
+    for (int i = 0; i < sample.length; i++) {
+      projections[i] = projection.project(sample[i]);
+    }
+    Arrays.sort(projections);
+    double threshold = projections[projections.length / 2];
+
+    if (jitter > 0d && sample.length > 1) {
+      DoubleVector x = sample[rand.nextInt(sample.length)];
+      double farthest = 0d;
+      for (DoubleVector y : sample) {
+        farthest = Math.max(farthest, dist.measureRankDistance(x, y));
+      }
+      double delta = (rand.nextDouble() * 2d - 1d) * jitter
+          * dist.toDistance(farthest) / Math.sqrt(dimension);
+      threshold = Math.min(projections[(3 * projections.length) / 4],
+          Math.max(projections[projections.length / 4], threshold + delta));
+    }
+    return withThreshold(projection, threshold);
+  }
+
+  /**
+   * @return a strided sample of the subtree vectors with a random start.
+   */
+  private DoubleVector[] sample(List<DoubleVector> subtree, Random rand) {
+    final int size = subtree.size();
+    int sampleSize = (int) Math.ceil(size * sampleSizePercent);
+    sampleSize = Math.max(1, Math.min(MAX_SAMPLE_SIZE, sampleSize));
+    final int stride = size / sampleSize;
+    final int start = rand.nextInt(stride);
+    DoubleVector[] sample = new DoubleVector[sampleSize];
+    for (int i = 0; i < sampleSize; i++) {
+      sample[i] = subtree.get(start + i * stride);
+    }
+    return sample;
+  }
 
-    int randomDirection = rand.nextInt(v.getDimension());
-    
-    
+  /**
+   * @return the offset of a node that is added, which is its id.
+   */
+  private static <VALUE> int offset(List<TreeNode<VALUE>> treeNodes) {
+    return treeNodes == null ? 0 : treeNodes.size();
+  }
+
+  /**
+   * @return the generator of the node at the given level and offset.
+   */
+  private Random random(int level, long offset) {
+    return new Random(mix(mix(seed + level) + offset));
+  }
+
+  /**
+   * The finalizer of MurmurHash3, spreads the bits of nearby inputs over the
+   * whole seed.
+   */
+  private static long mix(long h) {
+    h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+    h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return h ^ (h >>> 33);
+  }
+
+  /**
+   * @return a hyperplane through the origin with a sparse random unit direction
+   *         as its normal.
+   */
+  private static Hyperplane projection(Random rand, int dimension) {
+    final int nonZeros = (int) Math.ceil(Math.sqrt(dimension));
+    // Floyd's algorithm draws distinct indices in time of the non-zeros
+    TIntHashSet drawn = new TIntHashSet(nonZeros);
+    for (int j = dimension - nonZeros; j < dimension; j++) {
+      if (!drawn.add(rand.nextInt(j + 1))) {
+        drawn.add(j);
+      }
+    }
+    int[] indices = drawn.toArray();
+    Arrays.sort(indices);
+
+    double[] values = new double[nonZeros];
+    double length = 0d;
+    // normally distributed components are uniformly distributed on the sphere
+    while (length < 1e-6) {
+      length = 0d;
+      for (int i = 0; i < nonZeros; i++) {
+        values[i] = rand.nextGaussian();
+        length += values[i] * values[i];
+      }
+      length = Math.sqrt(length);
+    }
+    for (int i = 0; i < nonZeros; i++) {
+      values[i] /= length;
+    }
+    return new Hyperplane(dimension, indices, values, 0d);
+  }
 
-    return randomDirection;
+  private static Hyperplane withThreshold(Hyperplane projection,
+      double threshold) {
+    return new Hyperplane(projection.getDimension(), projection.getIndices(),
+        projection.getValues(), threshold);
   }
 }
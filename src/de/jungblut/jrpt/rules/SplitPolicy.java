@@ -19,4 +19,54 @@ public interface SplitPolicy<VALUE> {
   public int splitDimension(DoubleVector v, int level,
       List<TreeNode<VALUE>> treeNodes);
 
+  /**
+   * Choose a split dimension for a whole subtree while the tree is bulk built.
+   * By default this is the dimension with the largest spread of values, which
+   * is estimated on a sample for larger subtrees.
+   * 
+   * @param subtree the non-empty list of the vectors that will form the
+   *          subtree.
+   * @param level the tree level of the root of the subtree.
+   * @return an index of the dimension between 0 and the vector dimension
+   *         (exclusive).
+   */
+  public default int splitDimension(List<DoubleVector> subtree, int level) {
+    return SpreadEstimator.largestSpreadDimension(subtree, 1024);
+  }
+
+  /**
+   * Choose an arbitrarily oriented split for the node of the given vector. If
+   * this returns null, the node splits along the axis given by
+   * {@link #splitDimension(DoubleVector, int, List)}, which is the default.
+   *
+   * @param v the vector.
+   * @param level the tree level.
+   * @param treeNodes the tree nodes that were added so far.
+   * @return the hyperplane to split on or null for an axis aligned split.
+   */
+  public default Hyperplane splitHyperplane(DoubleVector v, int level,
+      List<TreeNode<VALUE>> treeNodes) {
+    return null;
+  }
+
+  /**
+   * Choose an arbitrarily oriented split for a whole subtree while the tree is
+   * bulk built. If this returns null, the subtree root splits at the median of
+   * the dimension given by {@link #splitDimension(List, int)}, which is the
+   * default. Subtrees can be built concurrently, the level and the offset
+   * identify the subtree independent of the order.
+   *
+   * @param subtree the non-empty list of the vectors that will form the
+   *          subtree.
+   * @param level the tree level of the root of the subtree.
+   * @param offset the offset of the subtree in the range the tree is built
+   *          from. If an insert rebuilds a part of the tree, the id of the
+   *          added vector plus one is stored in the upper 32 bits.
+   * @return the hyperplane to split on or null for an axis aligned split.
+   */
+  public default Hyperplane splitHyperplane(List<DoubleVector> subtree,
+      int level, long offset) {
+    return null;
+  }
+
 }
@@ -0,0 +1,117 @@
+package de.jungblut.jrpt.rules;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.DoubleVector.DoubleVectorElement;
+
+/**
+ * Estimates the spread of values per dimension in a set of vectors. The
+ * statistics are kept in a scratch space per thread, that is only reset at the
+ * dimensions the vectors touched. So for sparse vectors an estimate costs time
+ * in the number of non-zero entries, not in the dimension.
+ */
+final class SpreadEstimator {
+
+  private static final ThreadLocal<SpreadEstimator> SCRATCH = ThreadLocal
+      .withInitial(SpreadEstimator::new);
+
+  private double[] min = new double[0];
+  private double[] max = new double[0];
+  // the number of sampled vectors that contain the dimension
+  private int[] nonZeros = new int[0];
+  // the dimensions with a non-zero count, in the order they were touched
+  private int[] touched = new int[16];
+  private int numTouched;
+
+  private SpreadEstimator() {
+  }
+
+  /**
+   * @param subtree the non-empty list of vectors.
+   * @param maxSampleSize the maximum number of vectors to look at.
+   * @return the dimension with the largest spread of values in the vectors,
+   *         the lowest one if there are multiple.
+   */
+  static int largestSpreadDimension(List<DoubleVector> subtree,
+      int maxSampleSize) {
+    return SCRATCH.get().estimate(subtree, maxSampleSize);
+  }
+
+  private int estimate(List<DoubleVector> subtree, int maxSampleSize) {
+    final int dimension = subtree.get(0).getDimension();
+    if (nonZeros.length < dimension) {
+      min = new double[dimension];
+      max = new double[dimension];
+      nonZeros = new int[dimension];
+    }
+    try {
+      return largestSpread(subtree, dimension, maxSampleSize);
+    } finally {
+      for (int i = 0; i < numTouched; i++) {
+        nonZeros[touched[i]] = 0;
+      }
+      numTouched = 0;
+    }
+  }
+
+  private int largestSpread(List<DoubleVector> subtree, int dimension,
+      int maxSampleSize) {
+    final int stride = Math.max(1, subtree.size() / maxSampleSize);
+    int samples = 0;
+    for (int i = 0; i < subtree.size(); i += stride) {
+      DoubleVector v = subtree.get(i);
+      if (v.isSparse()) {
+        Iterator<DoubleVectorElement> iterate = v.iterateNonZero();
+        while (iterate.hasNext()) {
+          DoubleVectorElement next = iterate.next();
+          update(next.getIndex(), next.getValue());
+        }
+      } else {
+        for (int d = 0; d < dimension; d++) {
+          update(d, v.get(d));
+        }
+      }
+      samples++;
+    }
+
+    // the untouched dimensions are zero in every vector, so they only win if
+    // no dimension has a spread and the first one is untouched as well
+    int best = 0;
+    double bestSpread = 0d;
+    for (int i = 0; i < numTouched; i++) {
+      final int d = touched[i];
+      double lower = min[d];
+      double upper = max[d];
+      // sparse vectors that don't contain the dimension contribute a zero
+      if (nonZeros[d] < samples) {
+        lower = Math.min(lower, 0d);
+        upper = Math.max(upper, 0d);
+      }
+      double spread = upper - lower;
+      if (spread > bestSpread || (spread == bestSpread && d < best)) {
+        bestSpread = spread;
+        best = d;
+      }
+    }
+    return best;
+  }
+
+  private void update(int index, double value) {
+    if (nonZeros[index]++ == 0) {
+      if (numTouched == touched.length) {
+        touched = Arrays.copyOf(touched, numTouched * 2);
+      }
+      touched[numTouched++] = index;
+      min[index] = value;
+      max[index] = value;
+    } else if (value < min[index]) {
+      min[index] = value;
+    } else if (value > max[index]) {
+      max[index] = value;
+    }
+  }
+
+}
@@ -0,0 +1,171 @@
+package de.jungblut.jrpt;
+
+import static de.jungblut.jrpt.CompiledANNTreeTest.randomVector;
+import static de.jungblut.jrpt.CompiledANNTreeTest.recall;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import de.jungblut.jrpt.distance.CosineDistance;
+import de.jungblut.jrpt.rules.KDTreeSplitPolicy;
+import de.jungblut.jrpt.rules.RPTreeMaxSplitPolicy;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.tuple.Tuple;
+
+public class ANNForestTest {
+
+  @Test
+  public void testExactWithUnlimitedChecks() throws Exception {
+    Random rand = new Random(0);
+    ANNForest<Integer> forest = new ANNForest<>(3, Integer.MAX_VALUE,
+        () -> new RPTreeMaxSplitPolicy<>(new Random(rand.nextLong())));
+    KDTree<Integer> tree = new KDTree<>();
+    for (int i = 0; i < 500; i++) {
+      DoubleVector v = randomVector(rand, 8);
+      forest.add(v, i);
+      tree.add(v, i);
+    }
+    assertEquals(500, forest.size());
+
+    for (int i = 0; i < 20; i++) {
+      DoubleVector query = randomVector(rand, 8);
+      CompiledANNTreeTest.assertSameResults(tree.getNearestNeighbours(query,
+          10), forest.getNearestNeighbours(query, 10));
+      CompiledANNTreeTest.assertSameResults(tree.getNearestNeighbours(query,
+          0.5d), forest.getNearestNeighbours(query, 0.5d));
+    }
+  }
+
+  @Test
+  public void testDistanceMeasurer() throws Exception {
+    Random rand = new Random(0);
+    ANNForest<Integer> forest = new ANNForest<>(3, Integer.MAX_VALUE,
+        () -> new RPTreeMaxSplitPolicy<>(new Random(rand.nextLong())),
+        CosineDistance.get());
+    ANNTree<Integer> tree = new ANNTree<>(new KDTreeSplitPolicy<>(),
+        CosineDistance.get());
+    List<Tuple<DoubleVector, Integer>> data = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      DoubleVector v = randomVector(rand, 8);
+      tree.add(v, i);
+      if (i < 250) {
+        forest.add(v, i);
+      } else {
+        data.add(new Tuple<>(v, i));
+      }
+    }
+    forest.bulkLoad(data.stream());
+    assertSame(CosineDistance.get(), forest.getDistanceMeasurer());
+
+    for (int i = 0; i < 20; i++) {
+      DoubleVector query = randomVector(rand, 8);
+      CompiledANNTreeTest.assertSameResults(tree.getNearestNeighbours(query,
+          10), forest.getNearestNeighbours(query, 10));
+      CompiledANNTreeTest.assertSameResults(tree.getNearestNeighbours(query,
+          0.01d), forest.getNearestNeighbours(query, 0.01d));
+    }
+  }
+
+  @Test
+  public void testRemove() throws Exception {
+    Random rand = new Random(0);
+    ANNForest<Integer> forest = new ANNForest<>(3, Integer.MAX_VALUE,
+        () -> new RPTreeMaxSplitPolicy<>(new Random(rand.nextLong())));
+    List<DoubleVector> vectors = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      DoubleVector v = randomVector(rand, 4);
+      vectors.add(v);
+      forest.add(v, i);
+    }
+    // the same vector twice with the same payload
+    forest.add(vectors.get(0), 0);
+    boolean[] removed = new boolean[vectors.size()];
+    assertTrue(forest.remove(vectors.get(0), 0));
+    for (int i = 0; i < vectors.size(); i += 5) {
+      assertFalse(forest.remove(vectors.get(i), -1));
+      assertTrue(forest.remove(vectors.get(i), i));
+      removed[i] = true;
+    }
+    assertFalse(forest.remove(vectors.get(0), 0));
+    assertEquals(800, forest.size());
+    assertEquals(201, forest.tombstones());
+    KDTreeTest.assertLiveVectors(forest, vectors, removed, rand);
+
+    // the 50th removal exceeds the threshold of 25% of 1001 vectors
+    for (int i = 1; i <= 50; i++) {
+      assertTrue(forest.remove(vectors.get(i * 5 - 1), i * 5 - 1));
+      removed[i * 5 - 1] = true;
+    }
+    assertEquals(0, forest.tombstones());
+    assertEquals(750, forest.size());
+    int count = 0;
+    for (DoubleVector v : forest) {
+      assertTrue(v != null);
+      count++;
+    }
+    assertEquals(750, count);
+    KDTreeTest.assertLiveVectors(forest, vectors, removed, rand);
+  }
+
+  @Test
+  public void testRecallGrowsWithTrees() throws Exception {
+    Random rand = new Random(0);
+    List<Tuple<DoubleVector, Integer>> data = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      data.add(new Tuple<>(randomVector(rand, 32), i));
+    }
+    List<DoubleVector> queries = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      queries.add(randomVector(rand, 32));
+    }
+    KDTree<Integer> exact = new KDTree<>();
+    exact.bulkLoad(data.stream());
+
+    double singleRecall = recall(forest(1, data), exact, queries, 10);
+    double forestRecall = recall(forest(10, data), exact, queries, 10);
+    assertTrue(singleRecall + " vs. " + forestRecall,
+        forestRecall > singleRecall);
+    assertTrue("recall was " + forestRecall, forestRecall > 0.3d);
+  }
+
+  @Test
+  public void testNoDuplicates() throws Exception {
+    Random rand = new Random(0);
+    ANNForest<Integer> forest = new ANNForest<>(8, 100);
+    forest.bulkLoad(IntStream.range(0, 1000).mapToObj(
+        (i) -> new Tuple<>(randomVector(rand, 4), i)));
+    assertEquals(1000, forest.size());
+
+    List<VectorDistanceTuple<Integer>> result = forest.getNearestNeighbours(
+        randomVector(rand, 4), 50);
+    assertEquals(50, result.size());
+    Set<Integer> ids = new HashSet<>();
+    for (int i = 0; i < result.size(); i++) {
+      assertTrue(ids.add(result.get(i).getValue()));
+      if (i > 0) {
+        assertTrue(result.get(i - 1).getDistance() <= result.get(i)
+            .getDistance());
+      }
+    }
+  }
+
+  private static ANNForest<Integer> forest(int numTrees,
+      List<Tuple<DoubleVector, Integer>> data) {
+    Random seeds = new Random(1);
+    ANNForest<Integer> forest = new ANNForest<>(numTrees, 50,
+        () -> new RPTreeMaxSplitPolicy<>(new Random(seeds.nextLong())));
+    forest.bulkLoad(data.stream());
+    return forest;
+  }
+
+}
@@ -0,0 +1,81 @@
+package de.jungblut.jrpt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BoundedMaxHeapTest {
+
+  @Test
+  public void testLimitedDrop() throws Exception {
+    BoundedMaxHeap heap = new BoundedMaxHeap(3);
+
+    assertTrue(heap.offer(1, 5));
+    assertTrue(heap.offer(2, 15));
+    assertTrue(heap.offer(3, 25));
+    assertTrue(heap.isFull());
+    assertEquals(25d, heap.getMaximumDistance(), 0d);
+    assertTrue(heap.offer(4, 5));
+    assertFalse(heap.offer(5, 30));
+    assertEquals(15d, heap.getMaximumDistance(), 0d);
+
+    heap.sort();
+    int[] result = new int[] { 1, 4, 2 };
+    assertEquals(result.length, heap.size());
+    for (int i = 0; i < result.length; i++) {
+      assertEquals(result[i], heap.getId(i));
+    }
+  }
+
+  @Test
+  public void testSortedTopK() throws Exception {
+    Random rand = new Random(0);
+    double[] distances = new double[1000];
+    BoundedMaxHeap heap = new BoundedMaxHeap(50);
+    for (int i = 0; i < distances.length; i++) {
+      distances[i] = rand.nextDouble();
+      heap.offer(i, distances[i]);
+    }
+    heap.sort();
+
+    double[] sorted = distances.clone();
+    Arrays.sort(sorted);
+    assertEquals(50, heap.size());
+    for (int i = 0; i < heap.size(); i++) {
+      assertEquals(sorted[i], heap.getDistance(i), 0d);
+      assertEquals(distances[heap.getId(i)], heap.getDistance(i), 0d);
+    }
+  }
+
+  @Test
+  public void testUnboundedGrowthAndReset() throws Exception {
+    BoundedMaxHeap heap = new BoundedMaxHeap(Integer.MAX_VALUE);
+    for (int i = 0; i < 100; i++) {
+      assertTrue(heap.offer(i, 100 - i));
+    }
+    assertEquals(100, heap.size());
+    assertFalse(heap.isFull());
+    assertEquals(5d, heap.bound(5d), 0d);
+    heap.sort();
+    assertEquals(99, heap.getId(0));
+
+    heap.reset(0);
+    assertTrue(heap.isEmpty());
+    assertFalse(heap.offer(1, 1d));
+    assertEquals(Double.POSITIVE_INFINITY, heap.getMaximumDistance(), 0d);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testOfferAfterSort() throws Exception {
+    BoundedMaxHeap heap = new BoundedMaxHeap(2);
+    heap.offer(1, 1d);
+    heap.sort();
+    heap.offer(2, 0d);
+  }
+
+}
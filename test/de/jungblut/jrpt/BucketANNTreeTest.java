@@ -0,0 +1,455 @@
+package de.jungblut.jrpt;
+
+import static de.jungblut.jrpt.CompiledANNTreeTest.randomVector;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import de.jungblut.jrpt.ANNTree.TreeNode;
+import de.jungblut.jrpt.BucketANNTree.Node;
+import de.jungblut.jrpt.distance.EuclidianDistance;
+import de.jungblut.jrpt.quantization.ProductQuantizer;
+import de.jungblut.jrpt.quantization.ScalarQuantizer;
+import de.jungblut.jrpt.rules.KDTreeSplitPolicy;
+import de.jungblut.jrpt.rules.RPTreeMaxSplitPolicy;
+import de.jungblut.jrpt.rules.SplitPolicy;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.dense.DenseDoubleVector;
+import de.jungblut.math.tuple.Tuple;
+
+public class BucketANNTreeTest {
+
+  @Test
+  public void testSameResultsAsKDTree() throws Exception {
+    Random rand = new Random(0);
+    BucketANNTree<Integer> tree = new BucketANNTree<>(
+        new KDTreeSplitPolicy<>(), 16);
+    KDTree<Integer> kdTree = new KDTree<>();
+    for (int i = 0; i < 3000; i++) {
+      DoubleVector v = randomVector(rand, 5);
+      tree.add(v, i);
+      kdTree.add(v, i);
+    }
+    assertEquals(3000, tree.size());
+    assertLeafSizes(tree.getRoot(), 16);
+    assertSameNeighbours(tree, kdTree, rand);
+
+    tree.balance();
+    assertLeafSizes(tree.getRoot(), 16);
+    assertSameNeighbours(tree, kdTree, rand);
+  }
+
+  @Test
+  public void testBulkLoadRandomProjections() throws Exception {
+    Random rand = new Random(0);
+    BucketANNTree<Integer> tree = new BucketANNTree<>(
+        new RPTreeMaxSplitPolicy<>(new Random(1)));
+    KDTree<Integer> kdTree = new KDTree<>();
+    List<Tuple<DoubleVector, Integer>> pairs = IntStream.range(0, 10000)
+        .mapToObj((i) -> new Tuple<>(randomVector(rand, 10), i))
+        .collect(Collectors.toList());
+    tree.bulkLoad(pairs.stream());
+    kdTree.bulkLoad(pairs.stream());
+    assertEquals(10000, tree.size());
+    assertLeafSizes(tree.getRoot(), BucketANNTree.DEFAULT_BUCKET_SIZE);
+    assertSameNeighbours(tree, kdTree, rand);
+
+    // every vector in a scanned leaf counts as a check
+    for (int i = 0; i < 20; i++) {
+      DoubleVector query = randomVector(rand, 10);
+      assertEqualResults(kdTree.getNearestNeighbours(query, 5),
+          tree.getNearestNeighbours(query, 5, Double.MAX_VALUE,
+              SearchOptions.EXACT));
+      List<VectorDistanceTuple<Integer>> result = tree.getNearestNeighbours(
+          query, 5, Double.MAX_VALUE, new SearchOptions(1, 0d));
+      assertEquals(5, result.size());
+    }
+  }
+
+  @Test
+  public void testIncrementalRandomProjections() throws Exception {
+    Random rand = new Random(0);
+    BucketANNTree<Integer> tree = new BucketANNTree<>(
+        new RPTreeMaxSplitPolicy<>(new Random(1)));
+    for (int i = 0; i < 5000; i++) {
+      tree.add(randomVector(rand, 16), i);
+    }
+    // the leaves that overflow at the same level split on their own normals
+    List<List<double[]>> normals = new ArrayList<>();
+    collectNormals(tree.getRoot(), 0, normals);
+    assertTrue(normals.size() > 4);
+    for (List<double[]> level : normals) {
+      Set<String> distinct = new HashSet<>();
+      for (double[] normal : level) {
+        distinct.add(Arrays.toString(normal));
+      }
+      assertEquals(level.size(), distinct.size());
+    }
+  }
+
+  @Test
+  public void testDuplicatesOverflow() throws Exception {
+    BucketANNTree<Integer> tree = new BucketANNTree<>(
+        new KDTreeSplitPolicy<>(), 4);
+    for (int i = 0; i < 20; i++) {
+      tree.add(new DenseDoubleVector(new double[] { 1, 2 }), i);
+    }
+    tree.add(new DenseDoubleVector(new double[] { 5, 5 }), 20);
+    List<VectorDistanceTuple<Integer>> result = tree.getNearestNeighbours(
+        new DenseDoubleVector(new double[] { 1, 2 }), 0d);
+    assertEquals(20, result.size());
+
+    tree.balance();
+    result = tree.getNearestNeighbours(
+        new DenseDoubleVector(new double[] { 1, 2 }), 0d);
+    assertEquals(20, result.size());
+    result = tree.getNearestNeighbours(
+        new DenseDoubleVector(new double[] { 5, 4 }), 1);
+    assertEquals(20, result.get(0).getValue().intValue());
+  }
+
+  @Test
+  public void testManyDuplicates() throws Exception {
+    final int[] splits = new int[1];
+    SplitPolicy<Integer> policy = new SplitPolicy<Integer>() {
+      @Override
+      public int splitDimension(DoubleVector v, int level,
+          List<TreeNode<Integer>> treeNodes) {
+        return 0;
+      }
+
+      @Override
+      public int splitDimension(List<DoubleVector> subtree, int level) {
+        splits[0]++;
+        return SplitPolicy.super.splitDimension(subtree, level);
+      }
+    };
+    BucketANNTree<Integer> tree = new BucketANNTree<>(policy, 4);
+    DoubleVector v = new DenseDoubleVector(new double[] { 1, 2 });
+    for (int i = 0; i < 5000; i++) {
+      tree.add(v, i);
+    }
+    // the leaf can't be split, so it is only tried again once it doubled
+    assertTrue("splits: " + splits[0], splits[0] <= 12);
+    assertTrue(tree.getRoot().isLeaf());
+    assertEquals(5000, tree.getNearestNeighbours(v, 0d).size());
+
+    tree.add(new DenseDoubleVector(new double[] { 5, 5 }), 5000);
+    assertEquals(5000, tree.getNearestNeighbours(
+        new DenseDoubleVector(new double[] { 5, 4 }), 1).get(0).getValue()
+        .intValue());
+  }
+
+  @Test
+  public void testRangeQuery() throws Exception {
+    Random rand = new Random(0);
+    BucketANNTree<Integer> tree = new BucketANNTree<>(
+        new KDTreeSplitPolicy<>(), 8);
+    DoubleVector lower = new DenseDoubleVector(new double[] { 0.2, 0.1, 0.3 });
+    DoubleVector upper = new DenseDoubleVector(new double[] { 0.6, 0.5, 0.9 });
+    Set<Integer> expected = new HashSet<>();
+    for (int i = 0; i < 2000; i++) {
+      DoubleVector v = randomVector(rand, 3);
+      tree.add(v, i);
+      if (KDTreeTest.inRange(lower, upper, v)) {
+        expected.add(i);
+      }
+    }
+    assertTrue(!expected.isEmpty());
+    assertEquals(expected, values(tree.rangeQuery(lower, upper)));
+    tree.balance();
+    assertEquals(expected, values(tree.rangeQuery(lower, upper)));
+  }
+
+  @Test
+  public void testFloatStorage() throws Exception {
+    Random rand = new Random(0);
+    BucketANNTree<Integer> tree = new BucketANNTree<>(
+        new KDTreeSplitPolicy<>(), 16, VectorStorage.floats());
+    List<DoubleVector> vectors = new ArrayList<>();
+    for (int i = 0; i < 3000; i++) {
+      DoubleVector v = randomVector(rand, 8);
+      vectors.add(v);
+      tree.add(v, i);
+    }
+    assertNearestNeighbours(tree, vectors, rand, 1e-6);
+    tree.balance();
+    assertNearestNeighbours(tree, vectors, rand, 1e-6);
+
+    // the vectors are restored from the floats in the order they were added
+    int id = 0;
+    for (DoubleVector v : tree) {
+      assertEquals(0d, v.subtract(vectors.get(id++)).abs().max(), 1e-6);
+    }
+    assertEquals(3000, id);
+  }
+
+  @Test
+  public void testInt8Storage() throws Exception {
+    Random rand = new Random(0);
+    List<DoubleVector> vectors = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      vectors.add(randomVector(rand, 16));
+    }
+    ScalarQuantizer quantizer = ScalarQuantizer.fit(vectors);
+    BucketANNTree<Integer> tree = new BucketANNTree<>(
+        new RPTreeMaxSplitPolicy<>(new Random(1)), 32,
+        VectorStorage.int8(quantizer));
+    tree.bulkLoad(IntStream.range(0, vectors.size()).mapToObj(
+        (i) -> new Tuple<>(vectors.get(i), i)));
+    // the distances are measured to the quantized vectors
+    double maxError = 0d;
+    for (int d = 0; d < 16; d++) {
+      maxError += quantizer.getMaxError(d) * quantizer.getMaxError(d);
+    }
+    assertNearestNeighbours(tree, vectors, rand, Math.sqrt(maxError));
+  }
+
+  @Test
+  public void testInt8StorageRerank() throws Exception {
+    Random rand = new Random(0);
+    List<DoubleVector> vectors = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      vectors.add(randomVector(rand, 16));
+    }
+    BucketANNTree<Integer> tree = new BucketANNTree<>(
+        new KDTreeSplitPolicy<>(), 32, VectorStorage.int8(
+            ScalarQuantizer.fit(vectors)).withExactRerank(4));
+    KDTree<Integer> kdTree = new KDTree<>();
+    for (int i = 0; i < vectors.size(); i++) {
+      tree.add(vectors.get(i), i);
+      kdTree.add(vectors.get(i), i);
+    }
+    int hits = 0;
+    for (int i = 0; i < 50; i++) {
+      DoubleVector query = randomVector(rand, 16);
+      Set<Integer> expected = values(kdTree.getNearestNeighbours(query, 10));
+      List<VectorDistanceTuple<Integer>> result = tree.getNearestNeighbours(
+          query, 10);
+      assertEquals(10, result.size());
+      for (VectorDistanceTuple<Integer> tuple : result) {
+        // re-ranked results are exact and contain the added vectors
+        assertTrue(tuple.getVector() == vectors.get(tuple.getValue()));
+        assertEquals(EuclidianDistance.get().measureDistance(query,
+            tuple.getVector()), tuple.getDistance(), 1e-9);
+        if (expected.contains(tuple.getValue())) {
+          hits++;
+        }
+      }
+    }
+    assertTrue("recall was " + hits / 500d, hits >= 490);
+  }
+
+  @Test
+  public void testProductQuantizedStorage() throws Exception {
+    Random rand = new Random(0);
+    List<DoubleVector> vectors = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      vectors.add(randomVector(rand, 32));
+    }
+    ProductQuantizer quantizer = ProductQuantizer.train(
+        vectors.subList(0, 2000), 8, 256, 10, new Random(1));
+    BucketANNTree<Integer> tree = new BucketANNTree<>(
+        new RPTreeMaxSplitPolicy<>(new Random(1)), 32,
+        VectorStorage.pq(quantizer).withExactRerank(10));
+    tree.bulkLoad(IntStream.range(0, vectors.size()).mapToObj(
+        (i) -> new Tuple<>(vectors.get(i), i)));
+    KDTree<Integer> kdTree = new KDTree<>();
+    kdTree.bulkLoad(IntStream.range(0, vectors.size()).mapToObj(
+        (i) -> new Tuple<>(vectors.get(i), i)));
+
+    int hits = 0;
+    for (int i = 0; i < 50; i++) {
+      DoubleVector query = randomVector(rand, 32);
+      Set<Integer> expected = values(kdTree.getNearestNeighbours(query, 10));
+      List<VectorDistanceTuple<Integer>> result = tree.getNearestNeighbours(
+          query, 10);
+      assertEquals(10, result.size());
+      for (VectorDistanceTuple<Integer> tuple : result) {
+        if (expected.contains(tuple.getValue())) {
+          hits++;
+        }
+      }
+    }
+    assertTrue("recall was " + hits / 500d, hits >= 400);
+  }
+
+  @Test
+  public void testRemove() throws Exception {
+    Random rand = new Random(0);
+    BucketANNTree<Integer> tree = new BucketANNTree<>(
+        new KDTreeSplitPolicy<>(), 8);
+    tree.setCompactionThreshold(1d);
+    List<DoubleVector> vectors = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      DoubleVector v = randomVector(rand, 3);
+      vectors.add(v);
+      tree.add(v, i);
+    }
+    boolean[] removed = new boolean[vectors.size()];
+    for (int i = 0; i < vectors.size(); i += 3) {
+      assertFalse(tree.remove(vectors.get(i), i + 1));
+      assertTrue(tree.remove(vectors.get(i), i));
+      assertFalse(tree.remove(vectors.get(i), i));
+      removed[i] = true;
+    }
+    assertEquals(1333, tree.size());
+    assertEquals(667, tree.tombstones());
+    assertEquals(1333, Lists.newArrayList(tree).size());
+    KDTreeTest.assertLiveVectors(tree, vectors, removed, rand);
+
+    assertTrue(tree.update(vectors.get(1), 1, vectors.get(0), 0));
+    removed[0] = false;
+    removed[1] = true;
+    tree.compact();
+    assertEquals(1333, tree.size());
+    assertEquals(0, tree.tombstones());
+    KDTreeTest.assertLiveVectors(tree, vectors, removed, rand);
+
+    for (int i = 0; i < vectors.size(); i++) {
+      if (!removed[i]) {
+        assertTrue(tree.remove(vectors.get(i), i));
+      }
+    }
+    assertEquals(0, tree.size());
+    tree.balance();
+    assertTrue(!tree.iterator().hasNext());
+  }
+
+  @Test
+  public void testRemoveQuantized() throws Exception {
+    Random rand = new Random(0);
+    List<DoubleVector> vectors = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      vectors.add(randomVector(rand, 16));
+    }
+    BucketANNTree<Integer> tree = new BucketANNTree<>(
+        new RPTreeMaxSplitPolicy<>(new Random(1)), 32,
+        VectorStorage.int8(ScalarQuantizer.fit(vectors)));
+    tree.bulkLoad(IntStream.range(0, vectors.size()).mapToObj(
+        (i) -> new Tuple<>(vectors.get(i), i)));
+    for (int i = 0; i < vectors.size(); i += 2) {
+      assertTrue(tree.remove(vectors.get(i), i));
+    }
+    // compacted after every fourth vector was removed
+    assertEquals(500, tree.size());
+    assertTrue(tree.tombstones() < 250);
+    for (int i = 0; i < 20; i++) {
+      for (VectorDistanceTuple<Integer> result : tree.getNearestNeighbours(
+          randomVector(rand, 16), 10)) {
+        assertEquals(1, result.getValue() % 2);
+      }
+    }
+  }
+
+  @Test
+  public void testEmpty() throws Exception {
+    BucketANNTree<Integer> tree = new BucketANNTree<>(
+        new KDTreeSplitPolicy<>());
+    assertEquals(0,
+        tree.getNearestNeighbours(
+            new DenseDoubleVector(new double[] { 0, 0 }), 1).size());
+    assertTrue(!tree.iterator().hasNext());
+  }
+
+  private static void assertSameNeighbours(BucketANNTree<Integer> tree,
+      KDTree<Integer> kdTree, Random rand) {
+    final int dimension = tree.iterator().next().getDimension();
+    for (int i = 0; i < 20; i++) {
+      DoubleVector query = randomVector(rand, dimension);
+      assertEqualResults(kdTree.getNearestNeighbours(query, 10),
+          tree.getNearestNeighbours(query, 10));
+      assertEqualResults(kdTree.getNearestNeighbours(query, 0.3d),
+          tree.getNearestNeighbours(query, 0.3d));
+    }
+  }
+
+  /**
+   * The vectors of the results are restored from the leaves, so they are
+   * compared by their components.
+   */
+  private static void assertEqualResults(
+      List<VectorDistanceTuple<Integer>> expected,
+      List<VectorDistanceTuple<Integer>> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i).getVector(), actual.get(i).getVector());
+      assertEquals(expected.get(i).getValue(), actual.get(i).getValue());
+      assertEquals(expected.get(i).getDistance(), actual.get(i).getDistance(),
+          1e-9);
+    }
+  }
+
+  /**
+   * Checks the results against a brute force search, the distances of the
+   * tree may be off by the given error.
+   */
+  private static void assertNearestNeighbours(BucketANNTree<Integer> tree,
+      List<DoubleVector> vectors, Random rand, double error) {
+    EuclidianDistance distance = EuclidianDistance.get();
+    final int dimension = vectors.get(0).getDimension();
+    for (int i = 0; i < 20; i++) {
+      DoubleVector query = randomVector(rand, dimension);
+      double[] expected = new double[vectors.size()];
+      for (int j = 0; j < expected.length; j++) {
+        expected[j] = distance.measureDistance(vectors.get(j), query);
+      }
+      Arrays.sort(expected);
+      List<VectorDistanceTuple<Integer>> result = tree.getNearestNeighbours(
+          query, 10);
+      assertEquals(10, result.size());
+      for (int j = 0; j < result.size(); j++) {
+        VectorDistanceTuple<Integer> tuple = result.get(j);
+        assertEquals(expected[j], tuple.getDistance(), 2 * error);
+        // the vector of the result is near the added vector
+        assertEquals(
+            distance.measureDistance(vectors.get(tuple.getValue()), query),
+            tuple.getDistance(), error);
+      }
+    }
+  }
+
+  private static void assertLeafSizes(Node node, int bucketSize) {
+    if (node.isLeaf()) {
+      assertTrue(node.count > 0 && node.count <= bucketSize);
+    } else {
+      assertLeafSizes(node.left, bucketSize);
+      assertLeafSizes(node.right, bucketSize);
+    }
+  }
+
+  private static void collectNormals(Node node, int level,
+      List<List<double[]>> normals) {
+    if (node.isLeaf()) {
+      return;
+    }
+    if (normals.size() == level) {
+      normals.add(new ArrayList<>());
+    }
+    normals.get(level).add(node.hyperplane.getNormal());
+    collectNormals(node.left, level + 1, normals);
+    collectNormals(node.right, level + 1, normals);
+  }
+
+  private static Set<Integer> values(List<VectorDistanceTuple<Integer>> list) {
+    Set<Integer> set = new HashSet<>();
+    for (VectorDistanceTuple<Integer> tuple : list) {
+      set.add(tuple.getValue());
+    }
+    return set;
+  }
+
+}
@@ -0,0 +1,227 @@
+package de.jungblut.jrpt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+import org.junit.Test;
+
+import de.jungblut.jrpt.distance.EuclidianDistance;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.dense.DenseDoubleVector;
+import de.jungblut.math.sparse.SparseDoubleVector;
+
+public class CompiledANNTreeTest {
+
+  @Test
+  public void testKNearestNeighbours() throws Exception {
+    KDTree<Object> tree = new KDTree<>();
+    DoubleVector[] array = new DoubleVector[] {
+        new DenseDoubleVector(new double[] { 2, 3 }),
+        new DenseDoubleVector(new double[] { 5, 4 }),
+        new DenseDoubleVector(new double[] { 9, 6 }),
+        new DenseDoubleVector(new double[] { 4, 7 }),
+        new DenseDoubleVector(new double[] { 8, 1 }),
+        new DenseDoubleVector(new double[] { 7, 2 }), };
+
+    tree.addVectorStream(Arrays.asList(array).stream());
+    CompiledANNTree<Object> compiled = tree.compile();
+    assertEquals(tree.size(), compiled.size());
+
+    List<VectorDistanceTuple<Object>> nearestNeighbours = compiled
+        .getNearestNeighbours(new DenseDoubleVector(new double[] { 0, 0 }), 1);
+    assertEquals(1, nearestNeighbours.size());
+    assertTrue(array[0] == nearestNeighbours.get(0).getVector());
+  }
+
+  @Test
+  public void testPreOrderLayout() throws Exception {
+    KDTree<Object> tree = new KDTree<>();
+    DoubleVector[] array = new DoubleVector[] {
+        new DenseDoubleVector(new double[] { 2, 3 }),
+        new DenseDoubleVector(new double[] { 5, 4 }),
+        new DenseDoubleVector(new double[] { 9, 6 }),
+        new DenseDoubleVector(new double[] { 4, 7 }),
+        new DenseDoubleVector(new double[] { 8, 1 }),
+        new DenseDoubleVector(new double[] { 7, 2 }), };
+    tree.addVectorStream(Arrays.asList(array).stream());
+
+    DoubleVector[] result = new DoubleVector[] { array[0], array[4],
+        array[5], array[1], array[3], array[2] };
+
+    int index = 0;
+    Iterator<DoubleVector> iterator = tree.compile().iterator();
+    while (iterator.hasNext()) {
+      assertTrue(result[index++] == iterator.next());
+    }
+    assertEquals(result.length, index);
+  }
+
+  @Test
+  public void testSameResultsAsTree() throws Exception {
+    Random rand = new Random(42);
+    KDTree<Integer> tree = new KDTree<>();
+    for (int i = 0; i < 500; i++) {
+      tree.add(randomVector(rand, 4), i);
+    }
+    CompiledANNTree<Integer> compiled = tree.compile();
+
+    for (int i = 0; i < 50; i++) {
+      DoubleVector query = randomVector(rand, 4);
+      assertSameResults(tree.getNearestNeighbours(query, 5),
+          compiled.getNearestNeighbours(query, 5));
+      assertSameResults(tree.getNearestNeighbours(query, 0.3d),
+          compiled.getNearestNeighbours(query, 0.3d));
+      assertSameResults(tree.getNearestNeighbours(query, 3, 0.2d),
+          compiled.getNearestNeighbours(query, 3, 0.2d));
+
+      DoubleVector other = randomVector(rand, 4);
+      DoubleVector lower = new DenseDoubleVector(4);
+      DoubleVector upper = new DenseDoubleVector(4);
+      for (int d = 0; d < 4; d++) {
+        lower.set(d, Math.min(query.get(d), other.get(d)));
+        upper.set(d, Math.max(query.get(d), other.get(d)));
+      }
+      assertSameResults(tree.rangeQuery(lower, upper),
+          compiled.rangeQuery(lower, upper));
+    }
+  }
+
+  @Test
+  public void testSparse() throws Exception {
+    KDTree<Object> tree = new KDTree<>();
+    DoubleVector[] array = new DoubleVector[] {
+        new SparseDoubleVector(new double[] { 2, 3 }),
+        new SparseDoubleVector(new double[] { 5, 4 }),
+        new SparseDoubleVector(new double[] { 9, 6 }),
+        new SparseDoubleVector(new double[] { 4, 7 }),
+        new SparseDoubleVector(new double[] { 8, 1 }),
+        new SparseDoubleVector(new double[] { 7, 2 }), };
+    tree.addVectorStream(Arrays.asList(array).stream());
+
+    List<VectorDistanceTuple<Object>> nearestNeighbours = tree.compile()
+        .getNearestNeighbours(new SparseDoubleVector(new double[] { 0, 0 }), 1);
+    assertEquals(1, nearestNeighbours.size());
+    assertTrue(array[0] == nearestNeighbours.get(0).getVector());
+  }
+
+  @Test
+  public void testEmptyTree() throws Exception {
+    CompiledANNTree<Object> compiled = new KDTree<>().compile();
+    assertEquals(0, compiled.size());
+    assertEquals(0,
+        compiled.getNearestNeighbours(
+            new DenseDoubleVector(new double[] { 0, 0 }), 1).size());
+    assertTrue(!compiled.iterator().hasNext());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTooManyCoordinates() throws Exception {
+    KDTree<Object> tree = new KDTree<>();
+    for (int i = 0; i < 3; i++) {
+      tree.add(new DenseDoubleVector(new double[] { i }), null);
+    }
+    // 3 * (2^30 - 1) coordinates overflow an int
+    CompiledANNTree.compile(tree.getRoot(), tree.size(),
+        Integer.MAX_VALUE / 2, EuclidianDistance.get());
+  }
+
+  static void assertSameResults(List<VectorDistanceTuple<Integer>> expected,
+      List<VectorDistanceTuple<Integer>> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertTrue(expected.get(i).getVector() == actual.get(i).getVector());
+      assertEquals(expected.get(i).getValue(), actual.get(i).getValue());
+      assertEquals(expected.get(i).getDistance(), actual.get(i).getDistance(),
+          1e-9);
+    }
+  }
+
+  static DoubleVector randomVector(Random rand, int dimension) {
+    return randomVector(rand, dimension, 0d, 1d);
+  }
+
+  /**
+   * @return a vector with uniform random entries in [lower, upper).
+   */
+  public static DoubleVector randomVector(Random rand, int dimension,
+      double lower, double upper) {
+    DoubleVector v = new DenseDoubleVector(dimension);
+    for (int d = 0; d < dimension; d++) {
+      v.set(d, lower + rand.nextDouble() * (upper - lower));
+    }
+    return v;
+  }
+
+  /**
+   * @return a vector with gaussian entries of the given standard deviation.
+   */
+  static DoubleVector gaussianVector(Random rand, int dimension, double scale) {
+    DoubleVector v = new DenseDoubleVector(dimension);
+    for (int d = 0; d < dimension; d++) {
+      v.set(d, rand.nextGaussian() * scale);
+    }
+    return v;
+  }
+
+  static List<DoubleVector> gaussianData(Random rand, int size,
+      int dimension) {
+    List<DoubleVector> data = new ArrayList<>();
+    for (int i = 0; i < size; i++) {
+      data.add(gaussianVector(rand, dimension, 1d));
+    }
+    return data;
+  }
+
+  /**
+   * @return the perturbed vectors of each center, grouped by center.
+   */
+  static List<DoubleVector> clusteredData(int numClusters, int clusterSize,
+      Supplier<DoubleVector> centers, UnaryOperator<DoubleVector> perturb) {
+    List<DoubleVector> data = new ArrayList<>();
+    for (int c = 0; c < numClusters; c++) {
+      DoubleVector center = centers.get();
+      for (int i = 0; i < clusterSize; i++) {
+        data.add(perturb.apply(center));
+      }
+    }
+    return data;
+  }
+
+  /**
+   * @return the fraction of the k true nearest neighbours of the queries that
+   *         the index finds, a result counts if it is not farther away than
+   *         the k-th neighbour of the exact index.
+   */
+  static double recall(ANNSearch<Integer> index, ANNSearch<Integer> exact,
+      List<DoubleVector> queries, int k) {
+    int found = 0;
+    int total = 0;
+    for (DoubleVector query : queries) {
+      List<VectorDistanceTuple<Integer>> expected = exact.getNearestNeighbours(
+          query, k);
+      if (expected.isEmpty()) {
+        continue;
+      }
+      double radius = expected.get(expected.size() - 1).getDistance() + 1e-9;
+      int hits = 0;
+      for (VectorDistanceTuple<Integer> t : index.getNearestNeighbours(query,
+          k)) {
+        if (t.getDistance() <= radius) {
+          hits++;
+        }
+      }
+      found += Math.min(hits, expected.size());
+      total += expected.size();
+    }
+    return found / (double) total;
+  }
+
+}
@@ -0,0 +1,240 @@
+package de.jungblut.jrpt;
+
+import static de.jungblut.jrpt.CompiledANNTreeTest.randomVector;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import de.jungblut.jrpt.distance.ManhattanDistance;
+import de.jungblut.jrpt.rules.KDTreeSplitPolicy;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.dense.DenseDoubleVector;
+
+public class ConcurrentANNTreeTest {
+
+  @Test
+  public void testSequentialUsage() throws Exception {
+    ConcurrentANNTree<Integer> tree = new ConcurrentANNTree<>(
+        new KDTreeSplitPolicy<>());
+    KDTree<Integer> reference = new KDTree<>();
+    Random rand = new Random(0);
+    for (int i = 0; i < 200; i++) {
+      DoubleVector v = randomVector(rand, 3);
+      tree.add(v, i);
+      reference.add(v, i);
+    }
+    assertEquals(200, tree.size());
+
+    DoubleVector query = randomVector(rand, 3);
+    List<VectorDistanceTuple<Integer>> expected = reference
+        .getNearestNeighbours(query, 10);
+    List<VectorDistanceTuple<Integer>> actual = tree.getNearestNeighbours(
+        query, 10);
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i).getValue(), actual.get(i).getValue());
+    }
+    assertEquals(200, tree.compile().size());
+  }
+
+  @Test
+  public void testSelfBalancingWithDistance() throws Exception {
+    ConcurrentANNTree<Integer> tree = new ConcurrentANNTree<>(
+        new KDTreeSplitPolicy<>(), 0.7, ManhattanDistance.get());
+    KDTree<Integer> reference = new KDTree<>(ManhattanDistance.get());
+    Random rand = new Random(0);
+    for (int i = 0; i < 200; i++) {
+      DoubleVector v = randomVector(rand, 3);
+      tree.add(v, i);
+      reference.add(v, i);
+    }
+
+    DoubleVector query = randomVector(rand, 3);
+    List<VectorDistanceTuple<Integer>> expected = reference
+        .getNearestNeighbours(query, 10);
+    List<VectorDistanceTuple<Integer>> actual = tree.getNearestNeighbours(
+        query, 10);
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i).getValue(), actual.get(i).getValue());
+      assertEquals(expected.get(i).getDistance(), actual.get(i).getDistance(),
+          1e-9);
+    }
+  }
+
+  @Test
+  public void testConcurrentReadersDuringInserts() throws Exception {
+    final int numVectors = 20000;
+    final ConcurrentANNTree<Integer> tree = new ConcurrentANNTree<>(
+        new KDTreeSplitPolicy<>());
+    final AtomicBoolean done = new AtomicBoolean(false);
+    final CountDownLatch started = new CountDownLatch(4);
+
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    List<Future<Integer>> readers = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      final long seed = t;
+      readers.add(pool.submit(() -> {
+        Random rand = new Random(seed);
+        started.countDown();
+        int queries = 0;
+        int lastSize = 0;
+        while (!done.get()) {
+          int size = tree.size();
+          // the published size never shrinks
+          assertTrue(size >= lastSize);
+          lastSize = size;
+          List<VectorDistanceTuple<Integer>> result = tree
+              .getNearestNeighbours(randomVector(rand, 3), 5);
+          // a query always sees at least the state it started on
+          assertTrue(result.size() >= Math.min(5, size));
+          for (int i = 1; i < result.size(); i++) {
+            assertTrue(result.get(i - 1).getDistance() <= result.get(i)
+                .getDistance());
+          }
+          queries++;
+        }
+        return queries;
+      }));
+    }
+
+    started.await();
+    Random rand = new Random(42);
+    for (int i = 0; i < numVectors; i++) {
+      tree.add(randomVector(rand, 3), i);
+      if (i == numVectors / 2) {
+        tree.balance();
+      }
+    }
+    done.set(true);
+
+    for (Future<Integer> reader : readers) {
+      assertTrue(reader.get() > 0);
+    }
+    pool.shutdown();
+    assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(numVectors, tree.size());
+  }
+
+  @Test
+  public void testConcurrentReadersDuringSelfBalancingInserts()
+      throws Exception {
+    final int numVectors = 20000;
+    final ConcurrentANNTree<Integer> tree = new ConcurrentANNTree<>(
+        new KDTreeSplitPolicy<>(), 0.7);
+    final AtomicBoolean done = new AtomicBoolean(false);
+    final CountDownLatch started = new CountDownLatch(4);
+
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    List<Future<Integer>> readers = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      readers.add(pool.submit(() -> {
+        started.countDown();
+        int queries = 0;
+        while (!done.get()) {
+          int before = tree.size();
+          int count = 0;
+          for (Iterator<DoubleVector> it = tree.iterator(); it.hasNext(); it
+              .next()) {
+            count++;
+          }
+          // rebuilt subtrees never hide or duplicate nodes
+          assertTrue(count >= before);
+          assertTrue(count <= tree.size());
+          queries++;
+        }
+        return queries;
+      }));
+    }
+
+    started.await();
+    for (int i = 0; i < numVectors; i++) {
+      // sorted inserts rebuild subtrees all the time
+      tree.add(new DenseDoubleVector(new double[] { i, i % 10, 0 }), i);
+    }
+    done.set(true);
+
+    for (Future<Integer> reader : readers) {
+      assertTrue(reader.get() > 0);
+    }
+    pool.shutdown();
+    assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(numVectors, tree.size());
+    assertTrue(KDTreeTest.depth(tree.getRoot()) <= (int) (Math
+        .log(numVectors) / -Math.log(0.7)) + 1);
+  }
+
+  @Test
+  public void testBackgroundCompaction() throws Exception {
+    final int numVectors = 20000;
+    final ConcurrentANNTree<Integer> tree = new ConcurrentANNTree<>(
+        new KDTreeSplitPolicy<>());
+    ExecutorService compactions = Executors.newSingleThreadExecutor();
+    tree.setCompactionExecutor(compactions);
+    Random rand = new Random(42);
+    List<DoubleVector> vectors = new ArrayList<>();
+    for (int i = 0; i < numVectors; i++) {
+      vectors.add(randomVector(rand, 3));
+      tree.add(vectors.get(i), i);
+    }
+
+    final AtomicBoolean done = new AtomicBoolean(false);
+    final CountDownLatch started = new CountDownLatch(4);
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    List<Future<Integer>> readers = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      final long seed = t;
+      readers.add(pool.submit(() -> {
+        Random r = new Random(seed);
+        started.countDown();
+        int queries = 0;
+        int lastSize = numVectors;
+        while (!done.get()) {
+          int size = tree.size();
+          // removals and compactions never bring vectors back
+          assertTrue(size <= lastSize);
+          lastSize = size;
+          List<VectorDistanceTuple<Integer>> result = tree
+              .getNearestNeighbours(randomVector(r, 3), 5);
+          assertEquals(5, result.size());
+          queries++;
+        }
+        return queries;
+      }));
+    }
+
+    started.await();
+    for (int i = 0; i < numVectors; i += 2) {
+      assertTrue(tree.remove(vectors.get(i), i));
+    }
+    done.set(true);
+    for (Future<Integer> reader : readers) {
+      assertTrue(reader.get() > 0);
+    }
+    pool.shutdown();
+    compactions.shutdown();
+    assertTrue(compactions.awaitTermination(10, TimeUnit.SECONDS));
+
+    assertEquals(numVectors / 2, tree.size());
+    // compacted at least once in the background
+    assertTrue(tree.tombstones() < numVectors / 4);
+    boolean[] removed = new boolean[numVectors];
+    for (int i = 0; i < numVectors; i += 2) {
+      removed[i] = true;
+    }
+    KDTreeTest.assertLiveVectors(tree, vectors, removed, rand);
+  }
+
+}
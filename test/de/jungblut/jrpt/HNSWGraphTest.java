@@ -0,0 +1,248 @@
+package de.jungblut.jrpt;
+
+import static de.jungblut.jrpt.CompiledANNTreeTest.gaussianData;
+import static de.jungblut.jrpt.CompiledANNTreeTest.randomVector;
+import static de.jungblut.jrpt.CompiledANNTreeTest.recall;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import de.jungblut.jrpt.distance.DistanceMeasurer;
+import de.jungblut.jrpt.distance.DistanceMeasurerTest;
+import de.jungblut.jrpt.distance.EuclidianDistance;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.tuple.Tuple;
+
+public class HNSWGraphTest {
+
+  @Test
+  public void testRecall() throws Exception {
+    Random rand = new Random(0);
+    List<DoubleVector> data = gaussianData(rand, 5000, 32);
+    HNSWGraph<Integer> graph = new HNSWGraph<>(16, 100, 100,
+        EuclidianDistance.get(), new Random(1));
+    KDTree<Integer> exact = new KDTree<>();
+    for (int i = 0; i < data.size(); i++) {
+      graph.add(data.get(i), i);
+      exact.add(data.get(i), i);
+    }
+    assertEquals(data.size(), graph.size());
+
+    List<DoubleVector> queries = gaussianData(rand, 50, 32);
+    double recall = recall(graph, exact, queries, 10);
+    assertTrue("recall was " + recall, recall > 0.95d);
+
+    // a lower efSearch finds less of the true neighbours
+    graph.setEfSearch(10);
+    double lowRecall = recall(graph, exact, queries, 10);
+    assertTrue(lowRecall + " vs. " + recall, lowRecall < recall);
+  }
+
+  @Test
+  public void testDistanceMeasurers() throws Exception {
+    Random rand = new Random(0);
+    for (DistanceMeasurer distance : DistanceMeasurerTest.MEASURERS) {
+      HNSWGraph<Integer> graph = new HNSWGraph<>(8, 100, 50, distance,
+          new Random(1));
+      KDTree<Integer> exact = new KDTree<>(distance);
+      for (int i = 0; i < 500; i++) {
+        DoubleVector v = randomVector(rand, 4);
+        graph.add(v, i);
+        exact.add(v, i);
+      }
+      List<DoubleVector> queries = new ArrayList<>();
+      for (int i = 0; i < 20; i++) {
+        queries.add(randomVector(rand, 4));
+      }
+      double recall = recall(graph, exact, queries, 10);
+      assertTrue(distance + " recall was " + recall, recall > 0.9d);
+    }
+  }
+
+  @Test
+  public void testRadius() throws Exception {
+    Random rand = new Random(0);
+    HNSWGraph<Integer> graph = new HNSWGraph<>(8, 100, 20,
+        EuclidianDistance.get(), new Random(1));
+    KDTree<Integer> exact = new KDTree<>();
+    for (int i = 0; i < 2000; i++) {
+      DoubleVector v = randomVector(rand, 3);
+      graph.add(v, i);
+      exact.add(v, i);
+    }
+    for (int i = 0; i < 20; i++) {
+      DoubleVector query = randomVector(rand, 3);
+      // more vectors than efSearch are within the radius
+      List<VectorDistanceTuple<Integer>> expected = exact.getNearestNeighbours(
+          query, 0.2d);
+      List<VectorDistanceTuple<Integer>> result = graph.getNearestNeighbours(
+          query, 0.2d);
+      assertTrue(result.size() + " vs. " + expected.size(),
+          result.size() >= 0.9d * expected.size());
+      for (int j = 0; j < result.size(); j++) {
+        assertTrue(result.get(j).getDistance() <= 0.2d);
+        if (j > 0) {
+          assertTrue(result.get(j - 1).getDistance() <= result.get(j)
+              .getDistance());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testConcurrentInserts() throws Exception {
+    Random rand = new Random(0);
+    final List<DoubleVector> data = gaussianData(rand, 4000, 16);
+    final HNSWGraph<Integer> graph = new HNSWGraph<>(12, 100, 50,
+        EuclidianDistance.get(), new Random(1));
+    final int numThreads = 4;
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads + 1);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < numThreads; t++) {
+      final int offset = t;
+      futures.add(executor.submit(() -> {
+        for (int i = offset; i < data.size(); i += numThreads) {
+          graph.add(data.get(i), i);
+        }
+      }));
+    }
+    // searches run while the graph grows
+    futures.add(executor.submit(() -> {
+      while (graph.size() < data.size()) {
+        for (VectorDistanceTuple<Integer> tuple : graph.getNearestNeighbours(
+            data.get(0), 5)) {
+          assertTrue(tuple.getValue() >= 0);
+        }
+      }
+    }));
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+    assertEquals(data.size(), graph.size());
+
+    int found = 0;
+    for (int i = 0; i < data.size(); i += 10) {
+      List<VectorDistanceTuple<Integer>> result = graph.getNearestNeighbours(
+          data.get(i), 1);
+      if (result.get(0).getValue() == i) {
+        found++;
+      }
+    }
+    assertTrue("found " + found, found >= 0.98d * data.size() / 10);
+  }
+
+  @Test
+  public void testParallelAddStream() throws Exception {
+    Random rand = new Random(0);
+    List<Tuple<DoubleVector, Integer>> pairs = new ArrayList<>();
+    for (int i = 0; i < 3000; i++) {
+      pairs.add(new Tuple<>(randomVector(rand, 8), i));
+    }
+    HNSWGraph<Integer> graph = new HNSWGraph<>(8, 50, 20);
+    graph.addStream(pairs.parallelStream());
+    assertEquals(pairs.size(), graph.size());
+    int count = 0;
+    for (DoubleVector v : graph) {
+      assertEquals(8, v.getDimension());
+      count++;
+    }
+    assertEquals(pairs.size(), count);
+  }
+
+  @Test
+  public void testRemove() throws Exception {
+    Random rand = new Random(0);
+    List<DoubleVector> data = gaussianData(rand, 2000, 8);
+    HNSWGraph<Integer> graph = new HNSWGraph<>(8, 50, 20,
+        EuclidianDistance.get(), new Random(1));
+    for (int i = 0; i < data.size(); i++) {
+      graph.add(data.get(i), i);
+    }
+    // the same vector with another payload
+    graph.add(data.get(0), -1);
+    assertFalse(graph.remove(data.get(0), 1));
+    assertTrue(graph.remove(data.get(0), 0));
+    assertFalse(graph.remove(data.get(0), 0));
+    assertEquals(data.size(), graph.size());
+    assertEquals(1, graph.tombstones());
+    List<VectorDistanceTuple<Integer>> result = graph.getNearestNeighbours(
+        data.get(0), 1);
+    assertEquals(-1, result.get(0).getValue().intValue());
+    assertEquals(0d, result.get(0).getDistance(), 0d);
+
+    // removing more than the threshold compacts the graph
+    for (int i = 1; i < data.size(); i += 3) {
+      assertTrue(graph.remove(data.get(i), i));
+    }
+    assertTrue(graph.tombstones() < 0.25d * data.size());
+    int found = 0;
+    for (int i = 0; i < data.size(); i++) {
+      result = graph.getNearestNeighbours(data.get(i), 1);
+      if (i % 3 == 1 || i == 0) {
+        assertTrue(result.get(0).getValue() != i);
+      } else if (result.get(0).getValue() == i) {
+        found++;
+      }
+    }
+    assertTrue("found " + found, found >= 0.98d * data.size() * 2 / 3);
+
+    // the compaction keeps the order the vectors were added in
+    Iterator<DoubleVector> iterator = graph.iterator();
+    for (int i = 2; i < data.size(); i++) {
+      if (i % 3 != 1) {
+        assertEquals(data.get(i), iterator.next());
+      }
+    }
+    assertEquals(data.get(0), iterator.next());
+    assertFalse(iterator.hasNext());
+  }
+
+  @Test
+  public void testRemoveDuplicates() throws Exception {
+    // the searches can't tell duplicates apart, the removals find them anyway
+    Random rand = new Random(0);
+    DoubleVector duplicate = randomVector(rand, 4);
+    HNSWGraph<Integer> graph = new HNSWGraph<>(4, 8, 8,
+        EuclidianDistance.get(), new Random(1));
+    graph.setCompactionThreshold(1d);
+    for (int i = 0; i < 500; i++) {
+      graph.add(duplicate, i);
+      graph.add(randomVector(rand, 4), -1);
+    }
+    for (int i = 499; i >= 0; i -= 2) {
+      assertTrue(graph.remove(duplicate.deepCopy(), i));
+    }
+    assertFalse(graph.remove(duplicate, 499));
+    assertEquals(250, graph.tombstones());
+    graph.compact();
+    assertEquals(0, graph.tombstones());
+    for (int i = 0; i < 500; i += 2) {
+      assertTrue(graph.remove(duplicate, i));
+    }
+    assertFalse(graph.remove(duplicate, -1));
+    assertEquals(500, graph.size());
+  }
+
+  @Test
+  public void testEmptyGraph() throws Exception {
+    HNSWGraph<Integer> graph = new HNSWGraph<>();
+    assertTrue(graph.getNearestNeighbours(randomVector(new Random(0), 2), 5)
+        .isEmpty());
+    assertFalse(graph.remove(randomVector(new Random(0), 2), 1));
+    assertEquals(0, graph.size());
+  }
+
+}
@@ -1,19 +1,29 @@
 package de.jungblut.jrpt;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.junit.Test;
 
+import de.jungblut.jrpt.distance.DistanceMeasurer;
+import de.jungblut.jrpt.distance.DistanceMeasurerTest;
 import de.jungblut.jrpt.distance.EuclidianDistance;
+import de.jungblut.jrpt.distance.SparseEntriesTest;
 import de.jungblut.math.DoubleVector;
 import de.jungblut.math.dense.DenseDoubleVector;
 import de.jungblut.math.sparse.SparseDoubleVector;
+import de.jungblut.math.tuple.Tuple;
 
 public class KDTreeTest {
 
@@ -33,10 +43,10 @@ public class KDTreeTest {
         new DenseDoubleVector(new double[] { 4 }),
         new DenseDoubleVector(new double[] { 2 }),
         new DenseDoubleVector(new double[] { 6 }),
+        new DenseDoubleVector(new double[] { 1 }),
         new DenseDoubleVector(new double[] { 3 }),
         new DenseDoubleVector(new double[] { 5 }),
-        new DenseDoubleVector(new double[] { 7 }),
-        new DenseDoubleVector(new double[] { 1 }), };
+        new DenseDoubleVector(new double[] { 7 }), };
 
     tree.addVectorStream(Arrays.asList(array).stream());
 
@@ -46,6 +56,157 @@ public class KDTreeTest {
     for (DoubleVector v : tree) {
       assertEquals(bfsResult[index++], v);
     }
+    assertEquals(bfsResult.length, index);
+  }
+
+  @Test
+  public void testBalanceDepth() throws Exception {
+    // sorted inserts degenerate the tree to a list
+    int n = 20000;
+    KDTree<Integer> tree = new KDTree<>();
+    List<DoubleVector> vectors = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      DoubleVector v = new DenseDoubleVector(new double[] { i, i % 100,
+          (i * 31) % 7 });
+      vectors.add(v);
+    }
+    for (int i = 0; i < 1000; i++) {
+      tree.add(vectors.get(i), i);
+    }
+    assertTrue(depth(tree.getRoot()) > 100);
+
+    tree.bulkLoad(vectors.subList(1000, n).stream()
+        .map((v) -> new Tuple<>(v, (int) v.get(0))));
+    assertEquals(n, tree.size());
+    int count = 0;
+    for (Iterator<DoubleVector> it = tree.iterator(); it.hasNext(); it.next()) {
+      count++;
+    }
+    assertEquals(n, count);
+    int maxDepth = 32 - Integer.numberOfLeadingZeros(n);
+    assertTrue(depth(tree.getRoot()) <= maxDepth);
+
+    for (int i = 0; i < n; i += 997) {
+      List<VectorDistanceTuple<Integer>> nearestNeighbours = tree
+          .getNearestNeighbours(vectors.get(i), 1);
+      assertEquals(i, nearestNeighbours.get(0).getValue().intValue());
+      assertEquals(0d, nearestNeighbours.get(0).getDistance(), 0d);
+    }
+  }
+
+  @Test
+  public void testSelfBalancingInserts() throws Exception {
+    int n = 20000;
+    KDTree<Integer> tree = new KDTree<>(0.7);
+    List<DoubleVector> vectors = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      DoubleVector v = new DenseDoubleVector(new double[] { i, i % 100,
+          (i * 31) % 7 });
+      vectors.add(v);
+      tree.add(v, i);
+      if (i % 1000 == 999) {
+        int maxDepth = (int) (Math.log(i + 1) / -Math.log(0.7)) + 1;
+        assertTrue(depth(tree.getRoot()) <= maxDepth);
+      }
+    }
+    assertEquals(n, tree.size());
+    int count = 0;
+    for (Iterator<DoubleVector> it = tree.iterator(); it.hasNext(); it.next()) {
+      count++;
+    }
+    assertEquals(n, count);
+
+    for (int i = 0; i < n; i += 997) {
+      List<VectorDistanceTuple<Integer>> nearestNeighbours = tree
+          .getNearestNeighbours(vectors.get(i), 1);
+      assertEquals(i, nearestNeighbours.get(0).getValue().intValue());
+      assertEquals(0d, nearestNeighbours.get(0).getDistance(), 0d);
+    }
+    assertRangeQueries(tree, vectors, new Random(0));
+  }
+
+  @Test
+  public void testSelfBalancingDuplicates() throws Exception {
+    int n = 50000;
+    KDTree<Integer> tree = new KDTree<>(0.7);
+    DoubleVector origin = new DenseDoubleVector(new double[] { 0, 0 });
+    for (int i = 0; i < n; i++) {
+      tree.add(i % 2 == 0 ? origin : new DenseDoubleVector(new double[] { i,
+          0 }), i);
+    }
+    // rebuilds divide the duplicates between both sides of their splits
+    int maxDepth = (int) (Math.log(n) / -Math.log(0.7)) + 1;
+    assertTrue(depth(tree.getRoot()) <= maxDepth);
+    assertEquals(n / 2, tree.getNearestNeighbours(origin, 0d).size());
+    assertTrue(tree.remove(origin, 4242));
+    assertEquals(n / 2 - 1, tree.getNearestNeighbours(origin, 0d).size());
+  }
+
+  @Test
+  public void testBalanceDuplicates() throws Exception {
+    KDTree<Integer> tree = new KDTree<>();
+    for (int i = 0; i < 100; i++) {
+      tree.add(new DenseDoubleVector(new double[] { i % 3, 1 }), i);
+    }
+    tree.balance();
+    // everything lower or equal goes left, higher or equal right
+    Iterator<ANNTree.TreeNode<Integer>> nodes = tree.iterateNodes();
+    while (nodes.hasNext()) {
+      ANNTree.TreeNode<Integer> node = nodes.next();
+      assertSubtree(node.left, node.splitDimension, node.splitValue(), true);
+      assertSubtree(node.right, node.splitDimension, node.splitValue(), false);
+    }
+    assertEquals(34, tree.getNearestNeighbours(
+        new DenseDoubleVector(new double[] { 0, 1 }), 0d).size());
+  }
+
+  @Test
+  public void testBalanceHeavyDuplicates() throws Exception {
+    final int n = 20000;
+    KDTree<Integer> tree = new KDTree<>();
+    for (int i = 0; i < n; i++) {
+      tree.add(new DenseDoubleVector(new double[] { i < n / 2 ? 0 : i, 0 }),
+          i);
+    }
+    tree.balance();
+    // the median of every range is its middle, no matter how many duplicates
+    assertTrue(depth(tree.getRoot()) <= 32 - Integer.numberOfLeadingZeros(n));
+
+    DoubleVector origin = new DenseDoubleVector(new double[] { 0, 0 });
+    List<VectorDistanceTuple<Integer>> neighbours = tree.getNearestNeighbours(
+        origin, 5);
+    assertEquals(5, neighbours.size());
+    for (VectorDistanceTuple<Integer> neighbour : neighbours) {
+      assertEquals(0d, neighbour.getDistance(), 1e-9);
+    }
+    assertEquals(n / 2, tree.getNearestNeighbours(origin, 0d).size());
+    assertEquals(n / 2, tree.rangeQuery(
+        new DenseDoubleVector(new double[] { -1, -1 }),
+        new DenseDoubleVector(new double[] { 0.5, 1 })).size());
+
+    // the duplicates are on both sides of the splits, every one is found
+    for (int i = 0; i < n / 2; i += 97) {
+      assertTrue(tree.remove(origin, i));
+      assertFalse(tree.remove(origin, i));
+    }
+    assertEquals(n / 2 - 104, tree.getNearestNeighbours(origin, 0d).size());
+  }
+
+  private static void assertSubtree(ANNTree.TreeNode<Integer> node, int dim,
+      double split, boolean lower) {
+    if (node != null) {
+      double value = node.keyVector.get(dim);
+      assertTrue(lower ? value <= split : value >= split);
+      assertSubtree(node.left, dim, split, lower);
+      assertSubtree(node.right, dim, split, lower);
+    }
+  }
+
+  static int depth(ANNTree.TreeNode<?> node) {
+    if (node == null) {
+      return 0;
+    }
+    return 1 + Math.max(depth(node.left), depth(node.right));
   }
 
   @Test
@@ -80,6 +241,195 @@ public class KDTreeTest {
 
   }
 
+  @Test
+  public void testKNearestNeighboursBruteForce() throws Exception {
+    Random rand = new Random(1337);
+    KDTree<Integer> tree = new KDTree<>();
+    List<DoubleVector> vectors = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      DoubleVector v = new DenseDoubleVector(new double[] { rand.nextDouble(),
+          rand.nextDouble(), rand.nextDouble() });
+      vectors.add(v);
+      tree.add(v, i);
+    }
+
+    EuclidianDistance dist = EuclidianDistance.get();
+    for (int i = 0; i < 100; i++) {
+      DoubleVector query = new DenseDoubleVector(new double[] {
+          rand.nextDouble(), rand.nextDouble(), rand.nextDouble() });
+      List<Double> expected = new ArrayList<>();
+      for (DoubleVector v : vectors) {
+        expected.add(dist.measureDistance(v, query));
+      }
+      Collections.sort(expected);
+
+      // results are returned in ascending distance order
+      List<VectorDistanceTuple<Integer>> nearestNeighbours = tree
+          .getNearestNeighbours(query, 10);
+      assertEquals(10, nearestNeighbours.size());
+      for (int n = 0; n < 10; n++) {
+        assertEquals(expected.get(n), nearestNeighbours.get(n).getDistance(),
+            1e-9);
+      }
+
+      double radius = expected.get(25);
+      assertEquals(26, tree.getNearestNeighbours(query, radius).size());
+    }
+  }
+
+  @Test
+  public void testDistanceMeasurers() throws Exception {
+    Random rand = new Random(0);
+    for (DistanceMeasurer distance : DistanceMeasurerTest.MEASURERS) {
+      KDTree<Integer> tree = new KDTree<>(distance);
+      List<DoubleVector> vectors = new ArrayList<>();
+      for (int i = 0; i < 500; i++) {
+        DoubleVector v = CompiledANNTreeTest.randomVector(rand, 3);
+        vectors.add(v);
+        tree.add(v, i);
+      }
+      assertNearestNeighbours(tree, vectors, distance, rand);
+      tree.balance();
+      assertNearestNeighbours(tree, vectors, distance, rand);
+    }
+  }
+
+  @Test
+  public void testSparseBruteForce() throws Exception {
+    Random rand = new Random(0);
+    for (DistanceMeasurer distance : DistanceMeasurerTest.MEASURERS) {
+      KDTree<Integer> tree = new KDTree<>(distance);
+      List<DoubleVector> vectors = new ArrayList<>();
+      for (int i = 0; i < 500; i++) {
+        DoubleVector v = SparseEntriesTest.randomSparseVector(rand, 40, 4);
+        if (v.getLength() > 0) {
+          vectors.add(v);
+          tree.add(v, i);
+        }
+      }
+      assertSparseNearestNeighbours(tree, vectors, distance, rand);
+      tree.balance();
+      assertSparseNearestNeighbours(tree, vectors, distance, rand);
+    }
+  }
+
+  /**
+   * Same as the brute force comparison below, but with sparse queries.
+   */
+  static void assertSparseNearestNeighbours(ANNTree<Integer> tree,
+      List<DoubleVector> vectors, DistanceMeasurer distance, Random rand) {
+    final int dimension = vectors.get(0).getDimension();
+    for (int i = 0; i < 20; i++) {
+      DoubleVector query = SparseEntriesTest.randomSparseVector(rand,
+          dimension, 4);
+      query.set(rand.nextInt(dimension), 1d);
+      DoubleVector normalized = distance.normalize(query);
+      double[] expected = vectors.stream()
+          .mapToDouble((v) -> distance.measureDistance(distance.normalize(v)
+              .toArray(), normalized.toArray())).sorted().toArray();
+      for (List<VectorDistanceTuple<Integer>> result : Arrays.asList(tree
+          .getNearestNeighbours(query, 10), tree.getNearestNeighbours(query,
+          10, Double.MAX_VALUE, SearchOptions.EXACT))) {
+        assertEquals(10, result.size());
+        for (int j = 0; j < result.size(); j++) {
+          assertEquals(expected[j], result.get(j).getDistance(), 1e-9);
+        }
+      }
+    }
+  }
+
+  /**
+   * Compares the k nearest neighbours of the tree, its best bin first search
+   * and its compiled form to a brute force search with the given measurer.
+   */
+  static void assertNearestNeighbours(ANNTree<Integer> tree,
+      List<DoubleVector> vectors, DistanceMeasurer distance, Random rand) {
+    CompiledANNTree<Integer> compiled = tree.compile();
+    final int dimension = vectors.get(0).getDimension();
+    for (int i = 0; i < 20; i++) {
+      DoubleVector query = CompiledANNTreeTest.randomVector(rand, dimension);
+      DoubleVector normalized = distance.normalize(query);
+      double[] expected = vectors.stream()
+          .mapToDouble((v) -> distance.measureDistance(distance.normalize(v),
+              normalized)).sorted().toArray();
+      for (List<VectorDistanceTuple<Integer>> result : Arrays.asList(tree
+          .getNearestNeighbours(query, 10), tree.getNearestNeighbours(query,
+          10, Double.MAX_VALUE, SearchOptions.EXACT), compiled
+          .getNearestNeighbours(query, 10))) {
+        assertEquals(10, result.size());
+        for (int j = 0; j < result.size(); j++) {
+          assertEquals(expected[j], result.get(j).getDistance(), 1e-9);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testHighDimensionalSparseBulkLoad() throws Exception {
+    // the splits only look at the non-zero dimensions of their subtrees, a
+    // build that scans all dimensions per split takes minutes here
+    Random rand = new Random(0);
+    int n = 20000;
+    int dimension = 1 << 20;
+    List<Tuple<DoubleVector, Object>> pairs = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      DoubleVector v = SparseEntriesTest.randomSparseVector(rand, dimension,
+          30);
+      pairs.add(new Tuple<>(v, i));
+    }
+    KDTree<Object> tree = new KDTree<>();
+    tree.bulkLoad(pairs.stream());
+    assertEquals(n, tree.size());
+    assertEquals(32 - Integer.numberOfLeadingZeros(n), depth(tree.getRoot()));
+    for (int i = 0; i < n; i += 997) {
+      List<VectorDistanceTuple<Object>> result = tree.getNearestNeighbours(
+          pairs.get(i).getFirst(), 0d);
+      assertEquals(1, result.size());
+      assertEquals(i, result.get(0).getValue());
+    }
+  }
+
+  @Test
+  public void testBatchNearestNeighbours() throws Exception {
+    Random rand = new Random(42);
+    KDTree<Integer> tree = new KDTree<>();
+    for (int i = 0; i < 1000; i++) {
+      tree.add(new DenseDoubleVector(new double[] { rand.nextDouble(),
+          rand.nextDouble() }), i);
+    }
+    List<DoubleVector> queries = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      queries.add(new DenseDoubleVector(new double[] { rand.nextDouble(),
+          rand.nextDouble() }));
+    }
+
+    List<List<VectorDistanceTuple<Integer>>> batch = tree.getNearestNeighbours(
+        queries, 5);
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    List<List<VectorDistanceTuple<Integer>>> radiusBatch = tree
+        .getNearestNeighbours(queries, Integer.MAX_VALUE, 0.1, executor);
+    executor.shutdown();
+
+    assertEquals(queries.size(), batch.size());
+    assertEquals(queries.size(), radiusBatch.size());
+    for (int i = 0; i < queries.size(); i++) {
+      assertSameValues(tree.getNearestNeighbours(queries.get(i), 5),
+          batch.get(i));
+      assertSameValues(tree.getNearestNeighbours(queries.get(i), 0.1),
+          radiusBatch.get(i));
+    }
+    assertEquals(0, tree.getNearestNeighbours(new ArrayList<>(), 5).size());
+  }
+
+  private static void assertSameValues(
+      List<VectorDistanceTuple<Integer>> expected,
+      List<VectorDistanceTuple<Integer>> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i).getValue(), actual.get(i).getValue());
+    }
+  }
+
   @Test
   public void testInsert() throws Exception {
     KDTree<Object> tree = new KDTree<>();
@@ -168,16 +518,222 @@ public class KDTreeTest {
   }
 
   @Test
-  public void testStrictHigherLower() throws Exception {
-    DenseDoubleVector lower = new DenseDoubleVector(new double[] { 2 });
-    DenseDoubleVector current = new DenseDoubleVector(new double[] { 5 });
-    DenseDoubleVector upper = new DenseDoubleVector(new double[] { 10 });
+  public void testRangeQueryBruteForce() throws Exception {
+    Random rand = new Random(0);
+    KDTree<Integer> tree = new KDTree<>();
+    List<DoubleVector> vectors = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      DoubleVector v = CompiledANNTreeTest.randomVector(rand, 3);
+      vectors.add(v);
+      tree.add(v, i);
+    }
+    assertRangeQueries(tree, vectors, rand);
+    tree.balance();
+    assertRangeQueries(tree, vectors, rand);
+    assertRangeQueries(tree.compile(), vectors, rand);
+  }
 
-    assertTrue(KDTree.strictHigher(lower, current));
-    assertTrue(KDTree.strictHigher(current, upper));
-    assertTrue(KDTree.strictLower(upper, current));
-    assertTrue(KDTree.strictLower(current, lower));
+  @Test
+  public void testRangeStream() throws Exception {
+    KDTree<Integer> tree = new KDTree<>();
+    for (int i = 1; i <= 100; i++) {
+      tree.add(new DenseDoubleVector(new double[] { i }), i);
+    }
+    DoubleVector lower = new DenseDoubleVector(new double[] { 10 });
+    DoubleVector upper = new DenseDoubleVector(new double[] { 50 });
+    assertEquals(41, tree.rangeStream(lower, upper).count());
+    assertEquals(5, tree.rangeStream(lower, upper).limit(5).count());
+    assertTrue(tree.rangeStream(lower, upper).allMatch(
+        (t) -> t.getValue() >= 10 && t.getValue() <= 50));
+
+    Iterator<VectorDistanceTuple<Integer>> iterator = tree.rangeIterator(
+        new DenseDoubleVector(new double[] { 101 }), new DenseDoubleVector(
+            new double[] { 200 }));
+    assertTrue(!iterator.hasNext());
+  }
+
+  @Test
+  public void testRemove() throws Exception {
+    Random rand = new Random(0);
+    KDTree<Integer> tree = new KDTree<>();
+    tree.setCompactionThreshold(1d);
+    List<DoubleVector> vectors = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      DoubleVector v = CompiledANNTreeTest.randomVector(rand, 3);
+      vectors.add(v);
+      tree.add(v, i);
+    }
+    boolean[] removed = new boolean[vectors.size()];
+    for (int i = 0; i < vectors.size(); i += 3) {
+      assertFalse(tree.remove(vectors.get(i), i + 1));
+      assertTrue(tree.remove(vectors.get(i), i));
+      assertFalse(tree.remove(vectors.get(i), i));
+      removed[i] = true;
+    }
+    assertEquals(1333, tree.size());
+    assertEquals(667, tree.tombstones());
+    int count = 0;
+    for (Iterator<DoubleVector> it = tree.iterator(); it.hasNext(); it.next()) {
+      count++;
+    }
+    assertEquals(1333, count);
+    assertLiveVectors(tree, vectors, removed, rand);
+    assertLiveVectors(tree.compile(), vectors, removed, rand);
+
+    tree.compact();
+    assertEquals(1333, tree.size());
+    assertEquals(0, tree.tombstones());
+    assertLiveVectors(tree, vectors, removed, rand);
+    assertTrue(tree.remove(vectors.get(1), 1));
+    removed[1] = true;
+    assertLiveVectors(tree, vectors, removed, rand);
+  }
+
+  @Test
+  public void testRemoveCompactsAutomatically() throws Exception {
+    KDTree<Integer> tree = new KDTree<>();
+    for (int i = 0; i < 100; i++) {
+      tree.add(new DenseDoubleVector(new double[] { i % 10, i }), i);
+    }
+    for (int i = 0; i < 25; i++) {
+      // a sparse vector equals the dense one
+      SparseDoubleVector v = new SparseDoubleVector(2);
+      v.set(0, i % 10);
+      v.set(1, i);
+      assertTrue(tree.remove(v, i));
+    }
+    assertEquals(75, tree.size());
+    assertEquals(25, tree.tombstones());
+    // the 26th removal exceeds the threshold of 25%
+    assertTrue(tree.remove(new DenseDoubleVector(new double[] { 5, 25 }), 25));
+    assertEquals(74, tree.size());
+    assertEquals(0, tree.tombstones());
+    List<VectorDistanceTuple<Integer>> result = tree.getNearestNeighbours(
+        new DenseDoubleVector(new double[] { 0, 0 }), 1);
+    assertEquals(26, result.get(0).getValue().intValue());
+  }
+
+  @Test
+  public void testUpdate() throws Exception {
+    KDTree<Integer> tree = new KDTree<>();
+    for (int i = 0; i < 100; i++) {
+      tree.add(new DenseDoubleVector(new double[] { i, i }), i);
+    }
+    DoubleVector target = new DenseDoubleVector(new double[] { 500, 500 });
+    assertFalse(tree.update(new DenseDoubleVector(new double[] { 5, 5 }), 6,
+        target, 5));
+    assertTrue(tree.update(new DenseDoubleVector(new double[] { 5, 5 }), 5,
+        target, 5));
+    assertEquals(100, tree.size());
+    List<VectorDistanceTuple<Integer>> result = tree.getNearestNeighbours(
+        new DenseDoubleVector(new double[] { 5, 5 }), 1);
+    assertTrue(result.get(0).getValue() != 5);
+    result = tree.getNearestNeighbours(target, 1);
+    assertEquals(5, result.get(0).getValue().intValue());
+    assertEquals(0d, result.get(0).getDistance(), 0d);
+  }
+
+  /**
+   * Asserts that nearest neighbour and range queries find exactly the vectors
+   * that are not removed, the payload of a vector is its index.
+   */
+  static void assertLiveVectors(ANNSearch<Integer> tree,
+      List<DoubleVector> vectors, boolean[] removed, Random rand) {
+    EuclidianDistance distance = EuclidianDistance.get();
+    final int dimension = vectors.get(0).getDimension();
+    List<Integer> live = new ArrayList<>();
+    for (int id = 0; id < vectors.size(); id++) {
+      if (!removed[id]) {
+        live.add(id);
+      }
+    }
+    for (int i = 0; i < 20; i++) {
+      DoubleVector query = CompiledANNTreeTest.randomVector(rand, dimension);
+      Collections.sort(live, Comparator.comparingDouble((id) -> distance
+          .measureDistance(vectors.get(id), query)));
+      List<VectorDistanceTuple<Integer>> result = tree.getNearestNeighbours(
+          query, 5);
+      assertEquals(5, result.size());
+      for (int j = 0; j < result.size(); j++) {
+        assertFalse(removed[result.get(j).getValue()]);
+        assertEquals(distance.measureDistance(vectors.get(live.get(j)),
+            query), result.get(j).getDistance(), 1e-9);
+      }
+    }
+    assertRangeQueries(tree, vectors, removed, rand);
+  }
+
+  /**
+   * Asserts that random range queries find exactly the vectors in the range.
+   */
+  static void assertRangeQueries(ANNSearch<Integer> tree,
+      List<DoubleVector> vectors, Random rand) {
+    assertRangeQueries(tree, vectors, new boolean[vectors.size()], rand);
+  }
+
+  /**
+   * Asserts that random range queries find exactly the vectors in the range
+   * that are not removed.
+   */
+  static void assertRangeQueries(ANNSearch<Integer> tree,
+      List<DoubleVector> vectors, boolean[] removed, Random rand) {
+    final int dimension = vectors.get(0).getDimension();
+    for (int i = 0; i < 50; i++) {
+      DoubleVector a = CompiledANNTreeTest.randomVector(rand, dimension);
+      DoubleVector b = CompiledANNTreeTest.randomVector(rand, dimension);
+      DoubleVector lower = new DenseDoubleVector(dimension);
+      DoubleVector upper = new DenseDoubleVector(dimension);
+      for (int d = 0; d < dimension; d++) {
+        lower.set(d, Math.min(a.get(d), b.get(d)));
+        upper.set(d, Math.max(a.get(d), b.get(d)));
+      }
+      List<Integer> expected = new ArrayList<>();
+      for (int id = 0; id < vectors.size(); id++) {
+        if (!removed[id] && inRange(lower, upper, vectors.get(id))) {
+          expected.add(id);
+        }
+      }
+      List<Integer> actual = new ArrayList<>();
+      for (VectorDistanceTuple<Integer> tuple : tree.rangeQuery(lower, upper)) {
+        actual.add(tuple.getValue());
+      }
+      Collections.sort(actual);
+      assertEquals(expected, actual);
+    }
+  }
+
+  /**
+   * @return true if the vector is inside the range, zeros in the bounds don't
+   *         restrict it.
+   */
+  static boolean inRange(DoubleVector lower, DoubleVector upper,
+      DoubleVector v) {
+    for (int d = 0; d < v.getDimension(); d++) {
+      if ((lower.get(d) != 0d && v.get(d) < lower.get(d))
+          || (upper.get(d) != 0d && v.get(d) > upper.get(d))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Test
+  public void testRangeBounds() throws Exception {
+    KDTree<Object> tree = new KDTree<>();
+    tree.add(new DenseDoubleVector(new double[] { 5 }), null);
+
+    // both bounds are inclusive
+    assertEquals(1, rangeQuery(tree, 2, 10).size());
+    assertEquals(1, rangeQuery(tree, 5, 10).size());
+    assertEquals(1, rangeQuery(tree, 2, 5).size());
+    assertEquals(0, rangeQuery(tree, 6, 10).size());
+    assertEquals(0, rangeQuery(tree, 2, 4).size());
+  }
 
+  private static List<VectorDistanceTuple<Object>> rangeQuery(
+      KDTree<Object> tree, double lower, double upper) {
+    return tree.rangeQuery(new DenseDoubleVector(new double[] { lower }),
+        new DenseDoubleVector(new double[] { upper }));
   }
 
   /*
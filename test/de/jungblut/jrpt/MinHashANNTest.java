@@ -0,0 +1,207 @@
+package de.jungblut.jrpt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import de.jungblut.jrpt.distance.SparseEntries;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.sparse.SparseDoubleVector;
+import de.jungblut.math.tuple.Tuple;
+
+public class MinHashANNTest {
+
+  private static final int DIMENSION = 2000;
+
+  @Test
+  public void testJaccardDistance() throws Exception {
+    assertEquals(0d, MinHashANN.jaccardDistance(new int[0], new int[0]), 0d);
+    assertEquals(1d, MinHashANN.jaccardDistance(new int[] { 1 }, new int[0]),
+        0d);
+    assertEquals(0.5d, MinHashANN.jaccardDistance(new int[] { 1, 2, 3 },
+        new int[] { 2, 3, 4 }), 1e-15);
+  }
+
+  @Test
+  public void testRecall() throws Exception {
+    Random rand = new Random(0);
+    List<DoubleVector> data = clusteredData(rand);
+    MinHashANN<Integer> index = new MinHashANN<>(20, 4, new Random(1));
+    for (int i = 0; i < data.size(); i++) {
+      index.add(data.get(i), i);
+    }
+    assertEquals(data.size(), index.size());
+
+    int found = 0;
+    int total = 0;
+    for (int q = 0; q < 50; q++) {
+      DoubleVector query = perturb(rand, data.get(rand.nextInt(data.size())));
+      List<VectorDistanceTuple<Integer>> result = index.getNearestNeighbours(
+          query, 5);
+      List<Double> expected = bruteForce(data, query);
+      for (int i = 0; i < result.size(); i++) {
+        assertEquals(jaccardDistance(query, result.get(i).getVector()),
+            result.get(i).getDistance(), 1e-15);
+        if (i > 0) {
+          assertTrue(result.get(i - 1).getDistance() <= result.get(i)
+              .getDistance());
+        }
+      }
+      for (int i = 0; i < 5; i++) {
+        total++;
+        if (i < result.size()
+            && result.get(i).getDistance() <= expected.get(i)) {
+          found++;
+        }
+      }
+    }
+    double recall = (double) found / total;
+    assertTrue("recall was " + recall, recall > 0.9d);
+  }
+
+  @Test
+  public void testExactDuplicates() throws Exception {
+    Random rand = new Random(0);
+    List<DoubleVector> data = clusteredData(rand);
+    MinHashANN<Integer> index = new MinHashANN<>(4, 8, new Random(1));
+    for (int i = 0; i < data.size(); i++) {
+      index.add(data.get(i), i);
+    }
+    for (int i = 0; i < data.size(); i += 37) {
+      List<VectorDistanceTuple<Integer>> result = index.getNearestNeighbours(
+          data.get(i), 1, 0d);
+      assertEquals(1, result.size());
+      assertEquals(0d, result.get(0).getDistance(), 0d);
+      assertTrue(ANNTree.equal(data.get(i), result.get(0).getVector()));
+    }
+  }
+
+  @Test
+  public void testRadius() throws Exception {
+    Random rand = new Random(0);
+    List<DoubleVector> data = clusteredData(rand);
+    MinHashANN<Integer> index = new MinHashANN<>(20, 2, new Random(1));
+    for (int i = 0; i < data.size(); i++) {
+      index.add(data.get(i), i);
+    }
+    DoubleVector query = data.get(0);
+    List<VectorDistanceTuple<Integer>> result = index.getNearestNeighbours(
+        query, 0.5d);
+    assertFalse(result.isEmpty());
+    for (VectorDistanceTuple<Integer> tuple : result) {
+      assertTrue(tuple.getDistance() <= 0.5d);
+    }
+
+    // the checks bound the number of ranked candidates
+    assertTrue(index.getNearestNeighbours(query, 100, 1d,
+        new SearchOptions(3, 0d)).size() <= 3);
+  }
+
+  @Test
+  public void testParallelAddStream() throws Exception {
+    Random rand = new Random(0);
+    List<DoubleVector> data = clusteredData(rand);
+    List<Tuple<DoubleVector, Integer>> pairs = new ArrayList<>();
+    MinHashANN<Integer> sequential = new MinHashANN<>(10, 3, new Random(1));
+    for (int i = 0; i < data.size(); i++) {
+      pairs.add(new Tuple<>(data.get(i), i));
+      sequential.add(data.get(i), i);
+    }
+    MinHashANN<Integer> parallel = new MinHashANN<>(10, 3, new Random(1));
+    parallel.addStream(pairs.parallelStream());
+    assertEquals(sequential.size(), parallel.size());
+
+    for (int q = 0; q < 20; q++) {
+      DoubleVector query = perturb(rand, data.get(rand.nextInt(data.size())));
+      CompiledANNTreeTest.assertSameResults(
+          sequential.getNearestNeighbours(query, 10),
+          parallel.getNearestNeighbours(query, 10));
+    }
+  }
+
+  @Test
+  public void testRemove() throws Exception {
+    Random rand = new Random(0);
+    List<DoubleVector> data = clusteredData(rand);
+    MinHashANN<Integer> index = new MinHashANN<>(10, 3, new Random(1));
+    for (int i = 0; i < data.size(); i++) {
+      index.add(data.get(i), i);
+    }
+    assertFalse(index.remove(data.get(0), 1));
+    assertTrue(index.remove(data.get(0), 0));
+    assertFalse(index.remove(data.get(0), 0));
+    assertEquals(data.size() - 1, index.size());
+    assertEquals(1, index.tombstones());
+    for (VectorDistanceTuple<Integer> tuple : index.getNearestNeighbours(
+        data.get(0), 10)) {
+      assertTrue(tuple.getValue() != 0);
+    }
+
+    // removing more than the threshold compacts the index
+    Set<Integer> removed = new HashSet<>();
+    removed.add(0);
+    for (int i = 1; i < data.size(); i += 3) {
+      assertTrue(index.remove(data.get(i), i));
+      removed.add(i);
+    }
+    assertEquals(data.size() - removed.size(), index.size());
+    assertTrue(index.tombstones() < 0.25d * data.size());
+    for (int i = 0; i < data.size(); i++) {
+      List<VectorDistanceTuple<Integer>> result = index.getNearestNeighbours(
+          data.get(i), 1, 0d);
+      if (removed.contains(i)) {
+        for (VectorDistanceTuple<Integer> tuple : result) {
+          assertTrue(tuple.getValue() != i);
+        }
+      } else {
+        assertEquals(1, result.size());
+        assertEquals(0d, result.get(0).getDistance(), 0d);
+      }
+    }
+  }
+
+  // clusters of similar sets, each vector shares most indices with its center
+  private static List<DoubleVector> clusteredData(Random rand) {
+    return CompiledANNTreeTest.clusteredData(100, 10, () -> {
+      DoubleVector center = new SparseDoubleVector(DIMENSION);
+      while (center.getLength() < 40) {
+        center.set(rand.nextInt(DIMENSION), 1d);
+      }
+      return center;
+    }, (v) -> perturb(rand, v));
+  }
+
+  // moves every index of the set with a probability of 10%
+  private static DoubleVector perturb(Random rand, DoubleVector v) {
+    DoubleVector result = new SparseDoubleVector(DIMENSION);
+    for (int i : SparseEntries.of(v).indices()) {
+      result.set(rand.nextDouble() < 0.1d ? rand.nextInt(DIMENSION) : i, 1d);
+    }
+    return result;
+  }
+
+  private static List<Double> bruteForce(List<DoubleVector> data,
+      DoubleVector query) {
+    List<Double> distances = new ArrayList<>();
+    for (DoubleVector v : data) {
+      distances.add(jaccardDistance(query, v));
+    }
+    Collections.sort(distances);
+    return distances;
+  }
+
+  private static double jaccardDistance(DoubleVector a, DoubleVector b) {
+    return MinHashANN.jaccardDistance(SparseEntries.of(a).indices(),
+        SparseEntries.of(b).indices());
+  }
+
+}
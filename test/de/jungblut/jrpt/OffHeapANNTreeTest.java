@@ -0,0 +1,292 @@
+package de.jungblut.jrpt;
+
+import static de.jungblut.jrpt.CompiledANNTreeTest.randomVector;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.jungblut.jrpt.distance.ManhattanDistance;
+import de.jungblut.jrpt.rules.RPTreeMaxSplitPolicy;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.dense.DenseDoubleVector;
+
+public class OffHeapANNTreeTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testSameResultsAsCompiledKDTree() throws Exception {
+    Random rand = new Random(42);
+    KDTree<Integer> tree = new KDTree<>();
+    for (int i = 0; i < 500; i++) {
+      tree.add(randomVector(rand, 4), i);
+    }
+    assertSameResults(tree.compile(), rand, 4);
+  }
+
+  @Test
+  public void testSameResultsAsCompiledRPTree() throws Exception {
+    Random rand = new Random(42);
+    ANNTree<Integer> tree = new ANNTree<>(new RPTreeMaxSplitPolicy<>(
+        new Random(1)));
+    for (int i = 0; i < 1000; i++) {
+      tree.add(randomVector(rand, 16), i);
+    }
+    tree.balance();
+    assertSameResults(tree.compile(), rand, 16);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testOnlyEuclidianDistance() throws Exception {
+    KDTree<Integer> tree = new KDTree<>(ManhattanDistance.get());
+    tree.add(new DenseDoubleVector(new double[] { 1, 2 }), 0);
+    OffHeapANNTree.allocate(tree.compile());
+  }
+
+  @Test
+  public void testPayloads() throws Exception {
+    KDTree<String> tree = new KDTree<>();
+    tree.add(new DenseDoubleVector(new double[] { 1, 2 }), "a");
+    tree.add(new DenseDoubleVector(new double[] { 3, 4 }), null);
+    tree.add(new DenseDoubleVector(new double[] { 5, 6 }), "");
+    tree.add(new DenseDoubleVector(new double[] { 7, 8 }), "über");
+    Path path = folder.newFile().toPath();
+    tree.compile().write(path, PayloadCodec.utf8());
+
+    OffHeapANNTree<String> offHeap = OffHeapANNTree.open(path,
+        PayloadCodec.utf8());
+    assertEquals(4, offHeap.size());
+    assertEquals(2, offHeap.getDimension());
+    assertEquals("a", nearest(offHeap, 1, 2));
+    assertNull(nearest(offHeap, 3, 4));
+    assertEquals("", nearest(offHeap, 5, 6));
+    assertEquals("über", nearest(offHeap, 7, 8));
+
+    tree.compile().write(path, PayloadCodec.none());
+    offHeap = OffHeapANNTree.open(path, PayloadCodec.none());
+    assertNull(nearest(offHeap, 1, 2));
+  }
+
+  @Test
+  public void testIterator() throws Exception {
+    Random rand = new Random(0);
+    KDTree<Integer> tree = new KDTree<>();
+    for (int i = 0; i < 50; i++) {
+      tree.add(randomVector(rand, 3), i);
+    }
+    CompiledANNTree<Integer> compiled = tree.compile();
+    Path path = folder.newFile().toPath();
+    compiled.write(path, PayloadCodec.integers());
+
+    Iterator<DoubleVector> expected = compiled.iterator();
+    Iterator<DoubleVector> actual = OffHeapANNTree.open(path,
+        PayloadCodec.integers()).iterator();
+    while (expected.hasNext()) {
+      assertTrue(actual.hasNext());
+      assertTrue(expected.next().equals(actual.next()));
+    }
+    assertTrue(!actual.hasNext());
+  }
+
+  @Test
+  public void testEmptyTree() throws Exception {
+    Path path = folder.newFile().toPath();
+    new KDTree<Integer>().compile().write(path, PayloadCodec.integers());
+    OffHeapANNTree<Integer> offHeap = OffHeapANNTree.open(path,
+        PayloadCodec.integers());
+    assertEquals(0, offHeap.size());
+    assertEquals(0,
+        offHeap.getNearestNeighbours(
+            new DenseDoubleVector(new double[] { 0, 0 }), 1).size());
+    assertTrue(!offHeap.iterator().hasNext());
+  }
+
+  @Test
+  public void testClose() throws Exception {
+    Random rand = new Random(0);
+    KDTree<Integer> tree = new KDTree<>();
+    for (int i = 0; i < 50; i++) {
+      tree.add(randomVector(rand, 3), i);
+    }
+    Path path = folder.newFile().toPath();
+    tree.compile().write(path, PayloadCodec.integers());
+    for (OffHeapANNTree<Integer> offHeap : Arrays.asList(
+        OffHeapANNTree.open(path, PayloadCodec.integers()),
+        OffHeapANNTree.allocate(tree.compile()))) {
+      Iterator<DoubleVector> iterator = offHeap.iterator();
+      assertTrue(iterator.hasNext());
+      assertTrue(!offHeap.isClosed());
+      offHeap.close();
+      assertTrue(offHeap.isClosed());
+      // closing twice has no effect
+      offHeap.close();
+      try {
+        offHeap.getNearestNeighbours(randomVector(rand, 3), 1);
+        fail("expected an IllegalStateException");
+      } catch (IllegalStateException e) {
+        // expected
+      }
+      try {
+        iterator.next();
+        iterator.next();
+        fail("expected an IllegalStateException");
+      } catch (IllegalStateException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testCloseWhileSearching() throws Exception {
+    Random rand = new Random(0);
+    KDTree<Integer> tree = new KDTree<>();
+    for (int i = 0; i < 2000; i++) {
+      tree.add(randomVector(rand, 8), i);
+    }
+    OffHeapANNTree<Integer> offHeap = OffHeapANNTree.allocate(tree.compile());
+    List<DoubleVector> queries = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      queries.add(randomVector(rand, 8));
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<Integer>> futures = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      futures.add(executor.submit(() -> {
+        int searches = 0;
+        try {
+          while (true) {
+            for (DoubleVector query : queries) {
+              assertEquals(10, offHeap.getNearestNeighbours(query, 10)
+                  .size());
+              searches++;
+            }
+          }
+        } catch (IllegalStateException e) {
+          // closed, searches running at that time finished normally
+          return searches;
+        }
+      }));
+    }
+    Thread.sleep(100);
+    offHeap.close();
+    for (Future<Integer> future : futures) {
+      assertTrue(future.get(10, TimeUnit.SECONDS) > 0);
+    }
+    executor.shutdown();
+  }
+
+  @Test
+  public void testInvalidFiles() throws Exception {
+    Path path = folder.newFile().toPath();
+    assertInvalid(path);
+
+    KDTree<Integer> tree = new KDTree<>();
+    tree.add(new DenseDoubleVector(new double[] { 1, 2 }), 1);
+    tree.compile().write(path, PayloadCodec.integers());
+    byte[] bytes = Files.readAllBytes(path);
+
+    // a newer version
+    ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN)
+        .putInt(4, IndexFormat.VERSION + 1);
+    Files.write(path, bytes);
+    assertInvalid(path);
+
+    // truncated
+    tree.compile().write(path, PayloadCodec.integers());
+    bytes = Files.readAllBytes(path);
+    Files.write(path, Arrays.copyOf(bytes, bytes.length - 1));
+    assertInvalid(path);
+  }
+
+  private void assertSameResults(CompiledANNTree<Integer> compiled,
+      Random rand, int dimension) throws IOException {
+    Path path = folder.newFile().toPath();
+    compiled.write(path, PayloadCodec.integers());
+    try (OffHeapANNTree<Integer> mapped = OffHeapANNTree.open(path,
+        PayloadCodec.integers());
+        OffHeapANNTree<Integer> allocated = OffHeapANNTree
+            .allocate(compiled)) {
+      assertSameResults(compiled, mapped, rand, dimension);
+      assertSameResults(compiled, allocated, rand, dimension);
+    }
+  }
+
+  private static void assertSameResults(CompiledANNTree<Integer> compiled,
+      OffHeapANNTree<Integer> offHeap, Random rand, int dimension) {
+    assertEquals(compiled.size(), offHeap.size());
+    assertEquals(compiled.getDimension(), offHeap.getDimension());
+
+    SearchOptions options = new SearchOptions(50, 0.1);
+    for (int i = 0; i < 50; i++) {
+      DoubleVector query = randomVector(rand, dimension);
+      assertSameResults(compiled.getNearestNeighbours(query, 5),
+          offHeap.getNearestNeighbours(query, 5));
+      assertSameResults(compiled.getNearestNeighbours(query, 0.3d),
+          offHeap.getNearestNeighbours(query, 0.3d));
+      assertSameResults(
+          compiled.getNearestNeighbours(query, 5, Double.MAX_VALUE, options),
+          offHeap.getNearestNeighbours(query, 5, Double.MAX_VALUE, options));
+
+      DoubleVector other = randomVector(rand, dimension);
+      DoubleVector lower = new DenseDoubleVector(dimension);
+      DoubleVector upper = new DenseDoubleVector(dimension);
+      for (int d = 0; d < dimension; d++) {
+        lower.set(d, Math.min(query.get(d), other.get(d)));
+        upper.set(d, Math.max(query.get(d), other.get(d)));
+      }
+      assertSameResults(compiled.rangeQuery(lower, upper),
+          offHeap.rangeQuery(lower, upper));
+    }
+  }
+
+  private static void assertSameResults(
+      List<VectorDistanceTuple<Integer>> expected,
+      List<VectorDistanceTuple<Integer>> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertTrue(expected.get(i).getVector()
+          .equals(actual.get(i).getVector()));
+      assertEquals(expected.get(i).getValue(), actual.get(i).getValue());
+      assertEquals(expected.get(i).getDistance(), actual.get(i).getDistance(),
+          1e-9);
+    }
+  }
+
+  private static String nearest(OffHeapANNTree<String> tree, double x,
+      double y) {
+    return tree
+        .getNearestNeighbours(new DenseDoubleVector(new double[] { x, y }), 1)
+        .get(0).getValue();
+  }
+
+  private static void assertInvalid(Path path) {
+    try {
+      OffHeapANNTree.open(path, PayloadCodec.integers());
+      fail("expected an IOException");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+}
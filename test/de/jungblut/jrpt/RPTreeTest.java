@@ -0,0 +1,280 @@
+package de.jungblut.jrpt;
+
+import static de.jungblut.jrpt.CompiledANNTreeTest.assertSameResults;
+import static de.jungblut.jrpt.CompiledANNTreeTest.randomVector;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import de.jungblut.jrpt.ANNTree.TreeNode;
+import de.jungblut.jrpt.distance.DistanceMeasurer;
+import de.jungblut.jrpt.distance.DistanceMeasurerTest;
+import de.jungblut.jrpt.distance.EuclidianDistance;
+import de.jungblut.jrpt.distance.SparseEntriesTest;
+import de.jungblut.jrpt.rules.Hyperplane;
+import de.jungblut.jrpt.rules.RPTreeMaxSplitPolicy;
+import de.jungblut.jrpt.rules.SplitPolicy;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.tuple.Tuple;
+
+public class RPTreeTest {
+
+  @Test
+  public void testNearestNeighboursBruteForce() throws Exception {
+    Random rand = new Random(0);
+    ANNTree<Integer> tree = new ANNTree<>(new RPTreeMaxSplitPolicy<>(
+        new Random(1)));
+    List<DoubleVector> vectors = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      DoubleVector v = randomVector(rand, 20);
+      vectors.add(v);
+      tree.add(v, i);
+    }
+    assertNearestNeighbours(tree, vectors, rand);
+
+    tree.balance();
+    assertNearestNeighbours(tree, vectors, rand);
+
+    CompiledANNTree<Integer> compiled = tree.compile();
+    for (int i = 0; i < 20; i++) {
+      DoubleVector query = randomVector(rand, 20);
+      assertSameResults(tree.getNearestNeighbours(query, 7),
+          compiled.getNearestNeighbours(query, 7));
+      assertSameResults(tree.getNearestNeighbours(query, 0.9d),
+          compiled.getNearestNeighbours(query, 0.9d));
+    }
+  }
+
+  @Test
+  public void testDistanceMeasurers() throws Exception {
+    Random rand = new Random(0);
+    for (DistanceMeasurer distance : DistanceMeasurerTest.MEASURERS) {
+      RPTree<Integer> tree = new RPTree<>(distance);
+      List<DoubleVector> vectors = new ArrayList<>();
+      for (int i = 0; i < 500; i++) {
+        DoubleVector v = randomVector(rand, 10);
+        vectors.add(v);
+        tree.add(v, i);
+      }
+      KDTreeTest.assertNearestNeighbours(tree, vectors, distance, rand);
+      tree.balance();
+      KDTreeTest.assertNearestNeighbours(tree, vectors, distance, rand);
+    }
+  }
+
+  @Test
+  public void testSparseBruteForce() throws Exception {
+    Random rand = new Random(0);
+    for (DistanceMeasurer distance : DistanceMeasurerTest.MEASURERS) {
+      RPTree<Integer> tree = new RPTree<>(distance);
+      List<DoubleVector> vectors = new ArrayList<>();
+      for (int i = 0; i < 500; i++) {
+        DoubleVector v = SparseEntriesTest.randomSparseVector(rand, 40, 4);
+        if (v.getLength() > 0) {
+          vectors.add(v);
+          tree.add(v, i);
+        }
+      }
+      KDTreeTest.assertSparseNearestNeighbours(tree, vectors, distance, rand);
+      tree.balance();
+      KDTreeTest.assertSparseNearestNeighbours(tree, vectors, distance, rand);
+    }
+  }
+
+  @Test
+  public void testSelfBalancingInserts() throws Exception {
+    Random rand = new Random(0);
+    ANNTree<Integer> tree = new ANNTree<>(new RPTreeMaxSplitPolicy<>(
+        new Random(1)), 0.7);
+    List<DoubleVector> vectors = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      // drifting inputs degenerate a tree without rebalancing
+      DoubleVector v = randomVector(rand, 20).add(i);
+      vectors.add(v);
+      tree.add(v, i);
+    }
+    // the thresholds of the RP-tree max rule are jittered between the
+    // quartiles, so rebuilt subtrees are not perfectly balanced
+    int maxDepth = 3 * (32 - Integer.numberOfLeadingZeros(2000));
+    int depth = KDTreeTest.depth(tree.getRoot());
+    assertTrue("depth was " + depth, depth <= maxDepth);
+    assertNearestNeighbours(tree, vectors, rand);
+    KDTreeTest.assertRangeQueries(tree, vectors, rand);
+  }
+
+  @Test
+  public void testSelfBalancingDistinctNormals() throws Exception {
+    Random rand = new Random(0);
+    ANNTree<Integer> tree = new ANNTree<>(new RPTreeMaxSplitPolicy<>(
+        new Random(1)), 0.7);
+    for (int i = 0; i < 2000; i++) {
+      tree.add(randomVector(rand, 20).add(i), i);
+    }
+    // the subtrees that were rebuilt at the same level have their own normals
+    Map<Integer, Set<String>> normals = new HashMap<>();
+    Map<Integer, Integer> counts = new HashMap<>();
+    Deque<TreeNode<Integer>> toVisit = new ArrayDeque<>();
+    Deque<Integer> levels = new ArrayDeque<>();
+    toVisit.push(tree.getRoot());
+    levels.push(0);
+    while (!toVisit.isEmpty()) {
+      TreeNode<Integer> node = toVisit.pop();
+      int level = levels.pop();
+      normals.computeIfAbsent(level, (l) -> new HashSet<>()).add(
+          Arrays.toString(node.getHyperplane().getNormal()));
+      counts.merge(level, 1, Integer::sum);
+      for (TreeNode<Integer> child : Arrays.asList(node.left, node.right)) {
+        if (child != null) {
+          toVisit.push(child);
+          levels.push(level + 1);
+        }
+      }
+    }
+    for (int level : counts.keySet()) {
+      assertEquals(counts.get(level).intValue(), normals.get(level).size());
+    }
+  }
+
+  @Test
+  public void testSelfBalancingUndividableSplits() throws Exception {
+    // the inserts split at every vector, but all vectors are on the right
+    // side of the hyperplanes of the rebuilds, which can't reduce the depth
+    final AtomicInteger splits = new AtomicInteger();
+    final double[] normal = new double[] { 1, 0 };
+    SplitPolicy<Integer> policy = new SplitPolicy<Integer>() {
+      @Override
+      public int splitDimension(DoubleVector v, int level,
+          List<TreeNode<Integer>> treeNodes) {
+        return 0;
+      }
+
+      @Override
+      public Hyperplane splitHyperplane(DoubleVector v, int level,
+          List<TreeNode<Integer>> treeNodes) {
+        return new Hyperplane(normal, v.get(0));
+      }
+
+      @Override
+      public Hyperplane splitHyperplane(List<DoubleVector> subtree,
+          int level, long offset) {
+        splits.incrementAndGet();
+        return new Hyperplane(normal, Double.NEGATIVE_INFINITY);
+      }
+    };
+    int n = 2000;
+    Random rand = new Random(0);
+    ANNTree<Integer> tree = new ANNTree<>(policy, 0.7);
+    List<DoubleVector> vectors = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      DoubleVector v = randomVector(rand, 2);
+      vectors.add(v);
+      tree.add(v, i);
+    }
+    assertEquals(n, tree.size());
+    // rebuilding chains on every insert would split n^2 / 2 times
+    assertTrue("splits were " + splits.get(), splits.get() < 4 * n * Math
+        .log(n));
+    for (int i = 0; i < n; i += 97) {
+      List<VectorDistanceTuple<Integer>> nearestNeighbours = tree
+          .getNearestNeighbours(vectors.get(i), 1);
+      assertEquals(i, nearestNeighbours.get(0).getValue().intValue());
+      assertEquals(0d, nearestNeighbours.get(0).getDistance(), 0d);
+    }
+  }
+
+  @Test
+  public void testRangeQueryBruteForce() throws Exception {
+    Random rand = new Random(0);
+    ANNTree<Integer> tree = new ANNTree<>(new RPTreeMaxSplitPolicy<>(
+        new Random(1)));
+    List<DoubleVector> vectors = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      DoubleVector v = randomVector(rand, 3);
+      vectors.add(v);
+      tree.add(v, i);
+    }
+    KDTreeTest.assertRangeQueries(tree, vectors, rand);
+    tree.balance();
+    KDTreeTest.assertRangeQueries(tree, vectors, rand);
+    KDTreeTest.assertRangeQueries(tree.compile(), vectors, rand);
+  }
+
+  @Test
+  public void testBulkLoadSplits() throws Exception {
+    Random rand = new Random(0);
+    int n = 5000;
+    ANNTree<Integer> tree = new ANNTree<>(new RPTreeMaxSplitPolicy<>(
+        new Random(1)));
+    tree.bulkLoad(IntStream.range(0, n).mapToObj(
+        (i) -> new Tuple<>(randomVector(rand, 50), i)));
+    assertEquals(n, tree.size());
+
+    int count = 0;
+    Iterator<TreeNode<Integer>> nodes = tree.iterateNodes();
+    while (nodes.hasNext()) {
+      TreeNode<Integer> node = nodes.next();
+      Hyperplane hyperplane = node.getHyperplane();
+      assertNotNull(hyperplane);
+      assertEquals(-1, node.getSplitDimension());
+      assertSide(node.left, hyperplane, true);
+      assertSide(node.right, hyperplane, false);
+      count++;
+    }
+    assertEquals(n, count);
+    // the thresholds are within the inner quartiles of the samples, so the
+    // depth is logarithmic
+    int depth = KDTreeTest.depth(tree.getRoot());
+    assertTrue("depth was " + depth, depth <= 3 * (32 - Integer
+        .numberOfLeadingZeros(n)));
+  }
+
+  private static void assertSide(TreeNode<Integer> node, Hyperplane hyperplane,
+      boolean left) {
+    if (node == null) {
+      return;
+    }
+    double projection = hyperplane.project(node.getVector());
+    // vectors on the hyperplane can be on either side
+    assertTrue(left ? projection <= hyperplane.getThreshold()
+        : projection >= hyperplane.getThreshold());
+    assertSide(node.left, hyperplane, left);
+    assertSide(node.right, hyperplane, left);
+  }
+
+  private static void assertNearestNeighbours(ANNTree<Integer> tree,
+      List<DoubleVector> vectors, Random rand) {
+    EuclidianDistance distance = EuclidianDistance.get();
+    for (int i = 0; i < 20; i++) {
+      DoubleVector query = randomVector(rand, 20);
+      List<DoubleVector> expected = new ArrayList<>(vectors);
+      Collections.sort(expected, Comparator.comparingDouble(
+          (v) -> distance.measureDistance(v, query)));
+      List<VectorDistanceTuple<Integer>> result = tree.getNearestNeighbours(
+          query, 10);
+      assertEquals(10, result.size());
+      for (int j = 0; j < result.size(); j++) {
+        assertEquals(distance.measureDistance(expected.get(j), query), result
+            .get(j).getDistance(), 1e-9);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,99 @@
+package de.jungblut.jrpt;
+
+import static de.jungblut.jrpt.CompiledANNTreeTest.assertSameResults;
+import static de.jungblut.jrpt.CompiledANNTreeTest.randomVector;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import de.jungblut.jrpt.rules.RPTreeMaxSplitPolicy;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.tuple.Tuple;
+
+public class SearchOptionsTest {
+
+  @Test
+  public void testUnboundedSearchIsExact() throws Exception {
+    Random rand = new Random(0);
+    KDTree<Integer> kdTree = new KDTree<>();
+    ANNTree<Integer> rpTree = new ANNTree<>(new RPTreeMaxSplitPolicy<>(
+        new Random(1)));
+    for (int i = 0; i < 2000; i++) {
+      DoubleVector v = randomVector(rand, 6);
+      kdTree.add(v, i);
+      rpTree.add(v, i);
+    }
+    rpTree.balance();
+    CompiledANNTree<Integer> compiled = rpTree.compile();
+
+    for (int i = 0; i < 50; i++) {
+      DoubleVector query = randomVector(rand, 6);
+      List<VectorDistanceTuple<Integer>> expected = kdTree
+          .getNearestNeighbours(query, 10);
+      assertSameResults(expected, kdTree.getNearestNeighbours(query, 10,
+          Double.MAX_VALUE, SearchOptions.EXACT));
+      assertSameResults(expected, rpTree.getNearestNeighbours(query, 10,
+          Double.MAX_VALUE, SearchOptions.EXACT));
+      assertSameResults(expected, compiled.getNearestNeighbours(query, 10,
+          Double.MAX_VALUE, SearchOptions.EXACT));
+
+      expected = kdTree.getNearestNeighbours(query, 0.3d);
+      assertSameResults(expected, rpTree.getNearestNeighbours(query,
+          Integer.MAX_VALUE, 0.3d, SearchOptions.EXACT));
+      assertSameResults(expected, compiled.getNearestNeighbours(query,
+          Integer.MAX_VALUE, 0.3d, SearchOptions.EXACT));
+    }
+  }
+
+  @Test
+  public void testMaxChecks() throws Exception {
+    Random rand = new Random(0);
+    KDTree<Integer> tree = new KDTree<>();
+    tree.bulkLoad(IntStream.range(0, 1000).mapToObj(
+        (i) -> new Tuple<>(randomVector(rand, 3), i)));
+    CompiledANNTree<Integer> compiled = tree.compile();
+
+    DoubleVector query = randomVector(rand, 3);
+    for (int checks : new int[] { 1, 5, 20 }) {
+      SearchOptions options = new SearchOptions(checks, 0d);
+      List<VectorDistanceTuple<Integer>> result = tree.getNearestNeighbours(
+          query, 50, Double.MAX_VALUE, options);
+      assertEquals(checks, result.size());
+      assertSameResults(result, compiled.getNearestNeighbours(query, 50,
+          Double.MAX_VALUE, options));
+    }
+    // the first check is always the root
+    assertEquals(tree.getRoot().getVector(), tree.getNearestNeighbours(query,
+        5, Double.MAX_VALUE, new SearchOptions(1, 0d)).get(0).getVector());
+  }
+
+  @Test
+  public void testEpsilonBound() throws Exception {
+    Random rand = new Random(0);
+    ANNTree<Integer> tree = new ANNTree<>(new RPTreeMaxSplitPolicy<>(
+        new Random(1)));
+    tree.bulkLoad(IntStream.range(0, 5000).mapToObj(
+        (i) -> new Tuple<>(randomVector(rand, 16), i)));
+    double epsilon = 0.5d;
+    SearchOptions options = new SearchOptions(Integer.MAX_VALUE, epsilon);
+
+    for (int i = 0; i < 20; i++) {
+      DoubleVector query = randomVector(rand, 16);
+      List<VectorDistanceTuple<Integer>> exact = tree.getNearestNeighbours(
+          query, 10);
+      List<VectorDistanceTuple<Integer>> approximate = tree
+          .getNearestNeighbours(query, 10, Double.MAX_VALUE, options);
+      assertEquals(exact.size(), approximate.size());
+      for (int j = 0; j < exact.size(); j++) {
+        assertTrue(approximate.get(j).getDistance() <= (1d + epsilon)
+            * exact.get(j).getDistance() + 1e-9);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,158 @@
+package de.jungblut.jrpt;
+
+import static de.jungblut.jrpt.CompiledANNTreeTest.gaussianVector;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.jungblut.jrpt.distance.CosineDistance;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.sparse.SparseDoubleVector;
+import de.jungblut.math.tuple.Tuple;
+
+public class SimHashANNTest {
+
+  private static final int DIMENSION = 64;
+
+  @Test
+  public void testHammingDistance() throws Exception {
+    assertEquals(0, SimHashANN.hammingDistance(new long[] { 5L },
+        new long[] { 5L }, 0));
+    assertEquals(65, SimHashANN.hammingDistance(new long[] { 0L, 1L },
+        new long[] { 7L, -1L, 0L }, 1));
+  }
+
+  @Test
+  public void testRecall() throws Exception {
+    Random rand = new Random(0);
+    List<DoubleVector> data = clusteredData(rand);
+    List<DoubleVector> queries = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      queries.add(perturb(rand, data.get(rand.nextInt(data.size()))));
+    }
+
+    double recall = recall(new SimHashANN<>(8, 12, 0, new Random(1)), data,
+        queries);
+    double probedRecall = recall(new SimHashANN<>(8, 12, 4, new Random(1)),
+        data, queries);
+    assertTrue(recall + " vs. " + probedRecall, probedRecall > recall);
+    assertTrue("recall was " + probedRecall, probedRecall > 0.9d);
+  }
+
+  @Test
+  public void testExactDistances() throws Exception {
+    Random rand = new Random(0);
+    List<DoubleVector> data = clusteredData(rand);
+    SimHashANN<Integer> index = new SimHashANN<>(4, 8, 2, new Random(1));
+    for (int i = 0; i < data.size(); i++) {
+      index.add(data.get(i), i);
+    }
+    DoubleVector query = perturb(rand, data.get(0));
+    List<VectorDistanceTuple<Integer>> result = index.getNearestNeighbours(
+        query, 10, 0.1d);
+    assertFalse(result.isEmpty());
+    for (int i = 0; i < result.size(); i++) {
+      VectorDistanceTuple<Integer> tuple = result.get(i);
+      assertEquals(CosineDistance.get().measureDistance(query,
+          tuple.getVector()), tuple.getDistance(), 1e-12);
+      assertTrue(tuple.getDistance() <= 0.1d);
+      if (i > 0) {
+        assertTrue(result.get(i - 1).getDistance() <= tuple.getDistance());
+      }
+    }
+
+    // the checks bound the number of ranked candidates
+    assertTrue(index.getNearestNeighbours(query, 100, 2d,
+        new SearchOptions(3, 0d)).size() <= 3);
+  }
+
+  @Test
+  public void testParallelAddStream() throws Exception {
+    Random rand = new Random(0);
+    List<DoubleVector> data = clusteredData(rand);
+    List<Tuple<DoubleVector, Integer>> pairs = new ArrayList<>();
+    SimHashANN<Integer> sequential = new SimHashANN<>(4, 10, 2, new Random(1));
+    for (int i = 0; i < data.size(); i++) {
+      pairs.add(new Tuple<>(data.get(i), i));
+      sequential.add(data.get(i), i);
+    }
+    SimHashANN<Integer> parallel = new SimHashANN<>(4, 10, 2, new Random(1));
+    parallel.addStream(pairs.parallelStream());
+    assertEquals(sequential.size(), parallel.size());
+
+    for (int q = 0; q < 20; q++) {
+      DoubleVector query = perturb(rand, data.get(rand.nextInt(data.size())));
+      CompiledANNTreeTest.assertSameResults(
+          sequential.getNearestNeighbours(query, 10),
+          parallel.getNearestNeighbours(query, 10));
+    }
+  }
+
+  @Test
+  public void testRemove() throws Exception {
+    Random rand = new Random(0);
+    List<DoubleVector> data = clusteredData(rand);
+    SimHashANN<Integer> index = new SimHashANN<>(4, 10, 2, new Random(1));
+    for (int i = 0; i < data.size(); i++) {
+      index.add(data.get(i), i);
+    }
+    assertFalse(index.remove(data.get(0), 1));
+    // an equal sparse vector has the same signature
+    DoubleVector sparse = new SparseDoubleVector(data.get(0).toArray());
+    assertTrue(index.remove(sparse, 0));
+    assertFalse(index.remove(data.get(0), 0));
+    assertEquals(data.size() - 1, index.size());
+    assertEquals(1, index.tombstones());
+
+    // removing more than the threshold compacts the index
+    for (int i = 1; i < data.size(); i += 3) {
+      assertTrue(index.remove(data.get(i), i));
+    }
+    assertTrue(index.tombstones() < 0.25d * data.size());
+    for (int i = 0; i < data.size(); i++) {
+      List<VectorDistanceTuple<Integer>> result = index.getNearestNeighbours(
+          data.get(i), 1);
+      if (i % 3 == 1 || i == 0) {
+        assertTrue(result.isEmpty() || result.get(0).getValue() != i);
+      } else {
+        assertEquals(i, result.get(0).getValue().intValue());
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTooManyHyperplanes() throws Exception {
+    // 64 * 2^26 normal components of one table overflow an int
+    SimHashANN<Integer> index = new SimHashANN<>(1, 64, 0, new Random(1));
+    SparseDoubleVector v = new SparseDoubleVector(1 << 26);
+    v.set(0, 1d);
+    index.add(v, 0);
+  }
+
+  private static double recall(SimHashANN<Integer> index,
+      List<DoubleVector> data, List<DoubleVector> queries) {
+    KDTree<Integer> exact = new KDTree<>(CosineDistance.get());
+    for (int i = 0; i < data.size(); i++) {
+      index.add(data.get(i), i);
+      exact.add(data.get(i), i);
+    }
+    return CompiledANNTreeTest.recall(index, exact, queries, 10);
+  }
+
+  // gaussian clusters around random directions
+  private static List<DoubleVector> clusteredData(Random rand) {
+    return CompiledANNTreeTest.clusteredData(50, 40,
+        () -> gaussianVector(rand, DIMENSION, 1d), (v) -> perturb(rand, v));
+  }
+
+  private static DoubleVector perturb(Random rand, DoubleVector v) {
+    return v.add(gaussianVector(rand, DIMENSION, 0.2d));
+  }
+
+}
@@ -0,0 +1,96 @@
+package de.jungblut.jrpt.distance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class DistanceKernelTest {
+
+  // the kernel of the current runtime, the vector api kernel if it is
+  // available
+  private final DistanceKernel kernel = DistanceKernel.get();
+  private final DistanceKernel scalar = DistanceKernel.scalar();
+
+  @Test
+  public void testScalar() throws Exception {
+    double[] a = new double[] { 1, 2, 3 };
+    double[] b = new double[] { 9, 4, 6, 3 };
+    assertEquals(25d, scalar.squaredEuclidean(a, b, 1), 0d);
+    assertEquals(25d, scalar.boundedSquaredEuclidean(a, b, 1, 25d), 0d);
+    assertEquals(4d + 12d + 9d, scalar.dot(a, b, 1), 0d);
+    assertEquals(7d, scalar.manhattan(a, b, 1), 0d);
+  }
+
+  @Test
+  public void testSameAsScalar() throws Exception {
+    Random rand = new Random(0);
+    // all tail lengths of the usual vector widths
+    for (int dimension = 1; dimension < 40; dimension++) {
+      double[] a = random(rand, dimension);
+      double[] b = random(rand, dimension + 3);
+      for (int offset = 0; offset <= 3; offset++) {
+        assertEquals(scalar.squaredEuclidean(a, b, offset),
+            kernel.squaredEuclidean(a, b, offset), 1e-9);
+        assertEquals(scalar.dot(a, b, offset), kernel.dot(a, b, offset), 1e-9);
+        assertEquals(scalar.manhattan(a, b, offset),
+            kernel.manhattan(a, b, offset), 1e-9);
+      }
+    }
+  }
+
+  @Test
+  public void testBounded() throws Exception {
+    Random rand = new Random(0);
+    for (int dimension : new int[] { 3, 16, 100, 768 }) {
+      double[] a = random(rand, dimension);
+      double[] b = random(rand, dimension);
+      double rankDistance = kernel.squaredEuclidean(a, b, 0);
+      // within the bound the result is exactly the unbounded distance
+      assertEquals(rankDistance,
+          kernel.boundedSquaredEuclidean(a, b, 0, rankDistance), 0d);
+      assertEquals(rankDistance,
+          kernel.boundedSquaredEuclidean(a, b, 0, Double.MAX_VALUE), 0d);
+      assertTrue(kernel.boundedSquaredEuclidean(a, b, 0, 0.01) > 0.01);
+    }
+  }
+
+  @Test
+  public void testOneToMany() throws Exception {
+    Random rand = new Random(0);
+    for (int dimension : new int[] { 1, 7, 32, 129 }) {
+      for (int count = 0; count < 6; count++) {
+        double[] query = random(rand, dimension);
+        double[] block = random(rand, dimension * count);
+        double[] result = new double[count];
+        kernel.squaredEuclidean(query, block, count, result);
+        for (int i = 0; i < count; i++) {
+          // the same as measuring them one by one
+          assertEquals(kernel.squaredEuclidean(query, block, i * dimension),
+              result[i], 0d);
+        }
+        double[] bounded = new double[count];
+        double bound = dimension / 2d;
+        kernel.boundedSquaredEuclidean(query, block, count, bound, bounded);
+        for (int i = 0; i < count; i++) {
+          if (result[i] <= bound) {
+            assertEquals(result[i], bounded[i], 0d);
+          } else {
+            assertTrue(bounded[i] > bound);
+          }
+        }
+      }
+    }
+  }
+
+  private static double[] random(Random rand, int length) {
+    double[] array = new double[length];
+    for (int i = 0; i < length; i++) {
+      array[i] = rand.nextDouble() * 2d - 1d;
+    }
+    return array;
+  }
+
+}
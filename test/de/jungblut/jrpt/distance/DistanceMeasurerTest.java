@@ -0,0 +1,169 @@
+package de.jungblut.jrpt.distance;
+
+import static de.jungblut.jrpt.CompiledANNTreeTest.randomVector;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.dense.DenseDoubleVector;
+import de.jungblut.math.sparse.SparseDoubleVector;
+
+public class DistanceMeasurerTest {
+
+  public static final DistanceMeasurer[] MEASURERS = new DistanceMeasurer[] {
+      EuclidianDistance.get(), ManhattanDistance.get(),
+      ChebyshevDistance.get(), CosineDistance.get(),
+      CosineDistance.normalized(), InnerProductDistance.get() };
+
+  @Test
+  public void testDistances() throws Exception {
+    double[] a = new double[] { 1, 2, 3 };
+    double[] b = new double[] { 4, 6, 3 };
+    assertDistance(ManhattanDistance.get(), a, b, 7d);
+    assertDistance(ChebyshevDistance.get(), a, b, 4d);
+    assertDistance(CosineDistance.get(), a, b, 1d - 25d / Math.sqrt(14 * 61));
+    assertDistance(InnerProductDistance.get(), a, b, -25d);
+
+    // zero vectors have no angle to any vector
+    assertEquals(1d, CosineDistance.get().measureDistance(a, new double[3]),
+        0d);
+  }
+
+  @Test
+  public void testNormalized() throws Exception {
+    Random rand = new Random(0);
+    for (int i = 0; i < 100; i++) {
+      DoubleVector a = randomVector(rand, 10, -1d, 1d);
+      DoubleVector b = randomVector(rand, 10, -1d, 1d);
+      DoubleVector unitA = CosineDistance.normalized().normalize(a);
+      DoubleVector unitB = CosineDistance.normalized().normalize(b);
+      assertEquals(1d, unitA.dot(unitA), 1e-9);
+      assertEquals(CosineDistance.get().measureDistance(a, b), CosineDistance
+          .normalized().measureDistance(unitA, unitB), 1e-9);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNormalizeZeroVector() throws Exception {
+    CosineDistance.normalized().normalize(new DenseDoubleVector(3));
+  }
+
+  @Test
+  public void testRankDistanceRoundtrip() throws Exception {
+    Random rand = new Random(0);
+    for (DistanceMeasurer distance : MEASURERS) {
+      for (int i = 0; i < 100; i++) {
+        double d = rand.nextDouble();
+        double rankDistance = distance.toRankDistance(d);
+        assertTrue(distance.toDistance(rankDistance) <= d);
+        assertTrue(distance.toDistance(Math.nextUp(rankDistance)) > d);
+      }
+    }
+  }
+
+  @Test
+  public void testBoundedRankDistance() throws Exception {
+    Random rand = new Random(0);
+    for (DistanceMeasurer distance : MEASURERS) {
+      for (int i = 0; i < 100; i++) {
+        double[] a = unit(distance, randomVector(rand, 20, -1d, 1d));
+        double[] b = unit(distance, randomVector(rand, 23, -1d, 1d));
+        int offset = rand.nextInt(4);
+        double rankDistance = distance.measureRankDistance(a,
+            Arrays.copyOfRange(b, offset, offset + a.length));
+        // within the bound the result is exact
+        assertEquals(rankDistance, distance.measureBoundedRankDistance(a, b,
+            offset, rankDistance), 1e-9);
+        double bound = rankDistance - 0.1;
+        assertTrue(distance.measureBoundedRankDistance(a, b, offset,
+            bound) > bound);
+      }
+    }
+  }
+
+  @Test
+  public void testCellLowerBounds() throws Exception {
+    Random rand = new Random(0);
+    final int dimension = 5;
+    for (DistanceMeasurer distance : MEASURERS) {
+      for (int i = 0; i < 1000; i++) {
+        double[] a = unit(distance, randomVector(rand, dimension, -1d, 1d));
+        double[] b = unit(distance, randomVector(rand, dimension, -1d, 1d));
+        double rankDistance = distance.measureRankDistance(a, b);
+        // grow the offsets from the query to a cell around b dimension by
+        // dimension, like a search that descends into the tree
+        double cellDistance = distance.lowerRankDistance(0d, dimension);
+        double[] offsets = new double[dimension];
+        for (int d = 0; d < dimension; d++) {
+          double offset = (b[d] - a[d]) * rand.nextDouble();
+          cellDistance = distance.cellRankDistance(cellDistance, offsets[d],
+              offset);
+          offsets[d] = offset;
+          assertTrue(cellDistance <= rankDistance + 1e-9);
+        }
+        // any split plane between both
+        double squared = 0;
+        for (int d = 0; d < dimension; d++) {
+          squared += (a[d] - b[d]) * (a[d] - b[d]);
+        }
+        assertTrue(distance.lowerRankDistance(squared, dimension)
+            <= rankDistance + 1e-9);
+      }
+    }
+  }
+
+  @Test
+  public void testSparse() throws Exception {
+    Random rand = new Random(0);
+    for (DistanceMeasurer distance : MEASURERS) {
+      DoubleVector a = distance.normalize(randomVector(rand, 10, -1d, 1d));
+      DoubleVector b = distance.normalize(randomVector(rand, 10, -1d, 1d));
+      assertEquals(distance.measureDistance(a.toArray(), b.toArray()),
+          distance.measureDistance(new SparseDoubleVector(a.toArray()),
+              new SparseDoubleVector(b.toArray())), 1e-9);
+      assertEquals(distance.measureRankDistance(a, b), distance
+          .measureBoundedRankDistance(a, b, Double.MAX_VALUE), 1e-9);
+    }
+  }
+
+  @Test
+  public void testSparseEntries() throws Exception {
+    Random rand = new Random(0);
+    for (DistanceMeasurer distance : MEASURERS) {
+      for (int i = 0; i < 20; i++) {
+        DoubleVector a = distance.normalize(SparseEntriesTest
+            .randomSparseVector(rand, 30, 6));
+        DoubleVector b = distance.normalize(SparseEntriesTest
+            .randomSparseVector(rand, 30, 6));
+        final double expected = distance.measureRankDistance(a.toArray(),
+            b.toArray());
+        assertEquals(expected, distance.measureBoundedRankDistance(
+            SparseEntries.of(a), SparseEntries.of(b), Double.MAX_VALUE), 1e-9);
+        assertEquals(expected, distance.measureRankDistance(a, b), 1e-9);
+        assertEquals(expected, distance.measureRankDistance(a,
+            new DenseDoubleVector(b.toArray())), 1e-9);
+      }
+    }
+  }
+
+  private static void assertDistance(DistanceMeasurer distance, double[] a,
+      double[] b, double expected) {
+    assertEquals(expected, distance.measureDistance(a, b), 1e-9);
+    assertEquals(expected, distance.measureDistance(new DenseDoubleVector(a),
+        new DenseDoubleVector(b)), 1e-9);
+    assertEquals(expected, distance.measureDistance(new SparseDoubleVector(a),
+        new SparseDoubleVector(b)), 1e-9);
+    assertEquals(expected, distance.toDistance(distance.measureRankDistance(
+        a, b)), 1e-9);
+  }
+
+  private static double[] unit(DistanceMeasurer distance, DoubleVector v) {
+    return distance.normalize(v).toArray();
+  }
+
+}
@@ -0,0 +1,94 @@
+package de.jungblut.jrpt.distance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.dense.DenseDoubleVector;
+import de.jungblut.math.sparse.SparseDoubleVector;
+
+public class EuclidianDistanceTest {
+
+  private final EuclidianDistance distance = EuclidianDistance.get();
+
+  @Test
+  public void testRankDistance() throws Exception {
+    double[] a = new double[] { 1, 2, 3 };
+    double[] b = new double[] { 4, 6, 3 };
+    assertEquals(25d, distance.measureRankDistance(a, b), 1e-9);
+    assertEquals(5d, distance.measureDistance(a, b), 1e-9);
+    assertEquals(5d, distance.toDistance(distance.measureRankDistance(a, b)),
+        1e-9);
+
+    assertEquals(25d, distance.measureRankDistance(new SparseDoubleVector(a),
+        new SparseDoubleVector(b)), 1e-9);
+    assertEquals(25d, distance.measureRankDistance(new DenseDoubleVector(a),
+        new DenseDoubleVector(b)), 1e-9);
+  }
+
+  @Test
+  public void testBoundedRankDistance() throws Exception {
+    Random rand = new Random(0);
+    double[] a = new double[100];
+    double[] b = new double[100];
+    for (int i = 0; i < a.length; i++) {
+      a[i] = rand.nextDouble();
+      b[i] = rand.nextDouble();
+    }
+    double rankDistance = distance.measureRankDistance(a, b);
+    // within the bound the result is exact
+    assertEquals(rankDistance,
+        distance.measureBoundedRankDistance(a, b, rankDistance), 1e-9);
+    assertEquals(rankDistance,
+        distance.measureBoundedRankDistance(a, b, Double.MAX_VALUE), 1e-9);
+    // otherwise it only needs to exceed the bound
+    double bounded = distance.measureBoundedRankDistance(a, b, 0.1);
+    assertTrue(bounded > 0.1);
+    assertTrue(bounded < rankDistance);
+  }
+
+  @Test
+  public void testToRankDistance() throws Exception {
+    Random rand = new Random(0);
+    for (int i = 0; i < 1000; i++) {
+      double d = rand.nextDouble() * 100;
+      double rankDistance = distance.toRankDistance(d);
+      assertTrue(distance.toDistance(rankDistance) <= d);
+      assertTrue(distance.toDistance(Math.nextUp(rankDistance)) > d);
+    }
+    assertEquals(0d, distance.toRankDistance(0), 0d);
+    assertTrue(distance.toRankDistance(-1) < 0);
+    assertEquals(Double.MAX_VALUE, distance.toRankDistance(Double.MAX_VALUE),
+        0d);
+  }
+
+  @Test
+  public void testSparseRankDistance() throws Exception {
+    Random rand = new Random(0);
+    for (int i = 0; i < 100; i++) {
+      DoubleVector a = SparseEntriesTest.randomSparseVector(rand, 50, 5);
+      DoubleVector b = SparseEntriesTest.randomSparseVector(rand, 50, 5);
+      double expected = distance.measureRankDistance(a.toArray(),
+          b.toArray());
+      assertEquals(expected, distance.measureRankDistance(a, b), 1e-9);
+      assertEquals(expected, distance.measureRankDistance(a,
+          new DenseDoubleVector(b.toArray())), 1e-9);
+
+      SparseEntries entriesA = SparseEntries.of(a);
+      SparseEntries entriesB = SparseEntries.of(b);
+      assertEquals(expected, distance.measureBoundedRankDistance(entriesA,
+          entriesB, Double.MAX_VALUE), 1e-9);
+      assertEquals(expected, distance.measureBoundedRankDistance(entriesA,
+          entriesB, expected), 1e-9);
+      assertTrue(distance.measureBoundedRankDistance(entriesA, entriesB,
+          expected / 2) > expected / 2);
+      assertEquals(0d, distance.measureBoundedRankDistance(entriesA,
+          entriesA, 0d), 0d);
+    }
+  }
+
+}
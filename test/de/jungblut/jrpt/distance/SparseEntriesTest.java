@@ -0,0 +1,54 @@
+package de.jungblut.jrpt.distance;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.sparse.SparseDoubleVector;
+
+public class SparseEntriesTest {
+
+  @Test
+  public void testSortedEntries() throws Exception {
+    DoubleVector v = new SparseDoubleVector(100);
+    v.set(70, 3);
+    v.set(5, -4);
+    v.set(33, 0);
+    v.set(12, 1);
+    SparseEntries entries = SparseEntries.of(v);
+    assertEquals(100, entries.getDimension());
+    assertEquals(3, entries.size());
+    assertArrayEquals(new int[] { 5, 12, 70 }, entries.indices());
+    assertArrayEquals(new double[] { -4, 1, 3 }, entries.values(), 0d);
+    assertEquals(Math.sqrt(26), entries.norm(), 1e-9);
+    assertArrayEquals(v.toArray(), entries.toVector().toArray(), 0d);
+  }
+
+  @Test
+  public void testDot() throws Exception {
+    Random rand = new Random(0);
+    for (int i = 0; i < 100; i++) {
+      DoubleVector a = randomSparseVector(rand, 50, 10);
+      DoubleVector b = randomSparseVector(rand, 50, 10);
+      assertEquals(a.dot(b), SparseEntries.of(a).dot(SparseEntries.of(b)),
+          1e-9);
+    }
+  }
+
+  /**
+   * @return a sparse vector with up to the given number of non-zero entries.
+   */
+  public static DoubleVector randomSparseVector(Random rand, int dimension,
+      int nonZeros) {
+    DoubleVector v = new SparseDoubleVector(dimension);
+    for (int i = 0; i < nonZeros; i++) {
+      v.set(rand.nextInt(dimension), rand.nextDouble());
+    }
+    return v;
+  }
+
+}
@@ -0,0 +1,111 @@
+package de.jungblut.jrpt.quantization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.jungblut.jrpt.distance.EuclidianDistance;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.dense.DenseDoubleVector;
+
+public class ProductQuantizerTest {
+
+  @Test
+  public void testEncodeClusters() throws Exception {
+    Random rand = new Random(0);
+    // every subspace of 10 dimensions has 4 well separated clusters
+    double[][] centers = new double[4][10];
+    for (double[] center : centers) {
+      for (int d = 0; d < center.length; d++) {
+        center[d] = rand.nextDouble() * 100;
+      }
+    }
+    List<DoubleVector> sample = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      double[] v = new double[10];
+      for (int d = 0; d < v.length; d++) {
+        // dimensions [0, 3), [3, 6) and [6, 10) form the subspaces
+        int subspace = d < 3 ? 0 : d < 6 ? 1 : 2;
+        v[d] = centers[(i + subspace) % 4][d] + rand.nextGaussian() * 0.01;
+      }
+      sample.add(new DenseDoubleVector(v));
+    }
+    ProductQuantizer quantizer = ProductQuantizer.train(sample, 3, 4, 10,
+        new Random(1));
+    assertEquals(10, quantizer.getDimension());
+    assertEquals(3, quantizer.getNumSubspaces());
+    assertEquals(4, quantizer.getNumCentroids());
+    assertEquals(12, quantizer.getTableLength());
+
+    byte[] codes = new byte[3];
+    double[] decoded = new double[10];
+    for (DoubleVector v : sample) {
+      quantizer.encode(v.toArray(), codes, 0);
+      quantizer.decode(codes, 0, decoded);
+      for (int d = 0; d < decoded.length; d++) {
+        assertEquals(v.get(d), decoded[d], 0.1);
+      }
+    }
+  }
+
+  @Test
+  public void testAsymmetricDistance() throws Exception {
+    Random rand = new Random(0);
+    List<DoubleVector> sample = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      double[] v = new double[16];
+      for (int d = 0; d < v.length; d++) {
+        v[d] = rand.nextGaussian();
+      }
+      sample.add(new DenseDoubleVector(v));
+    }
+    ProductQuantizer quantizer = ProductQuantizer.train(sample, 4, 256, 5,
+        new Random(1));
+    EuclidianDistance distance = EuclidianDistance.get();
+    double[] table = new double[quantizer.getTableLength()];
+    byte[] codes = new byte[8];
+    double[] decoded = new double[16];
+    for (int i = 0; i < 100; i++) {
+      double[] query = sample.get(rand.nextInt(1000)).toArray();
+      quantizer.computeTable(query, table);
+      double[] v = sample.get(i).toArray();
+      quantizer.encode(v, codes, 4);
+      quantizer.decode(codes, 4, decoded);
+      // the distance between the query and the reconstructed vector
+      double expected = distance.measureRankDistance(query, decoded);
+      assertEquals(expected,
+          quantizer.squaredDistance(table, codes, 4, Double.MAX_VALUE), 1e-9);
+      assertTrue(quantizer.squaredDistance(table, codes, 4, -1d) > -1d);
+    }
+  }
+
+  @Test
+  public void testCodebookRoundTrip() throws Exception {
+    Random rand = new Random(0);
+    List<DoubleVector> sample = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      sample.add(new DenseDoubleVector(new double[] { rand.nextDouble(),
+          rand.nextDouble(), rand.nextDouble() }));
+    }
+    // there can't be more centroids than vectors
+    ProductQuantizer quantizer = ProductQuantizer.train(sample, 2, 256, 5,
+        new Random(1));
+    assertEquals(50, quantizer.getNumCentroids());
+    ProductQuantizer copy = new ProductQuantizer(3, new double[][] {
+        quantizer.getCodebook(0), quantizer.getCodebook(1) });
+    byte[] codes = new byte[2];
+    byte[] copyCodes = new byte[2];
+    for (DoubleVector v : sample) {
+      quantizer.encode(v.toArray(), codes, 0);
+      copy.encode(v.toArray(), copyCodes, 0);
+      assertEquals(codes[0], copyCodes[0]);
+      assertEquals(codes[1], copyCodes[1]);
+    }
+  }
+
+}
@@ -0,0 +1,83 @@
+package de.jungblut.jrpt.quantization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.jungblut.jrpt.distance.EuclidianDistance;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.dense.DenseDoubleVector;
+
+public class ScalarQuantizerTest {
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    Random rand = new Random(0);
+    List<DoubleVector> vectors = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      vectors.add(new DenseDoubleVector(new double[] { rand.nextDouble(),
+          rand.nextGaussian() * 100, 5d }));
+    }
+    ScalarQuantizer quantizer = ScalarQuantizer.fit(vectors);
+    assertEquals(3, quantizer.getDimension());
+
+    byte[] codes = new byte[3];
+    double[] decoded = new double[3];
+    for (DoubleVector v : vectors) {
+      quantizer.encode(v.toArray(), codes, 0);
+      quantizer.decode(codes, 0, decoded);
+      for (int d = 0; d < 3; d++) {
+        assertEquals(v.get(d), decoded[d], quantizer.getMaxError(d) + 1e-9);
+      }
+      // constant dimensions are exact
+      assertEquals(5d, decoded[2], 0d);
+    }
+  }
+
+  @Test
+  public void testClamp() throws Exception {
+    ScalarQuantizer quantizer = new ScalarQuantizer(new double[] { 0, -1 },
+        new double[] { 1, 1 });
+    byte[] codes = new byte[2];
+    double[] decoded = new double[2];
+    quantizer.encode(new double[] { 2, -5 }, codes, 0);
+    quantizer.decode(codes, 0, decoded);
+    assertEquals(1d, decoded[0], 1e-9);
+    assertEquals(-1d, decoded[1], 1e-9);
+  }
+
+  @Test
+  public void testSquaredDistance() throws Exception {
+    Random rand = new Random(0);
+    double[] min = new double[20];
+    double[] max = new double[20];
+    Arrays.fill(max, 1d);
+    ScalarQuantizer quantizer = new ScalarQuantizer(min, max);
+    EuclidianDistance distance = EuclidianDistance.get();
+    byte[] codes = new byte[40];
+    double[] decoded = new double[20];
+    for (int i = 0; i < 100; i++) {
+      double[] query = new double[20];
+      double[] v = new double[20];
+      for (int d = 0; d < 20; d++) {
+        query[d] = rand.nextDouble();
+        v[d] = rand.nextDouble();
+      }
+      quantizer.encode(v, codes, 20);
+      quantizer.decode(codes, 20, decoded);
+      // the asymmetric distance is the distance to the decoded vector
+      double expected = distance.measureRankDistance(query, decoded);
+      assertEquals(expected,
+          quantizer.squaredDistance(query, codes, 20, Double.MAX_VALUE), 1e-9);
+      assertTrue(quantizer.squaredDistance(query, codes, 20, 0.01) > 0.01
+          || expected <= 0.01);
+    }
+  }
+
+}
@@ -0,0 +1,125 @@
+package de.jungblut.jrpt.rules;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.dense.DenseDoubleVector;
+
+public class RPTreeMaxSplitPolicyTest {
+
+  @Test
+  public void testSubtreeSplit() throws Exception {
+    Random rand = new Random(0);
+    List<DoubleVector> subtree = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      double[] v = new double[10];
+      for (int d = 0; d < v.length; d++) {
+        v[d] = rand.nextGaussian();
+      }
+      subtree.add(new DenseDoubleVector(v));
+    }
+
+    for (double jitter : new double[] { 0d, 6d }) {
+      SplitPolicy<Integer> policy = new RPTreeMaxSplitPolicy<>(1d, jitter,
+          new Random(1));
+      Hyperplane hyperplane = policy.splitHyperplane(subtree, 0, 0);
+      double length = 0d;
+      for (double d : hyperplane.getNormal()) {
+        length += d * d;
+      }
+      assertEquals(1d, length, 1e-9);
+
+      double[] projections = new double[subtree.size()];
+      for (int i = 0; i < projections.length; i++) {
+        projections[i] = hyperplane.project(subtree.get(i));
+      }
+      Arrays.sort(projections);
+      if (jitter == 0d) {
+        assertEquals(projections[projections.length / 2],
+            hyperplane.getThreshold(), 0d);
+      } else {
+        assertTrue(hyperplane.getThreshold() >= projections[250]);
+        assertTrue(hyperplane.getThreshold() <= projections[750]);
+      }
+    }
+  }
+
+  @Test
+  public void testDirectionPerNode() throws Exception {
+    SplitPolicy<Integer> policy = new RPTreeMaxSplitPolicy<>(new Random(0));
+    DoubleVector v = new DenseDoubleVector(new double[] { 1, 2, 3 });
+    Hyperplane first = policy.splitHyperplane(v, 2, null);
+    Hyperplane second = policy.splitHyperplane(v, 2, null);
+    Hyperplane other = policy.splitHyperplane(v, 3, null);
+
+    // the same node always draws the same direction, other nodes their own
+    assertArrayEquals(first.getNormal(), second.getNormal(), 0d);
+    assertFalse(Arrays.equals(first.getNormal(), other.getNormal()));
+    // inserted nodes split at their own projection
+    assertEquals(first.project(v), first.getThreshold(), 0d);
+  }
+
+  @Test
+  public void testReproducibleSubtreeSplits() throws Exception {
+    Random rand = new Random(0);
+    List<DoubleVector> subtree = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      subtree.add(new DenseDoubleVector(new double[] { rand.nextGaussian(),
+          rand.nextGaussian(), rand.nextGaussian() }));
+    }
+    SplitPolicy<Integer> policy = new RPTreeMaxSplitPolicy<>(new Random(1));
+    SplitPolicy<Integer> reversed = new RPTreeMaxSplitPolicy<>(new Random(1));
+    // the splits don't depend on the order the subtrees are split in
+    Hyperplane[] expected = new Hyperplane[4];
+    for (int offset = 0; offset < expected.length; offset++) {
+      expected[offset] = policy.splitHyperplane(subtree, 1, offset);
+    }
+    for (int offset = expected.length - 1; offset >= 0; offset--) {
+      Hyperplane actual = reversed.splitHyperplane(subtree, 1, offset);
+      assertArrayEquals(expected[offset].getNormal(), actual.getNormal(), 0d);
+      assertEquals(expected[offset].getThreshold(), actual.getThreshold(), 0d);
+    }
+    assertFalse(Arrays.equals(expected[0].getNormal(),
+        expected[1].getNormal()));
+  }
+
+  @Test
+  public void testSparseDirections() throws Exception {
+    final int dimension = 10000;
+    Random rand = new Random(0);
+    double[] v = new double[dimension];
+    for (int d = 0; d < dimension; d++) {
+      v[d] = rand.nextGaussian();
+    }
+    SplitPolicy<Integer> policy = new RPTreeMaxSplitPolicy<>(new Random(1));
+    Hyperplane hyperplane = policy.splitHyperplane(
+        Arrays.<DoubleVector> asList(new DenseDoubleVector(v)), 0, 0);
+
+    // only sqrt(D) entries of the normal are kept, at distinct dimensions
+    int[] indices = hyperplane.getIndices();
+    assertEquals(100, indices.length);
+    for (int i = 1; i < indices.length; i++) {
+      assertTrue(indices[i - 1] < indices[i]);
+    }
+    double[] normal = hyperplane.getNormal();
+    double length = 0d;
+    double dot = 0d;
+    for (int d = 0; d < dimension; d++) {
+      length += normal[d] * normal[d];
+      dot += normal[d] * v[d];
+    }
+    assertEquals(1d, length, 1e-9);
+    assertEquals(dot, hyperplane.project(new DenseDoubleVector(v)), 1e-9);
+  }
+
+}
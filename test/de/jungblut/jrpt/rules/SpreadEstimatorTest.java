@@ -0,0 +1,72 @@
+package de.jungblut.jrpt.rules;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.jungblut.jrpt.distance.SparseEntriesTest;
+import de.jungblut.math.DoubleVector;
+import de.jungblut.math.dense.DenseDoubleVector;
+import de.jungblut.math.sparse.SparseDoubleVector;
+
+public class SpreadEstimatorTest {
+
+  @Test
+  public void testSparseSameAsDense() throws Exception {
+    Random rand = new Random(0);
+    for (int i = 0; i < 100; i++) {
+      List<DoubleVector> sparse = new ArrayList<>();
+      List<DoubleVector> dense = new ArrayList<>();
+      for (int j = 0; j < 1 + rand.nextInt(20); j++) {
+        DoubleVector v = SparseEntriesTest.randomSparseVector(rand, 30, 3);
+        if (rand.nextBoolean()) {
+          v = v.multiply(-1d);
+        }
+        sparse.add(v);
+        dense.add(new DenseDoubleVector(v.toArray()));
+      }
+      assertEquals(largestSpreadDimension(dense),
+          SpreadEstimator.largestSpreadDimension(sparse, 1024));
+      assertEquals(largestSpreadDimension(dense),
+          SpreadEstimator.largestSpreadDimension(dense, 1024));
+    }
+  }
+
+  @Test
+  public void testNoSpread() throws Exception {
+    DoubleVector v = new SparseDoubleVector(10);
+    v.set(7, 1d);
+    assertEquals(0, SpreadEstimator.largestSpreadDimension(Arrays.asList(v,
+        v), 1024));
+    // the scratch space of the previous estimate doesn't leak into this one
+    DoubleVector w = new SparseDoubleVector(10);
+    w.set(3, 1d);
+    assertEquals(3, SpreadEstimator.largestSpreadDimension(Arrays.asList(v,
+        w), 1024));
+  }
+
+  // the first dimension with the largest difference of its extremes
+  private static int largestSpreadDimension(List<DoubleVector> vectors) {
+    int best = 0;
+    double bestSpread = -1d;
+    for (int d = 0; d < vectors.get(0).getDimension(); d++) {
+      double min = Double.POSITIVE_INFINITY;
+      double max = Double.NEGATIVE_INFINITY;
+      for (DoubleVector v : vectors) {
+        min = Math.min(min, v.get(d));
+        max = Math.max(max, v.get(d));
+      }
+      if (max - min > bestSpread) {
+        bestSpread = max - min;
+        best = d;
+      }
+    }
+    return best;
+  }
+
+}